@@ -0,0 +1,187 @@
+package org.baderlab.wordcloud.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.CyTableFactory;
+import org.cytoscape.model.CyTableManager;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+
+/**
+ * Writes the words of clouds to a cluster table, one row per cloud keyed by the cloud name.
+ * 
+ * The WC_Word, WC_FontSize, WC_Cluster and WC_Number columns are String lists as they always
+ * were, so the apps that read them keep working. The font sizes, clusters, word numbers, 
+ * counts and ratios are also stored in typed list columns so that they can be read without 
+ * parsing strings, the number of words is stored in an Integer column.
+ *
+ * If an event helper is available the table is silenced while writing and all the changes
+ * are fired afterwards in a single RowsSetEvent.
+ */
+public class ClusterTableWriter {
+
+	public static final String WORD_COLUMN = "WC_Word";
+	public static final String FONT_SIZE_COLUMN = "WC_FontSize";
+	public static final String CLUSTER_COLUMN = "WC_Cluster";
+	public static final String NUMBER_COLUMN = "WC_Number";
+	public static final String FONT_SIZES_COLUMN = "WC_FontSizes";
+	public static final String CLUSTERS_COLUMN = "WC_Clusters";
+	public static final String NUMBERS_COLUMN = "WC_Numbers";
+	public static final String COUNT_COLUMN = "WC_Count";
+	public static final String RATIO_COLUMN = "WC_Ratio";
+	public static final String SIZE_COLUMN = "WC_Size";
+
+	private final CyEventHelper eventHelper;
+
+
+	/**
+	 * @param eventHelper may be null, in which case rows are set without batching the events
+	 */
+	public ClusterTableWriter(CyEventHelper eventHelper) {
+		this.eventHelper = eventHelper;
+	}
+
+
+	/**
+	 * Returns the cluster table of the network with the given name, the table is created if it doesn't exist.
+	 * The SUID of the table is stored in the network table in a column with the same name.
+	 */
+	public CyTable getTable(CyNetwork network, String tableName, CyTableFactory tableFactory, CyTableManager tableManager) {
+		CyTable networkTable = network.getDefaultNetworkTable();
+		CyTable table = null;
+		if(networkTable.getColumn(tableName) != null) {
+			Long suid = network.getRow(network).get(tableName, Long.class);
+			table = suid == null ? null : tableManager.getTable(suid);
+		}
+
+		if(table == null) {
+			table = tableFactory.createTable(tableName, "Cloud", String.class, true, true);
+			createColumns(table);
+			tableManager.addTable(table);
+			if(networkTable.getColumn(tableName) == null)
+				networkTable.createColumn(tableName, Long.class, false);
+			network.getRow(network).set(tableName, table.getSUID());
+		}
+		else {
+			createColumns(table);
+		}
+		return table;
+	}
+
+	/**
+	 * Creates the columns that are missing, existing columns are left alone.
+	 */
+	private static void createColumns(CyTable table) {
+		createListColumn(table, WORD_COLUMN, String.class);
+		createListColumn(table, FONT_SIZE_COLUMN, String.class);
+		createListColumn(table, CLUSTER_COLUMN, String.class);
+		createListColumn(table, NUMBER_COLUMN, String.class);
+		createListColumn(table, FONT_SIZES_COLUMN, Integer.class);
+		createListColumn(table, CLUSTERS_COLUMN, Integer.class);
+		createListColumn(table, NUMBERS_COLUMN, Integer.class);
+		createListColumn(table, COUNT_COLUMN, Integer.class);
+		createListColumn(table, RATIO_COLUMN, Double.class);
+		if(table.getColumn(SIZE_COLUMN) == null)
+			table.createColumn(SIZE_COLUMN, Integer.class, false);
+	}
+
+	private static void createListColumn(CyTable table, String columnName, Class<?> elementType) {
+		if(table.getColumn(columnName) == null)
+			table.createListColumn(columnName, elementType, false);
+	}
+
+
+	public void write(CyTable table, String cloudName, CloudInfo cloudInfo) {
+		write(table, Collections.singletonMap(cloudName, cloudInfo));
+	}
+
+	/**
+	 * Writes one row for each cloud, the keys of the map are the cloud names.
+	 * @throws IllegalArgumentException if a cloud was restored from a session, restored clouds don't have
+	 *   the counts and ratios, use {@link org.baderlab.wordcloud.internal.model.CloudParameters#calculateFullCloud()}
+	 */
+	public void write(CyTable table, Map<String, CloudInfo> clouds) {
+		if(clouds.isEmpty())
+			return;
+		for(Map.Entry<String, CloudInfo> entry : clouds.entrySet()) {
+			if(entry.getValue().isRestored())
+				throw new IllegalArgumentException("cloud '" + entry.getKey() + "' was restored from a session and has no ratios");
+		}
+		createColumns(table);
+
+		List<RowSetRecord> records = new ArrayList<RowSetRecord>(clouds.size() * 10);
+		if(eventHelper != null)
+			eventHelper.silenceEventSource(table);
+		try {
+			for(Map.Entry<String, CloudInfo> entry : clouds.entrySet()) {
+				writeRow(table.getRow(entry.getKey()), entry.getValue(), records);
+			}
+		} finally {
+			if(eventHelper != null)
+				eventHelper.unsilenceEventSource(table);
+		}
+
+		if(eventHelper != null)
+			eventHelper.fireEvent(new RowsSetEvent(table, records));
+	}
+
+
+	private static void writeRow(CyRow row, CloudInfo cloudInfo, List<RowSetRecord> records) {
+		List<CloudWordInfo> wordInfos = cloudInfo.getCloudWordInfoList();
+		Map<String, Integer> selectedCounts = cloudInfo.getSelectedCounts();
+		Map<String, Double> ratios = cloudInfo.getRatios();
+
+		int size = wordInfos.size();
+		List<String> words = new ArrayList<String>(size);
+		List<String> fontSizeStrings = new ArrayList<String>(size);
+		List<String> clusterStrings = new ArrayList<String>(size);
+		List<String> numberStrings = new ArrayList<String>(size);
+		List<Integer> fontSizes = new ArrayList<Integer>(size);
+		List<Integer> clusters = new ArrayList<Integer>(size);
+		List<Integer> numbers = new ArrayList<Integer>(size);
+		List<Integer> counts = new ArrayList<Integer>(size);
+		List<Double> wordRatios = new ArrayList<Double>(size);
+
+		for(CloudWordInfo wordInfo : wordInfos) {
+			String[] split = wordInfo.toSplitString();
+			words.add(split[0]);
+			fontSizeStrings.add(split[1]);
+			clusterStrings.add(split[2]);
+			numberStrings.add(split[3]);
+			
+			String word = wordInfo.getWord();
+			fontSizes.add(wordInfo.getFontSize());
+			clusters.add(wordInfo.getCluster());
+			numbers.add(wordInfo.getWordNumber());
+			Integer count = selectedCounts == null ? null : selectedCounts.get(word);
+			counts.add(count == null ? 0 : count);
+			Double ratio = ratios == null ? null : ratios.get(word);
+			wordRatios.add(ratio == null ? 0.0 : ratio);
+		}
+
+		set(row, WORD_COLUMN, words, records);
+		set(row, FONT_SIZE_COLUMN, fontSizeStrings, records);
+		set(row, CLUSTER_COLUMN, clusterStrings, records);
+		set(row, NUMBER_COLUMN, numberStrings, records);
+		set(row, FONT_SIZES_COLUMN, fontSizes, records);
+		set(row, CLUSTERS_COLUMN, clusters, records);
+		set(row, NUMBERS_COLUMN, numbers, records);
+		set(row, COUNT_COLUMN, counts, records);
+		set(row, RATIO_COLUMN, wordRatios, records);
+		set(row, SIZE_COLUMN, size, records);
+	}
+
+	private static void set(CyRow row, String columnName, Object value, List<RowSetRecord> records) {
+		row.set(columnName, value);
+		records.add(new RowSetRecord(row, columnName, value, value));
+	}
+}
@@ -1,29 +1,46 @@
 package org.baderlab.wordcloud.internal;
+import java.io.File;
 import java.util.Properties;
 
 import javax.swing.Action;
 
+import org.baderlab.wordcloud.internal.command.BatchCloudCommandTask;
+import org.baderlab.wordcloud.internal.command.BatchCloudCommandTaskFactory;
+import org.baderlab.wordcloud.internal.command.CloudJobCommandTask;
+import org.baderlab.wordcloud.internal.command.CloudJobCommandTaskFactory;
+import org.baderlab.wordcloud.internal.command.CloudJobManager;
 import org.baderlab.wordcloud.internal.command.CreateCloudCommandTask;
 import org.baderlab.wordcloud.internal.command.CreateCloudCommandTaskFactory;
 import org.baderlab.wordcloud.internal.command.DeleteCloudCommandTaskFactory;
 import org.baderlab.wordcloud.internal.command.DelimiterCommandTaskFactory;
+import org.baderlab.wordcloud.internal.command.ExportCloudsCommandTask;
+import org.baderlab.wordcloud.internal.command.ExportCloudsCommandTaskFactory;
+import org.baderlab.wordcloud.internal.command.ExportWordStatsCommandTask;
+import org.baderlab.wordcloud.internal.command.ExportWordStatsCommandTaskFactory;
 import org.baderlab.wordcloud.internal.command.GetVersionCommandTask;
 import org.baderlab.wordcloud.internal.command.GetVersionCommandTaskFactory;
 import org.baderlab.wordcloud.internal.command.ParentComponentTunableHandlerFactory;
 import org.baderlab.wordcloud.internal.command.SelectCloudCommandTaskFactory;
 import org.baderlab.wordcloud.internal.command.ShowWordSelectDialogCommand.Type;
 import org.baderlab.wordcloud.internal.command.ShowWordSelectDialogCommandFactory;
+import org.baderlab.wordcloud.internal.command.SubmitJobCommandTask;
+import org.baderlab.wordcloud.internal.command.SubmitJobCommandTaskFactory;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.TokenIndexStore;
 import org.baderlab.wordcloud.internal.ui.CloudTaskManager;
 import org.baderlab.wordcloud.internal.ui.UIManager;
 import org.baderlab.wordcloud.internal.ui.action.CreateCloudAction;
 import org.baderlab.wordcloud.internal.ui.action.ExportImageAction;
+import org.baderlab.wordcloud.internal.ui.action.ExportWordStatsAction;
 import org.baderlab.wordcloud.internal.ui.action.ShowAboutDialogAction;
+import org.baderlab.wordcloud.internal.ui.action.ShowCloudGridAction;
+import org.cytoscape.application.CyApplicationConfiguration;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.application.swing.CyAction;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.command.StringTunableHandlerFactory;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.io.util.StreamUtil;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.CyTableFactory;
@@ -50,7 +67,11 @@ public class CyActivator extends AbstractCyActivator {
 	public static final Version VERSION = new Version(3,1,4);
 	
 	
+	// number of finished background jobs whose results are kept
+	private static final int MAX_FINISHED_JOBS = 100;
+	
 	private CloudTaskManager cloudTaskManager;
+	private CloudJobManager cloudJobManager;
 	private UIManager uiManager;
 	
 	@Override
@@ -66,6 +87,8 @@ public class CyActivator extends AbstractCyActivator {
 		FileUtil fileUtil = getService(context, FileUtil.class);
 		StreamUtil streamUtil = getService(context, StreamUtil.class);
 		OpenBrowser openBrowser = getService(context, OpenBrowser.class);
+		CyEventHelper eventHelper = getService(context, CyEventHelper.class);
+		CyApplicationConfiguration appConfig = getService(context, CyApplicationConfiguration.class);
 		
 		// Configuration properties
 		PropsReader propsReader = new PropsReader("wordcloud", "wordcloud.props");
@@ -74,11 +97,15 @@ public class CyActivator extends AbstractCyActivator {
 		registerAllServices(context, propsReader, propsReaderServiceProps);
 
 		// Managers
-		CloudModelManager cloudModelManager = new CloudModelManager(networkManager, tableManager, streamUtil, propsReader);
+		CloudModelManager cloudModelManager = new CloudModelManager(networkManager, tableManager, streamUtil, propsReader, eventHelper);
 		registerAllServices(context, cloudModelManager, new Properties());
+		File tokenIndexDir = new File(appConfig.getAppConfigurationDirectoryLocation(CyActivator.class), "token-index");
+		cloudModelManager.setTokenIndexStore(new TokenIndexStore(tokenIndexDir, cloudModelManager.getTokenIndexCacheSizePropertyValue() * 1024 * 1024));
 		cloudTaskManager = new CloudTaskManager();
+		TableEventRouter eventRouter = new TableEventRouter(cloudModelManager, registrar);
+		registerAllServices(context, eventRouter, new Properties());
 		
-		uiManager = new UIManager(cloudModelManager, appManager, application, registrar, cloudTaskManager);
+		uiManager = new UIManager(cloudModelManager, appManager, application, registrar, cloudTaskManager, eventRouter);
 		cloudModelManager.addListener(uiManager);
 		registerAllServices(context, uiManager, new Properties());
 		
@@ -96,6 +123,14 @@ public class CyActivator extends AbstractCyActivator {
 		exportImageAction.setPreferredMenu(APPS_MENU);
 		registerService(context, exportImageAction, CyAction.class, new Properties());
 		
+		ExportWordStatsAction exportStatsAction = new ExportWordStatsAction(application, appManager, cloudModelManager, fileUtil, registrar);
+		exportStatsAction.setPreferredMenu(APPS_MENU);
+		registerService(context, exportStatsAction, CyAction.class, new Properties());
+		
+		ShowCloudGridAction gridAction = new ShowCloudGridAction(application, appManager, cloudModelManager, uiManager);
+		gridAction.setPreferredMenu(APPS_MENU);
+		registerService(context, gridAction, CyAction.class, new Properties());
+		
 		Properties props = new Properties();
 		props.setProperty(ServiceProperties.TITLE, (String) createAction.getValue(Action.NAME));
 		registerService(context, new ActionNodeViewTaskFactory(createAction), NodeViewTaskFactory.class, props);
@@ -115,6 +150,19 @@ public class CyActivator extends AbstractCyActivator {
 		registerCommand(context, "delete", new DeleteCloudCommandTaskFactory(uiManager), "Deletes a cloud");
 		registerCommand(context, "select", new SelectCloudCommandTaskFactory(uiManager), "Selects the nodes that are associated with the cloud");
 		registerCommand(context, "version", new GetVersionCommandTaskFactory(), GetVersionCommandTask.getDescription());
+		registerCommand(context, "export", new ExportCloudsCommandTaskFactory(appManager, cloudModelManager), ExportCloudsCommandTask.getDescription());
+		registerCommand(context, "export stats", new ExportWordStatsCommandTaskFactory(appManager, cloudModelManager), ExportWordStatsCommandTask.getDescription());
+		registerCommand(context, "batch", new BatchCloudCommandTaskFactory(appManager, cloudModelManager, uiManager), BatchCloudCommandTask.getDescription());
+		
+		// Asynchronous variants for scripts
+		cloudJobManager = new CloudJobManager(Runtime.getRuntime().availableProcessors(), MAX_FINISHED_JOBS);
+		registerCommand(context, "create async", new SubmitJobCommandTaskFactory(appManager, cloudJobManager, "create", 
+				new CreateCloudCommandTaskFactory(appManager, application, cloudModelManager, uiManager, tableManager, tableFactory)), SubmitJobCommandTask.getDescription("create"));
+		registerCommand(context, "batch async", new SubmitJobCommandTaskFactory(appManager, cloudJobManager, "batch", 
+				new BatchCloudCommandTaskFactory(appManager, cloudModelManager, uiManager)), SubmitJobCommandTask.getDescription("batch"));
+		registerCommand(context, "job status", new CloudJobCommandTaskFactory(cloudJobManager, CloudJobCommandTask.Action.STATUS), CloudJobCommandTask.getDescription(CloudJobCommandTask.Action.STATUS));
+		registerCommand(context, "job results", new CloudJobCommandTaskFactory(cloudJobManager, CloudJobCommandTask.Action.RESULTS), CloudJobCommandTask.getDescription(CloudJobCommandTask.Action.RESULTS));
+		registerCommand(context, "job cancel", new CloudJobCommandTaskFactory(cloudJobManager, CloudJobCommandTask.Action.CANCEL), CloudJobCommandTask.getDescription(CloudJobCommandTask.Action.CANCEL));
 		
 		registerCommand(context, "delimiter add", new DelimiterCommandTaskFactory(cloudModelManager, uiManager, appManager, true, true), "Adds a delimiter");
 		registerCommand(context, "delimiter remove", new DelimiterCommandTaskFactory(cloudModelManager, uiManager, appManager, false, true), "Removes a delimiter");
@@ -143,6 +191,8 @@ public class CyActivator extends AbstractCyActivator {
 	public void shutDown() {
 		uiManager.dispose();
 		cloudTaskManager.disposeAll();
+		if(cloudJobManager != null)
+			cloudJobManager.dispose();
 	}
 	
 	
@@ -0,0 +1,196 @@
+package org.baderlab.wordcloud.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
+
+/**
+ * Writes Boolean columns such as "selected" or a cloud column so that exactly the 
+ * given nodes or edges are TRUE. The target is compared against the rows that are 
+ * currently TRUE and only the rows whose value changes are written. 
+ * 
+ * The default tables of a network are facades, the rows are actually written to the
+ * local or shared table that holds the column. If an event helper is available that
+ * table and the facade are silenced while writing and all the changes are fired 
+ * afterwards in a single RowsSetEvent from the table that holds the column, so a click
+ * on a large network doesn't cause a storm of row events.
+ */
+public class SelectionWriter {
+
+	private final CyEventHelper eventHelper;
+	
+	
+	/**
+	 * @param eventHelper may be null, in which case rows are set without batching the events
+	 */
+	public SelectionWriter(CyEventHelper eventHelper) {
+		this.eventHelper = eventHelper;
+	}
+	
+	
+	/**
+	 * Sets the column to TRUE for the given nodes and FALSE for any other node in the network that is currently TRUE.
+	 * Nodes that are not in the network are ignored.
+	 * @return the number of rows that were written
+	 */
+	public int setNodes(CyNetwork network, String columnName, Collection<CyNode> nodes) {
+		return set(network, CyNode.class, columnName, nodes);
+	}
+	
+	/**
+	 * Sets the column to TRUE for the given edges and FALSE for any other edge in the network that is currently TRUE.
+	 * @return the number of rows that were written
+	 */
+	public int setEdges(CyNetwork network, String columnName, Collection<CyEdge> edges) {
+		return set(network, CyEdge.class, columnName, edges);
+	}
+	
+	/**
+	 * Makes the selection of the network exactly the given nodes, all edges are deselected.
+	 */
+	public void select(CyNetwork network, Collection<CyNode> nodes) {
+		setNodes(network, CyNetwork.SELECTED, nodes);
+		setEdges(network, CyNetwork.SELECTED, Collections.<CyEdge>emptyList());
+	}
+	
+	/**
+	 * Makes the selected nodes of the network exactly the given nodes, the selection of edges is left alone.
+	 */
+	public void selectNodes(CyNetwork network, Collection<CyNode> nodes) {
+		setNodes(network, CyNetwork.SELECTED, nodes);
+	}
+	
+	
+	/**
+	 * Sets the column to TRUE for the first collection of nodes and FALSE for the second, 
+	 * for when the caller already knows which rows have changed.
+	 * @return the number of rows that were written
+	 */
+	public int write(CyNetwork network, String columnName, Collection<CyNode> toSelect, Collection<CyNode> toDeselect) {
+		CyTable table = network.getDefaultNodeTable();
+		if(table.getColumn(columnName) == null)
+			return 0;
+		return write(table, getWrittenTable(network, CyNode.class, columnName), columnName, getSUIDs(toSelect), getSUIDs(toDeselect));
+	}
+	
+	private static List<Long> getSUIDs(Collection<? extends CyIdentifiable> elements) {
+		List<Long> suids = new ArrayList<Long>(elements.size());
+		for(CyIdentifiable element : elements) {
+			suids.add(element.getSUID());
+		}
+		return suids;
+	}
+	
+	
+	private int set(CyNetwork network, Class<? extends CyIdentifiable> type, String columnName, Collection<? extends CyIdentifiable> targets) {
+		if(network == null)
+			return 0;
+		CyTable table = network.getTable(type, CyNetwork.DEFAULT_ATTRS);
+		if(table.getColumn(columnName) == null)
+			return 0;
+		
+		Set<Long> toSelect = new HashSet<Long>();
+		for(CyIdentifiable target : targets) {
+			if(contains(network, type, target.getSUID())) {
+				toSelect.add(target.getSUID());
+			}
+		}
+		
+		// Rows that are already TRUE don't need to be written, the column may be shared 
+		// with other subnetworks so rows for elements not in this network are left alone.
+		List<Long> toDeselect = new ArrayList<Long>();
+		for(CyRow row : table.getMatchingRows(columnName, Boolean.TRUE)) {
+			Long suid = row.get(CyIdentifiable.SUID, Long.class);
+			if(!toSelect.remove(suid) && contains(network, type, suid)) {
+				toDeselect.add(suid);
+			}
+		}
+		
+		return write(table, getWrittenTable(network, type, columnName), columnName, toSelect, toDeselect);
+	}
+	
+	
+	/**
+	 * Returns the table that actually holds the column, the local table of the network 
+	 * or the shared table of its root network. Falls back to the default table.
+	 */
+	static CyTable getWrittenTable(CyNetwork network, Class<? extends CyIdentifiable> type, String columnName) {
+		CyTable localTable = network.getTable(type, CyNetwork.LOCAL_ATTRS);
+		if(localTable != null && localTable.getColumn(columnName) != null)
+			return localTable;
+		if(network instanceof CySubNetwork) {
+			CyRootNetwork rootNetwork = ((CySubNetwork) network).getRootNetwork();
+			CyTable sharedTable = type == CyNode.class ? rootNetwork.getSharedNodeTable() : rootNetwork.getSharedEdgeTable();
+			if(sharedTable != null && sharedTable.getColumn(columnName) != null)
+				return sharedTable;
+		}
+		return network.getTable(type, CyNetwork.DEFAULT_ATTRS);
+	}
+	
+	
+	/**
+	 * Writes TRUE to the rows of the first collection and FALSE to the rows of the second.
+	 * The rows are written to the table that holds the column, the facade is silenced as well
+	 * so that it doesn't pass on an event for each row.
+	 */
+	private int write(CyTable facade, CyTable table, String columnName, Collection<Long> toSelect, Collection<Long> toDeselect) {
+		int count = toSelect.size() + toDeselect.size();
+		if(count == 0)
+			return 0;
+		
+		List<RowSetRecord> records = new ArrayList<RowSetRecord>(count);
+		if(eventHelper != null) {
+			eventHelper.silenceEventSource(facade);
+			if(table != facade)
+				eventHelper.silenceEventSource(table);
+		}
+		try {
+			for(Long suid : toSelect) {
+				records.add(set(table, suid, columnName, Boolean.TRUE));
+			}
+			for(Long suid : toDeselect) {
+				records.add(set(table, suid, columnName, Boolean.FALSE));
+			}
+		} finally {
+			if(eventHelper != null) {
+				if(table != facade)
+					eventHelper.unsilenceEventSource(table);
+				eventHelper.unsilenceEventSource(facade);
+			}
+		}
+		
+		if(eventHelper != null)
+			eventHelper.fireEvent(new RowsSetEvent(table, records));
+		return count;
+	}
+	
+	private static RowSetRecord set(CyTable table, Long suid, String columnName, Boolean value) {
+		CyRow row = table.getRow(suid);
+		row.set(columnName, value);
+		return new RowSetRecord(row, columnName, value, value);
+	}
+	
+	private static boolean contains(CyNetwork network, Class<? extends CyIdentifiable> type, Long suid) {
+		if(suid == null)
+			return false;
+		if(type == CyNode.class)
+			return network.getNode(suid) != null;
+		else
+			return network.getEdge(suid) != null;
+	}
+}
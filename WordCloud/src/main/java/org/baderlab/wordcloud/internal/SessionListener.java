@@ -22,25 +22,40 @@
 
 package org.baderlab.wordcloud.internal;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongUnaryOperator;
 
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.MembershipStorage;
 import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.model.SessionFormat;
 import org.baderlab.wordcloud.internal.model.WordDelimiters;
 import org.baderlab.wordcloud.internal.model.WordFilter;
 import org.baderlab.wordcloud.internal.ui.UIManager;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkManager;
+import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyRow;
+import org.cytoscape.session.CySession;
 import org.cytoscape.session.events.SessionAboutToBeSavedEvent;
 import org.cytoscape.session.events.SessionAboutToBeSavedListener;
 import org.cytoscape.session.events.SessionLoadedEvent;
@@ -62,7 +77,6 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 	
 	//Variables
 	private static final String netNameSep = "SemanticSummaryNetworkSeparator";
-	private static final String cloudNameSep = "SemanticSummaryCloudSeparator";
 	
 	private final Logger logger = LoggerFactory.getLogger(SessionListener.class);
 	
@@ -124,13 +138,13 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 		if (files == null) {
 			return;
 		}
-		restoreSessionState(files);
+		restoreSessionState(files, event.getLoadedSession());
 	}
 	
 	/**
 	 * SaveSessionStateFiles collects all the data stored in the Semantic 
-	 * Summary data structures and creates property files for each network 
-	 * listing the variables needed to rebuild the Semantic Summary.
+	 * Summary data structures and writes one file for each network 
+	 * containing everything needed to rebuild the Semantic Summary, see {@link SessionFormat}.
 	 * 
 	 * @param pFileList - pointer to the set of files to be added to the session
 	 */
@@ -142,46 +156,27 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 		//get the networks
 		Collection<NetworkParameters> networks = cloudManager.getNetworks();
 		
-		//Create a props file for each network
+		//Create a file for each network
 		for (NetworkParameters params : networks)
 		{
-			//Update the network if it has changed
 			CyNetwork network = params.getNetwork();
 			
-			//write out files.
 			try 
 			{
 				int uid = network.getRow(network).get(Constants.NETWORK_UID, Integer.class);
-				File current_filter = new File(tmpDir, netNameSep + uid + netNameSep + ".FILTER.txt");
-				BufferedWriter filterWriter = new BufferedWriter(new FileWriter(current_filter));
-				filterWriter.write(params.getFilter().toString());
-				filterWriter.close();
-				pFileList.add(current_filter);
-				
-				File current_delimiter = new File(tmpDir, netNameSep + uid + netNameSep + ".DELIMITER.txt");
-				BufferedWriter delimiterWriter = new BufferedWriter(new FileWriter(current_delimiter));
-				delimiterWriter.write(params.getDelimeters().toString());
-				delimiterWriter.close();
-				pFileList.add(current_delimiter);
-				
-				//Loop on Clouds
-				for(CloudParameters cloud : params.getClouds()) {
-					String cloud_name = cloud.getCloudName();
-					
-					//File for CloudParameters
-					File current_cloud = new File(tmpDir, netNameSep + uid + netNameSep + 
-							cloudNameSep + cloud_name + cloudNameSep + ".CLOUDS.txt");
-					BufferedWriter subCloud1Writer = new BufferedWriter(new FileWriter(current_cloud));
-					subCloud1Writer.write(cloud.toString());
-					subCloud1Writer.close();
-					pFileList.add(current_cloud);
+				File file = new File(tmpDir, netNameSep + uid + netNameSep + SessionFormat.FILE_EXTENSION);
+				OutputStream out = new FileOutputStream(file);
+				try {
+					SessionFormat.write(params, out);
+				} finally {
+					out.close();
 				}
-				
-			}//end try
+				pFileList.add(file);
+			}
 			catch (Exception ex)
 			{
-				ex.printStackTrace();
-			}//end catch
+				logger.error("Error while saving WordCloud state for network " + params.getNetworkName(), ex);
+			}
 		}//end network iterator
 	}//end save session method
 	
@@ -196,30 +191,37 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 		return networks;
 	}
 	
-	private CyNetwork getNetwork(int uid) {
+	/**
+	 * Returns the networks by their WordCloud uid, built once so that finding the network 
+	 * of each file doesn't scan all the networks.
+	 */
+	private Map<Integer,CyNetwork> getNetworksByUid() {
+		Map<Integer,CyNetwork> networks = new HashMap<Integer,CyNetwork>();
 		for (CyNetwork network : networkManager.getNetworkSet()) {
 			CyRow row = network.getRow(network);
 			if (row == null) {
 				continue;
 			}
-			Integer other = row.get(Constants.NETWORK_UID, Integer.class);
-			if (other == null) {
-				continue;
-			}
-			if (uid == other) {
-				return network;
+			Integer uid = row.get(Constants.NETWORK_UID, Integer.class);
+			if (uid != null) {
+				networks.put(uid, network);
 			}
 		}
-		return null;
+		return networks;
 	}
 	
 	/**
 	 * Restore Semantic Summaries
 	 * 
+	 * The files of each network are read on their own thread, the networks are independent.
+	 * Clouds are restored with their parameters only, the members and the saved result of a
+	 * cloud are decoded the first time the cloud is used, see {@link SessionFormat}.
+	 * 
 	 * @param pStateFileList - list of files associated with the session
+	 * @param session - the loaded session, used to map the SUIDs of nodes stored in cloud bitmaps
 	 */
 
-	public void restoreSessionState(List<File> pStateFileList)
+	public void restoreSessionState(List<File> pStateFileList, final CySession session)
 	{
 		
 		if ((pStateFileList == null) || (pStateFileList.size() == 0))
@@ -227,53 +229,120 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 			return; //no previous state to restore
 		}
 		
+		for (CyNetwork network : getSemanticSummaryNetworks()) {
+			cloudManager.addNetwork(network);
+		}
+		
+		final LongUnaryOperator suidMapping = new LongUnaryOperator() {
+			public long applyAsLong(long oldSuid) {
+				CyNode node = session.getObject(oldSuid, CyNode.class);
+				return node == null ? -1 : node.getSUID();
+			}
+		};
 		
-		try
+		//Group the prop files by the network they belong to
+		Map<Integer,CyNetwork> networks = getNetworksByUid();
+		Map<NetworkParameters,List<File>> filesByNetwork = new LinkedHashMap<NetworkParameters,List<File>>();
+		for (File prop_file : pStateFileList)
 		{
-			for (CyNetwork network : getSemanticSummaryNetworks()) {
-				cloudManager.addNetwork(network);
+			String[] fullname = prop_file.getName().split(netNameSep);
+			if (fullname.length < 2) {
+				continue;
 			}
-			
-			//Go through the prop files to create the clouds and set filters
-			for (int i = 0; i < pStateFileList.size(); i++)
+			NetworkParameters networkParams;
+			try {
+				networkParams = cloudManager.getNetworkParameters(networks.get(Integer.parseInt(fullname[1])));
+			} catch (NumberFormatException e) {
+				networkParams = null;
+			}
+			if (networkParams == null) {
+				logger.warn("No network found for WordCloud session file " + prop_file.getName());
+				continue;
+			}
+			List<File> files = filesByNetwork.get(networkParams);
+			if (files == null) {
+				files = new ArrayList<File>();
+				filesByNetwork.put(networkParams, files);
+			}
+			files.add(prop_file);
+		}
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<NetworkParameters,List<File>> entry : filesByNetwork.entrySet()) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					restoreNetwork(entry.getKey(), entry.getValue(), suidMapping);
+					return null;
+				}
+			});
+		}
+		
+		if (tasks.size() <= 1) {
+			for (Callable<Void> task : tasks) {
+				try {
+					task.call();
+				} catch (Exception e) {
+					logger.error("Error while restoring WordCloud state", e);
+				}
+			}
+			return;
+		}
+		
+		int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.error("Error while restoring WordCloud state", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+		
+		// show the panels once the session has finished loading
+		//uiManager.setCurrentCloud(applicationManager.getCurrentNetwork());
+	}//end restore session method
+	
+	
+	/**
+	 * Restores the clouds, filter and delimiters of one network from its session files.
+	 */
+	private void restoreNetwork(NetworkParameters networkParams, List<File> files, LongUnaryOperator suidMapping)
+	{
+		for (File prop_file : files)
+		{
+			try
 			{
-				File prop_file = pStateFileList.get(i);
+				// Sessions saved since the binary format was introduced have one file per network
+				if (prop_file.getName().endsWith(SessionFormat.FILE_EXTENSION))
+				{
+					InputStream in = new FileInputStream(prop_file);
+					try {
+						SessionFormat.read(networkParams, in, suidMapping);
+					} finally {
+						in.close();
+					}
+				}
 				
+				// Older sessions have text files for each cloud, filter and delimiter set
 				if (prop_file.getName().contains(".CLOUDS.txt"))
 				{
 					String fullText = ioUtil.readAll(prop_file.getAbsolutePath());
-					
-					//Get the networkID from the props file
-					String[] fullname = prop_file.getName().split(netNameSep);
-					String net_name = fullname[1];
-					int uid = Integer.parseInt(net_name);
-					
-					//Get the cloudID from the props file
-					//String[] fullname2 = prop_file.getName().split(cloudNameSep);
-//					String cloud_name = fullname2[1]; // cloud name is in properties file
-					
-					//Get the Network Parameters
-					CyNetwork network = getNetwork(uid);
-					NetworkParameters networkParams = cloudManager.getNetworkParameters(network);
-					
-					networkParams.createCloudFromProperties(fullText);
-					
-				}//end if .CLOUDS.txt file
+					CloudParameters cloud = networkParams.createCloudFromProperties(fullText);
+					if(cloud.getStorage() == MembershipStorage.BITMAP) {
+						cloud.remapMembers(suidMapping);
+					}
+				}
 				
 				if (prop_file.getName().contains(".FILTER.txt"))
 				{
 					String fullText = ioUtil.readAll(prop_file.getAbsolutePath());
 					
-					//Get the networkID from the props file
-					String[] fullname = prop_file.getName().split(netNameSep);
-					String net_name = fullname[1];
-					int uid = Integer.parseInt(net_name);
-					
-					//Get the Network Parameters
-					CyNetwork network = getNetwork(uid);
-					NetworkParameters networkParams = cloudManager.getNetworkParameters(network);
-					
-					
 					//Recreate the Filter and set pointer in cloud
 					WordFilter curFilter = new WordFilter(fullText);
 					networkParams.setFilter(curFilter);
@@ -283,35 +352,16 @@ public class SessionListener implements SessionAboutToBeSavedListener, SessionLo
 				{
 					String fullText = ioUtil.readAll(prop_file.getAbsolutePath());
 					
-					//Get the networkID from the props file
-					String[] fullname = prop_file.getName().split(netNameSep);
-					String net_name = fullname[1];
-					int uid = Integer.parseInt(net_name);
-					
-					//Get the Network Parameters
-					CyNetwork network = getNetwork(uid);
-					NetworkParameters networkParams = cloudManager.getNetworkParameters(network);
-					
 					//Recreate the Delimiter and set pointer in cloud
 					WordDelimiters curDelimiter = new WordDelimiters(fullText);
 					networkParams.setDelimeters(curDelimiter);
 				}
-			}//end loop through all props files
-			
-//			//Set current network and Initialize the panel appropriately
-//			for (NetworkParameters parameters: cloudManager.getNetworks()) {
-//				for (CloudParameters cloud : parameters.getClouds()) {
-//					cloud.updateSelectedCounts();
-//				}
-//			}
-		}//end try
-		catch (Exception e)
-		{
-			e.printStackTrace();
+			}
+			catch (Exception e)
+			{
+				logger.error("Error while restoring WordCloud state from " + prop_file.getName(), e);
+			}
 		}
-		
-		// show the panels once the session has finished loading
-		//uiManager.setCurrentCloud(applicationManager.getCurrentNetwork());
-	}//end restore session method
+	}
 	
 }
@@ -0,0 +1,132 @@
+package org.baderlab.wordcloud.internal;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.ColumnDeletedEvent;
+import org.cytoscape.model.events.ColumnDeletedListener;
+import org.cytoscape.model.events.ColumnNameChangedEvent;
+import org.cytoscape.model.events.ColumnNameChangedListener;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.events.RowsSetListener;
+import org.cytoscape.service.util.CyServiceRegistrar;
+
+/**
+ * Single entry point for the table events that WordCloud cares about.
+ * 
+ * Cytoscape delivers every RowsSetEvent to every listener, so instead of each part of
+ * WordCloud registering its own listener and scanning the records, this class registers
+ * one listener and rejects events for tables that don't belong to a managed network
+ * with a single map lookup (see {@link CloudModelManager#getNetworkForNodeTable(CyTable)}).
+ * 
+ * The RowsSetListener is only registered while the WordCloud panels are showing, 
+ * the {@link CloudModelManager} stops trusting its cached selections while it is not.
+ * Column renames and deletions are rare, so those listeners stay registered to keep
+ * the attribute names of the clouds up to date.
+ */
+public class TableEventRouter implements ColumnNameChangedListener, ColumnDeletedListener {
+
+	private final CloudModelManager cloudManager;
+	private final CyServiceRegistrar registrar;
+	
+	private final List<RowsSetListener> nodeRowsListeners = new CopyOnWriteArrayList<RowsSetListener>();
+	private final List<RowsSetListener> networkRowsListeners = new CopyOnWriteArrayList<RowsSetListener>();
+	
+	private final RowsSetListener rowsSetListener = new RowsSetListener() {
+		public void handleEvent(RowsSetEvent e) {
+			route(e);
+		}
+	};
+	
+	private boolean active = false;
+	
+	
+	public TableEventRouter(CloudModelManager cloudManager, CyServiceRegistrar registrar) {
+		this.cloudManager = cloudManager;
+		this.registrar = registrar;
+		// WordCloud starts hidden, the listener is registered by the first call to setActive(true)
+		cloudManager.setRowEventsTracked(false);
+	}
+	
+	
+	/**
+	 * Registers or unregisters the RowsSetListener. Call with false when the WordCloud panels
+	 * are hidden so that row edits anywhere in Cytoscape don't pay for WordCloud.
+	 */
+	public synchronized void setActive(boolean active) {
+		if(this.active == active)
+			return;
+		this.active = active;
+		
+		if(active) {
+			cloudManager.setRowEventsTracked(true);
+			registrar.registerService(rowsSetListener, RowsSetListener.class, new Properties());
+		} else {
+			registrar.unregisterService(rowsSetListener, RowsSetListener.class);
+			cloudManager.setRowEventsTracked(false);
+		}
+	}
+	
+	public synchronized boolean isActive() {
+		return active;
+	}
+	
+	
+	/**
+	 * The listener will only receive events for the node tables of networks managed by WordCloud.
+	 */
+	public void addNodeRowsListener(RowsSetListener listener) {
+		nodeRowsListeners.add(listener);
+	}
+	
+	public void removeNodeRowsListener(RowsSetListener listener) {
+		nodeRowsListeners.remove(listener);
+	}
+	
+	/**
+	 * The listener will only receive events for the network tables of networks managed by WordCloud.
+	 */
+	public void addNetworkRowsListener(RowsSetListener listener) {
+		networkRowsListeners.add(listener);
+	}
+	
+	public void removeNetworkRowsListener(RowsSetListener listener) {
+		networkRowsListeners.remove(listener);
+	}
+	
+	
+	private void route(RowsSetEvent e) {
+		CyTable table = e.getSource();
+		
+		NetworkParameters networkParams = cloudManager.getNetworkForNodeTable(table);
+		if(networkParams != null) {
+			cloudManager.rowsSet(e);
+			for(RowsSetListener listener : nodeRowsListeners) {
+				listener.handleEvent(e);
+			}
+			return;
+		}
+		
+		networkParams = cloudManager.getNetworkForNetworkTable(table);
+		if(networkParams != null) {
+			for(RowsSetListener listener : networkRowsListeners) {
+				listener.handleEvent(e);
+			}
+		}
+	}
+	
+	
+	@Override
+	public void handleEvent(ColumnNameChangedEvent e) {
+		cloudManager.columnNameChanged(e.getSource(), e.getOldColumnName(), e.getNewColumnName());
+	}
+
+	@Override
+	public void handleEvent(ColumnDeletedEvent e) {
+		cloudManager.columnDeleted(e.getSource(), e.getColumnName());
+	}
+}
@@ -30,7 +30,8 @@ public enum CloudDisplayStyles
 {
 	CLUSTERED_STANDARD("Clustered-Standard"),
 	CLUSTERED_BOXES("Clustered-Boxes"),
-	NO_CLUSTERING("No Clustering");
+	NO_CLUSTERING("No Clustering"),
+	SPIRAL("Spiral");
 	
 	private final String name;
 	
@@ -45,6 +46,13 @@ public enum CloudDisplayStyles
 		return name;
 	}
 	
+	/**
+	 * Returns true if the words are grouped by cluster when they are displayed.
+	 */
+	public boolean isClustered() {
+		return this == CLUSTERED_STANDARD || this == CLUSTERED_BOXES;
+	}
+	
 	public static CloudDisplayStyles getDefault() {
 		return CLUSTERED_STANDARD;
 	}
@@ -1,9 +1,11 @@
 package org.baderlab.wordcloud.internal.cluster;
 
+import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -11,17 +13,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.stream.Collectors;
 
-import org.baderlab.wordcloud.internal.Stemmer;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
 import org.baderlab.wordcloud.internal.model.NetworkParameters;
-import org.baderlab.wordcloud.internal.model.WordDelimiters;
+import org.baderlab.wordcloud.internal.model.NodeIndex;
+import org.baderlab.wordcloud.internal.model.NodeSet;
+import org.baderlab.wordcloud.internal.model.TokenIndex;
 import org.baderlab.wordcloud.internal.model.WordFilter;
-import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyTable;
 
 /**
  * This class does the heavy lifting of calculating the contents of the cloud.
@@ -37,6 +37,7 @@ public class CloudInfo {
 	private Map<String, Integer> selectedCounts = new HashMap<String, Integer>(); // counts for selected nodes
 	private Map<WordPair, Integer> networkPairCounts = new HashMap<WordPair, Integer>();
 	private Map<WordPair, Integer> selectedPairCounts = new HashMap<WordPair, Integer>();
+	private Map<PairKey, Integer> selectedPairOccurrences = new HashMap<PairKey, Integer>(); // number of selected nodes containing each pair
 	private Map<String, Double> ratios = new HashMap<String, Double>();
 	private Map<WordPair, Double> pairRatios = new HashMap<WordPair, Double>();
 	
@@ -56,8 +57,15 @@ public class CloudInfo {
 	private boolean countInitialized = false; //true when network counts are initialized
 	private boolean selInitialized = false; //true when selected counts initialized
 	private boolean ratiosInitialized = false; //true when ratios are computed
+	private boolean fontSizesCalculated = false; //true when cloudWords is complete
+	private boolean preview = false; //true if this is an approximation made by createPreview()
+	private boolean restored = false; //true if the words were read from a session file instead of being calculated
 	private int countTotal = 0;
 	
+	private List<TokenIndex> tokenIndexes; // the words of the attributes, see getTokenIndexes()
+	private Set<CyNode> selectedNodes; // the selection the counts were calculated from
+	private int selTotal = 0;
+	
 	
 	private final CloudParameters cloud; 
 	
@@ -98,6 +106,36 @@ public class CloudInfo {
 	}
 	
 	//Calculate Counts
+	/**
+	 * Returns the token indexes of the attributes of the cloud, they are looked up once for each 
+	 * CloudInfo so that the network counts and the selected counts are made from the same indexes.
+	 */
+	private List<TokenIndex> getTokenIndexes() {
+		if(tokenIndexes == null) {
+			NetworkParameters networkParams = cloud.getNetworkParams();
+			List<TokenIndex> indexes = new ArrayList<TokenIndex>();
+			for (String attributeName : cloud.getAttributeNames()) {
+				TokenIndex index = networkParams.getTokenIndex(attributeName);
+				if(index != null) {
+					indexes.add(index);
+				}
+			}
+			tokenIndexes = indexes;
+		}
+		return tokenIndexes;
+	}
+	
+	/**
+	 * Returns a flag for each term of the index, true if the word is filtered out.
+	 */
+	private static boolean[] getFilteredTerms(TokenIndex index, WordFilter filter) {
+		boolean[] filtered = new boolean[index.getTermCount()];
+		for(int term = 0; term < filtered.length; term++) {
+			filtered[term] = filter.contains(index.getTerm(term));
+		}
+		return filtered;
+	}
+	
 	/**
 	 * Constructs stringNodeMapping and networkCounts based on the list of
 	 * nodes contained in networkParams.
@@ -115,99 +153,66 @@ public class CloudInfo {
 		this.networkPairCounts = new HashMap<WordPair, Integer>();
 		this.stringNodeMapping = new HashMap<String, Set<CyNode>>();
 		
-		for (String attributeName : cloud.getAttributeNames()) {
-			for (CyNode curNode : networkParams.getNetwork().getNodeList()) {
-				List<String> values = getNodeAttributeVal(network, curNode, attributeName);
-				if(values != null) {
-					for(String value : values) {
-						if(value != null) {
-							updateNetworkWordCounts(curNode, value);
-						}
-					}
-				}
-			}
-		}
+		WordFilter filter = networkParams.getFilter();
 		
-		countInitialized = true;
-	}
-	
-	/**
-	 * This method takes in a string from a node and processes it to lower case, removes
-	 * punctuation and separates the words into a non repeated list.
-	 * @param String from a node that we are processing.
-	 * @return Set of distinct words.
-	 */
-	private Collection<String> processNodeString(String nodeValue) {
-		WordDelimiters delimeters = cloud.getNetworkParams().getDelimeters();
-		Collection<String> words = delimeters.split(nodeValue.toLowerCase());
-		
-		if(cloud.getNetworkParams().getIsStemming()) {
-			Set<String> stemmedWords = new HashSet<String>();
-			for(String word : words) {
-				Stemmer stemmer = new Stemmer();
-				for(int i = 0; i < word.length(); i++) {
-					stemmer.add(word.charAt(i));
+		for (TokenIndex index : getTokenIndexes()) {
+			boolean[] filtered = getFilteredTerms(index, filter);
+			
+			// The counts and the nodes of each word come straight from the term dictionary and the posting lists
+			for (int term = 0; term < filtered.length; term++) {
+				if (filtered[term])
+					continue;
+				String curWord = index.getTerm(term);
+				Set<CyNode> nodes = stringNodeMapping.get(curWord);
+				if (nodes == null) {
+					nodes = new HashSet<CyNode>();
+					stringNodeMapping.put(curWord, nodes);
+					networkCounts.put(curWord, 0);
+				}
+				for (int i = index.getPostingStart(term); i < index.getPostingEnd(term); i++) {
+					nodes.add(index.getNode(index.getPosting(i)));
 				}
-				stemmer.stem();
-				stemmedWords.add(stemmer.toString());
+				networkCounts.put(curWord, networkCounts.get(curWord) + index.getTermFrequency(term));
+			}
+			
+			// Pairs are made of consecutive words in a value, skipping filtered words
+			for (int value = 0; value < index.getValueCount(); value++) {
+				updateNetworkPairCounts(index, value, filtered);
 			}
-			words = stemmedWords;
 		}
 		
-		return words;
+		countInitialized = true;
 	}
 	
 	
-	private void updateNetworkWordCounts(CyNode curNode, String nodeValue) {
-		if (nodeValue == null) // problem with nodes or attributes
-			return;
-	
-		Collection<String> wordSet = this.processNodeString(nodeValue);
+	private void updateNetworkPairCounts(TokenIndex index, int value, boolean[] filtered) {
 		String lastWord = ""; //Used for calculating pair counts
-    
-		WordFilter filter = cloud.getNetworkParams().getFilter();
 		
-		//Iterate through all words
-		for(String curWord : wordSet)
+		for (int i = index.getTokenStart(value); i < index.getTokenEnd(value); i++)
 		{
-			//Check filters
-			if (!filter.contains(curWord))
-			{
-				//If this word has not been encountered, or not encountered
-				//in this node, add it to our mappings and counts
-				//If we have not encountered this word, add it to the mapping
-				if (!stringNodeMapping.containsKey(curWord))
-				{
-					stringNodeMapping.put(curWord, new HashSet<CyNode>());
-					networkCounts.put(curWord, 0);
-				}
-			
-				//Add node to mapping, update counts
-				stringNodeMapping.get(curWord).add(curNode);
-				int num = networkCounts.get(curWord);
-				num = num + 1;
-				networkCounts.put(curWord, num);
-			
+			int term = index.getToken(i);
+			if (filtered[term])
+				continue;
+			String curWord = index.getTerm(term);
 			
-				//Add to pair counts
-				if (!lastWord.equals(""))
-				{
-					WordPair pair = new WordPair(lastWord, curWord, this);
-					
-					Integer curPairCount = networkPairCounts.get(pair);
-					int count;
-					if (curPairCount == null) {
-						count = 1;
-					} else {
-						count = curPairCount;
-					}
+			//Add to pair counts
+			if (!lastWord.equals(""))
+			{
+				WordPair pair = new WordPair(lastWord, curWord, this);
 				
-					networkPairCounts.put(pair, count);
+				Integer curPairCount = networkPairCounts.get(pair);
+				int count;
+				if (curPairCount == null) {
+					count = 1;
+				} else {
+					count = curPairCount;
 				}
 			
-				//Update curWord to be LastWord
-				lastWord = curWord;
+				networkPairCounts.put(pair, count);
 			}
+		
+			//Update curWord to be LastWord
+			lastWord = curWord;
 		}
 	}
 	
@@ -232,60 +237,251 @@ public class CloudInfo {
 		//Clear old counts
 		this.selectedCounts = new HashMap<String, Integer>();
 		this.selectedPairCounts = new HashMap<WordPair, Integer>();
+		this.selectedPairOccurrences = new HashMap<PairKey, Integer>();
+		
+		// Read the selection once, it may be changed by another thread while the cloud is calculated
+		this.selectedNodes = cloud.getSelectedNodes();
+		this.selTotal = selectedNodes.size();
 		
-		Collection<CyNode> selectedNodes = cloud.getSelectedNodes();
+		for(CyNode curNode : selectedNodes) {
+			updateSelectedCounts(network, curNode, 1);
+		}
+		
+		calculateWeights();
 		
-		for(String attributeName : cloud.getAttributeNames()) {
-			for(CyNode curNode : selectedNodes) {
-				List<String> values = getNodeAttributeVal(network, curNode, attributeName);
-				if(values != null) {
-					for(String value : values) {
-						if(value != null) {
-							updateSelectedWordCounts(curNode, value);
+		selInitialized = true;
+		
+	}
+	
+	
+	/**
+	 * Returns a new CloudInfo for another cloud of the same network with the same attributes
+	 * and filter that shares the network counts of this one, only the selected nodes of the other
+	 * cloud have to be counted. The network counts of this object are calculated first if needed.
+	 * Used to calculate many clouds at once, the returned objects may be used on different threads.
+	 * The font sizes of the returned object still need to be calculated.
+	 */
+	public synchronized CloudInfo createForCloud(CloudParameters other) {
+		if(other.getNetworkParams() != cloud.getNetworkParams() || !other.getAttributeNames().equals(cloud.getAttributeNames()))
+			throw new IllegalArgumentException("the cloud must have the same network and attributes");
+		initializeNetworkCounts();
+		
+		CloudInfo info = new CloudInfo(other);
+		info.stringNodeMapping = stringNodeMapping;
+		info.networkCounts = networkCounts;
+		info.networkPairCounts = networkPairCounts;
+		info.tokenIndexes = tokenIndexes;
+		info.countInitialized = countInitialized;
+		return info;
+	}
+
+
+	/**
+	 * Like {@link #createForCloud(CloudParameters)} for each of the given clouds, but the selected
+	 * counts of all of them are made in a single pass over the token indexes. The words of each
+	 * node are read once and added to the count vector of every cloud that contains the node,
+	 * so calculating a cloud for each value of a column, like a cluster id, costs about the same
+	 * as calculating one cloud of the whole network.
+	 *
+	 * The selected counts of the returned objects are complete, the font sizes still need
+	 * to be calculated, which may be done on different threads.
+	 */
+	public synchronized List<CloudInfo> createForGroups(List<CloudParameters> groups) {
+		List<CloudInfo> infos = new ArrayList<CloudInfo>(groups.size());
+		for(CloudParameters group : groups) {
+			infos.add(createForCloud(group));
+		}
+		CyNetwork network = cloud.getNetworkParams().getNetwork();
+		if(network == null)
+			return infos;
+
+		// The groups of each node, a node may be in more than one group
+		Map<CyNode, int[]> nodeGroups = new HashMap<CyNode, int[]>();
+		for(int g = 0; g < infos.size(); g++) {
+			CloudInfo info = infos.get(g);
+			info.selectedNodes = info.cloud.getSelectedNodes();
+			info.selTotal = info.selectedNodes.size();
+			for(CyNode node : info.selectedNodes) {
+				int[] current = nodeGroups.get(node);
+				int[] updated = current == null ? new int[1] : Arrays.copyOf(current, current.length + 1);
+				updated[updated.length - 1] = g;
+				nodeGroups.put(node, updated);
+			}
+		}
+
+		WordFilter filter = cloud.getNetworkParams().getFilter();
+		for(TokenIndex index : getTokenIndexes()) {
+			boolean[] filtered = getFilteredTerms(index, filter);
+			int termCount = index.getTermCount();
+			int[][] termCounts = new int[infos.size()][]; // allocated for the groups that have nodes in the index
+			List<Map<Long, Integer>> pairOccurrences = new ArrayList<Map<Long, Integer>>(Collections.<Map<Long, Integer>>nCopies(infos.size(), null));
+
+			for(int position = 0; position < index.getNodeCount(); position++) {
+				int[] groupsOfNode = nodeGroups.get(index.getNode(position));
+				if(groupsOfNode == null)
+					continue;
+				for(int g : groupsOfNode) {
+					if(termCounts[g] == null) {
+						termCounts[g] = new int[termCount];
+						pairOccurrences.set(g, new HashMap<Long, Integer>());
+					}
+				}
+				for(int value = index.getValueStart(position); value < index.getValueEnd(position); value++) {
+					int lastTerm = -1;
+					for(int i = index.getTokenStart(value); i < index.getTokenEnd(value); i++) {
+						int term = index.getToken(i);
+						if(filtered[term])
+							continue;
+						for(int g : groupsOfNode) {
+							termCounts[g][term]++;
+							if(lastTerm >= 0) {
+								Long pair = ((long) lastTerm << 32) | term;
+								Integer occurrences = pairOccurrences.get(g).get(pair);
+								pairOccurrences.get(g).put(pair, occurrences == null ? 1 : occurrences + 1);
+							}
 						}
+						lastTerm = term;
 					}
 				}
 			}
+
+			// The same word may be in more than one index when the cloud has several attributes
+			for(int g = 0; g < infos.size(); g++) {
+				if(termCounts[g] == null)
+					continue;
+				CloudInfo info = infos.get(g);
+				for(int term = 0; term < termCount; term++) {
+					if(termCounts[g][term] > 0) {
+						String word = index.getTerm(term);
+						Integer count = info.selectedCounts.get(word);
+						info.selectedCounts.put(word, (count == null ? 0 : count) + termCounts[g][term]);
+					}
+				}
+				for(Entry<Long, Integer> entry : pairOccurrences.get(g).entrySet()) {
+					long pair = entry.getKey();
+					PairKey key = new PairKey(index.getTerm((int) (pair >>> 32)), index.getTerm((int) pair));
+					Integer occurrences = info.selectedPairOccurrences.get(key);
+					info.selectedPairOccurrences.put(key, (occurrences == null ? 0 : occurrences) + entry.getValue());
+				}
+			}
 		}
+
+		for(CloudInfo info : infos) {
+			for(PairKey key : info.selectedPairOccurrences.keySet()) {
+				info.selectedPairCounts.put(new WordPair(key.first, key.second, info), 1);
+			}
+			info.calculateWeights();
+			info.selInitialized = true;
+		}
+		return infos;
+	}
+
+
+	/**
+	 * Returns a new CloudInfo for the current selection of the cloud that reuses the
+	 * network counts of this one and only processes the nodes that have been added to 
+	 * or removed from the selection since this one was calculated. 
+	 * The font sizes of the returned object still need to be calculated.
+	 * 
+	 * Returns null if the selected counts have to be calculated from scratch,
+	 * for example because nodes have been removed from the network.
+	 */
+	public CloudInfo updateSelection() {
+		CyNetwork network = cloud.getNetworkParams().getNetwork();
+		Set<CyNode> newSelection = cloud.getSelectedNodes();
+		if(!selInitialized || network == null || !(selectedNodes instanceof NodeSet) || !(newSelection instanceof NodeSet))
+			return null;
 		
-		calculateWeights();
+		NodeSet oldSet = (NodeSet) selectedNodes;
+		NodeSet newSet = (NodeSet) newSelection;
+		NodeIndex index = newSet.getIndex();
+		if(oldSet.getIndex() != index)
+			return null;
 		
-		selInitialized = true;
+		BitSet added = newSet.getBits();
+		added.andNot(oldSet.getBits());
+		BitSet removed = oldSet.getBits();
+		removed.andNot(newSet.getBits());
+		
+		CloudInfo info = new CloudInfo(cloud);
 		
+		// network counts don't depend on the selection
+		info.stringNodeMapping = stringNodeMapping;
+		info.networkCounts = networkCounts;
+		info.networkPairCounts = networkPairCounts;
+		info.countInitialized = true;
+		
+		info.selectedCounts = new HashMap<String, Integer>(selectedCounts);
+		info.selectedPairOccurrences = new HashMap<PairKey, Integer>(selectedPairOccurrences);
+		info.selectedNodes = newSet;
+		info.selTotal = newSet.size();
+		
+		for(int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i + 1)) {
+			info.updateSelectedCounts(network, index.getNode(i), -1);
+		}
+		for(int i = added.nextSetBit(0); i >= 0; i = added.nextSetBit(i + 1)) {
+			info.updateSelectedCounts(network, index.getNode(i), 1);
+		}
+		
+		// WordPair objects refer to the CloudInfo they belong to so they can't be shared
+		info.selectedPairCounts = new HashMap<WordPair, Integer>();
+		for(PairKey key : info.selectedPairOccurrences.keySet()) {
+			info.selectedPairCounts.put(new WordPair(key.first, key.second, info), 1);
+		}
+		
+		info.calculateWeights();
+		info.selInitialized = true;
+		return info;
 	}
 	
 	
-	private void updateSelectedWordCounts(CyNode curNode, String nodeValue) {
-		if (nodeValue == null) // problem with nodes or attributes
-			return;
+	/**
+	 * Adds (delta = 1) or removes (delta = -1) the words of the node to the selected counts.
+	 */
+	private void updateSelectedCounts(CyNetwork network, CyNode curNode, int delta) {
+		for(TokenIndex index : getTokenIndexes()) {
+			int position = index.indexOf(curNode);
+			if(position < 0) // problem with nodes or attributes
+				continue;
+			for(int value = index.getValueStart(position); value < index.getValueEnd(position); value++) {
+				updateSelectedWordCounts(index, value, delta);
+			}
+		}
+	}
+	
 	
-		Collection<String> wordSet = this.processNodeString(nodeValue);
+	private void updateSelectedWordCounts(TokenIndex index, int value, int delta) {
 		String lastWord = ""; //Used for calculating pair counts
+		WordFilter filter = cloud.getNetworkParams().getFilter();
     
-		for(String curWord : wordSet) {
+		for(int i = index.getTokenStart(value); i < index.getTokenEnd(value); i++) {
+			String curWord = index.getTerm(index.getToken(i));
 			//Check filters
-			WordFilter filter = cloud.getNetworkParams().getFilter();
 			if (!filter.contains(curWord)) {
 
 				int curCount = 0; 
 				if (selectedCounts.containsKey(curWord))
 					curCount = selectedCounts.get(curWord);
-				curCount = curCount + 1;
-				selectedCounts.put(curWord, curCount);
+				curCount = curCount + delta;
+				if (curCount > 0)
+					selectedCounts.put(curWord, curCount);
+				else
+					selectedCounts.remove(curWord);
 			
-				//Add to pair counts
+				//Add to pair counts, the pair counts only record that the pair exists
 				if (!lastWord.equals("")) {
-					WordPair pair = new WordPair(lastWord, curWord, this);
-					
-					Integer curPairCount = selectedPairCounts.get(pair);
-					int count;
-					if (curPairCount == null) {
-						count = 1;
-					} else {
-						count = curPairCount;
+					PairKey key = new PairKey(lastWord, curWord);
+					Integer curOccurrences = selectedPairOccurrences.get(key);
+					int occurrences = (curOccurrences == null ? 0 : curOccurrences) + delta;
+					if (occurrences > 0) {
+						selectedPairOccurrences.put(key, occurrences);
+						if (delta > 0 && curOccurrences == null)
+							selectedPairCounts.put(new WordPair(lastWord, curWord, this), 1);
+					}
+					else {
+						selectedPairOccurrences.remove(key);
+						selectedPairCounts.remove(new WordPair(lastWord, curWord, this));
 					}
-				
-					selectedPairCounts.put(pair, count);
 				}
 			
 				lastWord = curWord;
@@ -294,6 +490,30 @@ public class CloudInfo {
 	}
 	
 	
+	private static final class PairKey {
+		final String first;
+		final String second;
+		
+		PairKey(String first, String second) {
+			this.first = first;
+			this.second = second;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof PairKey))
+				return false;
+			PairKey other = (PairKey) o;
+			return first.equals(other.first) && second.equals(other.second);
+		}
+		
+		@Override
+		public int hashCode() {
+			return first.hashCode() * 31 + second.hashCode();
+		}
+	}
+	
+	
 	/**
 	 * Sets the mean weight value to be the average of all ratios if a network normalization
 	 * factor of 0 were to be used.  The values are also translated so the min value is 0.
@@ -305,7 +525,6 @@ public class CloudInfo {
 		double total = 0.0;
 		int count = 0;
 		
-		final int selTotal = cloud.getSelectedNumNodes();
 		
 		//Iterate through to calculate ratios
 		boolean initialized = false;
@@ -376,7 +595,6 @@ public class CloudInfo {
 		double total = 0.0;
 		int count = 0;
 		
-		final int selTotal = cloud.getSelectedNumNodes();
 		
 		//Iterate through to calculate ratios
 		boolean initialized = false;
@@ -469,7 +687,7 @@ public class CloudInfo {
 		//Clear old fonts
 		this.cloudWords = new ArrayList<CloudWordInfo>();
 		
-		if (cloud.getDisplayStyle().equals(CloudDisplayStyles.NO_CLUSTERING))
+		if (!cloud.getDisplayStyle().isClustered())
 		{
 			for (Entry<String, Double> entry : ratios.entrySet())
 			{
@@ -490,6 +708,118 @@ public class CloudInfo {
 			cloudWords = builder.getCloudWords();
 		}
 		
+		fontSizesCalculated = true;
+	}
+	
+	
+	public boolean isFontSizesCalculated() {
+		return fontSizesCalculated;
+	}
+	
+	
+	/**
+	 * Returns an approximation of the cloud that is much faster to get than calling
+	 * calculateFontSizes(). Once the words are counted the words with the highest ratios 
+	 * are taken as they are, without clustering.
+	 * 
+	 * The returned object shares the counts of this one, the words in it have their font sizes
+	 * but they all belong to cluster 0.
+	 */
+	public CloudInfo createPreview() {
+		if (!ratiosInitialized)
+			this.updateRatios();
+		
+		CloudInfo info = new CloudInfo(cloud);
+		info.preview = true;
+		
+		info.stringNodeMapping = stringNodeMapping;
+		info.networkCounts = networkCounts;
+		info.selectedCounts = selectedCounts;
+		info.networkPairCounts = networkPairCounts;
+		info.selectedPairCounts = selectedPairCounts;
+		info.selectedPairOccurrences = selectedPairOccurrences;
+		info.ratios = ratios;
+		info.pairRatios = pairRatios;
+		info.minRatio = minRatio;
+		info.maxRatio = maxRatio;
+		info.meanRatio = meanRatio;
+		info.minWeight = minWeight;
+		info.maxWeight = maxWeight;
+		info.meanWeight = meanWeight;
+		info.selectedNodes = selectedNodes;
+		info.selTotal = selTotal;
+		info.countTotal = countTotal;
+		info.countInitialized = countInitialized;
+		info.selInitialized = selInitialized;
+		info.ratiosInitialized = true;
+		
+		// highest ratio first
+		List<Entry<String,Double>> entries = new ArrayList<Entry<String,Double>>(ratios.entrySet());
+		Collections.sort(entries, new Comparator<Entry<String,Double>>() {
+			public int compare(Entry<String,Double> e1, Entry<String,Double> e2) {
+				int result = e2.getValue().compareTo(e1.getValue());
+				return result == 0 ? e1.getKey().compareTo(e2.getKey()) : result;
+			}
+		});
+		
+		int maxWords = cloud.getMaxWords();
+		int minOccurrence = cloud.getMinWordOccurrence();
+		for (Entry<String,Double> entry : entries)
+		{
+			if (info.cloudWords.size() >= maxWords)
+				break;
+			Integer count = selectedCounts.get(entry.getKey());
+			if (count == null || count < minOccurrence)
+				continue;
+			int fontSize = calculateFontSize(entry.getKey(), entry.getValue());
+			info.cloudWords.add(new CloudWordInfo(info, entry.getKey(), fontSize));
+		}
+		Collections.sort(info.cloudWords);
+		
+		info.fontSizesCalculated = true;
+		return info;
+	}
+	
+	
+	/**
+	 * Returns true if this was created by createPreview(), the words are not clustered.
+	 */
+	public boolean isPreview() {
+		return preview;
+	}
+	
+	
+	/**
+	 * Creates a cloud from words that were calculated earlier and saved in a session file.
+	 * Only what is needed to display the cloud is saved, the words are added with {@link #addRestoredWord}.
+	 * The node mapping is calculated again when it is first asked for, everything else 
+	 * requires the cloud to be calculated again, see {@link CloudParameters#calculateFullCloud()}.
+	 */
+	public static CloudInfo createRestored(CloudParameters cloud, double minRatio, double maxRatio) {
+		CloudInfo info = new CloudInfo(cloud);
+		info.restored = true;
+		info.minRatio = minRatio;
+		info.maxRatio = maxRatio;
+		info.fontSizesCalculated = true;
+		return info;
+	}
+	
+	/**
+	 * Adds a word to a cloud created by {@link #createRestored}, the words must be added in their original order.
+	 * @param textColor may be null
+	 */
+	public void addRestoredWord(String word, int fontSize, Color textColor, int cluster, int wordNum, int selectedCount) {
+		if(!restored)
+			throw new IllegalStateException("not a restored cloud");
+		cloudWords.add(new CloudWordInfo(this, word, fontSize, textColor, cluster, wordNum));
+		selectedCounts.put(word, selectedCount);
+	}
+	
+	/**
+	 * Returns true if this cloud was created by {@link #createRestored}.
+	 */
+	public boolean isRestored() {
+		return restored;
 	}
 	
 	
@@ -539,32 +869,6 @@ public class CloudInfo {
 	}
 	
 	
-	/**
-	 * This method takes in the ID of a node and returns the string that is associated
-	 * with that node and the current attribute of this CloudParameters.
-	 * 
-	 * 
-	 */
-	private List<String> getNodeAttributeVal(CyNetwork network, CyNode curNode, String attributeName) {
-		CyTable table = network.getDefaultNodeTable();
-		CyColumn column = table.getColumn(attributeName);
-		if (column == null) {
-			return null;
-		}
-		if (column.getType().equals(String.class)) {
-			String value = table.getRow(curNode.getSUID()).get(attributeName, String.class);
-			return value == null ? null : Arrays.asList(value);
-		}
-		if (column.getType().equals(List.class) && column.getListElementType().equals(String.class)) {
-			List<String> list = table.getRow(curNode.getSUID()).getList(attributeName, String.class);
-			if(list == null)
-				return null;
-			return list.stream().sorted().collect(Collectors.toList());
-		}
-		return null;
-	}
-	
-	
 	private static String join(String delimiter, List<String> list) {
 		StringBuilder sb = new StringBuilder();
 		Iterator<String> iter = list.iterator();
@@ -597,6 +901,38 @@ public class CloudInfo {
 		return cloudWords;
 	}
 	
+	/**
+	 * Returns the words of the cloud that should be displayed, in the order they should be laid out.
+	 * Only the largest getMaxWords() words are shown, and only if they occur often enough in the selected nodes.
+	 */
+	public List<CloudWordInfo> getDisplayWords() {
+		List<CloudWordInfo> original = cloudWords;
+
+		// Find the largest words
+		List<CloudWordInfo> sorted = new ArrayList<CloudWordInfo>(original);
+		Collections.sort(sorted);
+		int max = getMaxWords();
+		if(max < sorted.size()) {
+			sorted.subList(max, sorted.size()).clear();
+		}
+		Set<CloudWordInfo> largest = new HashSet<CloudWordInfo>(sorted);
+
+		// Keep the original order
+		List<CloudWordInfo> words = new ArrayList<CloudWordInfo>(largest.size());
+		int minOccurrence = getMinWordOccurrence();
+		for(CloudWordInfo info : original) {
+			if(words.size() >= max)
+				break;
+			if(largest.contains(info)) {
+				Integer count = selectedCounts.get(info.getWord());
+				if(count != null && count >= minOccurrence) {
+					words.add(info);
+				}
+			}
+		}
+		return words;
+	}
+	
 	public Map<String,Double> getRatios() {
 		return ratios;
 	}
@@ -605,6 +941,17 @@ public class CloudInfo {
 		return pairRatios;
 	}
 	
+	/**
+	 * The counts of the words in the whole network.
+	 */
+	public Map<String,Integer> getNetworkCounts() {
+		return networkCounts;
+	}
+	
+	public Map<WordPair,Integer> getNetworkPairCounts() {
+		return networkPairCounts;
+	}
+	
 	public Map<String,Integer> getSelectedCounts() {
 		return selectedCounts;
 	}
@@ -614,6 +961,9 @@ public class CloudInfo {
 	}
 	
 	public Map<String, Set<CyNode>> getStringNodeMapping() {
+		if(restored) {
+			initializeNetworkCounts(); // only the first time
+		}
 		return stringNodeMapping;
 	}
 	
@@ -23,9 +23,6 @@
 package org.baderlab.wordcloud.internal.cluster;
 
 import java.awt.Color;
-import java.awt.Font;
-
-import javax.swing.JLabel;
 
 /**
  * The CloudWordInfo class defines information pertaining to a particular
@@ -103,18 +100,6 @@ public class CloudWordInfo implements Comparable<CloudWordInfo>
 		return result;
 	}
 	
-	/**
-	 * Returns a JLabel that can be used to display this word in a cloud.
-	 * @return JLabel - for display in Cloud.
-	 */
-	public JLabel createCloudLabel()
-	{
-		JLabel label = new JLabel(word);
-		label.setFont(new Font("sansserif",Font.BOLD, fontSize));
-		label.setForeground(textColor);
-		return label;
-	}
-	
 	/**
 	 * String representation of CloudWordInfo.
 	 * It is used to store the persistent attributes when a session is saved.
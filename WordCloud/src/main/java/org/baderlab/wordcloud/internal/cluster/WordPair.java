@@ -74,10 +74,19 @@ public class WordPair implements Comparable<WordPair>
 		int firstCount = selectedCounts.get(firstWord);
 		int secondCount = selectedCounts.get(secondWord);
 		
-		int numerator = pairCount * cloudInfo.getCountTotal();
+		probability = calculateProbability(pairCount, firstCount, secondCount, cloudInfo.getCountTotal());
+	}
+	
+	/**
+	 * The probability of a pair given the counts of the pair and of its words in the selection,
+	 * see {@link #calculateProbability(int)}.
+	 */
+	public static double calculateProbability(int pairCount, int firstCount, int secondCount, int countTotal)
+	{
+		int numerator = pairCount * countTotal;
 		int denominator = firstCount * secondCount;
 		
-		probability = (double)numerator/(double)denominator;
+		return (double)numerator/(double)denominator;
 	}
 	
 	public int compareTo(WordPair second) 
@@ -0,0 +1,231 @@
+package org.baderlab.wordcloud.internal.cluster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the statistics of the words of clouds to a binary file, everything that is known
+ * about each word and pair of words and not just the words that are displayed.
+ *
+ * The file is columnar: for each cloud the values of one column are stored together as an
+ * array of primitives. Words are stored as ids into a vocabulary shared by all the clouds, each
+ * cloud adds the words that weren't used by earlier clouds. Clouds are written one at a time
+ * through a small buffer, the memory used doesn't grow with the number of clouds.
+ *
+ * All numbers are big endian, strings are an int with the number of bytes followed by UTF-8.
+ * <pre>
+ * file    = MAGIC VERSION networkName cloud* END
+ * cloud   = CLOUD cloudName newWords words pairs
+ * newWords = count string[count]              ids continue from the previous cloud, starting at 0
+ * words   = rows wordId[rows] selectedCount[rows] networkCount[rows] ratio(double)[rows]
+ *           fontSize[rows] cluster[rows]      fontSize and cluster are -1 if the word is not displayed
+ * pairs   = rows firstWordId[rows] secondWordId[rows] selectedCount[rows] networkCount[rows]
+ *           ratio(double)[rows] probability(double)[rows]
+ * </pre>
+ */
+public class WordStatsWriter implements AutoCloseable {
+
+	public static final int MAGIC = 0x57435753; // "WCWS"
+	public static final int VERSION = 1;
+	public static final int CLOUD = 1;
+	public static final int END = 0;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private final Map<String, Integer> vocabulary = new HashMap<String, Integer>();
+	private final List<String> newWords = new ArrayList<String>();
+	private int cloudCount = 0;
+	private long rowCount = 0;
+
+
+	public WordStatsWriter(WritableByteChannel channel, String networkName) throws IOException {
+		this.channel = channel;
+		putInt(MAGIC);
+		putInt(VERSION);
+		putString(networkName == null ? "" : networkName);
+	}
+
+
+	/**
+	 * Writes the statistics of one cloud, the cloud must have been calculated.
+	 */
+	public void write(String cloudName, CloudInfo cloudInfo) throws IOException {
+		Map<String, Integer> selectedCounts = cloudInfo.getSelectedCounts();
+		Map<String, Integer> networkCounts = cloudInfo.getNetworkCounts();
+		Map<String, Double> ratios = cloudInfo.getRatios();
+		Map<WordPair, Integer> selectedPairCounts = cloudInfo.getSelectedPairCounts();
+		Map<WordPair, Integer> networkPairCounts = cloudInfo.getNetworkPairCounts();
+		Map<WordPair, Double> pairRatios = cloudInfo.getPairRatios();
+		int countTotal = cloudInfo.getCountTotal();
+
+		Map<String, CloudWordInfo> displayed = new HashMap<String, CloudWordInfo>();
+		for(CloudWordInfo wordInfo : cloudInfo.getCloudWordInfoList()) {
+			displayed.put(wordInfo.getWord(), wordInfo);
+		}
+
+		String[] words = selectedCounts.keySet().toArray(new String[selectedCounts.size()]);
+		Arrays.sort(words);
+		WordPair[] pairs = selectedPairCounts.keySet().toArray(new WordPair[selectedPairCounts.size()]);
+
+		int[] wordIds = new int[words.length];
+		for(int i = 0; i < words.length; i++) {
+			wordIds[i] = getId(words[i]);
+		}
+		for(WordPair pair : pairs) {
+			getId(pair.getFirstWord());
+			getId(pair.getSecondWord());
+		}
+
+		putInt(CLOUD);
+		putString(cloudName);
+
+		putInt(newWords.size());
+		for(String word : newWords) {
+			putString(word);
+		}
+		newWords.clear();
+
+		putInt(words.length);
+		for(int id : wordIds) {
+			putInt(id);
+		}
+		for(String word : words) {
+			putInt(selectedCounts.get(word));
+		}
+		for(String word : words) {
+			putInt(getOrZero(networkCounts, word));
+		}
+		for(String word : words) {
+			Double ratio = ratios.get(word);
+			putDouble(ratio == null ? 0.0 : ratio);
+		}
+		for(String word : words) {
+			CloudWordInfo wordInfo = displayed.get(word);
+			putInt(wordInfo == null ? -1 : wordInfo.getFontSize());
+		}
+		for(String word : words) {
+			CloudWordInfo wordInfo = displayed.get(word);
+			putInt(wordInfo == null ? -1 : wordInfo.getCluster());
+		}
+
+		putInt(pairs.length);
+		for(WordPair pair : pairs) {
+			putInt(vocabulary.get(pair.getFirstWord()));
+		}
+		for(WordPair pair : pairs) {
+			putInt(vocabulary.get(pair.getSecondWord()));
+		}
+		for(WordPair pair : pairs) {
+			putInt(selectedPairCounts.get(pair));
+		}
+		for(WordPair pair : pairs) {
+			putInt(getOrZero(networkPairCounts, pair));
+		}
+		for(WordPair pair : pairs) {
+			Double ratio = pairRatios.get(pair);
+			putDouble(ratio == null ? 0.0 : ratio);
+		}
+		for(WordPair pair : pairs) {
+			int firstCount = getOrZero(selectedCounts, pair.getFirstWord());
+			int secondCount = getOrZero(selectedCounts, pair.getSecondWord());
+			double probability = firstCount == 0 || secondCount == 0 ? 0.0
+					: WordPair.calculateProbability(selectedPairCounts.get(pair), firstCount, secondCount, countTotal);
+			putDouble(probability);
+		}
+
+		cloudCount++;
+		rowCount += words.length + pairs.length;
+	}
+
+
+	private int getId(String word) {
+		Integer id = vocabulary.get(word);
+		if(id == null) {
+			id = vocabulary.size();
+			vocabulary.put(word, id);
+			newWords.add(word);
+		}
+		return id;
+	}
+
+	private static <K> int getOrZero(Map<K, Integer> map, K key) {
+		Integer value = map.get(key);
+		return value == null ? 0 : value;
+	}
+
+
+	public int getCloudCount() {
+		return cloudCount;
+	}
+
+	/**
+	 * The number of words and pairs written for all the clouds.
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public int getVocabularySize() {
+		return vocabulary.size();
+	}
+
+
+	private void ensureRemaining(int bytes) throws IOException {
+		if(buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void putInt(int value) throws IOException {
+		ensureRemaining(4);
+		buffer.putInt(value);
+	}
+
+	private void putDouble(double value) throws IOException {
+		ensureRemaining(8);
+		buffer.putDouble(value);
+	}
+
+	private void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		int offset = 0;
+		while(offset < bytes.length) {
+			ensureRemaining(1);
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+
+	/**
+	 * Writes the end of the file and closes the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			putInt(END);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.model.CloudBuilder;
+import org.baderlab.wordcloud.internal.model.CloudModelBatch;
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Calculates the clouds of many sets of nodes of the current network in one command, for example
+ * one cloud for each cluster of a cluster column.
+ *
+ * This is the same as calling the create command once for each set of nodes, but the words of the
+ * network are counted once and shared by all the clouds, the words of all the sets of nodes are
+ * counted in a single pass over the token index, and the clouds are clustered in parallel.
+ * The settings are taken from the current cloud once.
+ */
+public class BatchCloudCommandTask implements NetworkCommandTask {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudModelManager;
+	private final UIManager uiManager;
+
+	private CyNetwork network;
+	private volatile ExecutorService executor;
+	private volatile boolean cancelled = false;
+	private Map<String, CloudInfo> resultInfos;
+	private Map<String, CloudParameters> resultClouds;
+	private CloudJsonWriter jsonWriter;
+
+
+	@Tunable(description="Column with words")
+	public String wordColumnName;
+
+	@Tunable(description="Node column whose values define the sets of nodes, each distinct value is a cloud named after the value. "
+			+ "A node is in several sets if the column is a list.")
+	public String groupColumnName = "";
+
+	@Tunable(description="Sets of nodes as name=SUID,SUID,...;name=SUID,... Names must not contain '=' or ';'.")
+	public String nodeSets = "";
+
+	@Tunable(description="Return the words with the highest ratios without clustering them, faster for large node lists.")
+	public boolean preview = false;
+
+	@Tunable(description="Actually create the clouds or just return the results without creating the clouds. "
+			+ "The clouds are named after their sets of nodes, with the prefix in front.")
+	public boolean create = false;
+
+	@Tunable(description="Prefix of the names of the clouds that are created.")
+	public String cloudNamePrefix = "";
+
+	@Tunable(description="Comma separated fields of the JSON result: words, fontSizes, clusters, numbers, counts, ratios. Default: " + CloudJsonWriter.DEFAULT_FIELDS)
+	public String fields = CloudJsonWriter.DEFAULT_FIELDS;
+
+	@Tunable(description="Maximum number of words of each cloud in the JSON result, the largest words are kept, 0 for all the words. Default: 0")
+	public int limit = 0;
+
+	@Tunable(description="Maximum number of clouds that are calculated at the same time. Default: number of processors.")
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+
+	public BatchCloudCommandTask(CyApplicationManager applicationManager, CloudModelManager cloudModelManager, UIManager uiManager) {
+		this.applicationManager = applicationManager;
+		this.cloudModelManager = cloudModelManager;
+		this.uiManager = uiManager;
+	}
+
+
+	@Override
+	public void setNetwork(CyNetwork network) {
+		this.network = network;
+	}
+
+
+	@Override
+	public void run(TaskMonitor monitor) throws Exception {
+		// the new clouds are added to the model together, the listeners get one event when the batch is closed
+		try(CloudModelBatch batch = cloudModelManager.startBatch()) {
+			calculateClouds(monitor);
+		}
+	}
+	
+	
+	private void calculateClouds(TaskMonitor monitor) throws Exception {
+		if(wordColumnName == null || wordColumnName.trim().isEmpty())
+			throw new IllegalArgumentException("wordColumnName is null");
+		boolean hasGroupColumn = groupColumnName != null && !groupColumnName.trim().isEmpty();
+		boolean hasNodeSets = nodeSets != null && !nodeSets.trim().isEmpty();
+		if(!hasGroupColumn && !hasNodeSets)
+			throw new IllegalArgumentException("groupColumnName or nodeSets must be given");
+		jsonWriter = new CloudJsonWriter(CloudJsonWriter.parseFields(fields), limit);
+
+		CyNetwork network = this.network == null ? applicationManager.getCurrentNetwork() : this.network;
+		if(network == null)
+			throw new IllegalArgumentException("there is no current network");
+
+		NetworkParameters networkParams = cloudModelManager.addNetwork(network);
+
+		Map<String, Set<CyNode>> groups = new LinkedHashMap<String, Set<CyNode>>();
+		if(hasGroupColumn)
+			groups.putAll(networkParams.getNodeGroups(groupColumnName.trim()));
+		Set<String> columnGroups = new HashSet<String>(groups.keySet());
+		if(hasNodeSets)
+			addNodeSets(network, nodeSets, groups);
+
+		String prefix = cloudNamePrefix == null ? "" : cloudNamePrefix;
+		if(create) {
+			for(String name : groups.keySet()) {
+				if(networkParams.containsCloud(prefix + name))
+					throw new IllegalArgumentException("Cloud name already in use: " + prefix + name);
+			}
+		}
+
+		CloudBuilder builder = networkParams.getCloudBuilder();
+
+		CloudParameters currentCloud = uiManager.getCurrentCloud();
+		if(currentCloud != null) {
+			// only the settings, the nodes of the current cloud are not needed
+			builder.setDisplayStyle(currentCloud.getDisplayStyle())
+			       .setMaxWords(currentCloud.getMaxWords())
+			       .setClusterCutoff(currentCloud.getClusterCutoff())
+			       .setNetWeightFactor(currentCloud.getNetWeightFactor())
+			       .setMinWordOccurrence(currentCloud.getMinWordOccurrence());
+		}
+		builder.setAttributes(Arrays.asList(wordColumnName));
+
+		monitor.setTitle("Calculating Clouds");
+		monitor.setStatusMessage("Counting the words of " + groups.size() + " sets of nodes");
+
+		List<String> names = new ArrayList<String>(groups.keySet());
+		List<CloudParameters> clouds = new ArrayList<CloudParameters>(groups.size());
+		for(Map.Entry<String, Set<CyNode>> group : groups.entrySet()) {
+			builder.setNodes(group.getValue());
+			if(create) {
+				boolean fromColumn = columnGroups.contains(group.getKey());
+				builder.setName(prefix + group.getKey()).setClusterColumnName(fromColumn ? groupColumnName.trim() : null);
+				clouds.add(builder.build());
+			} else {
+				clouds.add(builder.buildFakeCloud());
+			}
+		}
+
+		// The words of the network and of all the sets of nodes are counted in one pass each
+		CloudInfo template = new CloudInfo(builder.setNodes(Collections.<CyNode>emptySet()).buildFakeCloud());
+		List<CloudInfo> infos = template.createForGroups(clouds);
+		if(cancelled)
+			return;
+
+		monitor.setStatusMessage("Calculating " + groups.size() + " clouds");
+
+		int poolSize = Math.max(1, Math.min(threads, groups.size()));
+		executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			List<Future<CloudInfo>> futures = new ArrayList<Future<CloudInfo>>(groups.size());
+			for(final CloudInfo info : infos) {
+				futures.add(executor.submit(new Callable<CloudInfo>() {
+					public CloudInfo call() {
+						if(preview)
+							return info.createPreview();
+						info.calculateFontSizes();
+						return info;
+					}
+				}));
+			}
+
+			Map<String, CloudInfo> cloudInfos = new LinkedHashMap<String, CloudInfo>();
+			Map<String, CloudParameters> cloudParams = new LinkedHashMap<String, CloudParameters>();
+			for(int i = 0; i < futures.size(); i++) {
+				if(cancelled)
+					return;
+				CloudInfo cloudInfo;
+				try {
+					cloudInfo = futures.get(i).get();
+				} catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+				CloudParameters cloud = clouds.get(i);
+				if(create && !preview)
+					cloud.setCalculatedCloud(cloudInfo);
+				String name = create ? cloud.getCloudName() : names.get(i);
+				cloudInfos.put(name, cloudInfo);
+				cloudParams.put(name, cloud);
+				monitor.setProgress((i + 1) / (double) futures.size());
+			}
+
+			// the results are only put together when they are asked for
+			resultInfos = cloudInfos;
+			resultClouds = cloudParams;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Parses sets of nodes given as name=SUID,SUID;name=SUID.
+	 */
+	static void addNodeSets(CyNetwork network, String nodeSets, Map<String, Set<CyNode>> groups) {
+		for(String nodeSet : nodeSets.split(";")) {
+			if(nodeSet.trim().isEmpty())
+				continue;
+			int eq = nodeSet.indexOf('=');
+			if(eq < 0)
+				throw new IllegalArgumentException("node set must be name=SUID,SUID,...: " + nodeSet.trim());
+			String name = nodeSet.substring(0, eq).trim();
+			if(name.isEmpty())
+				throw new IllegalArgumentException("node set without a name: " + nodeSet.trim());
+			if(groups.containsKey(name))
+				throw new IllegalArgumentException("duplicate node set: " + name);
+
+			Set<CyNode> nodes = new HashSet<CyNode>();
+			for(String suid : nodeSet.substring(eq + 1).split(",")) {
+				if(suid.trim().isEmpty())
+					continue;
+				CyNode node;
+				try {
+					node = network.getNode(Long.parseLong(suid.trim()));
+				} catch(NumberFormatException e) {
+					throw new IllegalArgumentException("not a node SUID: " + suid.trim());
+				}
+				if(node == null)
+					throw new IllegalArgumentException("node not found: " + suid.trim());
+				nodes.add(node);
+			}
+			groups.put(name, nodes);
+		}
+	}
+
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		ExecutorService executor = this.executor;
+		if(executor != null)
+			executor.shutdownNow();
+	}
+
+
+	public static String getDescription() {
+		return 	"Calculates the clouds of many sets of nodes of the current network, for example one cloud for each cluster.<br>" +
+				"The sets are given by a grouping column, by a list of node sets, or both.<br>" +
+				"The words of all the sets are counted in one pass and the clouds are calculated in parallel.<br>" +
+				"The clouds are only created if create is true.<br>" +
+				"This is an ObservableTask that returns a result.<br>" +
+				"Result type: Map.class.<br>" +
+				"Key: \"size\", Value: Integer, Number of clouds.<br>" +
+				"Key: \"clouds\", Value: Map, for each set of nodes its name and a Map with the same keys as the result of the create command.<br>" +
+				"Result type: String.class. A JSON object with the name of each set of nodes and the same JSON as the create command.<br>";
+	}
+
+
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(resultInfos == null)
+			return null;
+		if(Map.class.equals(type)) {
+			Map<String, Object> cloudResults = new LinkedHashMap<String, Object>();
+			for(Map.Entry<String, CloudInfo> entry : resultInfos.entrySet()) {
+				String name = entry.getKey();
+				cloudResults.put(name, CreateCloudCommandTask.createResults(name, resultClouds.get(name), entry.getValue()));
+			}
+			Map<String, Object> results = new LinkedHashMap<String, Object>();
+			results.put("size", cloudResults.size());
+			results.put("clouds", cloudResults);
+			return type.cast(results);
+		}
+		if(String.class.equals(type)) {
+			StringBuilder json = new StringBuilder();
+			try {
+				jsonWriter.write(json, resultInfos);
+			} catch(IOException e) {
+				throw new IllegalStateException(e); // not thrown by StringBuilder
+			}
+			return type.cast(json.toString());
+		}
+		return null;
+	}
+}
@@ -0,0 +1,31 @@
+package org.baderlab.wordcloud.internal.command;
+
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.work.TaskFactory;
+import org.cytoscape.work.TaskIterator;
+
+public class BatchCloudCommandTaskFactory implements TaskFactory {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudModelManager;
+	private final UIManager uiManager;
+	
+	public BatchCloudCommandTaskFactory(CyApplicationManager applicationManager, CloudModelManager cloudModelManager, UIManager uiManager) {
+		this.applicationManager = applicationManager;
+		this.cloudModelManager = cloudModelManager;
+		this.uiManager = uiManager;
+	}
+	
+	@Override
+	public TaskIterator createTaskIterator() {
+		return new TaskIterator(new BatchCloudCommandTask(applicationManager, cloudModelManager, uiManager));
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+
+}
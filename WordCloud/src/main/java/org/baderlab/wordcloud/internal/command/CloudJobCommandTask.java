@@ -0,0 +1,129 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baderlab.wordcloud.internal.command.CloudJobManager.Job;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Commands for the jobs started by the asynchronous commands, see {@link CloudJobManager}.
+ */
+public class CloudJobCommandTask implements ObservableTask {
+
+	public enum Action { STATUS, RESULTS, CANCEL }
+	
+	private final CloudJobManager jobManager;
+	private final Action action;
+	
+	private Object taskResults;
+	
+	
+	@Tunable(description="The id of the job, returned by the command that started it. If not given the status command returns the status of all the jobs.")
+	public String jobId;
+	
+	@Tunable(description="Only for the results command, wait for the job to finish instead of failing if it is still running.")
+	public boolean wait = false;
+	
+	
+	public CloudJobCommandTask(CloudJobManager jobManager, Action action) {
+		this.jobManager = jobManager;
+		this.action = action;
+	}
+	
+	
+	@Override
+	public void run(TaskMonitor monitor) throws Exception {
+		if(action == Action.STATUS && (jobId == null || jobId.trim().isEmpty())) {
+			List<Map<String, Object>> statuses = new ArrayList<>();
+			for(Job job : jobManager.getJobs()) {
+				statuses.add(getStatus(job));
+			}
+			Map<String, Object> results = new LinkedHashMap<>();
+			results.put("jobs", statuses);
+			taskResults = results;
+			return;
+		}
+		
+		if(jobId == null || jobId.trim().isEmpty())
+			throw new IllegalArgumentException("jobId is null");
+		Job job = jobManager.getJob(jobId.trim());
+		if(job == null)
+			throw new IllegalArgumentException("job not found: " + jobId.trim());
+		
+		switch(action) {
+		case STATUS:
+			taskResults = getStatus(job);
+			break;
+		case CANCEL:
+			job.cancel();
+			taskResults = getStatus(job);
+			break;
+		case RESULTS:
+			if(wait)
+				job.await();
+			switch(job.getState()) {
+			case DONE:
+				taskResults = job.getResults();
+				break;
+			case FAILED:
+				throw new IllegalArgumentException("job " + job.getId() + " failed: " + job.getError());
+			case CANCELLED:
+				throw new IllegalArgumentException("job " + job.getId() + " was cancelled");
+			default:
+				throw new IllegalArgumentException("job " + job.getId() + " has not finished: " + job.getState());
+			}
+			break;
+		}
+	}
+	
+	
+	private static Map<String, Object> getStatus(Job job) {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("jobId", job.getId());
+		status.put("command", job.getCommand());
+		status.put("state", job.getState().name());
+		status.put("progress", job.getProgress());
+		status.put("statusMessage", job.getStatusMessage());
+		status.put("error", job.getError());
+		return status;
+	}
+	
+	
+	@Override
+	public void cancel() {
+	}
+	
+	
+	public static String getDescription(Action action) {
+		switch(action) {
+		case STATUS:
+			return 	"Returns the status of a job started by one of the async commands, or of all the jobs.<br>" +
+					"Result type: Map.class.<br>" +
+					"Keys: \"jobId\", \"command\", \"state\" (QUEUED, RUNNING, DONE, FAILED or CANCELLED), \"progress\" (0.0 to 1.0), \"statusMessage\", \"error\".<br>" +
+					"Without a jobId, Key: \"jobs\", Value: List of Maps with the same keys.<br>";
+		case RESULTS:
+			return 	"Returns the results of a finished job, the same as the command that was run in the background would have returned.<br>" +
+					"Result type: Map.class.<br>" +
+					"Finished jobs are kept for a while, the oldest are dropped when there are too many.<br>";
+		default:
+			return 	"Cancels a job that hasn't finished yet.<br>" +
+					"Result type: Map.class, the status of the job.<br>";
+		}
+	}
+	
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(Map.class.equals(type)) {
+			return type.cast(taskResults);
+		}
+		if(String.class.equals(type) && taskResults != null) {
+			return type.cast(taskResults.toString());
+		}
+		return null;
+	}
+}
@@ -0,0 +1,27 @@
+package org.baderlab.wordcloud.internal.command;
+
+import org.baderlab.wordcloud.internal.command.CloudJobCommandTask.Action;
+import org.cytoscape.work.TaskFactory;
+import org.cytoscape.work.TaskIterator;
+
+public class CloudJobCommandTaskFactory implements TaskFactory {
+
+	private final CloudJobManager jobManager;
+	private final Action action;
+	
+	public CloudJobCommandTaskFactory(CloudJobManager jobManager, Action action) {
+		this.jobManager = jobManager;
+		this.action = action;
+	}
+	
+	@Override
+	public TaskIterator createTaskIterator() {
+		return new TaskIterator(new CloudJobCommandTask(jobManager, action));
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+
+}
@@ -0,0 +1,238 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs cloud commands in the background so that a script can submit many of them
+ * without waiting for each one, see {@link SubmitJobCommandTask}. Every job gets an id
+ * that the job commands use to poll its progress, get its results or cancel it.
+ *
+ * Jobs run on a fixed pool of threads in the order they were submitted. Finished jobs are
+ * kept until there are more than maxFinishedJobs of them, then the oldest are dropped.
+ */
+public class CloudJobManager {
+
+	public enum State {
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+		public boolean isFinished() {
+			return this == DONE || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(CloudJobManager.class);
+
+	private final ExecutorService executor;
+	private final int maxFinishedJobs;
+	private final AtomicLong nextId = new AtomicLong(1);
+
+	// in the order the jobs were submitted
+	private final Map<String, Job> jobs = new LinkedHashMap<String, Job>();
+
+
+	public CloudJobManager(int threads, int maxFinishedJobs) {
+		this.maxFinishedJobs = maxFinishedJobs;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "WordCloud job");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	/**
+	 * Queues the task and returns the id of the job, the task must return its results as a Map.
+	 * @param command the name of the command, only used to describe the job
+	 */
+	public synchronized String submit(String command, ObservableTask task) {
+		String id = String.valueOf(nextId.getAndIncrement());
+		Job job = new Job(id, command, task);
+		jobs.put(id, job);
+		job.future = executor.submit(job);
+		return id;
+	}
+
+	/**
+	 * Returns the job or null if there is no such job or it has been dropped.
+	 */
+	public synchronized Job getJob(String id) {
+		return jobs.get(id);
+	}
+
+	public synchronized List<Job> getJobs() {
+		return new ArrayList<Job>(jobs.values());
+	}
+
+	private synchronized void dropFinishedJobs() {
+		int finished = 0;
+		for(Job job : jobs.values()) {
+			if(job.getState().isFinished())
+				finished++;
+		}
+		for(Iterator<Job> iter = jobs.values().iterator(); iter.hasNext() && finished > maxFinishedJobs;) {
+			if(iter.next().getState().isFinished()) {
+				iter.remove();
+				finished--;
+			}
+		}
+	}
+
+	public void dispose() {
+		for(Job job : getJobs()) {
+			job.cancel();
+		}
+		executor.shutdownNow();
+	}
+
+
+	/**
+	 * A submitted task. The task reports its progress to the job, which keeps the last values.
+	 */
+	public class Job implements Runnable, TaskMonitor {
+
+		private final String id;
+		private final String command;
+		private final ObservableTask task;
+
+		private volatile Future<?> future;
+		private volatile State state = State.QUEUED;
+		private volatile double progress = 0.0;
+		private volatile String statusMessage;
+		private volatile String error;
+		private volatile Map<?,?> results;
+
+
+		private Job(String id, String command, ObservableTask task) {
+			this.id = id;
+			this.command = command;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			synchronized(this) {
+				if(state != State.QUEUED)
+					return;
+				state = State.RUNNING;
+			}
+			State end = State.FAILED;
+			try {
+				task.run(this);
+				results = task.getResults(Map.class);
+				end = State.DONE;
+			} catch(Exception e) {
+				error = e.getMessage() == null ? e.toString() : e.getMessage();
+				logger.warn("WordCloud job " + id + " (" + command + ") failed", e);
+			} finally {
+				synchronized(this) {
+					if(state == State.RUNNING) {
+						state = end;
+						if(end == State.DONE)
+							progress = 1.0;
+					}
+				}
+				dropFinishedJobs();
+			}
+		}
+
+		/**
+		 * Cancels the job if it hasn't finished yet, a running task stops as soon as it checks.
+		 */
+		public void cancel() {
+			synchronized(this) {
+				if(state.isFinished())
+					return;
+				state = State.CANCELLED;
+			}
+			task.cancel();
+			Future<?> future = this.future;
+			if(future != null)
+				future.cancel(false);
+			dropFinishedJobs();
+		}
+
+		/**
+		 * Waits until the job has finished or has been cancelled.
+		 */
+		public void await() throws InterruptedException {
+			try {
+				future.get();
+			} catch(ExecutionException | CancellationException e) {
+				// the state of the job says what happened
+			}
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getCommand() {
+			return command;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public double getProgress() {
+			return progress;
+		}
+
+		public String getStatusMessage() {
+			return statusMessage;
+		}
+
+		/**
+		 * Returns the message of the exception that made the job fail, or null.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * Returns the results of the task, null unless the state is DONE.
+		 */
+		public Map<?,?> getResults() {
+			return state == State.DONE ? results : null;
+		}
+
+		@Override
+		public void setTitle(String title) {
+		}
+
+		@Override
+		public void setProgress(double progress) {
+			this.progress = progress;
+		}
+
+		@Override
+		public void setStatusMessage(String statusMessage) {
+			this.statusMessage = statusMessage;
+		}
+
+		@Override
+		public void showMessage(Level level, String message) {
+			this.statusMessage = message;
+			if(level == Level.ERROR)
+				this.error = message;
+		}
+	}
+}
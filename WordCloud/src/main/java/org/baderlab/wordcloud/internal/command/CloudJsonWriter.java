@@ -0,0 +1,186 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+
+/**
+ * Writes the words of a cloud as JSON straight to the output, only the requested fields
+ * and at most limit words. Unlike the Map result of the create command no lists of boxed
+ * values are built and the counts of words that are not displayed are left out.
+ * <pre>
+ * {"name":"cloud","size":2,"preview":false,"words":["a","b"],"fontSizes":[24,12],...}
+ * </pre>
+ * Each list field is an array with one value for each word, size is the number of words written.
+ * The words are written in the order they are laid out, with a limit only the largest words are
+ * written, largest first (see {@link CloudWordInfo#compareTo(CloudWordInfo)}).
+ */
+public class CloudJsonWriter {
+
+	public enum Field {
+		WORDS("words"),
+		FONT_SIZES("fontSizes"),
+		CLUSTERS("clusters"),
+		NUMBERS("numbers"),
+		COUNTS("counts"),
+		RATIOS("ratios");
+
+		private final String key;
+
+		private Field(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public static Field fromString(String s) {
+			for(Field field : values()) {
+				if(field.key.equalsIgnoreCase(s)) {
+					return field;
+				}
+			}
+			return null;
+		}
+	}
+
+	public static final String DEFAULT_FIELDS = "words,fontSizes,clusters,numbers";
+
+	private final Set<Field> fields;
+	private final int limit;
+
+
+	/**
+	 * @param limit the maximum number of words to write, the largest are kept, 0 for all the words
+	 */
+	public CloudJsonWriter(Set<Field> fields, int limit) {
+		if(limit < 0)
+			throw new IllegalArgumentException("limit must not be negative");
+		this.fields = EnumSet.noneOf(Field.class);
+		this.fields.addAll(fields);
+		this.limit = limit;
+	}
+
+	/**
+	 * Parses comma separated field names, null or an empty string gives the default fields.
+	 * @throws IllegalArgumentException if a name is not a field
+	 */
+	public static Set<Field> parseFields(String names) {
+		if(names == null || names.trim().isEmpty())
+			names = DEFAULT_FIELDS;
+		Set<Field> fields = EnumSet.noneOf(Field.class);
+		for(String name : names.split(",")) {
+			if(name.trim().isEmpty())
+				continue;
+			Field field = Field.fromString(name.trim());
+			if(field == null)
+				throw new IllegalArgumentException("unknown field: " + name.trim());
+			fields.add(field);
+		}
+		return fields;
+	}
+
+
+	public void write(Appendable out, String cloudName, CloudInfo cloudInfo) throws IOException {
+		List<CloudWordInfo> words = cloudInfo.getCloudWordInfoList();
+		if(limit > 0 && limit < words.size()) {
+			// the list is in layout order, for the clustered styles the first words are just the first clusters
+			words = new ArrayList<CloudWordInfo>(words);
+			Collections.sort(words);
+			words = words.subList(0, limit);
+		}
+		int size = words.size();
+
+		out.append("{\"name\":");
+		writeString(out, cloudName);
+		out.append(",\"size\":").append(Integer.toString(size));
+		out.append(",\"preview\":").append(Boolean.toString(cloudInfo.isPreview()));
+
+		for(Field field : fields) {
+			out.append(",\"").append(field.getKey()).append("\":[");
+			for(int i = 0; i < size; i++) {
+				if(i > 0)
+					out.append(',');
+				writeValue(out, field, words.get(i), cloudInfo);
+			}
+			out.append(']');
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Writes the clouds as a JSON object with the cloud names as keys.
+	 */
+	public void write(Appendable out, Map<String, CloudInfo> clouds) throws IOException {
+		out.append('{');
+		boolean first = true;
+		for(Map.Entry<String, CloudInfo> entry : clouds.entrySet()) {
+			if(!first)
+				out.append(',');
+			first = false;
+			writeString(out, entry.getKey());
+			out.append(':');
+			write(out, entry.getKey(), entry.getValue());
+		}
+		out.append('}');
+	}
+
+
+	private static void writeValue(Appendable out, Field field, CloudWordInfo wordInfo, CloudInfo cloudInfo) throws IOException {
+		switch(field) {
+		case WORDS:
+			writeString(out, wordInfo.getWord());
+			break;
+		case FONT_SIZES:
+			out.append(Integer.toString(wordInfo.getFontSize()));
+			break;
+		case CLUSTERS:
+			out.append(Integer.toString(wordInfo.getCluster()));
+			break;
+		case NUMBERS:
+			out.append(Integer.toString(wordInfo.getWordNumber()));
+			break;
+		case COUNTS:
+			Integer count = cloudInfo.getSelectedCounts().get(wordInfo.getWord());
+			out.append(count == null ? "0" : count.toString());
+			break;
+		case RATIOS:
+			Map<String, Double> ratios = cloudInfo.getRatios();
+			Double ratio = ratios == null ? null : ratios.get(wordInfo.getWord());
+			// restored clouds don't have ratios, and JSON has no NaN or Infinity
+			if(ratio == null || ratio.isNaN() || ratio.isInfinite())
+				out.append("null");
+			else
+				out.append(ratio.toString());
+			break;
+		}
+	}
+
+	private static void writeString(Appendable out, String s) throws IOException {
+		out.append('"');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"':  out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if(c < 0x20)
+					out.append(String.format("\\u%04x", (int) c));
+				else
+					out.append(c);
+			}
+		}
+		out.append('"');
+	}
+}
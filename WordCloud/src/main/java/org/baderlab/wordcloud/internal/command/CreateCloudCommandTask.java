@@ -1,5 +1,6 @@
 package org.baderlab.wordcloud.internal.command;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -17,18 +18,15 @@ import org.baderlab.wordcloud.internal.model.NetworkParameters;
 import org.baderlab.wordcloud.internal.ui.UIManager;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.command.util.NodeList;
-import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableFactory;
 import org.cytoscape.model.CyTableManager;
-import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.Tunable;
 
-public class CreateCloudCommandTask implements ObservableTask {
+public class CreateCloudCommandTask implements NetworkCommandTask {
 
 	private CyApplicationManager applicationManager;
 	private CyTableManager tableManager;
@@ -37,7 +35,9 @@ public class CreateCloudCommandTask implements ObservableTask {
 	private UIManager uiManager;
 	private CyNetwork network;
 	
-	private Map<String, Object> taskResults;
+	private CloudParameters resultCloud;
+	private CloudInfo resultInfo;
+	private CloudJsonWriter jsonWriter;
 	
 	
 	@Tunable(description="Column with words")
@@ -59,6 +59,15 @@ public class CreateCloudCommandTask implements ObservableTask {
 	@Tunable(description="Actually create the cloud or just return the results without creating the cloud.")
 	public boolean create = true;
 	
+	@Tunable(description="Return the words with the highest ratios without clustering them, faster for large node lists.")
+	public boolean preview = false;
+	
+	@Tunable(description="Comma separated fields of the JSON result: words, fontSizes, clusters, numbers, counts, ratios. Default: " + CloudJsonWriter.DEFAULT_FIELDS)
+	public String fields = CloudJsonWriter.DEFAULT_FIELDS;
+	
+	@Tunable(description="Maximum number of words in the JSON result, the largest words are kept, 0 for all the words. Default: 0")
+	public int limit = 0;
+	
 	
 	/**
 	 * AutoAnnotate used to get the cloud data by having this command put the
@@ -83,6 +92,11 @@ public class CreateCloudCommandTask implements ObservableTask {
 		this.cloudModelManager = cloudManager;
 	}
 	
+	@Override
+	public void setNetwork(CyNetwork network) {
+		this.network = network;
+	}
+	
 	@Override
 	public void cancel() {
 	}
@@ -97,26 +111,16 @@ public class CreateCloudCommandTask implements ObservableTask {
 			throw new IllegalArgumentException("wordColumnName is null");
 		if(cloudGroupTableName != null && cloudGroupTableName.trim().isEmpty())
 			cloudGroupTableName = null;
+		jsonWriter = new CloudJsonWriter(CloudJsonWriter.parseFields(fields), limit);
 		
-		network = applicationManager.getCurrentNetwork();
+		if(network == null)
+			network = applicationManager.getCurrentNetwork();
 		Set<CyNode> nodes = new HashSet<CyNode>(nodeList.getValue());
 		
 		// Get the table to return the results to
 		CyTable cloudGroupTable = null;
 		if(cloudGroupTableName != null) {
-			if (network.getDefaultNetworkTable().getColumn(cloudGroupTableName) != null) {
-				cloudGroupTable = tableManager.getTable(network.getRow(network).get(cloudGroupTableName, Long.class));
-			} else {
-				cloudGroupTable = tableFactory.createTable(cloudGroupTableName, "Cloud", String.class, true, true);
-				createColumn(cloudGroupTable, "WC_Word");
-				createColumn(cloudGroupTable, "WC_FontSize");
-				createColumn(cloudGroupTable, "WC_Cluster");
-				createColumn(cloudGroupTable, "WC_Number");
-				tableManager.addTable(cloudGroupTable);
-				// Store table ID in the network table
-				network.getDefaultNetworkTable().createColumn(cloudGroupTableName, Long.class, false);
-				network.getRow(network).set(cloudGroupTableName, cloudGroupTable.getSUID());
-			}
+			cloudGroupTable = cloudModelManager.getClusterTableWriter().getTable(network, cloudGroupTableName, tableFactory, tableManager);
 		}
 		
 		NetworkParameters networkParams = cloudModelManager.addNetwork(network);
@@ -138,13 +142,29 @@ public class CreateCloudCommandTask implements ObservableTask {
 		else
 			cloudParams = builder.buildFakeCloud();
 		
-		CloudInfo cloudInfo = cloudParams.calculateCloud();
+		CloudInfo cloudInfo = preview ? cloudParams.calculatePreview() : cloudParams.calculateCloud();
+		
+		// the results are only put together when they are asked for
+		this.resultCloud = cloudParams;
+		this.resultInfo = cloudInfo;
+		
+		// Add wordInfo to table (only here for backwards compatibility)
+		if(cloudGroupTable != null) {
+			cloudModelManager.getClusterTableWriter().write(cloudGroupTable, cloudName, cloudInfo);
+		}
+	}
+	
+	
+	/**
+	 * Creates the result map of one cloud, also used by {@link BatchCloudCommandTask}.
+	 */
+	static Map<String, Object> createResults(String cloudName, CloudParameters cloudParams, CloudInfo cloudInfo) {
 		List<CloudWordInfo> wordInfo = cloudInfo.getCloudWordInfoList();
-
-		// Prepare results
+		
 		Map<String, Object> results = new HashMap<>();
 		results.put("name", cloudName);
 		results.put("size", wordInfo.size());
+		results.put("preview", cloudInfo.isPreview());
 		List<String> words = new ArrayList<>();
 		List<Integer> fontSizes = new ArrayList<>();
 		List<Integer> clusters = new ArrayList<>();
@@ -168,39 +188,7 @@ public class CreateCloudCommandTask implements ObservableTask {
 		results.put("clusterCutoff", cloudParams.getClusterCutoff());
 		results.put("minWordOccurrence", cloudParams.getMinWordOccurrence());
 		results.put("selectedCounts", cloudInfo.getSelectedCounts());
-		
-		
-		this.taskResults = results;
-		
-		// Add wordInfo to table (only here for backwards compatibility)
-		if(cloudGroupTable != null) {
-			List<String> WC_Word = new ArrayList<>();
-			List<String> WC_FontSize = new ArrayList<>();
-			List<String> WC_Cluster = new ArrayList<>();
-			List<String> WC_Number = new ArrayList<>();
-			for (CloudWordInfo cloudWord : wordInfo) {
-				String[] split = cloudWord.toSplitString();
-				WC_Word.add(split[0]);
-				WC_FontSize.add(split[1]);
-				WC_Cluster.add(split[2]);
-				WC_Number.add(split[3]);
-			}
-	
-			CyRow clusterRow = cloudGroupTable.getRow(cloudName);
-			clusterRow.set("WC_Word", WC_Word);
-			clusterRow.set("WC_FontSize", WC_FontSize);
-			clusterRow.set("WC_Cluster", WC_Cluster);
-			clusterRow.set("WC_Number", WC_Number);
-		}
-	}
-	
-	
-	private void createColumn(CyTable nodeTable, String columnName) {
-		CyColumn column = nodeTable.getColumn(columnName);
-		if (column != null) {
-			nodeTable.deleteColumn(columnName);
-		}
-		nodeTable.createListColumn(columnName, String.class, false);
+		return results;
 	}
 	
 	
@@ -213,14 +201,28 @@ public class CreateCloudCommandTask implements ObservableTask {
 				"Key: \"words\", Value: List&lt;String&gt;, List of words in the cloud.<br>" +
 				"Key: \"fontSizes\", Value: List&lt;Integer&gt;, The font size of each word.<br>" +
 				"Key: \"clusters\", Value: List&lt;Integer&gt;, An ID for the cluster that the word belongs to.<br>" +
-				"Key: \"numbers\", Value: List&lt;Integer&gt;, A unique ID for each word.<br>";
+				"Key: \"numbers\", Value: List&lt;Integer&gt;, A unique ID for each word.<br>" +
+				"Key: \"preview\", Value: Boolean, True if the words were not clustered because preview=true was given.<br>" +
+				"Result type: String.class. The same lists as JSON, only the given fields and at most limit words, the largest ones.<br>" +
+				"The fields \"counts\" and \"ratios\" give the number of selected nodes and the ratio of each word.<br>";
 	}
 	
 	
 	@Override
 	public <R> R getResults(Class<? extends R> type) {
+		if(resultInfo == null)
+			return null;
 		if(Map.class.equals(type)) {
-			return type.cast(taskResults);
+			return type.cast(createResults(cloudName, resultCloud, resultInfo));
+		}
+		if(String.class.equals(type)) {
+			StringBuilder json = new StringBuilder();
+			try {
+				jsonWriter.write(json, cloudName, resultInfo);
+			} catch(IOException e) {
+				throw new IllegalStateException(e); // not thrown by StringBuilder
+			}
+			return type.cast(json.toString());
 		}
 		return null;
 	}
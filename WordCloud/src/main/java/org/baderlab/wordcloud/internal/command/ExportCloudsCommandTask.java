@@ -0,0 +1,240 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudLayout;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudRenderer;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+import org.cytoscape.work.util.ListSingleSelection;
+
+/**
+ * Writes images of the clouds of the current network to a directory, without displaying them.
+ * The clouds are calculated and rendered in parallel.
+ */
+public class ExportCloudsCommandTask implements ObservableTask {
+
+	private static final String PNG = "png";
+	private static final String SVG = "svg";
+	private static final String BOTH = "both";
+	
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudModelManager;
+	
+	private volatile ExecutorService executor;
+	private volatile boolean cancelled = false;
+	private List<String> files = Collections.emptyList();
+	
+	
+	@Tunable(description="Directory to write the images to, it is created if it does not exist")
+	public String directory;
+	
+	@Tunable(description="Comma separated names of the clouds to export. Default: all the clouds of the network.")
+	public String cloudNames = "";
+	
+	@Tunable(description="Image format: png, svg or both. Default: png.")
+	public ListSingleSelection<String> format = new ListSingleSelection<String>(PNG, SVG, BOTH);
+	
+	@Tunable(description="Width in pixels the words are wrapped to. Default: 800.")
+	public int width = 800;
+	
+	@Tunable(description="Resolution of PNG images, 1.0 is the size the cloud is displayed at, 2.0 doubles the width and height. Default: 1.0.")
+	public double scale = 1.0;
+	
+	@Tunable(description="Maximum number of clouds that are exported at the same time. Default: number of processors.")
+	public int threads = Runtime.getRuntime().availableProcessors();
+	
+	
+	public ExportCloudsCommandTask(CyApplicationManager applicationManager, CloudModelManager cloudModelManager) {
+		this.applicationManager = applicationManager;
+		this.cloudModelManager = cloudModelManager;
+	}
+	
+	
+	@Override
+	public void run(TaskMonitor monitor) throws Exception {
+		if(directory == null || directory.trim().isEmpty())
+			throw new IllegalArgumentException("directory is null");
+		if(width < 0)
+			throw new IllegalArgumentException("width must not be negative");
+		if(scale <= 0)
+			throw new IllegalArgumentException("scale must be positive");
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		NetworkParameters networkParams = network == null ? null : cloudModelManager.getNetworkParameters(network);
+		if(networkParams == null)
+			throw new IllegalArgumentException("the current network does not have any clouds");
+		
+		List<CloudParameters> clouds = getClouds(networkParams, cloudNames);
+		
+		final File dir = new File(directory);
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IllegalArgumentException("cannot create directory: " + dir);
+		
+		final String selectedFormat = format.getSelectedValue() == null ? PNG : format.getSelectedValue();
+		final CloudRenderer renderer = new CloudRenderer(GlyphCache.getSharedInstance());
+		final Map<CloudParameters,String> fileNames = getFileNames(clouds);
+		
+		monitor.setTitle("Exporting Clouds");
+		
+		// a bounded pool, computing a cloud for a large network takes a lot of memory
+		int poolSize = Math.max(1, Math.min(threads, clouds.size()));
+		executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(clouds.size());
+			for(final CloudParameters cloud : clouds) {
+				futures.add(executor.submit(new Callable<List<String>>() {
+					public List<String> call() throws Exception {
+						return export(cloud, fileNames.get(cloud), renderer, dir, selectedFormat);
+					}
+				}));
+			}
+			
+			List<String> written = new ArrayList<String>();
+			for(int i = 0; i < futures.size(); i++) {
+				if(cancelled)
+					return;
+				try {
+					written.addAll(futures.get(i).get());
+				} catch(ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+				monitor.setProgress((i + 1) / (double) futures.size());
+			}
+			files = written;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	
+	/**
+	 * Returns the clouds with the given comma separated names, or all the clouds if no names are given.
+	 */
+	static List<CloudParameters> getClouds(NetworkParameters networkParams, String cloudNames) {
+		if(cloudNames == null || cloudNames.trim().isEmpty())
+			return networkParams.getClouds();
+		
+		List<CloudParameters> clouds = new ArrayList<CloudParameters>();
+		for(String name : cloudNames.split(",")) {
+			CloudParameters cloud = networkParams.getCloud(name.trim());
+			if(cloud == null)
+				throw new IllegalArgumentException("cloud not found: " + name.trim());
+			clouds.add(cloud);
+		}
+		return clouds;
+	}
+	
+	
+	private List<String> export(CloudParameters cloud, String baseName, CloudRenderer renderer, File dir, String format) throws Exception {
+		CloudInfo cloudInfo = cloud.calculateCloud();
+		CloudLayout layout = renderer.layout(cloudInfo, width);
+		List<String> written = new ArrayList<String>(2);
+		if(!SVG.equals(format)) {
+			File file = new File(dir, baseName + "." + PNG);
+			renderer.writePng(layout, scale, file);
+			written.add(file.getAbsolutePath());
+		}
+		if(!PNG.equals(format)) {
+			File file = new File(dir, baseName + "." + SVG);
+			renderer.writeSvg(layout, file);
+			written.add(file.getAbsolutePath());
+		}
+		return written;
+	}
+	
+	
+	private static String toFileName(String cloudName) {
+		return cloudName.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+	
+	/**
+	 * Returns the name of the files of each cloud without the extension. Different cloud names can give
+	 * the same file name, for example "a b" and "a_b", those clouds get their cloud number appended.
+	 * Names are compared ignoring case because not all file systems tell "A" and "a" apart.
+	 */
+	private static Map<CloudParameters,String> getFileNames(List<CloudParameters> clouds) {
+		Map<String,Integer> counts = new HashMap<String,Integer>();
+		for(CloudParameters cloud : clouds) {
+			String key = toFileName(cloud.getCloudName()).toLowerCase(Locale.ROOT);
+			Integer count = counts.get(key);
+			counts.put(key, count == null ? 1 : count + 1);
+		}
+		
+		// names that are unique are kept as they are, the others must not take them
+		Map<CloudParameters,String> fileNames = new HashMap<CloudParameters,String>();
+		Set<String> taken = new HashSet<String>();
+		for(CloudParameters cloud : clouds) {
+			String name = toFileName(cloud.getCloudName());
+			if(counts.get(name.toLowerCase(Locale.ROOT)) == 1) {
+				fileNames.put(cloud, name);
+				taken.add(name.toLowerCase(Locale.ROOT));
+			}
+		}
+		for(CloudParameters cloud : clouds) {
+			if(fileNames.containsKey(cloud))
+				continue;
+			String base = toFileName(cloud.getCloudName()) + "_" + cloud.getCloudNum();
+			String name = base;
+			for(int i = 2; !taken.add(name.toLowerCase(Locale.ROOT)); i++) {
+				name = base + "_" + i;
+			}
+			fileNames.put(cloud, name);
+		}
+		return fileNames;
+	}
+	
+	
+	@Override
+	public void cancel() {
+		cancelled = true;
+		ExecutorService executor = this.executor;
+		if(executor != null)
+			executor.shutdownNow();
+	}
+	
+	
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(List.class.equals(type)) {
+			return type.cast(new ArrayList<String>(files));
+		}
+		if(String.class.equals(type)) {
+			StringBuilder sb = new StringBuilder();
+			for(String file : files)
+				sb.append(file).append('\n');
+			return type.cast(sb.toString());
+		}
+		return null;
+	}
+	
+	
+	public static String getDescription() {
+		return 	"Writes images of the clouds of the current network to a directory.<br>" +
+				"The clouds do not have to be displayed, several clouds are exported at the same time.<br>" +
+				"This is an ObservableTask that returns a result.<br>" +
+				"Result type: List.class, the absolute paths of the files that were written.";
+	}
+}
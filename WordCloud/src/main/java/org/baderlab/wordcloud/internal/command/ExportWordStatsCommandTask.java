@@ -0,0 +1,121 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.WordStatsWriter;
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+
+/**
+ * Writes the statistics of all the words of the clouds of the current network to a binary file,
+ * see {@link WordStatsWriter} for the format. The clouds are calculated one at a time so that
+ * exporting the clouds of a large network doesn't use more memory than calculating one of them.
+ */
+public class ExportWordStatsCommandTask implements ObservableTask {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudModelManager;
+	
+	private volatile boolean cancelled = false;
+	private Map<String, Object> taskResults;
+	
+	
+	@Tunable(description="File to write the statistics to, it is replaced if it exists")
+	public String file;
+	
+	@Tunable(description="Comma separated names of the clouds to export. Default: all the clouds of the network.")
+	public String cloudNames = "";
+	
+	
+	public ExportWordStatsCommandTask(CyApplicationManager applicationManager, CloudModelManager cloudModelManager) {
+		this.applicationManager = applicationManager;
+		this.cloudModelManager = cloudModelManager;
+	}
+	
+	
+	@Override
+	public void run(TaskMonitor monitor) throws Exception {
+		if(file == null || file.trim().isEmpty())
+			throw new IllegalArgumentException("file is null");
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		NetworkParameters networkParams = network == null ? null : cloudModelManager.getNetworkParameters(network);
+		if(networkParams == null)
+			throw new IllegalArgumentException("the current network does not have any clouds");
+		
+		List<CloudParameters> clouds = ExportCloudsCommandTask.getClouds(networkParams, cloudNames);
+		
+		monitor.setTitle("Exporting Word Statistics");
+		
+		File outputFile = new File(file.trim());
+		boolean success = false;
+		try(FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			WordStatsWriter writer = new WordStatsWriter(channel, networkParams.getNetworkName())) {
+			for(int i = 0; i < clouds.size(); i++) {
+				if(cancelled)
+					return;
+				CloudParameters cloud = clouds.get(i);
+				monitor.setStatusMessage("Cloud " + cloud.getCloudName());
+				// the words of a restored cloud have to be counted again
+				CloudInfo cloudInfo = cloud.calculateFullCloud();
+				writer.write(cloud.getCloudName(), cloudInfo);
+				monitor.setProgress((i + 1) / (double) clouds.size());
+			}
+			
+			Map<String, Object> results = new LinkedHashMap<String, Object>();
+			results.put("file", outputFile.getAbsolutePath());
+			results.put("clouds", writer.getCloudCount());
+			results.put("words", writer.getVocabularySize());
+			results.put("rows", writer.getRowCount());
+			taskResults = results;
+			success = true;
+		} finally {
+			if(!success)
+				outputFile.delete();
+		}
+	}
+	
+	
+	@Override
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	
+	public static String getDescription() {
+		return 	"Writes the statistics of all the words of the clouds of the current network to a binary file.<br>" +
+				"For each cloud and word: the selected and network counts, the ratio, the font size and the cluster.<br>" +
+				"For each cloud and pair of words: the selected and network counts, the ratio and the probability.<br>" +
+				"The values are stored as arrays of numbers and the words as ids into a vocabulary.<br>" +
+				"This is an ObservableTask that returns a result.<br>" +
+				"Result type: Map.class.<br>" +
+				"Key: \"file\", Value: String, Absolute path of the file.<br>" +
+				"Key: \"clouds\", Value: Integer, Number of clouds written.<br>" +
+				"Key: \"words\", Value: Integer, Number of distinct words in the vocabulary.<br>" +
+				"Key: \"rows\", Value: Long, Number of words and pairs written for all the clouds.<br>";
+	}
+	
+	
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(Map.class.equals(type)) {
+			return type.cast(taskResults);
+		}
+		if(String.class.equals(type) && taskResults != null) {
+			return type.cast(taskResults.get("file") + ": " + taskResults.get("clouds") + " clouds, " + taskResults.get("rows") + " rows");
+		}
+		return null;
+	}
+}
@@ -0,0 +1,28 @@
+package org.baderlab.wordcloud.internal.command;
+
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.work.TaskFactory;
+import org.cytoscape.work.TaskIterator;
+
+public class ExportWordStatsCommandTaskFactory implements TaskFactory {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudModelManager;
+	
+	public ExportWordStatsCommandTaskFactory(CyApplicationManager applicationManager, CloudModelManager cloudModelManager) {
+		this.applicationManager = applicationManager;
+		this.cloudModelManager = cloudModelManager;
+	}
+	
+	@Override
+	public TaskIterator createTaskIterator() {
+		return new TaskIterator(new ExportWordStatsCommandTask(applicationManager, cloudModelManager));
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+
+}
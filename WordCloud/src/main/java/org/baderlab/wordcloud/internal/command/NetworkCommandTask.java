@@ -0,0 +1,17 @@
+package org.baderlab.wordcloud.internal.command;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.ObservableTask;
+
+/**
+ * A command that works on the current network. The network can be set before the command
+ * runs, so that a command that is queued works on the network that was current when it was
+ * submitted and not on whatever network is current when its turn comes.
+ */
+public interface NetworkCommandTask extends ObservableTask {
+
+	/**
+	 * @param network the network to use instead of the current network, null for the current network
+	 */
+	void setNetwork(CyNetwork network);
+}
@@ -0,0 +1,68 @@
+package org.baderlab.wordcloud.internal.command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.work.ContainsTunables;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * The asynchronous variant of another command, it takes the same arguments but only queues
+ * the command with the {@link CloudJobManager} and returns the id of the job right away.
+ * A {@link NetworkCommandTask} is given the current network when it is submitted.
+ */
+public class SubmitJobCommandTask implements ObservableTask {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudJobManager jobManager;
+	private final String command;
+	
+	@ContainsTunables
+	public final ObservableTask task;
+	
+	private String jobId;
+	
+	
+	public SubmitJobCommandTask(CyApplicationManager applicationManager, CloudJobManager jobManager, String command, ObservableTask task) {
+		this.applicationManager = applicationManager;
+		this.jobManager = jobManager;
+		this.command = command;
+		this.task = task;
+	}
+	
+	@Override
+	public void run(TaskMonitor monitor) {
+		// the current network may have changed by the time the job runs
+		if(task instanceof NetworkCommandTask)
+			((NetworkCommandTask) task).setNetwork(applicationManager.getCurrentNetwork());
+		jobId = jobManager.submit(command, task);
+	}
+	
+	@Override
+	public void cancel() {
+	}
+	
+	
+	public static String getDescription(String command) {
+		return 	"Runs the " + command + " command in the background, it takes the same arguments as the " + command + " command.<br>" +
+				"Returns immediately, use the job commands to get the status and the results.<br>" +
+				"This is an ObservableTask that returns a result.<br>" +
+				"Result type: Map.class.<br>" +
+				"Key: \"jobId\", Value: String, the id of the job.<br>";
+	}
+	
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if(Map.class.equals(type)) {
+			Map<String, Object> results = new HashMap<>();
+			results.put("jobId", jobId);
+			return type.cast(results);
+		}
+		if(String.class.equals(type)) {
+			return type.cast(jobId);
+		}
+		return null;
+	}
+}
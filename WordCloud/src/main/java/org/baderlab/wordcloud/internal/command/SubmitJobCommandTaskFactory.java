@@ -0,0 +1,36 @@
+package org.baderlab.wordcloud.internal.command;
+
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.TaskFactory;
+import org.cytoscape.work.TaskIterator;
+
+public class SubmitJobCommandTaskFactory implements TaskFactory {
+
+	private final CyApplicationManager applicationManager;
+	private final CloudJobManager jobManager;
+	private final String command;
+	private final TaskFactory commandFactory;
+	
+	/**
+	 * @param commandFactory must create one ObservableTask that returns its results as a Map
+	 */
+	public SubmitJobCommandTaskFactory(CyApplicationManager applicationManager, CloudJobManager jobManager, String command, TaskFactory commandFactory) {
+		this.applicationManager = applicationManager;
+		this.jobManager = jobManager;
+		this.command = command;
+		this.commandFactory = commandFactory;
+	}
+	
+	@Override
+	public TaskIterator createTaskIterator() {
+		ObservableTask task = (ObservableTask) commandFactory.createTaskIterator().next();
+		return new TaskIterator(new SubmitJobCommandTask(applicationManager, jobManager, command, task));
+	}
+
+	@Override
+	public boolean isReady() {
+		return commandFactory.isReady();
+	}
+
+}
@@ -36,9 +36,12 @@ public class CloudBuilder {
 	private String clusterColumnName = null;
 	private CyTable clusterTable = null;
 	
+	private MembershipStorage storage;
+	
 	
 	CloudBuilder(NetworkParameters network) {
 		this.networkParams = network;
+		this.storage = network.getManager().getStoragePropertyValue();
 	}
 	
 	public CloudParameters build() {
@@ -48,7 +51,7 @@ public class CloudBuilder {
 	/**
 	 * Returns a CloudParameters object that is not actually linked into the model.
 	 * No events are fired.
-	 * This is solely for the purpose of the create command to return the cloud
+	 * This is solely for the purpose of the create and batch commands to return the cloud
 	 * results without actually creating a cloud.
 	 */
 	public CloudParameters buildFakeCloud() {
@@ -69,6 +72,7 @@ public class CloudBuilder {
 		setMinWordOccurrence(other.getMinWordOccurrence());
 		setClusterColumnName(other.getClusterColumnName());
 		setClusterTable(other.getClusterTable());
+		setStorage(other.getStorage());
 		return this;
 	}
 	
@@ -136,6 +140,11 @@ public class CloudBuilder {
 		return this;
 	}
 	
+	public CloudBuilder setStorage(MembershipStorage storage) {
+		this.storage = storage == null ? MembershipStorage.getDefault() : storage;
+		return this;
+	}
+	
 	
 	public Collection<CyNode> getNodes() {
 		return nodes;
@@ -180,4 +189,8 @@ public class CloudBuilder {
 	public CyTable getClusterTable() {
 		return clusterTable;
 	}
+
+	public MembershipStorage getStorage() {
+		return storage;
+	}
 }
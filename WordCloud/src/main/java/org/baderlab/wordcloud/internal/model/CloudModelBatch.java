@@ -0,0 +1,82 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.model.CyTable;
+
+/**
+ * A batch of changes to the model made by one thread, see {@link CloudModelManager#startBatch()}.
+ * Meant to be used in a try-with-resources statement, batches may be nested, the changes 
+ * are applied when the outermost batch is closed.
+ */
+public class CloudModelBatch implements AutoCloseable {
+
+	private final CloudModelManager manager;
+	private final CloudModelChanges changes = new CloudModelChanges();
+	
+	// table operations that are done together when the batch ends
+	private final Map<CyTable, Set<String>> deletedColumns = new LinkedHashMap<CyTable, Set<String>>();
+	private final List<CloudParameters> columnClouds = new ArrayList<CloudParameters>();
+	
+	private int depth = 1;
+	
+	
+	CloudModelBatch(CloudModelManager manager) {
+		this.manager = manager;
+	}
+	
+	void enter() {
+		depth++;
+	}
+	
+	CloudModelChanges getChanges() {
+		return changes;
+	}
+	
+	
+	void deleteColumn(CyTable table, String columnName) {
+		Set<String> names = deletedColumns.get(table);
+		if(names == null) {
+			names = new LinkedHashSet<String>();
+			deletedColumns.put(table, names);
+		}
+		names.add(columnName);
+	}
+	
+	boolean isColumnDeleted(CyTable table, String columnName) {
+		Set<String> names = deletedColumns.get(table);
+		return names != null && names.contains(columnName);
+	}
+	
+	/**
+	 * The cloud uses bitmap storage until the batch ends, then its column is created.
+	 */
+	void createColumnLater(CloudParameters cloud) {
+		columnClouds.add(cloud);
+	}
+	
+	Map<CyTable, Set<String>> getDeletedColumns() {
+		return deletedColumns;
+	}
+	
+	List<CloudParameters> getColumnClouds() {
+		return columnClouds;
+	}
+	
+	
+	/**
+	 * Ends the batch, when the outermost batch is closed the pending table operations are done
+	 * and the listeners get a single {@link CloudModelListener#modelChanged(CloudModelChanges)} event.
+	 */
+	@Override
+	public void close() {
+		if(--depth == 0) {
+			manager.endBatch(this);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The changes made to the model during a batch, fired as a single event when the batch ends, 
+ * see {@link CloudModelManager#startBatch()}. 
+ * 
+ * The changes are coalesced: a cloud that was added is not also reported as modified, and a
+ * cloud that was added and deleted in the same batch is not reported at all. 
+ * Each set is in the order the changes were made.
+ */
+public class CloudModelChanges {
+
+	private final Set<CloudParameters> addedClouds = new LinkedHashSet<CloudParameters>();
+	private final Set<CloudParameters> deletedClouds = new LinkedHashSet<CloudParameters>();
+	private final Set<CloudParameters> modifiedClouds = new LinkedHashSet<CloudParameters>();
+	private final Set<NetworkParameters> modifiedNetworks = new LinkedHashSet<NetworkParameters>();
+	private final Set<NetworkParameters> removedNetworks = new LinkedHashSet<NetworkParameters>();
+	
+	
+	void cloudAdded(CloudParameters cloud) {
+		addedClouds.add(cloud);
+	}
+	
+	void cloudDeleted(CloudParameters cloud) {
+		modifiedClouds.remove(cloud);
+		if(!addedClouds.remove(cloud))
+			deletedClouds.add(cloud);
+	}
+	
+	void cloudModified(CloudParameters cloud) {
+		if(!addedClouds.contains(cloud) && !deletedClouds.contains(cloud))
+			modifiedClouds.add(cloud);
+	}
+	
+	void networkModified(NetworkParameters network) {
+		if(network != null)
+			modifiedNetworks.add(network);
+	}
+	
+	void networkRemoved(NetworkParameters network) {
+		if(network != null) {
+			modifiedNetworks.remove(network);
+			removedNetworks.add(network);
+		}
+	}
+	
+	
+	public Set<CloudParameters> getAddedClouds() {
+		return Collections.unmodifiableSet(addedClouds);
+	}
+	
+	public Set<CloudParameters> getDeletedClouds() {
+		return Collections.unmodifiableSet(deletedClouds);
+	}
+	
+	/**
+	 * Clouds that were renamed or changed in some other way, not including the added and deleted clouds.
+	 */
+	public Set<CloudParameters> getModifiedClouds() {
+		return Collections.unmodifiableSet(modifiedClouds);
+	}
+	
+	public Set<NetworkParameters> getModifiedNetworks() {
+		return Collections.unmodifiableSet(modifiedNetworks);
+	}
+	
+	public Set<NetworkParameters> getRemovedNetworks() {
+		return Collections.unmodifiableSet(removedNetworks);
+	}
+	
+	/**
+	 * Returns every network that has a cloud or itself in one of the sets.
+	 */
+	public Set<NetworkParameters> getAffectedNetworks() {
+		Set<NetworkParameters> networks = new LinkedHashSet<NetworkParameters>();
+		for(CloudParameters cloud : addedClouds)
+			networks.add(cloud.getNetworkParams());
+		for(CloudParameters cloud : deletedClouds)
+			networks.add(cloud.getNetworkParams());
+		for(CloudParameters cloud : modifiedClouds)
+			networks.add(cloud.getNetworkParams());
+		networks.addAll(modifiedNetworks);
+		networks.addAll(removedNetworks);
+		return networks;
+	}
+	
+	public boolean isEmpty() {
+		return addedClouds.isEmpty() && deletedClouds.isEmpty() && modifiedClouds.isEmpty() 
+			&& modifiedNetworks.isEmpty() && removedNetworks.isEmpty();
+	}
+}
@@ -32,4 +32,10 @@ public interface CloudModelListener {
 	 */
 	void networkModified(NetworkParameters networkParams);
 	
+	/**
+	 * Event fired once when a {@link CloudModelBatch} is closed, instead of the individual events
+	 * for the changes made during the batch. Not fired if nothing changed.
+	 */
+	void modelChanged(CloudModelChanges changes);
+	
 }
@@ -9,10 +9,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.baderlab.wordcloud.internal.ClusterTableWriter;
 import org.baderlab.wordcloud.internal.Constants;
+import org.baderlab.wordcloud.internal.SelectionWriter;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.io.util.StreamUtil;
 import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyEdge;
@@ -23,21 +27,20 @@ import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableManager;
-import org.cytoscape.model.events.ColumnDeletedEvent;
-import org.cytoscape.model.events.ColumnDeletedListener;
-import org.cytoscape.model.events.ColumnNameChangedEvent;
-import org.cytoscape.model.events.ColumnNameChangedListener;
 import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
 import org.cytoscape.model.events.NetworkAboutToBeDestroyedListener;
 import org.cytoscape.model.events.RemovedNodesEvent;
 import org.cytoscape.model.events.RemovedNodesListener;
+import org.cytoscape.model.events.RowsSetEvent;
 import org.cytoscape.property.CyProperty;
 
-public class CloudModelManager implements NetworkAboutToBeDestroyedListener, RemovedNodesListener, ColumnNameChangedListener, ColumnDeletedListener {
+public class CloudModelManager implements NetworkAboutToBeDestroyedListener, RemovedNodesListener {
 
 	static final Lock uidLock = new ReentrantLock();
 	
 	private final Map<CyNetwork, NetworkParameters> networks;
+	private final Map<CyTable, NetworkParameters> nodeTables;
+	private final Map<CyTable, NetworkParameters> networkTables;
 	private final Set<CloudModelListener> listeners;
 	private NetworkParameters nullNetwork;
 
@@ -45,6 +48,13 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	private final CyTableManager tableManager;
 	private final StreamUtil streamUtil;
 	private final CyProperty<Properties> cyProperties;
+	private final SelectionWriter selectionWriter;
+	private final ClusterTableWriter clusterTableWriter;
+	
+	private final ThreadLocal<CloudModelBatch> batches = new ThreadLocal<CloudModelBatch>();
+	
+	private volatile boolean rowEventsTracked = true;
+	private volatile TokenIndexStore tokenIndexStore;
 	
 	
 	/**
@@ -54,13 +64,24 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	 * if more than one CloudModelManager is created.
 	 */
 	public CloudModelManager(CyNetworkManager networkManager, CyTableManager tableManager, StreamUtil streamUtil, CyProperty<Properties> cyProperties) {
+		this(networkManager, tableManager, streamUtil, cyProperties, null);
+	}
+	
+	/**
+	 * @param eventHelper used to batch the row events when writing selections, may be null
+	 */
+	public CloudModelManager(CyNetworkManager networkManager, CyTableManager tableManager, StreamUtil streamUtil, CyProperty<Properties> cyProperties, CyEventHelper eventHelper) {
 		this.networkManager = networkManager;
 		this.tableManager = tableManager;
 		this.streamUtil = streamUtil;
 		this.cyProperties = cyProperties;
+		this.selectionWriter = new SelectionWriter(eventHelper);
+		this.clusterTableWriter = new ClusterTableWriter(eventHelper);
 		
 		this.listeners = new LinkedHashSet<CloudModelListener>(); // no duplicates, maintain insertion order
 		this.networks = new HashMap<CyNetwork, NetworkParameters>();
+		this.nodeTables = new ConcurrentHashMap<CyTable, NetworkParameters>();
+		this.networkTables = new ConcurrentHashMap<CyTable, NetworkParameters>();
 	}
 	
 	
@@ -74,6 +95,10 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 			return getNetworkParameters(network);
 		NetworkParameters networkParameters = new NetworkParameters(this, network);
 		networks.put(network, networkParameters);
+		nodeTables.put(network.getDefaultNodeTable(), networkParameters);
+		nodeTables.put(network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS), networkParameters);
+		networkTables.put(network.getDefaultNetworkTable(), networkParameters);
+		networkTables.put(network.getTable(CyNetwork.class, CyNetwork.LOCAL_ATTRS), networkParameters);
 		return networkParameters;
 	}
 	
@@ -86,6 +111,10 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	
 	public void removeNetwork(CyNetwork network) {
 		NetworkParameters removed = networks.remove(network);
+		if(removed != null) {
+			nodeTables.values().removeAll(Collections.singleton(removed));
+			networkTables.values().removeAll(Collections.singleton(removed));
+		}
 		fireNetworkRemoved(removed);
 	}
 	
@@ -101,6 +130,22 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 		return networks.get(network);
 	}
 	
+	/**
+	 * Returns the network that uses the given table as its default or local node table,
+	 * or null if the table does not belong to a network managed by WordCloud.
+	 */
+	public NetworkParameters getNetworkForNodeTable(CyTable table) {
+		return table == null ? null : nodeTables.get(table);
+	}
+	
+	/**
+	 * Returns the network that uses the given table as its default or local network table,
+	 * or null if the table does not belong to a network managed by WordCloud.
+	 */
+	public NetworkParameters getNetworkForNetworkTable(CyTable table) {
+		return table == null ? null : networkTables.get(table);
+	}
+	
 	
 	public boolean addListener(CloudModelListener listener) {
 		return listeners.add(listener);
@@ -112,31 +157,132 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	
 	
 	
+	/**
+	 * Starts a batch of changes made by the current thread, the changes must be made before the batch is closed.
+	 * Until then the listeners are not notified, instead they get a single
+	 * {@link CloudModelListener#modelChanged(CloudModelChanges)} event when the batch is closed.
+	 * The columns of deleted clouds are deleted, and the columns of new clouds created, when the batch is closed.
+	 * If a batch is already open for this thread the same batch is returned, only closing the outermost batch ends it.
+	 */
+	public CloudModelBatch startBatch() {
+		CloudModelBatch batch = batches.get();
+		if(batch == null) {
+			batch = new CloudModelBatch(this);
+			batches.set(batch);
+		} else {
+			batch.enter();
+		}
+		return batch;
+	}
+	
+	/**
+	 * Returns the open batch of the current thread or null.
+	 */
+	CloudModelBatch getBatch() {
+		return batches.get();
+	}
+	
+	void endBatch(CloudModelBatch batch) {
+		try {
+			for(Map.Entry<CyTable, Set<String>> entry : batch.getDeletedColumns().entrySet()) {
+				CyTable table = entry.getKey();
+				for(String columnName : entry.getValue()) {
+					if(table.getColumn(columnName) != null) {
+						table.deleteColumn(columnName);
+					}
+				}
+			}
+			for(CloudParameters cloud : batch.getColumnClouds()) {
+				if(cloud.getNetworkParams().getCloud(cloud.getCloudName()) != cloud) // deleted during the batch
+					continue;
+				try {
+					cloud.materializeColumn();
+				} catch(IllegalArgumentException e) {
+					// a column with the name was created during the batch, the cloud keeps using a bitmap
+				}
+			}
+		} finally {
+			batches.remove();
+		}
+		
+		CloudModelChanges changes = batch.getChanges();
+		if(!changes.isEmpty()) {
+			for(CloudModelListener listener : listeners) {
+				listener.modelChanged(changes);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the column, or if a batch is open deletes it when the batch is closed.
+	 */
+	void deleteColumn(CyTable table, String columnName) {
+		CloudModelBatch batch = batches.get();
+		if(batch == null)
+			table.deleteColumn(columnName);
+		else
+			batch.deleteColumn(table, columnName);
+	}
+	
+	/**
+	 * Returns true if the column will be deleted when the open batch of the current thread is closed.
+	 */
+	boolean isColumnDeletePending(CyTable table, String columnName) {
+		CloudModelBatch batch = batches.get();
+		return batch != null && batch.isColumnDeleted(table, columnName);
+	}
+	
+	
 	protected void fireCloudAdded(CloudParameters cloudParams) {
+		CloudModelBatch batch = batches.get();
+		if(batch != null) {
+			batch.getChanges().cloudAdded(cloudParams);
+			return;
+		}
 		for(CloudModelListener listener : listeners) {
 			listener.cloudAdded(cloudParams);
 		}
 	}
 	
 	protected void fireNetworkRemoved(NetworkParameters networkParams) {
+		CloudModelBatch batch = batches.get();
+		if(batch != null) {
+			batch.getChanges().networkRemoved(networkParams);
+			return;
+		}
 		for(CloudModelListener listener : listeners) {
 			listener.networkRemoved(networkParams);
 		}
 	}
 	
 	protected void fireNetworkModified(NetworkParameters networkParams) {
+		CloudModelBatch batch = batches.get();
+		if(batch != null) {
+			batch.getChanges().networkModified(networkParams);
+			return;
+		}
 		for(CloudModelListener listener : listeners) {
 			listener.networkModified(networkParams);
 		}
 	}
 	
 	protected void fireCloudDeleted(CloudParameters cloudParams) {
+		CloudModelBatch batch = batches.get();
+		if(batch != null) {
+			batch.getChanges().cloudDeleted(cloudParams);
+			return;
+		}
 		for(CloudModelListener listener : listeners) {
 			listener.cloudDeleted(cloudParams);
 		}
 	}
 	
 	protected void fireCloudModified(CloudParameters cloudParameters) {
+		CloudModelBatch batch = batches.get();
+		if(batch != null) {
+			batch.getChanges().cloudModified(cloudParameters);
+			return;
+		}
 		for(CloudModelListener listener : listeners) {
 			listener.cloudModified(cloudParameters);
 		}
@@ -234,6 +380,25 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 		return streamUtil;
 	}
 	
+	public SelectionWriter getSelectionWriter() {
+		return selectionWriter;
+	}
+	
+	public ClusterTableWriter getClusterTableWriter() {
+		return clusterTableWriter;
+	}
+	
+	/**
+	 * Token indexes are only kept in memory if no store is set.
+	 */
+	public void setTokenIndexStore(TokenIndexStore tokenIndexStore) {
+		this.tokenIndexStore = tokenIndexStore;
+	}
+	
+	TokenIndexStore getTokenIndexStore() {
+		return tokenIndexStore;
+	}
+	
 	
 	/**
 	 * Return the default net weight as set in the properties.
@@ -257,6 +422,40 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 		}
 	}
 
+	
+	/**
+	 * Return the size in MB of the token index cache on disk as set in the properties, 0 turns it off.
+	 */
+	public long getTokenIndexCacheSizePropertyValue() {
+		final String propName = "wordcloud.tokenIndexCacheMB";
+		final long defaultValue = 512;
+		try {
+			long value = Long.valueOf((String)cyProperties.getProperties().get(propName));
+			if(value < 0) {
+				cyProperties.getProperties().put(propName, "0");
+				return 0;
+			}
+			return value;
+		} catch(Exception e) {
+			cyProperties.getProperties().put(propName, String.valueOf(defaultValue));
+			return defaultValue;
+		}
+	}
+
+	
+	/**
+	 * Return the default membership storage for new clouds as set in the properties.
+	 */
+	MembershipStorage getStoragePropertyValue() {
+		final String propName = "wordcloud.membershipStorage";
+		MembershipStorage storage = MembershipStorage.fromString((String)cyProperties.getProperties().get(propName));
+		if(storage == null) {
+			storage = MembershipStorage.getDefault();
+			cyProperties.getProperties().put(propName, storage.name().toLowerCase());
+		}
+		return storage;
+	}
+
 
 	@Override
 	public void handleEvent(NetworkAboutToBeDestroyedEvent e) {
@@ -271,6 +470,9 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	public synchronized void handleEvent(RemovedNodesEvent e) {
 		CyNetwork network = e.getSource();
 		NetworkParameters networkParams = networks.get(network);
+		if(networkParams != null) {
+			networkParams.nodesRemoved();
+		}
 		fireNetworkModified(networkParams);
 		
 		// Below code doesn't seem necessary because CloudParameters.getSelectedNodes() checks which of its nodes are actually selected.
@@ -303,31 +505,64 @@ public class CloudModelManager implements NetworkAboutToBeDestroyedListener, Rem
 	}
 
 
-	@Override
-	public void handleEvent(ColumnNameChangedEvent e) {
-		handleColumnNameChange(e.getSource(), e.getOldColumnName(), e.getNewColumnName());
+	/**
+	 * Must be set to false when row events are no longer being passed to {@link #rowsSet(RowsSetEvent)}.
+	 * While row events are not tracked the cached cloud selections can't be trusted and the cloud columns
+	 * are read every time. When tracking resumes the caches are thrown away.
+	 */
+	public void setRowEventsTracked(boolean tracked) {
+		if(tracked && !rowEventsTracked) {
+			for(NetworkParameters networkParams : getNetworks()) {
+				networkParams.invalidateSelections();
+				networkParams.invalidateTokenIndexes();
+			}
+		}
+		rowEventsTracked = tracked;
 	}
+	
+	boolean isRowEventsTracked() {
+		return rowEventsTracked;
+	}
+	
 
-	@Override
-	public void handleEvent(ColumnDeletedEvent e) {
-		handleColumnNameChange(e.getSource(), e.getColumnName(), null);
+	/**
+	 * Called by TableEventRouter when rows have been set in a node table.
+	 */
+	public void rowsSet(RowsSetEvent e) {
+		NetworkParameters networkParams = getNetworkForNodeTable(e.getSource());
+		if(networkParams != null) {
+			networkParams.rowsSet(e);
+		}
+	}
+	
+	/**
+	 * Called by TableEventRouter when a column has been renamed.
+	 */
+	public void columnNameChanged(CyTable table, String oldName, String newName) {
+		handleColumnNameChange(table, oldName, newName);
+	}
+	
+	/**
+	 * Called by TableEventRouter when a column has been deleted.
+	 */
+	public void columnDeleted(CyTable table, String columnName) {
+		handleColumnNameChange(table, columnName, null);
 	}
 
 	
 	private void handleColumnNameChange(CyTable table, String oldName, String newName) {
-		List<CloudParameters> modifiedClouds = new ArrayList<CloudParameters>();
+		NetworkParameters networkParams = getNetworkForNodeTable(table);
+		if(networkParams == null)
+			return;
+		networkParams.columnRemoved(oldName);
 		
-		for(NetworkParameters networkParams : getNetworks()) {
-			CyNetwork network = networkParams.getNetwork();
-			if(network.getDefaultNodeTable().equals(table) || network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS).equals(table)) {
-				for(CloudParameters cloudParams : networkParams.getClouds()) {
-					if(cloudParams.getAttributeNames().contains(oldName)) {
-						cloudParams.removeAttribtueName(oldName);
-						if(newName != null)
-							cloudParams.addAttributeName(newName);
-						modifiedClouds.add(cloudParams);
-					}
-				}
+		List<CloudParameters> modifiedClouds = new ArrayList<CloudParameters>();
+		for(CloudParameters cloudParams : networkParams.getClouds()) {
+			if(cloudParams.getAttributeNames().contains(oldName)) {
+				cloudParams.removeAttribtueName(oldName);
+				if(newName != null)
+					cloudParams.addAttributeName(newName);
+				modifiedClouds.add(cloudParams);
 			}
 		}
 		
@@ -24,21 +24,26 @@ package org.baderlab.wordcloud.internal.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
 
 import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
 import org.baderlab.wordcloud.internal.cluster.CloudInfo;
 import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyIdentifiable;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableManager;
+import org.cytoscape.model.events.RowSetRecord;
 
 /**
  * The CloudParameters class defines all of the variables that are
@@ -60,7 +65,9 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	private final NetworkParameters networkParams; //parent network
 	private CloudInfo cloudWordInfoBuilder;
-	private boolean calculated = false;
+	private volatile boolean calculated = false;
+	/** Incremented whenever the cloud would look different, see getResultVersion() */
+	private final AtomicInteger resultVersion = new AtomicInteger();
 	
 	private String cloudName;
 	private List<String> attributeNames;
@@ -78,6 +85,18 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	/** Allows to explicitiy set the nodes instead of using a table column */
 	private Set<CyNode> overrideNodes = null;
 	
+	private MembershipStorage storage;
+	/** The nodes in the cloud when using {@link MembershipStorage#BITMAP} */
+	private NodeBitmap members = NodeBitmap.EMPTY;
+	
+	/** Selection read from the cloud column or bitmap, only valid while the column or bitmap is the same object */
+	private volatile SelectionCache selection = null;
+	private final Object selectionLock = new Object();
+	
+	// members and result saved with the session that haven't been decoded yet
+	private volatile SessionFormat.PendingState pendingState = null;
+	private boolean restoringPendingState = false;
+	
 	
 	//String Delimeters
 	//private static final String NODEDELIMITER = "CloudParamNodeDelimiter";
@@ -92,20 +111,50 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	 * Default constructor to create a fresh instance
 	 */
 	protected CloudParameters(NetworkParameters networkParams, String cloudName, int cloudNum) {
-		if(cloudName == null)
+		this(networkParams, cloudName, cloudNum, MembershipStorage.COLUMN);
+	}
+	
+	protected CloudParameters(NetworkParameters networkParams, String cloudName, int cloudNum, MembershipStorage storage) {
+		if(cloudName == null || storage == null)
 			throw new NullPointerException();
 		this.networkParams = networkParams;
 		this.displayStyle = CloudDisplayStyles.getDefault();
 		this.cloudNum = cloudNum;
 		this.cloudName = cloudName;
-		if(cloudNum != -1)
+		this.storage = storage;
+		if(cloudNum != -1 && storage == MembershipStorage.COLUMN)
 			createColumn(cloudName); // create the column for the cloud
 	}
 	
 	
 	public void invalidate() {
+		restorePendingState();
 		calculated = false;
 		cloudWordInfoBuilder = null;
+		resultChanged();
+	}
+	
+	private void resultChanged() {
+		resultVersion.incrementAndGet();
+	}
+	
+	private void wordLimitChanged() {
+		restorePendingState();
+		CloudInfo info = cloudWordInfoBuilder;
+		// a cloud restored from a session only contains the words that were displayed with the old limits
+		if(info != null && info.isRestored())
+			invalidate();
+		else
+			resultChanged();
+	}
+	
+	/**
+	 * Returns a number that changes whenever the cloud has to be calculated again or 
+	 * one of the settings that affect how it is displayed changes. Can be used to tell 
+	 * if something derived from the cloud, like an image of it, is out of date.
+	 */
+	public int getResultVersion() {
+		return resultVersion.get();
 	}
 	
 	
@@ -116,11 +165,48 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	 * calculated the could at one time. This is done because 
 	 * the CloudParameters object is mutable.
 	 */
-	public synchronized CloudInfo calculateCloud() {
+	public CloudInfo calculateCloud() {
+		return calculateCloud(null);
+	}
+	
+	/**
+	 * Calculates the cloud, if the words have to be counted the listener is given a preview
+	 * of the cloud as soon as the counting is done, before the words are clustered.
+	 * See {@link CloudInfo#createPreview()}.
+	 * 
+	 * @param listener may be null
+	 */
+	public synchronized CloudInfo calculateCloud(CloudPreviewListener listener) {
+		CloudInfo info = countWords();
+		if(!info.isFontSizesCalculated()) {
+			if(listener != null) {
+				listener.previewCalculated(info.createPreview());
+			}
+			info.calculateFontSizes();
+		}
+		return info;
+	}
+	
+	/**
+	 * Returns the cloud if it has already been calculated, otherwise returns a preview
+	 * of the cloud which is much faster to calculate. The counts are remembered so
+	 * calculating the full cloud afterwards doesn't count the words again.
+	 */
+	public synchronized CloudInfo calculatePreview() {
+		CloudInfo info = countWords();
+		return info.isFontSizesCalculated() ? info : info.createPreview();
+	}
+	
+	private CloudInfo countWords() {
+		restorePendingState();
+		if(cloudWordInfoBuilder != null && !calculated) {
+			// only the selection has changed, see updateSelection()
+			calculated = true;
+			cloudWordInfoBuilder = cloudWordInfoBuilder.updateSelection();
+		}
 		if(cloudWordInfoBuilder == null) {
-			cloudWordInfoBuilder = new CloudInfo(this);
-			cloudWordInfoBuilder.calculateFontSizes();
 			calculated = true;
+			cloudWordInfoBuilder = new CloudInfo(this);
 		}
 		return cloudWordInfoBuilder;
 	}
@@ -129,7 +215,42 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	 * Returns true if the cloud has already been calculated.
 	 */
 	public boolean isAlreadyCalculated() {
-		return calculated;
+		return getCalculatedCloud() != null;
+	}
+	
+	/**
+	 * Like calculateCloud() but a cloud that was restored from a session, which only contains 
+	 * the words that are displayed, is calculated again so that all the counts and ratios are available.
+	 */
+	public synchronized CloudInfo calculateFullCloud() {
+		CloudInfo info = cloudWordInfoBuilder;
+		if(info != null && info.isRestored()) {
+			invalidate();
+		}
+		return calculateCloud(null);
+	}
+	
+	/**
+	 * Installs a result that was calculated elsewhere, used by {@link SessionFormat} for results 
+	 * that were saved with the session and by commands that calculate many clouds at once.
+	 * @throws IllegalArgumentException if the result was not calculated for this cloud
+	 */
+	public synchronized void setCalculatedCloud(CloudInfo info) {
+		if(!info.isForCloud(this))
+			throw new IllegalArgumentException("the result belongs to another cloud");
+		cloudWordInfoBuilder = info;
+		calculated = true;
+		resultChanged();
+	}
+	
+	/**
+	 * Returns the cloud if it has already been calculated and is still up to date, otherwise null.
+	 * Unlike calculateCloud() this method never blocks.
+	 */
+	public CloudInfo getCalculatedCloud() {
+		restorePendingState();
+		CloudInfo info = cloudWordInfoBuilder;
+		return calculated && info != null && info.isFontSizesCalculated() ? info : null;
 	}
 	
 	/**
@@ -169,6 +290,16 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			minWordOccurrence = Integer.valueOf(props.get("MinOccurrence"));
 		}
 		
+		// Clouds saved before bitmap storage was added always use a column
+		this.storage = MembershipStorage.COLUMN;
+		MembershipStorage savedStorage = MembershipStorage.fromString(props.get("Storage"));
+		if(savedStorage != null) {
+			this.storage = savedStorage;
+		}
+		if(props.get("Members") != null) {
+			this.members = NodeBitmap.fromBase64(props.get("Members"));
+		}
+		
 		// Reload cloud group table if it has been created (through command line)
 		for (CyTable table : networkParams.getManager().getTableManager().getAllTables(true)) {
 			if (table.getTitle().equals(props.get("ClusterTableName"))) {
@@ -211,20 +342,21 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	//METHODS
 	
 	public void delete() {
-		if(!networkParams.getClouds().contains(this)) // already deleted
+		if(networkParams.getCloud(cloudName) != this) // already deleted
 			return;
 		
 		CyNetwork network = networkParams.getNetwork();
+		CloudModelManager cloudModelManager = networkParams.getManager();
 		
 		// Check default table for backwards compatibility (older versions of wordcloud created a column in the default table).
 		CyTable defaultNodeTable = network.getDefaultNodeTable();
 		if (defaultNodeTable.getColumn(cloudName) != null) {
-			defaultNodeTable.deleteColumn(cloudName);
+			cloudModelManager.deleteColumn(defaultNodeTable, cloudName);
 		}
 		
 		CyTable localTable = network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
 		if (localTable.getColumn(cloudName) != null) {
-			localTable.deleteColumn(cloudName);
+			cloudModelManager.deleteColumn(localTable, cloudName);
 		}
 		
 		CyTable clusterTable = getClusterTable();
@@ -238,7 +370,6 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			}
 		}
 		
-		CloudModelManager cloudModelManager = networkParams.getManager();
 		networkParams.removeCloudMapping(this);
 		cloudModelManager.fireCloudDeleted(this);
 	}
@@ -254,8 +385,8 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			throw new IllegalArgumentException("Column '" + newName + "' already exists");
 		
 		String oldName = cloudName;
-		cloudName = newName;
 		networkParams.changeCloudMapping(oldName, newName);
+		cloudName = newName;
 		
 		CyNetwork network = networkParams.getNetwork();
 		
@@ -269,7 +400,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			column = localTable.getColumn(oldName);
 		}
 		
-		column.setName(newName);
+		// There is no column when using bitmap storage
+		if(column != null) {
+			column.setName(newName);
+		}
 		
 		CloudModelManager cloudModelManager = networkParams.getManager();
 		cloudModelManager.fireCloudModified(this);
@@ -320,6 +454,11 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			paramVariables.append("ClusterTableName\t" + clusterTable.getTitle() + "\n");
 		}
 		paramVariables.append("MinOccurrence\t" + minWordOccurrence + "\n");
+		paramVariables.append("Storage\t" + storage + "\n");
+		if (storage == MembershipStorage.BITMAP) {
+			// Node SUIDs are not stable across sessions, see SessionListener for how these are remapped
+			paramVariables.append("Members\t" + members.toBase64() + "\n");
+		}
 		
 //		//List of Nodes as a comma delimited list
 		StringBuffer output2 = new StringBuffer();
@@ -450,15 +589,114 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			return Collections.emptySet();
 		}
 		
-		Set<CyNode> nodes = new HashSet<CyNode>();
-		for (CyNode node : network.getNodeList()) {
-			CyRow row = network.getRow(node);
-			Boolean selected = row.get(cloudName, Boolean.class);
-			if (selected != null && selected) {
-				nodes.add(node);
+		return getSelection(network);
+	}
+	
+	/**
+	 * Returns the cached selection, the column is only scanned if the cache was invalidated
+	 * or if the column itself was replaced (eg. deleted and recreated by the user).
+	 */
+	private NodeSet getSelection(CyNetwork network) {
+		restorePendingState();
+		Object source = getSelectionSource(network);
+		SelectionCache cache = selection;
+		if(isCacheValid(cache, source)) {
+			return cache.nodes;
+		}
+		
+		synchronized(selectionLock) {
+			source = getSelectionSource(network);
+			cache = selection;
+			if(isCacheValid(cache, source)) {
+				return cache.nodes;
+			}
+			
+			NodeIndex index = networkParams.getNodeIndex();
+			BitSet bits = new BitSet(index.size());
+			if(storage == MembershipStorage.BITMAP) {
+				for(long suid : members.toArray()) {
+					CyNode node = network.getNode(suid);
+					if(node != null) { // node may have been removed from the network
+						bits.set(index.add(node));
+					}
+				}
 			}
+			else if(source != null) {
+				for (CyNode node : network.getNodeList()) {
+					CyRow row = network.getRow(node);
+					Boolean selected = row.get(cloudName, Boolean.class);
+					if (selected != null && selected) {
+						bits.set(index.add(node));
+					}
+				}
+			}
+			cache = new SelectionCache(source, new NodeSet(index, bits));
+			selection = cache;
+			return cache.nodes;
+		}
+	}
+	
+	/**
+	 * A cached column selection can only be trusted while row events are being tracked,
+	 * otherwise changes made to the column by the user would go unnoticed.
+	 */
+	private boolean isCacheValid(SelectionCache cache, Object source) {
+		if(cache == null || cache.source != source)
+			return false;
+		return storage == MembershipStorage.BITMAP || networkParams.getManager().isRowEventsTracked();
+	}
+	
+	/**
+	 * Returns the object that the selection is read from, either the bitmap or the column.
+	 */
+	private Object getSelectionSource(CyNetwork network) {
+		if(storage == MembershipStorage.BITMAP)
+			return members;
+		return network.getDefaultNodeTable().getColumn(cloudName);
+	}
+	
+	/**
+	 * Called by CloudModelManager when values in the cloud column have been set.
+	 * The cached selection is only thrown away if the new values actually disagree with it, 
+	 * this way the events caused by {@link #setSelectedNodes(Collection)} don't invalidate the cache.
+	 */
+	void selectionColumnChanged(Collection<RowSetRecord> records) {
+		SelectionCache cache = selection;
+		CyNetwork network = networkParams.getNetwork();
+		if(cache == null || network == null || storage == MembershipStorage.BITMAP)
+			return;
+		
+		for(RowSetRecord record : records) {
+			Long suid = record.getRow().get(CyIdentifiable.SUID, Long.class);
+			CyNode node = suid == null ? null : network.getNode(suid);
+			if(node == null)
+				continue; // row is for a node in another subnetwork
+			boolean selected = Boolean.TRUE.equals(record.getValue());
+			if(cache.nodes.contains(node) != selected) {
+				invalidateSelection();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Forces the selection to be read from the column the next time it is needed.
+	 */
+	void invalidateSelection() {
+		synchronized(selectionLock) {
+			selection = null;
+		}
+	}
+	
+	
+	private static class SelectionCache {
+		final Object source;
+		final NodeSet nodes;
+		
+		SelectionCache(Object source, NodeSet nodes) {
+			this.source = source;
+			this.nodes = nodes;
 		}
-		return nodes;
 	}
 	
 	
@@ -468,6 +706,7 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 
 	public void setSelectedNodes(Collection<CyNode> nodes)
 	{
+		restorePendingState();
 		setSelectedNodes(networkParams.getNetwork(), nodes);
 		invalidate();
 	}
@@ -477,24 +716,188 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			return;
 		}
 		
+		if (storage == MembershipStorage.BITMAP) {
+			synchronized(selectionLock) {
+				NodeIndex index = networkParams.getNodeIndex();
+				BitSet bits = new BitSet(index.size());
+				List<CyNode> selected = new ArrayList<CyNode>();
+				for (CyNode node : nodes) {
+					if (network.containsNode(node)) {
+						bits.set(index.add(node));
+						selected.add(node);
+					}
+				}
+				members = NodeBitmap.fromNodes(selected);
+				selection = new SelectionCache(members, new NodeSet(index, bits));
+			}
+			return;
+		}
+		
 		// if the user deleted the column then do nothing, better than an exception
-		if(network.getDefaultNodeTable().getColumn(cloudName) == null) {
+		CyColumn column = network.getDefaultNodeTable().getColumn(cloudName);
+		if(column == null) {
 			return;
 		}
 		
-		for (CyNode node : network.getNodeList()) {
-			CyRow row = network.getRow(node);
-			Boolean wasSelected = row.get(cloudName, Boolean.class);
-			if (wasSelected == null) {
-				wasSelected = Boolean.FALSE;
-			}
-			boolean selected = nodes.contains(node);
-			if (wasSelected != selected) {
-				row.set(cloudName, selected);
+		synchronized(selectionLock) {
+			NodeIndex index = networkParams.getNodeIndex();
+			BitSet bits = new BitSet(index.size());
+			for (CyNode node : nodes) {
+				if (network.containsNode(node)) {
+					bits.set(index.add(node));
+				}
 			}
+			NodeSet selected = new NodeSet(index, bits);
+			
+			// The column is about to contain exactly these nodes, the cache is updated first so
+			// that the row events caused by the write agree with it and don't invalidate it.
+			selection = new SelectionCache(column, selected);
+			networkParams.getManager().getSelectionWriter().setNodes(network, cloudName, selected);
 		}
 	}
 
+	/**
+	 * Adds and removes nodes from the cloud, only the rows that change are written.
+	 * Unlike {@link #setSelectedNodes(Collection)} this does not throw away the calculated cloud,
+	 * the next call to {@link #calculateCloud()} only processes the nodes that were added or removed.
+	 * This is used to keep the sync cloud up to date with the selection in the network.
+	 */
+	public void updateSelection(Collection<CyNode> added, Collection<CyNode> removed) {
+		CyNetwork network = networkParams.getNetwork();
+		if(network == null || overrideNodes != null)
+			return;
+		
+		restorePendingState();
+		synchronized(selectionLock) {
+			CyColumn column = network.getDefaultNodeTable().getColumn(cloudName);
+			if(storage == MembershipStorage.COLUMN && column == null)
+				return;
+			
+			NodeSet current = getSelection(network);
+			NodeIndex index = current.getIndex();
+			BitSet bits = current.getBits();
+			
+			List<CyNode> toAdd = new ArrayList<CyNode>();
+			for(CyNode node : added) {
+				if(network.containsNode(node) && !current.contains(node)) {
+					bits.set(index.add(node));
+					toAdd.add(node);
+				}
+			}
+			List<CyNode> toRemove = new ArrayList<CyNode>();
+			for(CyNode node : removed) {
+				if(current.contains(node)) {
+					bits.clear(index.indexOf(node));
+					toRemove.add(node);
+				}
+			}
+			if(toAdd.isEmpty() && toRemove.isEmpty())
+				return;
+			
+			NodeSet selected = new NodeSet(index, bits);
+			if(storage == MembershipStorage.BITMAP) {
+				members = NodeBitmap.fromNodes(selected);
+				selection = new SelectionCache(members, selected);
+			} else {
+				selection = new SelectionCache(column, selected);
+				networkParams.getManager().getSelectionWriter().write(network, cloudName, toAdd, toRemove);
+			}
+		}
+		calculated = false;
+		resultChanged();
+	}
+	
+	public MembershipStorage getStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Switches a cloud that uses bitmap storage over to a Boolean column in the local node table
+	 * containing the current members, the column is used from then on.
+	 * Does nothing if the cloud already uses a column.
+	 * @throws IllegalArgumentException if a column with the cloud's name already exists
+	 */
+	public void materializeColumn() {
+		CyNetwork network = networkParams.getNetwork();
+		if(network == null || storage == MembershipStorage.COLUMN)
+			return;
+		if(network.getDefaultNodeTable().getColumn(cloudName) != null)
+			throw new IllegalArgumentException("Column '" + cloudName + "' already exists");
+		
+		restorePendingState();
+		synchronized(selectionLock) {
+			Set<CyNode> nodes = getSelection(network);
+			createColumn(cloudName);
+			storage = MembershipStorage.COLUMN;
+			members = NodeBitmap.EMPTY;
+			setSelectedNodes(network, nodes);
+		}
+		
+		networkParams.getManager().fireCloudModified(this);
+	}
+	
+	/**
+	 * Used by {@link SessionFormat}, the SUIDs must already be mapped to the SUIDs of the restored nodes.
+	 */
+	void restoreMembers(NodeBitmap bitmap) {
+		synchronized(selectionLock) {
+			members = bitmap;
+			selection = null;
+		}
+	}
+	
+	NodeBitmap getMembers() {
+		restorePendingState();
+		return members;
+	}
+	
+	/**
+	 * Used by {@link SessionFormat}, the saved members and result are only decoded when
+	 * the cloud is first used so that opening a session with many clouds stays fast.
+	 */
+	void setPendingState(SessionFormat.PendingState state) {
+		pendingState = state;
+	}
+	
+	/**
+	 * Decodes the state that was saved with the session, if it hasn't been done yet.
+	 * Must not be called while holding the selection lock.
+	 */
+	private void restorePendingState() {
+		if(pendingState == null)
+			return;
+		synchronized(this) {
+			SessionFormat.PendingState state = pendingState;
+			// the result is checked against the selection, which calls back into this method
+			if(state == null || restoringPendingState)
+				return;
+			restoringPendingState = true;
+			try {
+				state.restore(this);
+			} finally {
+				pendingState = null;
+				restoringPendingState = false;
+			}
+		}
+	}
+	
+	int getNetworkCount() {
+		return networkCount;
+	}
+	
+	void setNetworkCount(int networkCount) {
+		this.networkCount = networkCount;
+	}
+	
+	public void remapMembers(LongUnaryOperator mapping) {
+		restorePendingState();
+		synchronized(selectionLock) {
+			members = members.remap(mapping);
+			selection = null;
+		}
+	}
+	
+	
 	public int getSelectedNumNodes()
 	{
 		return getSelectedNumNodes(networkParams.getNetwork());
@@ -505,7 +908,7 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 			return 0;
 		}
 		
-		return getSelectedNodes(network).size();
+		return getSelectedNodes(network).size(); // cached, does not scan the column
 	}
 	
 	
@@ -538,7 +941,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	public void setNetWeightFactor(double val)
 	{
+		boolean changed = netWeightFactor != val;
 		netWeightFactor = val;
+		if(changed)
+			resultChanged();
 	}
 	
 	public double getClusterCutoff()
@@ -548,7 +954,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	public void setClusterCutoff(double val)
 	{
+		boolean changed = clusterCutoff != val;
 		clusterCutoff = val;
+		if(changed)
+			resultChanged();
 	}
 	
 	public int getMaxWords()
@@ -558,7 +967,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	public void setMaxWords(int val)
 	{
+		boolean changed = maxWords != val;
 		maxWords = val;
+		if(changed)
+			wordLimitChanged();
 	}
 	
 	public int getMinWordOccurrence()
@@ -568,7 +980,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	public void setMinWordOccurrence(int val) 
 	{
+		boolean changed = minWordOccurrence != val;
 		minWordOccurrence = val;
+		if(changed)
+			wordLimitChanged();
 	}
 	
 	public int getCloudNum()
@@ -583,7 +998,10 @@ public class CloudParameters implements Comparable<CloudParameters>, CloudProvid
 	
 	public void setDisplayStyle(CloudDisplayStyles style)
 	{
+		boolean changed = displayStyle != style;
 		displayStyle = style;
+		if(changed)
+			resultChanged();
 	}
 	
 	public String getClusterColumnName() {
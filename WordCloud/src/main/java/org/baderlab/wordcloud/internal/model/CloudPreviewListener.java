@@ -0,0 +1,17 @@
+package org.baderlab.wordcloud.internal.model;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+
+/**
+ * Receives the intermediate result of a cloud calculation, 
+ * see {@link CloudParameters#calculateCloud(CloudPreviewListener)}.
+ */
+public interface CloudPreviewListener {
+
+	/**
+	 * Called on the thread that calculates the cloud once the words are counted,
+	 * the full cloud is calculated after this method returns.
+	 */
+	void previewCalculated(CloudInfo preview);
+	
+}
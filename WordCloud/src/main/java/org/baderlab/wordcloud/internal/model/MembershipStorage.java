@@ -0,0 +1,29 @@
+package org.baderlab.wordcloud.internal.model;
+
+/**
+ * Determines where a cloud keeps track of which nodes belong to it.
+ * 
+ * @see CloudBuilder#setStorage(MembershipStorage)
+ */
+public enum MembershipStorage {
+	
+	/** A Boolean column in the local node table, this is how clouds have always been stored. */
+	COLUMN,
+	
+	/** A compressed {@link NodeBitmap} held by the cloud and saved with the session, no column is created. */
+	BITMAP;
+	
+	
+	public static MembershipStorage getDefault() {
+		return COLUMN;
+	}
+	
+	public static MembershipStorage fromString(String s) {
+		for(MembershipStorage storage : values()) {
+			if(storage.name().equalsIgnoreCase(s)) {
+				return storage;
+			}
+		}
+		return null;
+	}
+}
@@ -3,8 +3,12 @@ package org.baderlab.wordcloud.internal.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.baderlab.wordcloud.internal.Constants;
 import org.baderlab.wordcloud.internal.IoUtil;
@@ -12,13 +16,22 @@ import org.cytoscape.io.util.StreamUtil;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
 
 public class NetworkParameters {
 
 	private final CloudModelManager parent;
 	private final CyNetwork network;
 	
-	private Map<String, CloudParameters> clouds = new HashMap<String, CloudParameters>();
+	// Clouds are created by the async jobs and the commands as well as the UI, every change to
+	// the clouds, their numbers and the cloud counter is made while holding cloudsLock.
+	private final Map<String, CloudParameters> clouds = new ConcurrentHashMap<String, CloudParameters>();
+	private final Object cloudsLock = new Object();
+	/** Sorted copy of the clouds, null after the clouds have been added to or removed. */
+	private volatile List<CloudParameters> sortedClouds;
+	/** Incremented each time a cloud is added, removed or renamed, see getCloudsVersion(). */
+	private volatile int cloudsVersion = 0;
 	private CloudParameters nullCloud;
 	
 	//Name creation variables
@@ -33,6 +46,12 @@ public class NetworkParameters {
 	private WordFilter filter;
 	private WordDelimiters delimiters;
 	
+	private NodeIndex nodeIndex;
+	
+	// token indexes by column name, see getTokenIndex()
+	private final Map<String, TokenIndex> tokenIndexes = new HashMap<String, TokenIndex>();
+	private final Set<String> trustedTokenIndexes = new HashSet<String>();
+	
 	
 	
 	protected NetworkParameters(CloudModelManager parent, CyNetwork network) {
@@ -49,11 +68,30 @@ public class NetworkParameters {
 	
 	
 	/**
-	 * Returns the clouds sorted by cloud num.
+	 * Changes each time a cloud is added, removed or renamed, also when no event is fired,
+	 * for example when a cloud is restored from a session. Each change adds one.
+	 */
+	public int getCloudsVersion() {
+		return cloudsVersion;
+	}
+	
+	/**
+	 * Returns the clouds sorted by cloud num. The list can't be modified, it is
+	 * only sorted again after a cloud has been added or removed.
 	 */
 	public List<CloudParameters> getClouds() {
-		List<CloudParameters> result = new ArrayList<CloudParameters>(clouds.values());
-		Collections.sort(result);
+		List<CloudParameters> result = sortedClouds;
+		if(result == null) {
+			// sorted under the lock so a list that misses a change can't be cached after the change
+			synchronized(cloudsLock) {
+				result = sortedClouds;
+				if(result == null) {
+					List<CloudParameters> list = new ArrayList<CloudParameters>(clouds.values());
+					Collections.sort(list);
+					result = sortedClouds = Collections.unmodifiableList(list);
+				}
+			}
+		}
 		return result;
 	}
 	
@@ -80,8 +118,46 @@ public class NetworkParameters {
 		
 		return builder;
 	}
-	
-	
+
+
+	/**
+	 * Groups the nodes of the network by the values of a categorical node column, like a cluster id,
+	 * in one pass over the nodes. The groups are sorted by value, nodes with no value are left out
+	 * and a node is in several groups if the column is a list.
+	 * @throws IllegalArgumentException if there is no such column
+	 */
+	public Map<String, Set<CyNode>> getNodeGroups(String columnName) {
+		CyTable table = network.getDefaultNodeTable();
+		if(table.getColumn(columnName) == null)
+			throw new IllegalArgumentException("column not found: " + columnName);
+
+		Map<String, Set<CyNode>> groups = new TreeMap<String, Set<CyNode>>();
+		for(CyNode node : network.getNodeList()) {
+			Object value = table.getRow(node.getSUID()).getRaw(columnName);
+			if(value instanceof List) {
+				for(Object element : (List<?>) value) {
+					addToGroup(groups, element, node);
+				}
+			} else {
+				addToGroup(groups, value, node);
+			}
+		}
+		return groups;
+	}
+
+	private static void addToGroup(Map<String, Set<CyNode>> groups, Object value, CyNode node) {
+		if(value == null)
+			return;
+		String name = String.valueOf(value);
+		Set<CyNode> nodes = groups.get(name);
+		if(nodes == null) {
+			nodes = new HashSet<CyNode>();
+			groups.put(name, nodes);
+		}
+		nodes.add(node);
+	}
+
+
 	/**
 	 * Returns a special "Null" cloud that is not contained in the main list of clouds.
 	 * This is mainly for convenience, so that methods in the UI don't need special cases to handle
@@ -96,7 +172,7 @@ public class NetworkParameters {
 			else
 				attributes = CloudModelManager.getColumnNames(network, CyNode.class);
 			
-			nullCloud = new CloudParameters(this, NULL_NAME, NULL_COUNT);
+			nullCloud = new CloudParameters(this, NULL_NAME, NULL_COUNT, parent.getStoragePropertyValue());
 			nullCloud.setSelectedNodes(Collections.<CyNode>emptySet());
 			nullCloud.setAttributeNames(attributes);
 			nullCloud.setNetWeightFactor(parent.getNetWeightPropertyValue());
@@ -104,6 +180,152 @@ public class NetworkParameters {
 		return nullCloud;
 	}
 	
+	/**
+	 * Returns the index used to store sets of nodes as bitsets.
+	 */
+	public synchronized NodeIndex getNodeIndex() {
+		if(nodeIndex == null) {
+			nodeIndex = new NodeIndex();
+		}
+		return nodeIndex;
+	}
+	
+	/**
+	 * Called by CloudModelManager when nodes have been removed from the network.
+	 * The node index is rebuilt and the cached selection of every cloud is discarded.
+	 */
+	void nodesRemoved() {
+		synchronized(this) {
+			nodeIndex = null;
+		}
+		synchronized(tokenIndexes) {
+			tokenIndexes.clear();
+			trustedTokenIndexes.clear();
+		}
+		invalidateSelections();
+	}
+	
+	
+	/**
+	 * Returns the index of the words in the given node column, or null if there is no such String or 
+	 * List of String column. The index is built the first time it is needed and then reused until the
+	 * column, the nodes of the network, the delimiters or stemming change. If an index with the same 
+	 * contents was saved by an earlier Cytoscape session it is loaded instead of being built.
+	 * 
+	 * While row events are tracked the index is trusted until an event for the column arrives, 
+	 * otherwise the column is read to check that the index is still up to date.
+	 */
+	public TokenIndex getTokenIndex(String columnName) {
+		if(network == null)
+			return null;
+		boolean stemming = getIsStemming();
+		String tokenization = TokenIndex.getTokenization(delimiters, stemming);
+		
+		synchronized(tokenIndexes) {
+			TokenIndex index = tokenIndexes.get(columnName);
+			if(index != null && parent.isRowEventsTracked() && trustedTokenIndexes.contains(columnName)
+					&& index.getNodeCount() == network.getNodeCount() && index.isTokenizedWith(tokenization)) {
+				return index;
+			}
+			
+			List<CyNode> nodes = network.getNodeList();
+			byte[] fingerprint = TokenIndex.fingerprint(network, nodes, columnName, delimiters, stemming);
+			if(fingerprint == null) {
+				tokenIndexes.remove(columnName);
+				trustedTokenIndexes.remove(columnName);
+				return null;
+			}
+			
+			if(index == null || !index.hasFingerprint(fingerprint)) {
+				TokenIndexStore store = parent.getTokenIndexStore();
+				index = store == null ? null : store.load(fingerprint, nodes, tokenization);
+				if(index == null) {
+					index = TokenIndex.build(network, nodes, columnName, delimiters, stemming, fingerprint);
+					if(store != null) {
+						store.save(index);
+					}
+				}
+				tokenIndexes.put(columnName, index);
+			}
+			
+			if(parent.isRowEventsTracked())
+				trustedTokenIndexes.add(columnName);
+			else
+				trustedTokenIndexes.remove(columnName);
+			return index;
+		}
+	}
+	
+	/**
+	 * The token indexes are checked against their columns the next time they are used.
+	 */
+	void invalidateTokenIndexes() {
+		synchronized(tokenIndexes) {
+			trustedTokenIndexes.clear();
+		}
+	}
+	
+	/**
+	 * Called by CloudModelManager when a node column has been renamed or deleted.
+	 */
+	void columnRemoved(String columnName) {
+		synchronized(tokenIndexes) {
+			tokenIndexes.remove(columnName);
+			trustedTokenIndexes.remove(columnName);
+		}
+	}
+	
+	/**
+	 * Discards the cached selection of every cloud, they will be read again from the cloud columns.
+	 */
+	void invalidateSelections() {
+		for(CloudParameters cloud : clouds.values()) {
+			cloud.invalidateSelection();
+		}
+		if(nullCloud != null) {
+			nullCloud.invalidateSelection();
+		}
+	}
+	
+	/**
+	 * Called by CloudModelManager when rows in one of the network's node tables have been set, 
+	 * only the clouds whose column was touched are affected.
+	 * 
+	 * The columns of the clouds are their names, so the clouds are looked up by the columns 
+	 * in the event rather than checking every cloud against the event.
+	 */
+	void rowsSet(RowsSetEvent e) {
+		Set<String> columns = getColumns(e);
+		synchronized(tokenIndexes) {
+			if(!trustedTokenIndexes.isEmpty()) {
+				trustedTokenIndexes.removeAll(columns);
+			}
+		}
+		for(String column : columns) {
+			CloudParameters cloud = clouds.get(column);
+			if(cloud != null) {
+				cloud.selectionColumnChanged(e.getColumnRecords(column));
+			}
+		}
+		if(nullCloud != null && columns.contains(NULL_NAME)) {
+			nullCloud.selectionColumnChanged(e.getColumnRecords(NULL_NAME));
+		}
+	}
+	
+	private static Set<String> getColumns(RowsSetEvent e) {
+		Set<String> columns = new HashSet<String>();
+		String previous = null;
+		for(RowSetRecord record : e.getPayloadCollection()) {
+			// the records for a column usually come together, don't hash the same name over and over
+			String column = record.getColumn();
+			if(column != previous) {
+				columns.add(column);
+				previous = column;
+			}
+		}
+		return columns;
+	}
+	
 	public boolean isNullNetwork() {
 		return this == parent.getNullNetwork();
 	}
@@ -113,30 +335,43 @@ public class NetworkParameters {
 		if(isNullNetwork())
 			throw new IllegalStateException("Cannot create a cloud for a null network");
 		
-		String cloudName = builder.getName();
-		if(cloudName == null) {
-			cloudName = getNextCloudName();
-		}
-		else {
-			if(clouds.containsKey(cloudName))
-				throw new IllegalArgumentException("Cloud name already in use: " + cloudName);
-			if(columnAlreadyExists(cloudName))
-				throw new IllegalArgumentException("Column name already in use: " + cloudName);
-		}
+		// in a batch the columns of new clouds are created together when the batch is closed
+		CloudModelBatch batch = parent.getBatch();
+		boolean columnLater = batch != null && builder.getStorage() == MembershipStorage.COLUMN;
+		MembershipStorage storage = columnLater ? MembershipStorage.BITMAP : builder.getStorage();
 		
-		CloudParameters cloudParams = new CloudParameters(this, cloudName, getCloudCount());
-		cloudParams.setSelectedNodes(builder.getNodes());
-		cloudParams.setAttributeNames(builder.getAttributeNames());
-		cloudParams.setDisplayStyle(builder.getDisplayStyle());
-		cloudParams.setMaxWords(builder.getMaxWords());
-		cloudParams.setClusterCutoff(builder.getClusterCutoff());
-		cloudParams.setNetWeightFactor(builder.getNetWeightFactor());
-		cloudParams.setMinWordOccurrence(builder.getMinWordOccurrence());
-		cloudParams.setClusterColumnName(builder.getClusterColumnName());
-		cloudParams.setClusterTable(builder.getClusterTable());
-		
-		incrementCloudCounter();
-		clouds.put(cloudParams.getCloudName(), cloudParams);
+		// the name and the number are taken and the cloud added in one step, the event is fired outside the lock
+		CloudParameters cloudParams;
+		synchronized(cloudsLock) {
+			String cloudName = builder.getName();
+			if(cloudName == null) {
+				cloudName = getNextCloudName();
+			}
+			else {
+				if(clouds.containsKey(cloudName))
+					throw new IllegalArgumentException("Cloud name already in use: " + cloudName);
+				if(columnAlreadyExists(cloudName))
+					throw new IllegalArgumentException("Column name already in use: " + cloudName);
+			}
+			
+			cloudParams = new CloudParameters(this, cloudName, getCloudCount(), storage);
+			cloudParams.setSelectedNodes(builder.getNodes());
+			cloudParams.setAttributeNames(builder.getAttributeNames());
+			cloudParams.setDisplayStyle(builder.getDisplayStyle());
+			cloudParams.setMaxWords(builder.getMaxWords());
+			cloudParams.setClusterCutoff(builder.getClusterCutoff());
+			cloudParams.setNetWeightFactor(builder.getNetWeightFactor());
+			cloudParams.setMinWordOccurrence(builder.getMinWordOccurrence());
+			cloudParams.setClusterColumnName(builder.getClusterColumnName());
+			cloudParams.setClusterTable(builder.getClusterTable());
+			
+			incrementCloudCounter();
+			clouds.put(cloudParams.getCloudName(), cloudParams);
+			sortedClouds = null;
+			cloudsVersion++;
+		}
+		if(columnLater)
+			batch.createColumnLater(cloudParams);
 		parent.fireCloudAdded(cloudParams);
 		return cloudParams;
 	}
@@ -170,24 +405,47 @@ public class NetworkParameters {
 	 */
 	public CloudParameters createCloudFromProperties(String propFile) {
 		CloudParameters cloudParams = new CloudParameters(this, propFile);
-		clouds.put(cloudParams.getCloudName(), cloudParams);
+		restoreCloud(cloudParams);
 //		parent.fireCloudAdded(cloudParams);
 		return cloudParams;
 	}
 	
+	/**
+	 * Adds a cloud that was restored from a session, no event is fired.
+	 */
+	void restoreCloud(CloudParameters cloudParams) {
+		synchronized(cloudsLock) {
+			clouds.put(cloudParams.getCloudName(), cloudParams);
+			sortedClouds = null;
+			cloudsVersion++;
+		}
+	}
+	
 	
 	/**
 	 * Called buy {@link CloudParameters#delete()} to remove the mapping.
 	 */
 	protected void removeCloudMapping(CloudParameters cloud) {
-		clouds.remove(cloud.getCloudName());
+		synchronized(cloudsLock) {
+			clouds.remove(cloud.getCloudName());
+			sortedClouds = null;
+			cloudsVersion++;
+		}
 	}
 	
 	/**
 	 * Called by {@link CloudParameters#rename(String)} to change the name mapping.
+	 * @throws IllegalArgumentException if another cloud already has the new name
 	 */
 	protected void changeCloudMapping(String oldName, String newName) {
-		clouds.put(newName, clouds.remove(oldName));
+		synchronized(cloudsLock) {
+			if(clouds.containsKey(newName))
+				throw new IllegalArgumentException("Name '" + newName + "' already exists");
+			CloudParameters cloud = clouds.remove(oldName);
+			if(cloud != null)
+				clouds.put(newName, cloud);
+			cloudsVersion++;
+		}
 	}
 	
 	
@@ -228,7 +486,11 @@ public class NetworkParameters {
 	protected boolean columnAlreadyExists(String name) {
 		CyTable defaultTable = network.getDefaultNodeTable();
 		CyTable localTable = network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
-		return defaultTable.getColumn(name) != null && localTable.getColumn(name) != null;
+		return columnExists(defaultTable, name) && columnExists(localTable, name);
+	}
+	
+	private boolean columnExists(CyTable table, String name) {
+		return table.getColumn(name) != null && !parent.isColumnDeletePending(table, name);
 	}
 	
 	public CyNetwork getNetwork() {
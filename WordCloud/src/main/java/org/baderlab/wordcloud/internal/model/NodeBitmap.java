@@ -0,0 +1,181 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.function.LongUnaryOperator;
+
+import org.cytoscape.model.CyNode;
+
+/**
+ * An immutable set of node SUIDs stored as a run-length compressed bitmap.
+ * 
+ * The SUIDs are sorted and stored as alternating gap and run lengths encoded as varints.
+ * Nodes in a network usually have consecutive SUIDs so a cloud containing thousands
+ * of nodes typically needs only a handful of bytes.
+ * 
+ * SUIDs are used instead of node indices so that the bitmap stays valid when
+ * nodes are removed and can be saved with the session.
+ */
+public final class NodeBitmap {
+
+	public static final NodeBitmap EMPTY = new NodeBitmap(new byte[0], 0);
+	
+	private final byte[] data;
+	private final int size;
+	
+	
+	private NodeBitmap(byte[] data, int size) {
+		this.data = data;
+		this.size = size;
+	}
+	
+	public static NodeBitmap fromNodes(Collection<CyNode> nodes) {
+		long[] suids = new long[nodes.size()];
+		int i = 0;
+		for(CyNode node : nodes) {
+			suids[i++] = node.getSUID();
+		}
+		return fromSUIDs(suids);
+	}
+	
+	/**
+	 * The array does not need to be sorted and may contain duplicates.
+	 */
+	public static NodeBitmap fromSUIDs(long[] suids) {
+		if(suids.length == 0)
+			return EMPTY;
+		
+		long[] sorted = suids.clone();
+		Arrays.sort(sorted);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int size = 0;
+		long prevEnd = 0; // one past the end of the previous run
+		int i = 0;
+		while(i < sorted.length) {
+			long start = sorted[i];
+			long end = start + 1;
+			i++;
+			while(i < sorted.length && sorted[i] <= end) {
+				if(sorted[i] == end)
+					end++;
+				i++;
+			}
+			writeVarLong(out, start - prevEnd);
+			writeVarLong(out, end - start - 1);
+			size += end - start;
+			prevEnd = end;
+		}
+		return new NodeBitmap(out.toByteArray(), size);
+	}
+	
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the SUIDs in ascending order.
+	 */
+	public long[] toArray() {
+		long[] suids = new long[size];
+		int n = 0;
+		int[] pos = { 0 };
+		long prevEnd = 0;
+		while(pos[0] < data.length) {
+			long start = prevEnd + readVarLong(data, pos);
+			long end = start + readVarLong(data, pos) + 1;
+			for(long suid = start; suid < end; suid++) {
+				suids[n++] = suid;
+			}
+			prevEnd = end;
+		}
+		return suids;
+	}
+	
+	/**
+	 * Returns a new bitmap with every SUID passed through the mapping, 
+	 * SUIDs that are mapped to a negative value are dropped.
+	 * Used when restoring a session because nodes are assigned new SUIDs.
+	 */
+	public NodeBitmap remap(LongUnaryOperator mapping) {
+		long[] suids = toArray();
+		long[] mapped = new long[suids.length];
+		int n = 0;
+		for(long suid : suids) {
+			long newSuid = mapping.applyAsLong(suid);
+			if(newSuid >= 0) {
+				mapped[n++] = newSuid;
+			}
+		}
+		return fromSUIDs(Arrays.copyOf(mapped, n));
+	}
+	
+	
+	public String toBase64() {
+		return Base64.getEncoder().encodeToString(toByteArray());
+	}
+	
+	public static NodeBitmap fromBase64(String s) {
+		return fromByteArray(Base64.getDecoder().decode(s));
+	}
+	
+	/**
+	 * Serialized form: the size as a varint followed by the runs.
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 5);
+		writeVarLong(out, size);
+		out.write(data, 0, data.length);
+		return out.toByteArray();
+	}
+	
+	public static NodeBitmap fromByteArray(byte[] bytes) {
+		int[] pos = { 0 };
+		int size = (int) readVarLong(bytes, pos);
+		if(size == 0)
+			return EMPTY;
+		return new NodeBitmap(Arrays.copyOfRange(bytes, pos[0], bytes.length), size);
+	}
+	
+	
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while((value & ~0x7FL) != 0) {
+			out.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+	
+	private static long readVarLong(byte[] bytes, int[] pos) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = bytes[pos[0]++];
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+	
+	
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof NodeBitmap))
+			return false;
+		NodeBitmap other = (NodeBitmap) o;
+		return size == other.size && Arrays.equals(data, other.data);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(data);
+	}
+}
@@ -0,0 +1,57 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cytoscape.model.CyNode;
+
+/**
+ * Assigns the nodes of a network dense integer indices so that sets of nodes
+ * can be stored as bitsets. Indices are handed out in the order the nodes are
+ * first seen and never change for the lifetime of the index. 
+ * 
+ * NetworkParameters discards its index when nodes are removed from the
+ * network, any bitsets that refer to the old index must be discarded as well.
+ * 
+ * @see NetworkParameters#getNodeIndex()
+ */
+public class NodeIndex {
+
+	private final Map<CyNode,Integer> indices = new HashMap<CyNode,Integer>();
+	private final List<CyNode> nodes = new ArrayList<CyNode>();
+	
+	
+	NodeIndex() {
+	}
+	
+	/**
+	 * Returns the index of the node, or -1 if the node has not been indexed.
+	 */
+	public synchronized int indexOf(CyNode node) {
+		Integer index = indices.get(node);
+		return index == null ? -1 : index;
+	}
+	
+	/**
+	 * Returns the index of the node, assigning a new index if necessary.
+	 */
+	public synchronized int add(CyNode node) {
+		Integer index = indices.get(node);
+		if(index == null) {
+			index = nodes.size();
+			nodes.add(node);
+			indices.put(node, index);
+		}
+		return index;
+	}
+	
+	public synchronized CyNode getNode(int index) {
+		return nodes.get(index);
+	}
+	
+	public synchronized int size() {
+		return nodes.size();
+	}
+}
@@ -0,0 +1,79 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.cytoscape.model.CyNode;
+
+/**
+ * An immutable set of nodes stored as a bitset over a {@link NodeIndex}.
+ * The size is computed once when the set is created.
+ */
+public class NodeSet extends AbstractSet<CyNode> {
+
+	private final NodeIndex index;
+	private final BitSet bits;
+	private final int size;
+	
+	
+	/**
+	 * The bitset is not copied, it must not be modified after being passed in.
+	 */
+	NodeSet(NodeIndex index, BitSet bits) {
+		this.index = index;
+		this.bits = bits;
+		this.size = bits.cardinality();
+	}
+	
+	public NodeIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Returns a copy of the bits.
+	 */
+	public BitSet getBits() {
+		return (BitSet) bits.clone();
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		if(!(o instanceof CyNode))
+			return false;
+		int i = index.indexOf((CyNode)o);
+		return i >= 0 && bits.get(i);
+	}
+
+	@Override
+	public Iterator<CyNode> iterator() {
+		return new Iterator<CyNode>() {
+			int next = bits.nextSetBit(0);
+			
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public CyNode next() {
+				if(next < 0)
+					throw new NoSuchElementException();
+				CyNode node = index.getNode(next);
+				next = bits.nextSetBit(next + 1);
+				return node;
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
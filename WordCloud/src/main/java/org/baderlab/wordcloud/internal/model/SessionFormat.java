@@ -0,0 +1,413 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongUnaryOperator;
+import java.util.zip.CRC32;
+
+import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary format used to save the clouds of a network in a session, one file per network.
+ *
+ * The file starts with a magic number and a format version, followed by sections. Each section is
+ * a type byte, the length of the payload, the payload and a CRC32 of the payload. A section that
+ * fails its checksum is skipped, as are section types that are unknown to this version.
+ * The file ends with an END section that has no length.
+ *
+ * Besides the parameters of each cloud the words that were displayed are saved, so a restored
+ * cloud can be shown without being calculated again. The result also stores a checksum of the
+ * inputs it was calculated from, if the inputs no longer match when the session is loaded the
+ * result is dropped and the cloud is calculated as usual.
+ *
+ * Only the parameters of the clouds are decoded when the file is read. The members of a cloud
+ * and its result are kept as they are in the file and decoded the first time the cloud is used,
+ * see {@link PendingState}.
+ */
+public final class SessionFormat {
+
+	public static final String FILE_EXTENSION = ".wordcloud";
+
+	private static final int MAGIC = 0x57434C44; // "WCLD"
+	private static final int VERSION = 1;
+
+	private static final byte END = 0;
+	private static final byte NETWORK = 1;
+	private static final byte CLOUD = 2;
+	private static final byte RESULT = 3;
+
+	private static final int MAX_SECTION_LENGTH = 1 << 28;
+
+	private static final Logger logger = LoggerFactory.getLogger(SessionFormat.class);
+
+	private SessionFormat() {}
+
+
+	/**
+	 * Writes the word filter, delimiters and clouds of the network, and the calculated results of the clouds.
+	 */
+	public static void write(NetworkParameters networkParams, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		Section section = new Section();
+		writeString(section.data, networkParams.getFilter().toString());
+		writeString(section.data, networkParams.getDelimeters().toString());
+		section.writeTo(out, NETWORK);
+
+		for(CloudParameters cloud : networkParams.getClouds()) {
+			section = new Section();
+			writeCloud(section.data, cloud);
+			section.writeTo(out, CLOUD);
+
+			CloudInfo result = cloud.getCalculatedCloud();
+			if(result != null && !result.isPreview()) {
+				section = new Section();
+				writeResult(section.data, cloud, result);
+				section.writeTo(out, RESULT);
+			}
+		}
+
+		out.writeByte(END);
+		out.flush();
+	}
+
+
+	/**
+	 * Restores the clouds saved by {@link #write}, no events are fired.
+	 * Different networks may be read at the same time on different threads.
+	 * @param suidMapping maps the node SUIDs of the saved session to the current SUIDs, may be null,
+	 *   it is called when the members of a cloud are first needed, not while the file is read
+	 * @return the restored clouds
+	 */
+	public static List<CloudParameters> read(NetworkParameters networkParams, InputStream stream, LongUnaryOperator suidMapping) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		if(in.readInt() != MAGIC)
+			throw new IOException("not a WordCloud session file");
+		int version = in.readInt();
+		if(version > VERSION)
+			throw new IOException("unsupported WordCloud session file version: " + version);
+
+		Map<String,CloudParameters> clouds = new HashMap<String,CloudParameters>();
+		Map<CloudParameters,PendingState> pending = new HashMap<CloudParameters,PendingState>();
+		List<CloudParameters> result = new ArrayList<CloudParameters>();
+		Map<String,CyTable> clusterTables = null;
+
+		while(true) {
+			byte type = in.readByte();
+			if(type == END)
+				break;
+
+			int length = in.readInt();
+			if(length < 0 || length > MAX_SECTION_LENGTH)
+				throw new IOException("invalid section length: " + length);
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			int checksum = in.readInt();
+			if(checksum != crc(payload)) {
+				logger.warn("WordCloud session file section of type " + type + " is corrupt, skipping it");
+				continue;
+			}
+
+			DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+			switch(type) {
+				case NETWORK:
+					networkParams.setFilter(new WordFilter(readString(data)));
+					networkParams.setDelimeters(new WordDelimiters(readString(data)));
+					break;
+				case CLOUD:
+					if(clusterTables == null)
+						clusterTables = getTablesByTitle(networkParams);
+					PendingState state = new PendingState(suidMapping);
+					CloudParameters cloud = readCloud(data, networkParams, clusterTables, state);
+					clouds.put(cloud.getCloudName(), cloud);
+					pending.put(cloud, state);
+					result.add(cloud);
+					break;
+				case RESULT:
+					cloud = clouds.get(readString(data));
+					if(cloud != null)
+						pending.get(cloud).result = payload;
+					break;
+				default:
+					// written by a newer version
+					break;
+			}
+		}
+
+		// the clouds are only added once they are complete
+		for(CloudParameters cloud : result) {
+			PendingState state = pending.get(cloud);
+			if(!state.isEmpty())
+				cloud.setPendingState(state);
+			networkParams.restoreCloud(cloud);
+		}
+		return result;
+	}
+
+
+	private static Map<String,CyTable> getTablesByTitle(NetworkParameters networkParams) {
+		Map<String,CyTable> tables = new HashMap<String,CyTable>();
+		for(CyTable table : networkParams.getManager().getTableManager().getAllTables(true)) {
+			tables.put(table.getTitle(), table);
+		}
+		return tables;
+	}
+
+
+	/**
+	 * The members and the result of a cloud as they were read from the file. Decoding them can be
+	 * expensive, the SUID of every member has to be mapped and the result can only be checked once
+	 * the selection of the cloud is known, so it is done by {@link #restore} when the cloud is first used.
+	 */
+	static final class PendingState {
+		private final LongUnaryOperator suidMapping;
+		private byte[] members; // null if the cloud uses a column
+		private byte[] result; // the whole RESULT section, null if the result wasn't saved
+
+		PendingState(LongUnaryOperator suidMapping) {
+			this.suidMapping = suidMapping;
+		}
+
+		boolean isEmpty() {
+			return members == null && result == null;
+		}
+
+		void restore(CloudParameters cloud) {
+			if(members != null) {
+				NodeBitmap bitmap = NodeBitmap.fromByteArray(members);
+				cloud.restoreMembers(suidMapping == null ? bitmap : bitmap.remap(suidMapping));
+			}
+			if(result != null) {
+				try {
+					DataInputStream data = new DataInputStream(new ByteArrayInputStream(result));
+					readString(data); // cloud name
+					readResult(data, cloud);
+				} catch(IOException e) {
+					logger.warn("The saved result of cloud " + cloud.getCloudName() + " could not be read, it will be recalculated", e);
+				}
+			}
+		}
+	}
+
+
+	private static void writeCloud(DataOutput out, CloudParameters cloud) throws IOException {
+		writeString(out, cloud.getCloudName());
+		out.writeInt(cloud.getCloudNum());
+		writeString(out, cloud.getDisplayStyle().toString());
+
+		List<String> attributeNames = cloud.getAttributeNames();
+		if(attributeNames == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(attributeNames.size());
+			for(String name : attributeNames) {
+				writeString(out, name);
+			}
+		}
+
+		out.writeDouble(cloud.getNetWeightFactor());
+		out.writeDouble(cloud.getClusterCutoff());
+		out.writeInt(cloud.getMaxWords());
+		out.writeInt(cloud.getMinWordOccurrence());
+		out.writeInt(cloud.getNetworkCount());
+
+		CyTable clusterTable = cloud.getClusterTable();
+		writeNullableString(out, clusterTable == null ? null : clusterTable.getTitle());
+		writeNullableString(out, cloud.getClusterColumnName());
+
+		writeString(out, cloud.getStorage().name());
+		if(cloud.getStorage() == MembershipStorage.BITMAP) {
+			// Node SUIDs are not stable across sessions, they are remapped when the cloud is read
+			byte[] members = cloud.getMembers().toByteArray();
+			out.writeInt(members.length);
+			out.write(members);
+		}
+	}
+
+	private static CloudParameters readCloud(DataInput in, NetworkParameters networkParams, Map<String,CyTable> clusterTables, PendingState state) throws IOException {
+		String name = readString(in);
+		int cloudNum = in.readInt();
+		CloudDisplayStyles style = CloudDisplayStyles.fromString(readString(in));
+
+		int attributeCount = in.readInt();
+		List<String> attributeNames = new ArrayList<String>(attributeCount);
+		for(int i = 0; i < attributeCount; i++) {
+			attributeNames.add(readString(in));
+		}
+
+		double netWeightFactor = in.readDouble();
+		double clusterCutoff = in.readDouble();
+		int maxWords = in.readInt();
+		int minOccurrence = in.readInt();
+		int networkCount = in.readInt();
+		String clusterTableName = readNullableString(in);
+		String clusterColumnName = readNullableString(in);
+
+		MembershipStorage storage = MembershipStorage.fromString(readString(in));
+		if(storage == null)
+			storage = MembershipStorage.COLUMN;
+
+		// the column already exists in the restored session
+		CloudParameters cloud = new CloudParameters(networkParams, name, cloudNum, storage);
+		cloud.setDisplayStyle(style == null ? CloudDisplayStyles.getDefault() : style);
+		cloud.setAttributeNames(attributeNames);
+		cloud.setNetWeightFactor(netWeightFactor);
+		cloud.setClusterCutoff(clusterCutoff);
+		cloud.setMaxWords(maxWords);
+		cloud.setMinWordOccurrence(minOccurrence);
+		cloud.setNetworkCount(networkCount);
+		cloud.setClusterColumnName(clusterColumnName);
+
+		if(clusterTableName != null) {
+			cloud.setClusterTable(clusterTables.get(clusterTableName));
+		}
+
+		if(storage == MembershipStorage.BITMAP) {
+			int length = in.readInt();
+			if(length < 0 || length > MAX_SECTION_LENGTH)
+				throw new IOException("invalid bitmap length: " + length);
+			state.members = new byte[length];
+			in.readFully(state.members);
+		}
+		return cloud;
+	}
+
+
+	private static void writeResult(DataOutput out, CloudParameters cloud, CloudInfo result) throws IOException {
+		writeString(out, cloud.getCloudName());
+		out.writeInt(getInputChecksum(cloud));
+		out.writeDouble(result.getMinRatio());
+		out.writeDouble(result.getMaxRatio());
+
+		// only the words that are displayed, see CloudParameters.wordLimitChanged()
+		List<CloudWordInfo> words = result.getDisplayWords();
+		Map<String,Integer> counts = result.getSelectedCounts();
+		out.writeInt(words.size());
+		for(CloudWordInfo word : words) {
+			writeString(out, word.getWord());
+			out.writeInt(word.getFontSize());
+			Color color = word.getTextColor();
+			out.writeBoolean(color != null);
+			if(color != null) {
+				out.writeInt(color.getRGB());
+			}
+			out.writeInt(word.getCluster());
+			out.writeInt(word.getWordNumber());
+			Integer count = counts.get(word.getWord());
+			out.writeInt(count == null ? 0 : count);
+		}
+	}
+
+	private static void readResult(DataInput in, CloudParameters cloud) throws IOException {
+		int inputChecksum = in.readInt();
+		if(inputChecksum != getInputChecksum(cloud)) {
+			logger.info("The saved result of cloud " + cloud.getCloudName() + " is out of date, it will be recalculated");
+			return;
+		}
+
+		CloudInfo result = CloudInfo.createRestored(cloud, in.readDouble(), in.readDouble());
+		int count = in.readInt();
+		for(int i = 0; i < count; i++) {
+			String word = readString(in);
+			int fontSize = in.readInt();
+			Color color = in.readBoolean() ? new Color(in.readInt(), true) : null;
+			int cluster = in.readInt();
+			int wordNum = in.readInt();
+			int selectedCount = in.readInt();
+			result.addRestoredWord(word, fontSize, color, cluster, wordNum, selectedCount);
+		}
+		cloud.setCalculatedCloud(result);
+	}
+
+
+	/**
+	 * Checksum of everything the words of a cloud are calculated from, except for the
+	 * node attribute values which are saved in the same session.
+	 */
+	static int getInputChecksum(CloudParameters cloud) {
+		NetworkParameters networkParams = cloud.getNetworkParams();
+		CyNetwork network = networkParams.getNetwork();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(cloud.getAttributeNames()).append('\n');
+		sb.append(cloud.getDisplayStyle()).append('\n');
+		sb.append(cloud.getNetWeightFactor()).append('\n');
+		sb.append(cloud.getClusterCutoff()).append('\n');
+		sb.append(networkParams.getIsStemming()).append('\n');
+		sb.append(networkParams.getFilter()).append('\n');
+		sb.append(networkParams.getDelimeters()).append('\n');
+		sb.append(network == null ? 0 : network.getNodeCount()).append('\n');
+		sb.append(cloud.getSelectedNumNodes()).append('\n');
+		return crc(sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private static int crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int) crc.getValue();
+	}
+
+	// DataOutput.writeUTF() is limited to 64K, the filter may be larger than that
+	private static void writeString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > MAX_SECTION_LENGTH)
+			throw new IOException("invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeNullableString(DataOutput out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if(s != null)
+			writeString(out, s);
+	}
+
+	private static String readNullableString(DataInput in) throws IOException {
+		return in.readBoolean() ? readString(in) : null;
+	}
+
+
+	private static class Section {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream data = new DataOutputStream(bytes);
+
+		void writeTo(DataOutputStream out, byte type) throws IOException {
+			byte[] payload = bytes.toByteArray();
+			out.writeByte(type);
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.writeInt(crc(payload));
+		}
+	}
+}
@@ -0,0 +1,518 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.baderlab.wordcloud.internal.Stemmer;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+
+/**
+ * The words in one node column of a network, split by the delimiters of the network and
+ * stemmed if stemming is turned on. Counting the words of a cloud only has to look up
+ * word ids instead of reading and splitting the text of every node again.
+ *
+ * The index has three parts:
+ * <ul>
+ * <li>the term dictionary, every distinct word and the number of times it occurs</li>
+ * <li>the forward index, for each node its values (a list column has several) and for each value its words in order</li>
+ * <li>the posting lists, for each word the nodes that contain it</li>
+ * </ul>
+ * Nodes are identified by their position in the node list of the network at the time the index was built.
+ *
+ * The fingerprint is a hash of the column contents (in node list order) and of the tokenization settings,
+ * two indexes with the same fingerprint are the same. The filter is not part of the index, filtered words
+ * are skipped when the words are counted. See {@link TokenIndexStore} for how indexes are kept on disk.
+ *
+ * Immutable and thread safe.
+ */
+public final class TokenIndex {
+
+	private static final int MAGIC = 0x57435449; // "WCTI"
+	private static final int VERSION = 1;
+	private static final int FINGERPRINT_LENGTH = 20;
+
+	private final byte[] fingerprint;
+	private final String tokenization;
+	private final List<CyNode> nodes;
+
+	private final String[] terms;
+	private final IntBuffer termFrequencies;
+	private final IntBuffer valueOffsets; // nodes + 1
+	private final IntBuffer tokenOffsets; // values + 1
+	private final IntBuffer tokens;
+	private final IntBuffer postingOffsets; // terms + 1
+	private final IntBuffer postings;
+
+	// positions of the nodes sorted by SUID, created when first needed
+	private volatile long[] sortedSuids;
+	private volatile int[] sortedPositions;
+
+
+	private TokenIndex(byte[] fingerprint, String tokenization, List<CyNode> nodes, String[] terms, IntBuffer termFrequencies,
+			IntBuffer valueOffsets, IntBuffer tokenOffsets, IntBuffer tokens, IntBuffer postingOffsets, IntBuffer postings) {
+		this.fingerprint = fingerprint;
+		this.tokenization = tokenization;
+		this.nodes = nodes;
+		this.terms = terms;
+		this.termFrequencies = termFrequencies;
+		this.valueOffsets = valueOffsets;
+		this.tokenOffsets = tokenOffsets;
+		this.tokens = tokens;
+		this.postingOffsets = postingOffsets;
+		this.postings = postings;
+	}
+
+
+	/**
+	 * Splits a value into words the same way for every index, see {@link WordDelimiters#split(String)}.
+	 */
+	private static Collection<String> tokenize(String value, WordDelimiters delimiters, boolean stemming) {
+		Collection<String> words = delimiters.split(value.toLowerCase());
+
+		if(stemming) {
+			Set<String> stemmedWords = new HashSet<String>();
+			for(String word : words) {
+				Stemmer stemmer = new Stemmer();
+				for(int i = 0; i < word.length(); i++) {
+					stemmer.add(word.charAt(i));
+				}
+				stemmer.stem();
+				stemmedWords.add(stemmer.toString());
+			}
+			words = stemmedWords;
+		}
+
+		return words;
+	}
+
+	/**
+	 * Returns a string that identifies the tokenization settings.
+	 */
+	static String getTokenization(WordDelimiters delimiters, boolean stemming) {
+		return stemming + "\n" + delimiters.toString();
+	}
+
+	/**
+	 * Returns the text values of the node in the column, or null if the column is not a String or List of String column.
+	 * The values of a list are sorted.
+	 */
+	private static List<String> getValues(CyTable table, CyNode node, String columnName) {
+		CyColumn column = table.getColumn(columnName);
+		if (column == null) {
+			return null;
+		}
+		if (column.getType().equals(String.class)) {
+			String value = table.getRow(node.getSUID()).get(columnName, String.class);
+			return value == null ? null : Arrays.asList(value);
+		}
+		if (column.getType().equals(List.class) && column.getListElementType().equals(String.class)) {
+			List<String> list = table.getRow(node.getSUID()).getList(columnName, String.class);
+			if(list == null)
+				return null;
+			return list.stream().sorted().collect(Collectors.toList());
+		}
+		return null;
+	}
+
+	private static boolean isTextColumn(CyColumn column) {
+		return column != null && (column.getType().equals(String.class)
+			|| (column.getType().equals(List.class) && column.getListElementType().equals(String.class)));
+	}
+
+
+	/**
+	 * Computes the fingerprint of the column contents and the tokenization settings. This reads every value
+	 * of the column but doesn't split them, it is much cheaper than building the index.
+	 * Returns null if the network doesn't have a text column with the given name.
+	 */
+	static byte[] fingerprint(CyNetwork network, List<CyNode> nodes, String columnName, WordDelimiters delimiters, boolean stemming) {
+		CyTable table = network.getDefaultNodeTable();
+		CyColumn column = table.getColumn(columnName);
+		if(!isTextColumn(column))
+			return null;
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			OutputStream sink = new OutputStream() {
+				public void write(int b) { }
+				public void write(byte[] b, int off, int len) { }
+			};
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(sink, digest)));
+			out.writeInt(VERSION);
+			writeString(out, getTokenization(delimiters, stemming));
+			out.writeInt(nodes.size());
+			for(CyNode node : nodes) {
+				List<String> values = getValues(table, node, columnName);
+				if(values == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				out.writeInt(values.size());
+				for(String value : values) {
+					if(value == null)
+						out.writeInt(-1);
+					else
+						writeString(out, value);
+				}
+			}
+			out.flush();
+		} catch(IOException e) {
+			throw new IllegalStateException(e); // not thrown by the sink
+		}
+		return digest.digest();
+	}
+
+
+	/**
+	 * Reads and splits every value of the column.
+	 * Returns null if the network doesn't have a text column with the given name.
+	 */
+	static TokenIndex build(CyNetwork network, List<CyNode> nodes, String columnName, WordDelimiters delimiters, boolean stemming, byte[] fingerprint) {
+		CyTable table = network.getDefaultNodeTable();
+		if(!isTextColumn(table.getColumn(columnName)))
+			return null;
+
+		Map<String,Integer> termIds = new HashMap<String,Integer>();
+		List<String> terms = new ArrayList<String>();
+		IntList frequencies = new IntList();
+		int[] valueOffsets = new int[nodes.size() + 1];
+		IntList tokenOffsets = new IntList();
+		IntList tokens = new IntList();
+
+		for(int position = 0; position < nodes.size(); position++) {
+			valueOffsets[position] = tokenOffsets.size;
+			List<String> values = getValues(table, nodes.get(position), columnName);
+			if(values == null)
+				continue;
+			for(String value : values) {
+				if(value == null)
+					continue;
+				tokenOffsets.add(tokens.size);
+				for(String word : tokenize(value, delimiters, stemming)) {
+					Integer id = termIds.get(word);
+					if(id == null) {
+						id = terms.size();
+						termIds.put(word, id);
+						terms.add(word);
+						frequencies.add(0);
+					}
+					tokens.add(id);
+					frequencies.data[id]++;
+				}
+			}
+		}
+		valueOffsets[nodes.size()] = tokenOffsets.size;
+		tokenOffsets.add(tokens.size);
+
+		// Posting lists, each node is listed once per term even if the term occurs several times
+		int termCount = terms.size();
+		int[] postingOffsets = new int[termCount + 1];
+		int[] lastPosition = new int[termCount];
+		Arrays.fill(lastPosition, -1);
+		for(int position = 0; position < nodes.size(); position++) {
+			for(int i = tokenOffsets.data[valueOffsets[position]]; i < tokenOffsets.data[valueOffsets[position + 1]]; i++) {
+				int term = tokens.data[i];
+				if(lastPosition[term] != position) {
+					lastPosition[term] = position;
+					postingOffsets[term + 1]++;
+				}
+			}
+		}
+		for(int term = 0; term < termCount; term++) {
+			postingOffsets[term + 1] += postingOffsets[term];
+		}
+		int[] postings = new int[postingOffsets[termCount]];
+		int[] next = Arrays.copyOf(postingOffsets, termCount);
+		Arrays.fill(lastPosition, -1);
+		for(int position = 0; position < nodes.size(); position++) {
+			for(int i = tokenOffsets.data[valueOffsets[position]]; i < tokenOffsets.data[valueOffsets[position + 1]]; i++) {
+				int term = tokens.data[i];
+				if(lastPosition[term] != position) {
+					lastPosition[term] = position;
+					postings[next[term]++] = position;
+				}
+			}
+		}
+
+		return new TokenIndex(fingerprint, getTokenization(delimiters, stemming), nodes, terms.toArray(new String[termCount]),
+				IntBuffer.wrap(frequencies.toArray()), IntBuffer.wrap(valueOffsets), IntBuffer.wrap(tokenOffsets.toArray()),
+				IntBuffer.wrap(tokens.toArray()), IntBuffer.wrap(postingOffsets), IntBuffer.wrap(postings));
+	}
+
+
+	/**
+	 * Writes the index in the format read by {@link #read(ByteBuffer, List, String)}.
+	 * The nodes are not written, only their number.
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		byte[][] termBytes = new byte[terms.length][];
+		int termBytesLength = 0;
+		for(int i = 0; i < terms.length; i++) {
+			termBytes[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+			termBytesLength += termBytes[i].length;
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.write(fingerprint);
+		out.writeInt(nodes.size());
+		out.writeInt(getValueCount());
+		out.writeInt(tokens.limit());
+		out.writeInt(terms.length);
+		out.writeInt(postings.limit());
+		out.writeInt(termBytesLength);
+
+		writeInts(out, termFrequencies);
+		writeInts(out, valueOffsets);
+		writeInts(out, tokenOffsets);
+		writeInts(out, tokens);
+		writeInts(out, postingOffsets);
+		writeInts(out, postings);
+
+		int offset = 0;
+		out.writeInt(offset);
+		for(byte[] bytes : termBytes) {
+			offset += bytes.length;
+			out.writeInt(offset);
+		}
+		for(byte[] bytes : termBytes) {
+			out.write(bytes);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer buffer) throws IOException {
+		for(int i = 0; i < buffer.limit(); i++) {
+			out.writeInt(buffer.get(i));
+		}
+	}
+
+
+	/**
+	 * Reads an index written by {@link #writeTo(DataOutputStream)}. The arrays are not copied, the
+	 * returned index reads them from the buffer, which is normally a memory mapped file. Only the
+	 * term dictionary is decoded.
+	 *
+	 * @param nodes the node list of the network, the fingerprint guarantees that it is in the same order as when the index was built
+	 * @throws IOException if the buffer doesn't contain a valid index for the given number of nodes
+	 */
+	static TokenIndex read(ByteBuffer buffer, List<CyNode> nodes, String tokenization) throws IOException {
+		try {
+			if(buffer.getInt() != MAGIC)
+				throw new IOException("not a WordCloud token index");
+			if(buffer.getInt() != VERSION)
+				throw new IOException("unsupported token index version");
+			byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+			buffer.get(fingerprint);
+
+			int nodeCount = buffer.getInt();
+			int valueCount = buffer.getInt();
+			int tokenCount = buffer.getInt();
+			int termCount = buffer.getInt();
+			int postingCount = buffer.getInt();
+			int termBytesLength = buffer.getInt();
+			if(nodeCount != nodes.size())
+				throw new IOException("token index is for a different number of nodes");
+
+			IntBuffer termFrequencies = slice(buffer, termCount);
+			IntBuffer valueOffsets = slice(buffer, nodeCount + 1);
+			IntBuffer tokenOffsets = slice(buffer, valueCount + 1);
+			IntBuffer tokens = slice(buffer, tokenCount);
+			IntBuffer postingOffsets = slice(buffer, termCount + 1);
+			IntBuffer postings = slice(buffer, postingCount);
+
+			IntBuffer termOffsets = slice(buffer, termCount + 1);
+			byte[] termBytes = new byte[termBytesLength];
+			buffer.get(termBytes);
+			String[] terms = new String[termCount];
+			for(int i = 0; i < termCount; i++) {
+				int start = termOffsets.get(i);
+				terms[i] = new String(termBytes, start, termOffsets.get(i + 1) - start, StandardCharsets.UTF_8);
+			}
+
+			return new TokenIndex(fingerprint, tokenization, nodes, terms, termFrequencies, valueOffsets, tokenOffsets, tokens, postingOffsets, postings);
+		} catch(RuntimeException e) {
+			// BufferUnderflowException, IllegalArgumentException etc. if the file is truncated
+			throw new IOException("token index is corrupt", e);
+		}
+	}
+
+	private static IntBuffer slice(ByteBuffer buffer, int count) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(count * 4);
+		buffer.position(buffer.position() + count * 4);
+		return slice.asIntBuffer();
+	}
+
+	static int getFingerprintLength() {
+		return FINGERPRINT_LENGTH;
+	}
+
+
+	byte[] getFingerprint() {
+		return fingerprint.clone();
+	}
+
+	boolean hasFingerprint(byte[] other) {
+		return Arrays.equals(fingerprint, other);
+	}
+
+	boolean isTokenizedWith(String tokenization) {
+		return this.tokenization.equals(tokenization);
+	}
+
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public CyNode getNode(int position) {
+		return nodes.get(position);
+	}
+
+	/**
+	 * Returns the position of the node, or -1 if the node was not in the network when the index was built.
+	 */
+	public int indexOf(CyNode node) {
+		long[] suids = sortedSuids;
+		int[] positions = sortedPositions;
+		if(suids == null) {
+			synchronized(this) {
+				if(sortedSuids == null) {
+					sortBySuid();
+				}
+				suids = sortedSuids;
+				positions = sortedPositions;
+			}
+		}
+		int i = Arrays.binarySearch(suids, node.getSUID());
+		return i < 0 ? -1 : positions[i];
+	}
+
+	private void sortBySuid() {
+		final long[] suids = new long[nodes.size()];
+		Integer[] order = new Integer[suids.length];
+		for(int i = 0; i < suids.length; i++) {
+			suids[i] = nodes.get(i).getSUID();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(suids[a], suids[b]);
+			}
+		});
+		long[] sorted = new long[suids.length];
+		int[] positions = new int[suids.length];
+		for(int i = 0; i < suids.length; i++) {
+			sorted[i] = suids[order[i]];
+			positions[i] = order[i];
+		}
+		sortedPositions = positions;
+		sortedSuids = sorted; // written last, see indexOf()
+	}
+
+
+	public int getValueCount() {
+		return tokenOffsets.limit() - 1;
+	}
+
+	/** The values of the node at the given position are [getValueStart(position), getValueEnd(position)). */
+	public int getValueStart(int position) {
+		return valueOffsets.get(position);
+	}
+
+	public int getValueEnd(int position) {
+		return valueOffsets.get(position + 1);
+	}
+
+	/** The words of a value are the terms of the tokens [getTokenStart(value), getTokenEnd(value)), in the order they occur. */
+	public int getTokenStart(int value) {
+		return tokenOffsets.get(value);
+	}
+
+	public int getTokenEnd(int value) {
+		return tokenOffsets.get(value + 1);
+	}
+
+	public int getToken(int i) {
+		return tokens.get(i);
+	}
+
+
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	public String getTerm(int term) {
+		return terms[term];
+	}
+
+	/**
+	 * Returns the number of times the term occurs in all the values of the column.
+	 */
+	public int getTermFrequency(int term) {
+		return termFrequencies.get(term);
+	}
+
+	/** The positions of the nodes that contain the term are the postings [getPostingStart(term), getPostingEnd(term)), in node order. */
+	public int getPostingStart(int term) {
+		return postingOffsets.get(term);
+	}
+
+	public int getPostingEnd(int term) {
+		return postingOffsets.get(term + 1);
+	}
+
+	public int getPosting(int i) {
+		return postings.get(i);
+	}
+
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	private static class IntList {
+		int[] data = new int[16];
+		int size = 0;
+
+		void add(int value) {
+			if(size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package org.baderlab.wordcloud.internal.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.cytoscape.model.CyNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps token indexes on disk so that they survive a restart of Cytoscape, the
+ * index of a large network only has to be built the first time the network is used.
+ *
+ * Each index is a file named after its fingerprint. Files are memory mapped when they
+ * are loaded, the arrays of the index are read straight from the mapping. When the total
+ * size of the files is larger than the limit the least recently used files are deleted,
+ * loading a file counts as using it.
+ *
+ * Several Cytoscape instances may share the directory, files are written under a temporary
+ * name and then renamed so that a partially written file is never read.
+ */
+public class TokenIndexStore {
+
+	private static final String SUFFIX = ".idx";
+
+	private static final Logger logger = LoggerFactory.getLogger(TokenIndexStore.class);
+
+	private final File directory;
+	private final long maxBytes;
+
+
+	/**
+	 * @param directory created if it doesn't exist
+	 * @param maxBytes the total size of the files that are kept
+	 */
+	public TokenIndexStore(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+
+	private File getFile(byte[] fingerprint) {
+		StringBuilder name = new StringBuilder();
+		for(byte b : fingerprint) {
+			name.append(String.format("%02x", b));
+		}
+		return new File(directory, name.append(SUFFIX).toString());
+	}
+
+
+	/**
+	 * Returns the index with the given fingerprint, or null if it is not in the store.
+	 * @param nodes the node list of the network that the fingerprint was computed from
+	 */
+	public synchronized TokenIndex load(byte[] fingerprint, List<CyNode> nodes, String tokenization) {
+		File file = getFile(fingerprint);
+		if(!file.isFile())
+			return null;
+
+		try {
+			TokenIndex index;
+			try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				// the mapping stays valid after the channel is closed
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				index = TokenIndex.read(buffer, nodes, tokenization);
+			}
+			if(!index.hasFingerprint(fingerprint))
+				throw new IOException("token index has the wrong fingerprint");
+			file.setLastModified(System.currentTimeMillis());
+			return index;
+		} catch(IOException | RuntimeException e) {
+			logger.warn("Could not read WordCloud token index " + file.getName() + ", it will be rebuilt", e);
+			file.delete();
+			return null;
+		}
+	}
+
+
+	/**
+	 * Writes the index to disk and deletes the least recently used files if the store is too large.
+	 * Errors are logged, the index can always be built again.
+	 */
+	public synchronized void save(TokenIndex index) {
+		if(maxBytes <= 0)
+			return;
+		File file = getFile(index.getFingerprint());
+		if(file.isFile())
+			return;
+
+		File temp = null;
+		try {
+			if(!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("could not create " + directory);
+			temp = File.createTempFile("index", ".tmp", directory);
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				index.writeTo(out);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			logger.warn("Could not save WordCloud token index", e);
+			if(temp != null)
+				temp.delete();
+			return;
+		}
+
+		evict();
+	}
+
+
+	private void evict() {
+		File[] files = directory.listFiles();
+		if(files == null)
+			return;
+
+		// newest first
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return Long.compare(f2.lastModified(), f1.lastModified());
+			}
+		});
+
+		long total = 0;
+		for(File file : files) {
+			if(!file.getName().endsWith(SUFFIX))
+				continue;
+			total += file.length();
+			if(total > maxBytes) {
+				// may fail if the file is still mapped on Windows, it is deleted next time
+				file.delete();
+			}
+		}
+	}
+}
@@ -3,11 +3,13 @@ package org.baderlab.wordcloud.internal.ui;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.SwingUtilities;
 
 import org.baderlab.wordcloud.internal.cluster.CloudInfo;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.CloudPreviewListener;
 
 
 /**
@@ -25,6 +27,14 @@ public class CloudTaskManager {
 		void onFinish(CloudInfo cloudInfo);
 	}
 	
+	/**
+	 * A callback that also wants the preview of the cloud if the cloud has to be calculated, 
+	 * onPreview() runs on the UI thread before onFinish().
+	 */
+	public interface PreviewCallback extends Callback {
+		void onPreview(CloudInfo preview);
+	}
+	
 	/**
 	 * Locks are used to serialize the computation for each CloudParameters object.
 	 * The results of a cloud are usually cached so if the same cloud is submitted
@@ -34,6 +44,21 @@ public class CloudTaskManager {
 	
 	private final ExecutorService executor = Executors.newCachedThreadPool();
 	
+	/**
+	 * For work the user isn't waiting for, like thumbnails, so it doesn't slow down
+	 * calculating the cloud that is being displayed.
+	 */
+	private final ExecutorService lowPriorityExecutor = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "WordCloud background");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+	
 	
 	private synchronized Object getLock(CloudParameters cloudParams) {
 		Object lock = locks.get(cloudParams);
@@ -46,6 +71,7 @@ public class CloudTaskManager {
 	
 	public synchronized void disposeAll() {
 		executor.shutdown();
+		lowPriorityExecutor.shutdownNow();
 		locks.clear(); 
 	}
 	
@@ -61,9 +87,22 @@ public class CloudTaskManager {
 		Runnable task = new Runnable() {
 			public void run() {
 				
+				CloudPreviewListener previewListener = null;
+				if(callback instanceof PreviewCallback) {
+					previewListener = new CloudPreviewListener() {
+						public void previewCalculated(final CloudInfo preview) {
+							SwingUtilities.invokeLater(new Runnable() {
+								public void run() {
+									((PreviewCallback)callback).onPreview(preview);
+								}
+							});
+						}
+					};
+				}
+				
 				final CloudInfo cloudInfo;
 				synchronized(getLock(cloudParams)) {
-					cloudInfo = cloudParams.calculateCloud(); // long running
+					cloudInfo = cloudParams.calculateCloud(previewListener); // long running
 				}
 				
 				if(callback != null) {
@@ -80,5 +119,20 @@ public class CloudTaskManager {
 		executor.submit(task);
 	}
 	
+	
+	/**
+	 * Runs a task on a non UI thread, for other work that is too slow for the UI thread.
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+	
+	/**
+	 * Runs a task on a small pool of low priority threads, tasks are started in the order they were submitted.
+	 */
+	public void executeLowPriority(Runnable task) {
+		lowPriorityExecutor.execute(task);
+	}
+	
 
 }
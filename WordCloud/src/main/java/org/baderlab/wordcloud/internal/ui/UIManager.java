@@ -6,7 +6,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-import org.baderlab.wordcloud.internal.SelectionUtils;
+import org.baderlab.wordcloud.internal.TableEventRouter;
+import org.baderlab.wordcloud.internal.model.CloudModelChanges;
 import org.baderlab.wordcloud.internal.model.CloudModelListener;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
@@ -22,7 +23,6 @@ import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.events.RowSetRecord;
 import org.cytoscape.model.events.RowsSetEvent;
 import org.cytoscape.model.events.RowsSetListener;
 import org.cytoscape.service.util.CyServiceRegistrar;
@@ -33,7 +33,7 @@ import org.cytoscape.view.model.CyNetworkView;
  * Keeps track of the current network and cloud and updates the UI.
  * @author mkucera
  */
-public class UIManager implements CloudModelListener, SetCurrentNetworkListener, SetCurrentNetworkViewListener, RowsSetListener {
+public class UIManager implements CloudModelListener, SetCurrentNetworkListener, SetCurrentNetworkViewListener {
 
 	// Referenes to dependencies
 	private final CloudModelManager cloudManager;
@@ -41,6 +41,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 	private final CySwingApplication application;
 	private final CyServiceRegistrar registrar;
 	private final CloudTaskManager cloudTaskManager;
+	private final TableEventRouter eventRouter;
 	
 	// UI components that are managed
 	private SemanticSummaryInputPanel inputWindow;
@@ -62,12 +63,20 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 			CyApplicationManager applicationManager, 
 			CySwingApplication application, 
 			CyServiceRegistrar registrar,
-			CloudTaskManager cloudTaskManager) {
+			CloudTaskManager cloudTaskManager,
+			TableEventRouter eventRouter) {
 		this.cloudManager = cloudManager;
 		this.applicationManager = applicationManager;
 		this.application = application;
 		this.registrar = registrar;
 		this.cloudTaskManager = cloudTaskManager;
+		this.eventRouter = eventRouter;
+		
+		eventRouter.addNetworkRowsListener(new RowsSetListener() {
+			public void handleEvent(RowsSetEvent e) {
+				handleNetworkRowsSet(e);
+			}
+		});
 	}
 	
 	@SuppressWarnings("serial")
@@ -95,6 +104,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 	private void show() {
 		hidden = false;
 		if(docker == null) {
+			eventRouter.setActive(true);
 			inputWindow = new SemanticSummaryInputPanel(applicationManager, application, this, registrar);
 			inputWindow.setPreferredSize(new Dimension(350, 400));
 			cloudWindow = new CloudDisplayPanel(this, cloudTaskManager);
@@ -114,6 +124,8 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		if(docker != null) {
 			// selected clouds are still remembered
 			docker.dispose();
+			inputWindow.dispose();
+			eventRouter.setActive(false);
 			docker = null;
 			inputWindow = null;
 			cloudWindow = null;
@@ -138,6 +150,10 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 	public CloudDisplayPanel getCloudDisplayPanel() {
 		return cloudWindow;
 	}
+	
+	public CloudTaskManager getCloudTaskManager() {
+		return cloudTaskManager;
+	}
 
 	public NetworkParameters getCurrentNetwork() {
 		return currentNetwork;
@@ -147,6 +163,10 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		return cloudManager;
 	}
 	
+	public TableEventRouter getEventRouter() {
+		return eventRouter;
+	}
+	
 	
 	public void setCurrentCloud(CyNetwork network) {
 		if(network == null)
@@ -208,7 +228,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		Set<CyNode> selNodes = cloud.getSelectedNodes();
 		CyNetwork network = cloud.getNetworkParams().getNetwork();
 		if(network != null)
-			SelectionUtils.setSelected(network, selNodes);
+			cloudManager.getSelectionWriter().selectNodes(network, selNodes);
 	}
 
 	
@@ -237,6 +257,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 	public void cloudAdded(CloudParameters cloudParams) {
 		if(hidden)
 			show();
+		inputWindow.cloudAdded(cloudParams);
 		setCurrentCloud(cloudParams);
 		docker.bringToFront();
 	}
@@ -250,6 +271,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		if(hidden)
 			return;
 		
+		inputWindow.cloudDeleted(cloud);
 		if(cloud.getNetworkParams() == currentNetwork) {
 			setCurrentCloud(cloud.getNetworkParams());
 		}
@@ -273,6 +295,7 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		if(hidden)
 			return;
 		
+		inputWindow.cloudModified(cloudParams);
 		if(cloudParams.getNetworkParams() == currentNetwork) {
 			inputWindow.setCurrentCloud(selectedClouds.get(currentNetwork)); // this basically does a refresh
 		}
@@ -283,6 +306,42 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 		// Actually, the below events take care of this just fine
 	}
 	
+	@Override
+	public void modelChanged(CloudModelChanges changes) {
+		for(CloudParameters cloud : changes.getDeletedClouds()) {
+			if(isCurrentCloud(cloud)) {
+				selectedClouds.remove(cloud.getNetworkParams());
+			}
+		}
+		
+		CloudParameters lastAdded = null;
+		for(CloudParameters cloud : changes.getAddedClouds()) {
+			lastAdded = cloud;
+		}
+		if(lastAdded != null && hidden)
+			show();
+		if(hidden)
+			return;
+		
+		// update the lists of clouds, then refresh the panels once
+		for(CloudParameters cloud : changes.getDeletedClouds()) {
+			inputWindow.cloudDeleted(cloud);
+		}
+		for(CloudParameters cloud : changes.getAddedClouds()) {
+			inputWindow.cloudAdded(cloud);
+		}
+		for(CloudParameters cloud : changes.getModifiedClouds()) {
+			inputWindow.cloudModified(cloud);
+		}
+		
+		if(lastAdded != null) {
+			setCurrentCloud(lastAdded);
+			docker.bringToFront();
+		} else if(changes.getAffectedNetworks().contains(currentNetwork)) {
+			setCurrentCloud(currentNetwork);
+		}
+	}
+	
 	
 	// Cytoscape Events
 	
@@ -309,24 +368,14 @@ public class UIManager implements CloudModelListener, SetCurrentNetworkListener,
 	
 	
 	/**
-	 * Handle network rename.
+	 * Handle network rename, only called for the network tables of managed networks.
 	 * MKTODO this could be handled through the networkModified event
 	 */
-	@Override
-	public void handleEvent(RowsSetEvent e) {
-		if(hidden)
+	private void handleNetworkRowsSet(RowsSetEvent e) {
+		if(hidden || currentNetwork == null || currentNetwork.getNetwork() == null)
 			return;
 		
-		// Just doing an approximate calculation here, detect if ANY network has changed name.
-		boolean isNetworkRename = false;
-		for (RowSetRecord record : e.getPayloadCollection()) {
-			if (record.getColumn().equals(CyNetwork.NAME)) {
-				isNetworkRename = true;
-				break;
-			}
-		}
-		
-		if(isNetworkRename) {
+		if(e.containsColumn(CyNetwork.NAME) && currentNetwork == cloudManager.getNetworkForNetworkTable(e.getSource())) {
 			inputWindow.updateNetworkName(currentNetwork.getNetworkName());
 		}
 	}
@@ -0,0 +1,48 @@
+package org.baderlab.wordcloud.internal.ui.action;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.JOptionPane;
+
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.CloudProvider;
+import org.baderlab.wordcloud.internal.model.MembershipStorage;
+import org.cytoscape.application.swing.AbstractCyAction;
+import org.cytoscape.application.swing.CySwingApplication;
+
+/**
+ * Creates the Boolean node column for a cloud that uses bitmap storage.
+ */
+@SuppressWarnings("serial")
+public class CreateColumnAction extends AbstractCyAction {
+
+	private CloudProvider cloudProvider;
+	private CySwingApplication swingApplication;
+	
+	
+	public CreateColumnAction(CloudProvider cloudProvider, CySwingApplication swingApplication) {
+		super("Create Column");
+		this.cloudProvider = cloudProvider;
+		this.swingApplication = swingApplication;
+		
+		CloudParameters cloud = cloudProvider.getCloud();
+		setEnabled(cloud != null && cloud.getStorage() == MembershipStorage.BITMAP);
+	}
+	
+	
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		CloudParameters cloud = cloudProvider.getCloud();
+		if(cloud == null)
+			return;
+		
+		try {
+			cloud.materializeColumn();
+		} catch(IllegalArgumentException ex) {
+			JOptionPane.showMessageDialog(swingApplication.getJFrame(), 
+					"Cannot create column for cloud '" + cloud.getCloudName() + "' because a column with that name exists.", 
+					"Duplicate Column Name", 
+					JOptionPane.WARNING_MESSAGE);
+		}
+	}
+}
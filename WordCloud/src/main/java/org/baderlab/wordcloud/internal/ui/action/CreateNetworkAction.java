@@ -104,7 +104,7 @@ public class CreateNetworkAction extends AbstractCyAction {
 		if(cloud == null)
 			return;
 		
-		CloudInfo cloudInfo = cloud.calculateCloud();
+		CloudInfo cloudInfo = cloud.calculateFullCloud();
 		Map<String, Double> ratios = cloudInfo.getRatios();
 		Map<WordPair, Double> pairRatios = cloudInfo.getPairRatios();
 		
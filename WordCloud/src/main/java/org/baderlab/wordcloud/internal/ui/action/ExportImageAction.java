@@ -23,15 +23,13 @@
 package org.baderlab.wordcloud.internal.ui.action;
 
 import java.awt.event.ActionEvent;
-import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 
-import javax.imageio.ImageIO;
-
 import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudDisplayPanel;
 import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.util.swing.FileChooserFilter;
@@ -42,6 +40,7 @@ public class ExportImageAction extends AbstractCyAction {
 	
 	// Extensions for the new file
 	public static final String SESSION_EXT = ".png";
+	public static final String SVG_EXT = ".svg";
 	public static final String TITLE = "Export Cloud Image";
 	
 	private CySwingApplication application;
@@ -71,12 +70,12 @@ public class ExportImageAction extends AbstractCyAction {
 		// Open Dialog to ask user the file name.
 		try {
 			Collection<FileChooserFilter> filters = Collections.emptyList();
-			name = fileUtil.getFile(application.getJFrame(), "Save Current Cloud as PNG File", FileUtil.SAVE, filters).toString();
+			name = fileUtil.getFile(application.getJFrame(), "Save Current Cloud as PNG or SVG File", FileUtil.SAVE, filters).toString();
 		} catch (Exception exp) {
 			// this is because the selection was canceled
 			return null;
 		}
-		if (!name.endsWith(SESSION_EXT))
+		if (!name.endsWith(SESSION_EXT) && !name.endsWith(SVG_EXT))
 			name = name + SESSION_EXT;
 		
 		return name;
@@ -86,9 +85,12 @@ public class ExportImageAction extends AbstractCyAction {
 	 * Method that actually creates the file
 	 */
 	private void saveFile(String name) {
-		RenderedImage image = uiManager.getCloudDisplayPanel().createImage();
+		CloudDisplayPanel displayPanel = uiManager.getCloudDisplayPanel();
 		try {
-			ImageIO.write(image, "png", new File(name));
+			if(name.endsWith(SVG_EXT))
+				displayPanel.createRenderer().writeSvg(displayPanel.getCloudLayout(), new File(name));
+			else
+				displayPanel.createRenderer().writePng(displayPanel.getCloudLayout(), 1.0, new File(name));
 		} catch (IOException e) {
 			e.printStackTrace(); // MKTODO no
 		}
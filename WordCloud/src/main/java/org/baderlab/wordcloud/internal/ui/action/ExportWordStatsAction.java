@@ -0,0 +1,79 @@
+package org.baderlab.wordcloud.internal.ui.action;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.swing.JOptionPane;
+
+import org.baderlab.wordcloud.internal.command.ExportWordStatsCommandTask;
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.application.swing.AbstractCyAction;
+import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.service.util.CyServiceRegistrar;
+import org.cytoscape.util.swing.FileChooserFilter;
+import org.cytoscape.util.swing.FileUtil;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskManager;
+
+/**
+ * Exports the statistics of the words of all the clouds of the current network, 
+ * see {@link ExportWordStatsCommandTask}.
+ */
+@SuppressWarnings("serial")
+public class ExportWordStatsAction extends AbstractCyAction {
+
+	public static final String TITLE = "Export Word Statistics";
+	public static final String EXT = ".wcstats";
+	
+	private final CySwingApplication application;
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudManager;
+	private final FileUtil fileUtil;
+	private final CyServiceRegistrar registrar;
+	
+	
+	public ExportWordStatsAction(CySwingApplication application, CyApplicationManager applicationManager, CloudModelManager cloudManager, 
+			FileUtil fileUtil, CyServiceRegistrar registrar) {
+		super(TITLE);
+		this.application = application;
+		this.applicationManager = applicationManager;
+		this.cloudManager = cloudManager;
+		this.fileUtil = fileUtil;
+		this.registrar = registrar;
+	}
+	
+	
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		NetworkParameters networkParams = network == null ? null : cloudManager.getNetworkParameters(network);
+		if(networkParams == null || networkParams.getClouds().isEmpty()) {
+			JOptionPane.showMessageDialog(application.getJFrame(), "The current network does not have any clouds.");
+			return;
+		}
+		
+		File file;
+		try {
+			Collection<FileChooserFilter> filters = Collections.emptyList();
+			file = fileUtil.getFile(application.getJFrame(), "Export Word Statistics of All Clouds", FileUtil.SAVE, filters);
+		} catch(Exception ex) {
+			return; // the selection was canceled
+		}
+		if(file == null)
+			return;
+		
+		String name = file.getAbsolutePath();
+		if(!name.endsWith(EXT))
+			name = name + EXT;
+		
+		ExportWordStatsCommandTask task = new ExportWordStatsCommandTask(applicationManager, cloudManager);
+		task.file = name;
+		TaskManager<?,?> taskManager = registrar.getService(TaskManager.class);
+		taskManager.execute(new TaskIterator(task));
+	}
+}
@@ -0,0 +1,68 @@
+package org.baderlab.wordcloud.internal.ui.action;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.WindowConstants;
+
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudGridPanel;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.application.swing.AbstractCyAction;
+import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.model.CyNetwork;
+
+/**
+ * Opens a window with thumbnails of all the clouds of the current network.
+ */
+@SuppressWarnings("serial")
+public class ShowCloudGridAction extends AbstractCyAction {
+
+	public static final String TITLE = "Show Cloud Grid";
+	
+	private final CySwingApplication application;
+	private final CyApplicationManager applicationManager;
+	private final CloudModelManager cloudManager;
+	private final UIManager uiManager;
+	
+	
+	public ShowCloudGridAction(CySwingApplication application, CyApplicationManager applicationManager, CloudModelManager cloudManager, UIManager uiManager) {
+		super(TITLE);
+		this.application = application;
+		this.applicationManager = applicationManager;
+		this.cloudManager = cloudManager;
+		this.uiManager = uiManager;
+	}
+	
+	
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		NetworkParameters networkParams = network == null ? null : cloudManager.getNetworkParameters(network);
+		if(networkParams == null || networkParams.getClouds().isEmpty()) {
+			JOptionPane.showMessageDialog(application.getJFrame(), "The current network does not have any clouds.");
+			return;
+		}
+		
+		final CloudGridPanel grid = new CloudGridPanel(networkParams, uiManager, GlyphCache.getSharedInstance());
+		
+		JFrame frame = new JFrame("WordCloud: " + networkParams.getNetworkName());
+		frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+		frame.getContentPane().add(new JScrollPane(grid));
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosed(WindowEvent e) {
+				grid.dispose();
+			}
+		});
+		frame.pack();
+		frame.setLocationRelativeTo(application.getJFrame());
+		frame.setVisible(true);
+	}
+}
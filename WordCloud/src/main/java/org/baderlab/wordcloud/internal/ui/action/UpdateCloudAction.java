@@ -24,19 +24,16 @@
 package org.baderlab.wordcloud.internal.ui.action;
 
 import java.awt.event.ActionEvent;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
 import org.baderlab.wordcloud.internal.SelectionUtils;
-import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
 import org.baderlab.wordcloud.internal.model.CloudProvider;
 import org.baderlab.wordcloud.internal.ui.UIManager;
 import org.cytoscape.application.swing.AbstractCyAction;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.CyRow;
 
 /**
  * This is the action associated with updating a Semantic Summary Tag Cloud
@@ -74,23 +71,8 @@ public class UpdateCloudAction extends AbstractCyAction
 		}
 		
 		if (cloud.getClusterTable() != null) {
-			List<CloudWordInfo> wordInfos = cloud.calculateCloud().getCloudWordInfoList();
-			ArrayList<String> WC_Word = new ArrayList<String>();
-			ArrayList<String> WC_FontSize = new ArrayList<String>();
-			ArrayList<String> WC_Cluster = new ArrayList<String>();
-			ArrayList<String> WC_Number = new ArrayList<String>();
-			for (CloudWordInfo cloudWord : wordInfos) {
-				String[] wordInfo = cloudWord.toSplitString();
-				WC_Word.add(wordInfo[0]);
-				WC_FontSize.add(wordInfo[1]);
-				WC_Cluster.add(wordInfo[2]);
-				WC_Number.add(wordInfo[3]);
-			}
-			CyRow clusterRow = cloud.getClusterTable().getRow(cloud.getCloudName());
-			clusterRow.set("WC_Word", WC_Word);
-			clusterRow.set("WC_FontSize", WC_FontSize);
-			clusterRow.set("WC_Cluster", WC_Cluster);
-			clusterRow.set("WC_Number", WC_Number);
+			CloudInfo cloudInfo = cloud.calculateFullCloud();
+			cloud.getNetworkParams().getManager().getClusterTableWriter().write(cloud.getClusterTable(), cloud.getCloudName(), cloudInfo);
 		}
 	}
 	
@@ -0,0 +1,294 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+
+import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudLayout.WordBox;
+
+/**
+ * A single component that paints all the words of a cloud.
+ *
+ * Replaces the old display that used a JLabel (and a mouse listener) per word and a JPanel
+ * per cluster, which made Swing layout very slow for large clouds. The words are positioned
+ * by {@link CloudLayout} which is recomputed only when the words or the width change,
+ * the word under the mouse is found using the layout's spatial index.
+ */
+@SuppressWarnings("serial")
+public class CloudCanvas extends JComponent implements Scrollable {
+
+	private static final Color HOVER_COLOR = new Color(0,200,255);
+
+	public interface WordClickListener {
+		void wordClicked(CloudWordInfo word);
+	}
+
+	private final GlyphCache glyphCache;
+
+	private List<CloudWordInfo> words = Collections.emptyList();
+	private CloudDisplayStyles style = CloudDisplayStyles.getDefault();
+	private CloudLayout.Content content;
+	private CloudLayout layout;
+	private WordBox hovered;
+	private WordClickListener clickListener;
+
+
+	public CloudCanvas(GlyphCache glyphCache) {
+		this.glyphCache = glyphCache;
+		setOpaque(true);
+		setBackground(javax.swing.UIManager.getColor("Panel.background"));
+
+		MouseAdapter mouseListener = new MouseAdapter() {
+			public void mouseMoved(MouseEvent e) {
+				setHovered(getWordAt(e.getX(), e.getY()));
+			}
+			public void mouseExited(MouseEvent e) {
+				setHovered(null);
+			}
+			public void mouseClicked(MouseEvent e) {
+				WordBox box = getWordAt(e.getX(), e.getY());
+				if(box != null && clickListener != null) {
+					clickListener.wordClicked(box.getWord());
+				}
+			}
+		};
+		addMouseListener(mouseListener);
+		addMouseMotionListener(mouseListener);
+	}
+
+
+	public void setWordClickListener(WordClickListener listener) {
+		this.clickListener = listener;
+	}
+
+	/**
+	 * Sets the words to display, they are laid out in the given order.
+	 * 
+	 * The new words are compared with the ones currently displayed by word and cluster. If they would 
+	 * be laid out the same way the current layout is kept and only the words whose color changed are
+	 * repainted, otherwise the words are laid out again with a single revalidate.
+	 */
+	public void setWords(List<CloudWordInfo> newWords, CloudDisplayStyles newStyle) {
+		if(newStyle == null)
+			newStyle = CloudDisplayStyles.getDefault();
+		
+		if(canUpdate(newWords, newStyle)) {
+			updateWords(newWords);
+			return;
+		}
+		
+		setContent(newWords, CloudLayout.prepare(newWords, newStyle, glyphCache, content));
+	}
+	
+	/**
+	 * Returns true if the given words can be displayed without laying them out again.
+	 */
+	private boolean canUpdate(List<CloudWordInfo> newWords, CloudDisplayStyles newStyle) {
+		return content != null && newStyle == style && isSameLayout(words, newWords);
+	}
+	
+	/**
+	 * Displays content that was prepared for the given words, use this when the content 
+	 * is expensive to prepare and was prepared on another thread.
+	 */
+	public void setContent(List<CloudWordInfo> newWords, CloudLayout.Content newContent) {
+		this.content = newContent;
+		this.words = newWords;
+		this.style = newContent.getStyle();
+		this.layout = null;
+		this.hovered = null;
+		revalidate();
+		repaint();
+	}
+	
+	/**
+	 * The words that are currently displayed, in the order they were given.
+	 */
+	public List<CloudWordInfo> getWords() {
+		return words;
+	}
+	
+	public CloudDisplayStyles getStyle() {
+		return style;
+	}
+	
+	/**
+	 * The content that is currently displayed, may be null.
+	 */
+	public CloudLayout.Content getContent() {
+		return content;
+	}
+	
+	/**
+	 * Returns true if both lists contain the same words in the same clusters, in the same order,
+	 * with the same font sizes.
+	 */
+	static boolean isSameLayout(List<CloudWordInfo> oldWords, List<CloudWordInfo> newWords) {
+		if(oldWords.size() != newWords.size())
+			return false;
+		for(int i = 0; i < oldWords.size(); i++) {
+			CloudWordInfo oldWord = oldWords.get(i);
+			CloudWordInfo newWord = newWords.get(i);
+			if(oldWord.getFontSize() != newWord.getFontSize() 
+				|| oldWord.getCluster() != newWord.getCluster() 
+				|| !oldWord.getWord().equals(newWord.getWord()))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Keeps the geometry of the current layout but replaces the word objects, they point at
+	 * the most recent CloudInfo which is needed to select the nodes when a word is clicked.
+	 */
+	private void updateWords(List<CloudWordInfo> newWords) {
+		// the layout orders the words by cluster, find the replacement for each word
+		Map<CloudWordInfo,CloudWordInfo> replacements = new IdentityHashMap<CloudWordInfo,CloudWordInfo>();
+		for(int i = 0; i < words.size(); i++) {
+			replacements.put(words.get(i), newWords.get(i));
+		}
+		List<CloudWordInfo> layoutWords = new ArrayList<CloudWordInfo>(words.size());
+		for(CloudWordInfo word : content.getWords()) {
+			layoutWords.add(replacements.get(word));
+		}
+		
+		this.words = newWords;
+		this.content = content.withWords(layoutWords);
+		
+		if(layout != null) {
+			List<WordBox> oldBoxes = layout.getWords();
+			CloudLayout newLayout = content.getLayout(layout.getWidth());
+			List<WordBox> newBoxes = newLayout.getWords();
+			WordBox newHovered = null;
+			for(int i = 0; i < oldBoxes.size(); i++) {
+				WordBox oldBox = oldBoxes.get(i);
+				WordBox newBox = newBoxes.get(i);
+				if(oldBox == hovered)
+					newHovered = newBox;
+				if(!equal(oldBox.getWord().getTextColor(), newBox.getWord().getTextColor()))
+					repaint(newBox.getBounds());
+			}
+			this.layout = newLayout;
+			this.hovered = newHovered;
+		}
+	}
+	
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	public void clear() {
+		setWords(Collections.<CloudWordInfo>emptyList(), CloudDisplayStyles.getDefault());
+	}
+
+
+	/**
+	 * Returns the layout for the current width of the component.
+	 * Layouts are memoized by the content, so resizing only flows the blocks again.
+	 */
+	public CloudLayout getCloudLayout() {
+		if(content == null) {
+			content = CloudLayout.prepare(words, style, glyphCache, null);
+		}
+		int width = getWidth();
+		if(layout == null || layout.getWidth() != width) {
+			layout = content.getLayout(width);
+			hovered = null;
+		}
+		return layout;
+	}
+
+	private WordBox getWordAt(int x, int y) {
+		return getCloudLayout().getWordAt(x, y);
+	}
+
+	private void setHovered(WordBox box) {
+		if(box == hovered)
+			return;
+		if(hovered != null)
+			repaint(hovered.getBounds());
+		hovered = box;
+		if(hovered != null)
+			repaint(hovered.getBounds());
+	}
+
+
+	@Override
+	public void setBounds(int x, int y, int width, int height) {
+		boolean widthChanged = width != getWidth();
+		super.setBounds(x, y, width, height);
+		// the preferred height depends on the width
+		if(widthChanged) {
+			revalidate();
+		}
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		if(isPreferredSizeSet())
+			return super.getPreferredSize();
+		return getCloudLayout().getSize();
+	}
+
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		CloudLayout layout = getCloudLayout();
+		Graphics2D g2 = (Graphics2D) g.create();
+		try {
+			if(isOpaque()) {
+				g2.setColor(getBackground());
+				g2.fillRect(0, 0, getWidth(), getHeight());
+			}
+			CloudRenderer.paint(g2, layout, g2.getClipBounds(), getForeground(), hovered, HOVER_COLOR);
+		} finally {
+			g2.dispose();
+		}
+	}
+
+
+	// Scrollable, the cloud fills the width of the scroll pane and wraps, unless it is too narrow to show the widest block
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return 16;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		if(content == null || !(getParent() instanceof JViewport))
+			return true;
+		return getParent().getWidth() >= content.getMinimumWidth();
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+}
@@ -23,26 +23,14 @@
 package org.baderlab.wordcloud.internal.ui.cloud;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
-import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -53,10 +41,8 @@ import javax.swing.JPanel;
 import javax.swing.JRootPane;
 import javax.swing.JScrollPane;
 import javax.swing.ScrollPaneConstants;
-import javax.swing.border.CompoundBorder;
-import javax.swing.border.EmptyBorder;
+import javax.swing.SwingUtilities;
 
-import org.baderlab.wordcloud.internal.SelectionUtils;
 import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
 import org.baderlab.wordcloud.internal.cluster.CloudInfo;
 import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
@@ -79,7 +65,7 @@ public class CloudDisplayPanel extends JPanel implements CytoPanelComponent
 
 	private static final long serialVersionUID = 5996569544692738989L;
 	
-	private JPanel tagCloudFlowPanel;//add JLabels here for words
+	private CloudCanvas cloudCanvas;
 	private JScrollPane cloudScroll; 
 	private JRootPane rootPane;
 	private JPanel loadingPanel;
@@ -87,6 +73,11 @@ public class CloudDisplayPanel extends JPanel implements CytoPanelComponent
 	private final CloudTaskManager cloudTaskManager;
 	private final UIManager uiManager;
 	
+	/** Incremented by each call to updateCloudDisplay(), only accessed on the UI thread. */
+	private int displayVersion = 0;
+	/** The last version for which the full cloud was displayed. */
+	private int finishedVersion = 0;
+	
 
 	public CloudDisplayPanel(UIManager uiManager, CloudTaskManager cloudTaskManager) {
 		this.uiManager = uiManager;
@@ -94,10 +85,15 @@ public class CloudDisplayPanel extends JPanel implements CytoPanelComponent
 		
 		setLayout(new BorderLayout());
 		
-		//Create JPanel containing tag words
-		tagCloudFlowPanel = initializeTagCloud();
-		cloudScroll = new JScrollPane(tagCloudFlowPanel);
-		cloudScroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+		//Create the component that paints the words
+		cloudCanvas = new CloudCanvas(GlyphCache.getSharedInstance());
+		cloudCanvas.setWordClickListener(new CloudCanvas.WordClickListener() {
+			public void wordClicked(CloudWordInfo word) {
+				CloudDisplayPanel.this.wordClicked(word);
+			}
+		});
+		cloudScroll = new JScrollPane(cloudCanvas);
+		cloudScroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
 		cloudScroll.setBorder(BorderFactory.createEmptyBorder());
 		cloudScroll.setBackground(getBackground());
 		
@@ -158,35 +154,34 @@ public class CloudDisplayPanel extends JPanel implements CytoPanelComponent
 	
 	
 	/**
-	 * Initialized a blank tag cloud JPanel object.
-	 */
-	private JPanel initializeTagCloud()
-	{
-		JPanel panel = new JPanel(new ModifiedFlowLayout(ModifiedFlowLayout.CENTER,30,25));
-		return panel;
-	}
-	
-	/**
-	 * Clears all words from the CloudDisplay.
-	 */
-	private void clearCloud()
-	{
-		tagCloudFlowPanel.removeAll();
-		tagCloudFlowPanel.setLayout(new ModifiedFlowLayout(ModifiedFlowLayout.CENTER, 30, 25));
-		tagCloudFlowPanel.revalidate();
-		cloudScroll.revalidate();
-		tagCloudFlowPanel.updateUI();
-	}
-	
-	
-	/**
-	 * Updates the tagCloudFlowPanel to include all of the words at the size they
+	 * Updates the cloud canvas to include all of the words at the size they
 	 * are defined for in params.
 	 * 
 	 * To clear the display pass a NetworkParameters.getNullCloud();
+	 * 
+	 * The display is updated in stages, the cloud is calculated and laid out on a background 
+	 * thread and the finished layout is swapped into the canvas on the UI thread. If this method 
+	 * is called again before that happens the results of the earlier call are discarded.
+	 * 
+	 * If the cloud has to be calculated a preview of the cloud is displayed as soon as the words
+	 * are counted, it is replaced by the full cloud when the clustering is done.
+	 * 
+	 * May be called from any thread, the update is started on the UI thread.
 	 */
 	public void updateCloudDisplay(final CloudParameters params)
 	{
+		// commands and model events call this from other threads
+		if(!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					updateCloudDisplay(params);
+				}
+			});
+			return;
+		}
+		
+		final int version = ++displayVersion;
+		
 		if(!params.isAlreadyCalculated() && !params.getNetworkParams().isNullNetwork()) {
 			String loading = params.isNullCloud() ? " Loading..." : " Loading " + params.getCloudName() + "...";
 			JLabel label = new JLabel(loading);
@@ -195,164 +190,123 @@ public class CloudDisplayPanel extends JPanel implements CytoPanelComponent
 //			loadingPanel.revalidate();
 		}
 		
-		cloudTaskManager.submit(params, new CloudTaskManager.Callback() {
+		cloudTaskManager.submit(params, new CloudTaskManager.PreviewCallback() {
+			public void onPreview(CloudInfo preview) {
+				if(isCurrent(version, preview)) {
+					layoutCloud(version, preview);
+				}
+			}
 			public void onFinish(CloudInfo cloudInfo) {
-				if(cloudInfo != null && cloudInfo.isForCloud(uiManager.getCurrentCloud())) {
-					displayCloud(cloudInfo);
+				if(isCurrent(version, cloudInfo)) {
+					layoutCloud(version, cloudInfo);
 				}
 			}
-			
 		});
 	}
 	
 	
-	private synchronized void displayCloud(CloudInfo cloudInfo) {
-		loadingPanel.removeAll(); // remove the loading label
-		this.clearCloud();
-		
-		//Create a list of the words to include based on MaxWords parameters
-		List<CloudWordInfo> copy = new ArrayList<CloudWordInfo>();
-		List<CloudWordInfo> original = cloudInfo.getCloudWordInfoList();
-		
-		for (int i = 0; i < original.size(); i++)
-		{
-			CloudWordInfo curInfo = original.get(i);
-			copy.add(curInfo);
-		}
-		Collections.sort(copy);
-		
-		int max = cloudInfo.getMaxWords();
-		int numWords = copy.size();
-		if (max < numWords) {
-			copy.subList(max, numWords).clear();
-		}
-		
-		//Loop through to create labels and add them
-		int count = 0;
-		
-		Map<Integer,JPanel> clusters = new HashMap<Integer, JPanel>();
-		List<CloudWordInfo> wordInfo = cloudInfo.getCloudWordInfoList();
-		Iterator<CloudWordInfo> iter = wordInfo.iterator();
-		
+	/**
+	 * Returns true if the results are for the most recent call to updateCloudDisplay().
+	 */
+	private boolean isCurrent(int version, CloudInfo cloudInfo) {
+		return version == displayVersion && cloudInfo != null && cloudInfo.isForCloud(uiManager.getCurrentCloud());
+	}
+	
+	
+	/**
+	 * Measures the words and computes their positions on a background thread. 
+	 * Everything the background thread needs from the canvas is captured first, 
+	 * the layout model is immutable so it can be handed back to the UI thread safely.
+	 */
+	private void layoutCloud(final int version, final CloudInfo cloudInfo) {
+		final List<CloudWordInfo> previousWords = cloudCanvas.getWords();
+		final CloudDisplayStyles previousStyle = cloudCanvas.getStyle();
+		final CloudLayout.Content previous = cloudCanvas.getContent();
+		final int width = cloudCanvas.getWidth();
 		
-		//Loop while more words exist and we are under the max
-		while(iter.hasNext() && (count < cloudInfo.getMaxWords()))
-		{
-			CloudWordInfo curWordInfo = iter.next();
-			
-			//Check that word in in our range
-			if (copy.contains(curWordInfo))
-			{
-				int minOccurrence = cloudInfo.getMinWordOccurrence();
-				if(cloudInfo.getSelectedCounts().get(curWordInfo.getWord()) >= minOccurrence) {
-					Integer clusterNum = curWordInfo.getCluster();
-					JLabel curLabel = createLabel(curWordInfo); 
+		cloudTaskManager.execute(new Runnable() {
+			public void run() {
+				final List<CloudWordInfo> words = CloudLayout.getDisplayWords(cloudInfo);
+				// the words of a preview are not clustered
+				final CloudDisplayStyles style = cloudInfo.isPreview() && cloudInfo.getDisplayStyle().isClustered() 
+						? CloudDisplayStyles.NO_CLUSTERING : cloudInfo.getDisplayStyle();
 				
-					//Retrieve proper Panel
-					JPanel curPanel;
-					if (clusters.containsKey(clusterNum))
-					{
-						curPanel = clusters.get(clusterNum);
+				CloudLayout.Content content = null;
+				if(previous == null || style != previousStyle || !CloudCanvas.isSameLayout(previousWords, words)) {
+					content = CloudLayout.prepare(words, style, GlyphCache.getSharedInstance(), previous);
+					// the layout for the current width is remembered by the content
+					if(width > 0) {
+						content.getLayout(width);
 					}
-					else
-					{
-						if (cloudInfo.getDisplayStyle().equals(CloudDisplayStyles.NO_CLUSTERING))
-						{
-							//curPanel =  new JPanel(new ModifiedFlowLayout(ModifiedFlowLayout.CENTER,10,0));
-							curPanel = tagCloudFlowPanel;
-							curPanel.setLayout(new ModifiedFlowLayout(ModifiedFlowLayout.CENTER, 10, 0));
-						}
-						else
-						{
-							curPanel = new JPanel(new ModifiedClusterFlowLayout(ModifiedFlowLayout.CENTER,10,0));
+				}
+				
+				final CloudLayout.Content newContent = content;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if(!isCurrent(version, cloudInfo))
+							return;
+						if(cloudInfo.isPreview()) {
+							// the layout of the full cloud may finish first
+							if(finishedVersion == version)
+								return;
 						}
-						
-						if (cloudInfo.getDisplayStyle().equals(CloudDisplayStyles.CLUSTERED_BOXES))
-						{
-							curPanel.setBorder(new CompoundBorder(BorderFactory.createLineBorder(Color.GRAY), new EmptyBorder(10,10,10,10)));
+						else {
+							finishedVersion = version;
+							removeLoadingLabel();
 						}
+						if(newContent == null)
+							cloudCanvas.setWords(words, style); // only the colors changed
+						else
+							cloudCanvas.setContent(words, newContent);
 					}
-				
-					curPanel.add(curLabel);
-					clusters.put(clusterNum, curPanel);
-					count++;
-				}
+				});
 			}
-		}
-		
-		//Add all clusters to flow panel
-		SortedSet<Integer> sortedSet = new TreeSet<Integer>(clusters.keySet());
-		
-		for(Iterator<Integer> iter2 = sortedSet.iterator(); iter2.hasNext();)
-		{
-			Integer clusterNum = iter2.next();
-			JPanel curPanel = clusters.get(clusterNum);
-			
-			if (!curPanel.equals(tagCloudFlowPanel))
-				tagCloudFlowPanel.add(curPanel);
-		}
-		
-		tagCloudFlowPanel.revalidate();
-		this.revalidate();
-		this.updateUI();
-		this.repaint();
+		});
 	}
 	
+	private void removeLoadingLabel() {
+		loadingPanel.removeAll();
+		loadingPanel.revalidate();
+	}
 	
-	private JLabel createLabel(final CloudWordInfo info) {
-		JLabel label = info.createCloudLabel();
-		
-		//Listener stuff
-		label.addMouseListener(new MouseAdapter() 
-		{
-			public void mouseClicked(MouseEvent me)
-			{
-				JLabel clickedLabel = (JLabel)me.getComponent();
-				String word = clickedLabel.getText();
-				
-				
-				//Get all nodes containing this word
-				Set<CyNode> nodes = info.getCloudInfo().getStringNodeMapping().get(word);
-				
-				CyNetwork network = info.getCloudInfo().getNetwork();
-				if (network == null) {
-					return;
-				}
-				SelectionUtils.setColumns(network.getDefaultNodeTable(), CyNetwork.SELECTED, Boolean.FALSE);
-				SelectionUtils.setColumns(network.getDefaultEdgeTable(), CyNetwork.SELECTED, Boolean.FALSE);
-				SelectionUtils.setColumns(network, nodes, CyNetwork.SELECTED, Boolean.TRUE);
-			
-			}
-			
-			public void mouseEntered(MouseEvent me)
-			{
-				JLabel clickedLabel = (JLabel)me.getComponent();
-				clickedLabel.setForeground(new Color(0,200,255));
-				clickedLabel.repaint();
-			}
 	
-			public void mouseExited(MouseEvent me)
-			{
-				JLabel clickedLabel = (JLabel)me.getComponent();
-				clickedLabel.setForeground(info.getTextColor());
-				clickedLabel.repaint();
-			}
-		});
+	/**
+	 * Selects the nodes that contain the word.
+	 */
+	private void wordClicked(CloudWordInfo info) {
+		//Get all nodes containing this word
+		Set<CyNode> nodes = info.getCloudInfo().getStringNodeMapping().get(info.getWord());
 		
-		return label;
+		CyNetwork network = info.getCloudInfo().getNetwork();
+		if (network == null || nodes == null) {
+			return;
+		}
+		uiManager.getCloudModelManager().getSelectionWriter().select(network, nodes);
 	}
 	
 	
+	/**
+	 * Returns a renderer that draws the cloud the way it is displayed.
+	 */
+	public CloudRenderer createRenderer() {
+		CloudRenderer renderer = new CloudRenderer(GlyphCache.getSharedInstance());
+		renderer.setBackground(cloudCanvas.getBackground());
+		renderer.setForeground(cloudCanvas.getForeground());
+		return renderer;
+	}
+	
+	/**
+	 * Returns the layout of the cloud that is currently displayed.
+	 */
+	public CloudLayout getCloudLayout() {
+		return cloudCanvas.getCloudLayout();
+	}
+	
 	/**
 	 * Returns an image of the entire cloud, suitable for saving to a file.
 	 */
 	public RenderedImage createImage() {
-		Dimension d = tagCloudFlowPanel.getSize();
-		BufferedImage image = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
-		Graphics2D g2d = image.createGraphics();
-		tagCloudFlowPanel.paint( g2d );
-		g2d.dispose();
-		return image;
+		return createRenderer().createImage(getCloudLayout(), 1.0);
 	}
 
 	
@@ -0,0 +1,324 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
+
+import org.baderlab.wordcloud.internal.model.CloudModelChanges;
+import org.baderlab.wordcloud.internal.model.CloudModelListener;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+
+/**
+ * Shows a thumbnail of each cloud of a network in a grid, clicking a thumbnail makes it the current cloud.
+ *
+ * The grid is a single component that only paints the tiles that are visible, thumbnails are
+ * rendered by a {@link ThumbnailCache} when their tile is painted. Tiles that are scrolled 
+ * out of view before their turn comes are skipped.
+ */
+@SuppressWarnings("serial")
+public class CloudGridPanel extends JComponent implements Scrollable, CloudModelListener {
+
+	private static final int TILE_WIDTH = 200;
+	private static final int IMAGE_HEIGHT = 150;
+	private static final int LABEL_HEIGHT = 18;
+	private static final int TILE_HEIGHT = IMAGE_HEIGHT + LABEL_HEIGHT;
+	private static final int GAP = 8;
+	/** Thumbnails are clouds laid out at this width and scaled down to fit the tile. */
+	private static final int LAYOUT_WIDTH = 500;
+	private static final int MAX_THUMBNAILS = 150;
+
+	private static final Color TILE_COLOR = Color.WHITE;
+	private static final Color BORDER_COLOR = Color.LIGHT_GRAY;
+	private static final Color CURRENT_COLOR = new Color(0,200,255);
+
+	private final NetworkParameters networkParams;
+	private final UIManager uiManager;
+	private final ThumbnailCache thumbnails;
+
+	// only accessed on the UI thread
+	private List<CloudParameters> clouds;
+
+	// the clouds that are visible while the grid is painted, read by the background threads
+	private volatile Set<CloudParameters> visibleClouds = Collections.emptySet();
+
+	private final ThumbnailCache.Client thumbnailClient = new ThumbnailCache.Client() {
+		public boolean isVisible(CloudParameters cloud) {
+			return visibleClouds.contains(cloud);
+		}
+		public void thumbnailReady(CloudParameters cloud) {
+			repaint(); // only the visible tiles are painted
+		}
+	};
+
+
+	public CloudGridPanel(NetworkParameters networkParams, UIManager uiManager, GlyphCache glyphCache) {
+		this.networkParams = networkParams;
+		this.uiManager = uiManager;
+		this.thumbnails = new ThumbnailCache(uiManager.getCloudTaskManager(), glyphCache, TILE_WIDTH, IMAGE_HEIGHT, LAYOUT_WIDTH, MAX_THUMBNAILS);
+		this.clouds = networkParams.getClouds();
+
+		setOpaque(true);
+		setBackground(javax.swing.UIManager.getColor("Panel.background"));
+		ToolTipManager.sharedInstance().registerComponent(this);
+
+		addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				CloudParameters cloud = getCloudAt(e.getX(), e.getY());
+				if(cloud != null) {
+					CloudGridPanel.this.uiManager.setCurrentCloud(cloud);
+					repaint();
+				}
+			}
+		});
+
+		networkParams.getManager().addListener(this);
+	}
+
+
+	/**
+	 * Stops listening to the model, thumbnails that haven't been rendered yet are skipped.
+	 */
+	public void dispose() {
+		networkParams.getManager().removeListener(this);
+		visibleClouds = Collections.emptySet();
+		thumbnails.clear();
+	}
+
+
+	private int getColumns() {
+		return Math.max(1, (getWidth() - GAP) / (TILE_WIDTH + GAP));
+	}
+
+	private static Rectangle getTileBounds(int index, int columns) {
+		int row = index / columns;
+		int col = index % columns;
+		return new Rectangle(GAP + col * (TILE_WIDTH + GAP), GAP + row * (TILE_HEIGHT + GAP), TILE_WIDTH, TILE_HEIGHT);
+	}
+
+	/**
+	 * Returns the cloud whose tile contains the point, or null if the point is in a gap or past the last tile.
+	 */
+	public CloudParameters getCloudAt(int x, int y) {
+		int col = (x - GAP) / (TILE_WIDTH + GAP);
+		int row = (y - GAP) / (TILE_HEIGHT + GAP);
+		int columns = getColumns();
+		if(x < GAP || y < GAP || col >= columns)
+			return null;
+		int index = row * columns + col;
+		if(index >= clouds.size() || !getTileBounds(index, columns).contains(x, y))
+			return null;
+		return clouds.get(index);
+	}
+
+	/**
+	 * Returns the clouds whose tiles intersect the area, in grid order.
+	 */
+	public List<CloudParameters> getCloudsIn(Rectangle area) {
+		int columns = getColumns();
+		List<CloudParameters> result = new ArrayList<CloudParameters>();
+		for(int i = getFirstTile(area, columns), end = getEndTile(area, columns); i < end; i++) {
+			if(getTileBounds(i, columns).intersects(area)) {
+				result.add(clouds.get(i));
+			}
+		}
+		return result;
+	}
+
+	/** The first tile in the top row of tiles that the area overlaps. */
+	private static int getFirstTile(Rectangle area, int columns) {
+		return Math.max(0, (area.y - GAP) / (TILE_HEIGHT + GAP)) * columns;
+	}
+
+	/** One past the last tile in the bottom row of tiles that the area overlaps. */
+	private int getEndTile(Rectangle area, int columns) {
+		int lastRow = (area.y + area.height) / (TILE_HEIGHT + GAP);
+		return Math.min(clouds.size(), (lastRow + 1) * columns);
+	}
+
+
+	@Override
+	public String getToolTipText(MouseEvent e) {
+		CloudParameters cloud = getCloudAt(e.getX(), e.getY());
+		return cloud == null ? null : cloud.getCloudName();
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		if(isPreferredSizeSet())
+			return super.getPreferredSize();
+		int columns = getWidth() > 0 ? getColumns() : 4;
+		int rows = (clouds.size() + columns - 1) / columns;
+		return new Dimension(columns * (TILE_WIDTH + GAP) + GAP, rows * (TILE_HEIGHT + GAP) + GAP);
+	}
+
+	@Override
+	public void setBounds(int x, int y, int width, int height) {
+		boolean widthChanged = width != getWidth();
+		super.setBounds(x, y, width, height);
+		// the number of rows depends on the width
+		if(widthChanged) {
+			revalidate();
+		}
+	}
+
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		// published before the tiles are painted, painting a tile requests its thumbnail
+		visibleClouds = new HashSet<CloudParameters>(getCloudsIn(getVisibleRect()));
+
+		Graphics2D g2 = (Graphics2D) g.create();
+		try {
+			g2.setColor(getBackground());
+			g2.fillRect(0, 0, getWidth(), getHeight());
+			g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+			Rectangle clip = g2.getClipBounds();
+			if(clip == null)
+				clip = new Rectangle(0, 0, getWidth(), getHeight());
+
+			int columns = getColumns();
+			for(int i = getFirstTile(clip, columns), end = getEndTile(clip, columns); i < end; i++) {
+				Rectangle tile = getTileBounds(i, columns);
+				if(tile.intersects(clip)) {
+					paintTile(g2, clouds.get(i), tile);
+				}
+			}
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	private void paintTile(Graphics2D g, CloudParameters cloud, Rectangle tile) {
+		g.setColor(TILE_COLOR);
+		g.fillRect(tile.x, tile.y, tile.width, tile.height);
+
+		BufferedImage image = thumbnails.get(cloud, thumbnailClient);
+		if(image != null) {
+			g.drawImage(image, tile.x, tile.y, null);
+		}
+
+		// name of the cloud
+		g.setColor(getForeground());
+		FontMetrics fm = g.getFontMetrics();
+		String name = cloud.getCloudName();
+		while(name.length() > 4 && fm.stringWidth(name) > tile.width - 8)
+			name = name.substring(0, name.length() - 4) + "...";
+		int labelY = tile.y + IMAGE_HEIGHT + (LABEL_HEIGHT + fm.getAscent() - fm.getDescent()) / 2;
+		g.drawString(name, tile.x + (tile.width - fm.stringWidth(name)) / 2, labelY);
+
+		g.setColor(uiManager.isCurrentCloud(cloud) ? CURRENT_COLOR : BORDER_COLOR);
+		g.drawRect(tile.x, tile.y, tile.width - 1, tile.height - 1);
+	}
+
+
+	// CloudModelListener, events may come from any thread
+
+	// out of date thumbnails are detected by the cache when the tiles are painted again
+	private void refresh(final NetworkParameters network) {
+		if(network != networkParams)
+			return;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				clouds = networkParams.getClouds();
+				revalidate();
+				repaint();
+			}
+		});
+	}
+
+	@Override
+	public void cloudAdded(CloudParameters cloud) {
+		refresh(cloud.getNetworkParams());
+	}
+
+	@Override
+	public void cloudDeleted(final CloudParameters cloud) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				thumbnails.remove(cloud);
+			}
+		});
+		refresh(cloud.getNetworkParams());
+	}
+
+	@Override
+	public void cloudModified(CloudParameters cloud) {
+		refresh(cloud.getNetworkParams());
+	}
+
+	@Override
+	public void networkModified(NetworkParameters networkParams) {
+		refresh(networkParams);
+	}
+
+	@Override
+	public void networkRemoved(NetworkParameters networkParams) {
+		refresh(networkParams);
+	}
+
+	@Override
+	public void modelChanged(CloudModelChanges changes) {
+		final Set<CloudParameters> deleted = changes.getDeletedClouds();
+		if(!deleted.isEmpty()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					for(CloudParameters cloud : deleted) {
+						thumbnails.remove(cloud);
+					}
+				}
+			});
+		}
+		if(changes.getAffectedNetworks().contains(networkParams)) {
+			refresh(networkParams);
+		}
+	}
+
+
+	// Scrollable, the tiles wrap to the width of the scroll pane
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return new Dimension(4 * (TILE_WIDTH + GAP) + GAP, 3 * (TILE_HEIGHT + GAP) + GAP);
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? (TILE_HEIGHT + GAP) / 4 : 16;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return true;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return false;
+	}
+}
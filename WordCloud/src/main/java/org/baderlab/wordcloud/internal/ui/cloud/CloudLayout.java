@@ -0,0 +1,551 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache.Glyph;
+
+/**
+ * The positions of the words of a cloud for a given width, immutable.
+ *
+ * The words are placed the same way the old component based display placed them,
+ * the whole cloud is a centered flow layout, and for the clustered styles each cluster
+ * is a box that is only as wide as its widest word. The SPIRAL style packs the words
+ * around the center using {@link SpiralLayout}.
+ */
+public final class CloudLayout {
+
+	// gaps used by the display styles
+	private static final int CLUSTER_HGAP = 30;
+	private static final int CLUSTER_VGAP = 25;
+	private static final int WORD_HGAP = 10;
+	private static final int WORD_VGAP = 0;
+	/** Line border plus padding around each cluster for the CLUSTERED_BOXES style. */
+	private static final int BOX_INSET = 11;
+	/** The same words always get the same spiral layout. */
+	private static final long SPIRAL_SEED = 42;
+
+	/** Size of the cells of the grid used to find the word under the mouse. */
+	private static final int CELL_SIZE = 64;
+
+	private final int width;
+	private final Dimension size;
+	private final List<WordBox> words;
+	private final List<Rectangle> clusterBoxes;
+	private final int[][] grid;
+	private final int gridColumns;
+
+
+	/**
+	 * A word and the area it occupies, the glyph vector is drawn at the text location.
+	 */
+	public static final class WordBox {
+		private final CloudWordInfo word;
+		private final Glyph glyph;
+		private final Rectangle bounds;
+		private final float textX;
+		private final float textY;
+
+		WordBox(CloudWordInfo word, Glyph glyph, Rectangle bounds, float textX, float textY) {
+			this.word = word;
+			this.glyph = glyph;
+			this.bounds = bounds;
+			this.textX = textX;
+			this.textY = textY;
+		}
+
+		public CloudWordInfo getWord() {
+			return word;
+		}
+
+		public Glyph getGlyph() {
+			return glyph;
+		}
+
+		public Rectangle getBounds() {
+			return new Rectangle(bounds);
+		}
+
+		/**
+		 * The left end of the baseline of the word.
+		 */
+		public float getTextX() {
+			return textX;
+		}
+
+		public float getTextY() {
+			return textY;
+		}
+	}
+
+
+	/**
+	 * Returns a layout with the same geometry that shows the given words instead.
+	 * The words must be the same as the ones in this layout, in the same order, with the same
+	 * font sizes, only their other properties (eg. color, the CloudInfo they belong to) may differ.
+	 */
+	CloudLayout withWords(List<CloudWordInfo> replacements) {
+		if(replacements.size() != words.size())
+			throw new IllegalArgumentException("number of words does not match layout");
+		List<WordBox> boxes = new ArrayList<WordBox>(words.size());
+		for(int i = 0; i < words.size(); i++) {
+			WordBox box = words.get(i);
+			boxes.add(new WordBox(replacements.get(i), box.glyph, box.bounds, box.textX, box.textY));
+		}
+		return new CloudLayout(this, boxes);
+	}
+	
+	private CloudLayout(CloudLayout layout, List<WordBox> words) {
+		this.width = layout.width;
+		this.size = layout.size;
+		this.words = Collections.unmodifiableList(words);
+		this.clusterBoxes = layout.clusterBoxes;
+		this.grid = layout.grid;
+		this.gridColumns = layout.gridColumns;
+	}
+	
+	private CloudLayout(int width, Dimension size, List<WordBox> words, List<Rectangle> clusterBoxes) {
+		this.width = width;
+		this.size = size;
+		this.words = Collections.unmodifiableList(words);
+		this.clusterBoxes = Collections.unmodifiableList(clusterBoxes);
+
+		// Each cell of the grid lists the words that overlap it.
+		gridColumns = size.width / CELL_SIZE + 1;
+		int gridRows = size.height / CELL_SIZE + 1;
+		List<List<Integer>> cells = new ArrayList<List<Integer>>(gridColumns * gridRows);
+		for(int i = 0; i < gridColumns * gridRows; i++) {
+			cells.add(null);
+		}
+		for(int i = 0; i < words.size(); i++) {
+			Rectangle r = words.get(i).bounds;
+			int c1 = clamp(r.x / CELL_SIZE, gridColumns), c2 = clamp((r.x + r.width) / CELL_SIZE, gridColumns);
+			int r1 = clamp(r.y / CELL_SIZE, gridRows),    r2 = clamp((r.y + r.height) / CELL_SIZE, gridRows);
+			for(int row = r1; row <= r2; row++) {
+				for(int col = c1; col <= c2; col++) {
+					int cell = row * gridColumns + col;
+					if(cells.get(cell) == null)
+						cells.set(cell, new ArrayList<Integer>(4));
+					cells.get(cell).add(i);
+				}
+			}
+		}
+		grid = new int[cells.size()][];
+		for(int i = 0; i < grid.length; i++) {
+			List<Integer> cell = cells.get(i);
+			if(cell != null) {
+				grid[i] = new int[cell.size()];
+				for(int j = 0; j < grid[i].length; j++)
+					grid[i][j] = cell.get(j);
+			}
+		}
+	}
+
+	private static int clamp(int value, int count) {
+		return Math.max(0, Math.min(value, count - 1));
+	}
+
+
+	/**
+	 * Returns the words of the cloud that should be displayed, in the order they should be laid out.
+	 * Only the largest getMaxWords() words are shown, and only if they occur often enough in the selected nodes.
+	 */
+	public static List<CloudWordInfo> getDisplayWords(CloudInfo cloudInfo) {
+		return cloudInfo.getDisplayWords();
+	}
+
+
+	/**
+	 * Lays out the words for a component of the given width.
+	 * If the width is 0 the words are put in as few rows as possible.
+	 */
+	public static CloudLayout create(List<CloudWordInfo> words, CloudDisplayStyles style, int width, GlyphCache glyphCache) {
+		return prepare(words, style, glyphCache, null).getLayout(width);
+	}
+	
+	
+	/**
+	 * Does the part of the layout that doesn't depend on the width of the component.
+	 * 
+	 * The words are grouped into blocks, for the clustered styles a block is a cluster, 
+	 * for the SPIRAL style all the words are one block, otherwise each word is a block.
+	 * Blocks of the previous content that contain exactly
+	 * the same words at the same sizes are reused, so changing one cluster doesn't
+	 * redo the layout of the others.
+	 * 
+	 * @param previous the content that is currently displayed, may be null
+	 */
+	public static Content prepare(List<CloudWordInfo> words, CloudDisplayStyles style, GlyphCache glyphCache, Content previous) {
+		if(style == null)
+			style = CloudDisplayStyles.getDefault();
+		
+		Map<List<Object>,Block> reusable = new HashMap<List<Object>,Block>();
+		if(previous != null && previous.style == style) {
+			for(Block block : previous.blocks) {
+				reusable.put(block.key, block);
+			}
+		}
+		
+		List<List<CloudWordInfo>> groups = new ArrayList<List<CloudWordInfo>>();
+		if(style == CloudDisplayStyles.SPIRAL) {
+			// largest first
+			List<CloudWordInfo> sorted = new ArrayList<CloudWordInfo>(words);
+			Collections.sort(sorted);
+			groups.add(sorted);
+		}
+		else if(style == CloudDisplayStyles.NO_CLUSTERING) {
+			for(CloudWordInfo word : words) {
+				groups.add(Collections.singletonList(word));
+			}
+		}
+		else {
+			// group the words by cluster, ordered by cluster number
+			Map<Integer,List<CloudWordInfo>> clusters = new TreeMap<Integer,List<CloudWordInfo>>();
+			for(CloudWordInfo word : words) {
+				List<CloudWordInfo> cluster = clusters.get(word.getCluster());
+				if(cluster == null) {
+					cluster = new ArrayList<CloudWordInfo>();
+					clusters.put(word.getCluster(), cluster);
+				}
+				cluster.add(word);
+			}
+			groups.addAll(clusters.values());
+		}
+		
+		int inset = style == CloudDisplayStyles.CLUSTERED_BOXES ? BOX_INSET : 0;
+		List<CloudWordInfo> layoutOrder = new ArrayList<CloudWordInfo>(words.size());
+		List<Block> blocks = new ArrayList<Block>(groups.size());
+		for(List<CloudWordInfo> group : groups) {
+			List<Object> key = Block.createKey(group);
+			Block block = reusable.get(key);
+			if(block == null) {
+				block = style == CloudDisplayStyles.SPIRAL ? Block.spiral(key, group, glyphCache) : Block.rows(key, group, inset, glyphCache);
+			}
+			blocks.add(block);
+			layoutOrder.addAll(group);
+		}
+		return new Content(style, layoutOrder, blocks);
+	}
+	
+	
+	/**
+	 * The part of a layout that does not depend on the width, the layouts for the
+	 * most recently used widths are remembered.
+	 */
+	public static final class Content {
+		
+		/** Remember a few widths, adding or removing the scroll bar changes the width back and forth. */
+		private static final int MAX_CACHED_WIDTHS = 4;
+		
+		private final CloudDisplayStyles style;
+		private final List<CloudWordInfo> words;
+		private final List<Block> blocks;
+		
+		@SuppressWarnings("serial")
+		private final Map<Integer,CloudLayout> layouts = new LinkedHashMap<Integer,CloudLayout>(8, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Integer,CloudLayout> eldest) {
+				return size() > MAX_CACHED_WIDTHS;
+			}
+		};
+		
+		private Content(CloudDisplayStyles style, List<CloudWordInfo> words, List<Block> blocks) {
+			this.style = style;
+			this.words = Collections.unmodifiableList(words);
+			this.blocks = blocks;
+		}
+		
+		public CloudDisplayStyles getStyle() {
+			return style;
+		}
+		
+		/**
+		 * The words in the order they are laid out, which is not necessarily the order they were given in.
+		 */
+		public List<CloudWordInfo> getWords() {
+			return words;
+		}
+		
+		/**
+		 * The narrowest width that shows all the words, narrower components have to scroll.
+		 */
+		public int getMinimumWidth() {
+			int widest = 0;
+			for(Block block : blocks) {
+				widest = Math.max(widest, block.size.width);
+			}
+			return widest + 2 * getHgap();
+		}
+		
+		private int getHgap() {
+			return style.isClustered() ? CLUSTER_HGAP : WORD_HGAP;
+		}
+		
+		private int getVgap() {
+			if(style == CloudDisplayStyles.SPIRAL)
+				return WORD_HGAP;
+			return style.isClustered() ? CLUSTER_VGAP : WORD_VGAP;
+		}
+		
+		public synchronized CloudLayout getLayout(int width) {
+			CloudLayout layout = layouts.get(width);
+			if(layout == null) {
+				layout = layout(width);
+				layouts.put(width, layout);
+			}
+			return layout;
+		}
+		
+		/**
+		 * Returns content with the same geometry for the given words, see {@link CloudLayout#withWords(List)}.
+		 * The words must be in the same order as {@link #getWords()}.
+		 */
+		public synchronized Content withWords(List<CloudWordInfo> replacements) {
+			Content content = new Content(style, replacements, blocks);
+			for(CloudLayout layout : layouts.values()) {
+				content.layouts.put(layout.getWidth(), layout.withWords(replacements));
+			}
+			return content;
+		}
+		
+		private CloudLayout layout(int width) {
+			int hgap = getHgap();
+			int vgap = getVgap();
+			
+			List<Rectangle> blockBounds = new ArrayList<Rectangle>(blocks.size());
+			for(Block block : blocks) {
+				blockBounds.add(new Rectangle(block.size));
+			}
+			Dimension content = flow(blockBounds, maxRowWidth(width, hgap), hgap, vgap);
+			Dimension size = center(blockBounds, content, width, hgap);
+			
+			List<WordBox> boxes = new ArrayList<WordBox>(words.size());
+			for(int i = 0; i < blocks.size(); i++) {
+				Block block = blocks.get(i);
+				Rectangle origin = blockBounds.get(i);
+				for(int j = 0; j < block.glyphs.length; j++) {
+					Rectangle bounds = new Rectangle(block.bounds[j]);
+					bounds.translate(origin.x, origin.y);
+					Point2D.Float text = block.text[j];
+					boxes.add(new WordBox(words.get(boxes.size()), block.glyphs[j], bounds, origin.x + text.x, origin.y + text.y));
+				}
+			}
+			List<Rectangle> borders = style == CloudDisplayStyles.CLUSTERED_BOXES ? blockBounds : Collections.<Rectangle>emptyList();
+			return new CloudLayout(width, size, boxes, borders);
+		}
+	}
+	
+	
+	/**
+	 * A group of words laid out relative to each other, immutable.
+	 */
+	private static final class Block {
+		final List<Object> key;
+		final Glyph[] glyphs;
+		final Rectangle[] bounds;
+		/** Where the glyph vectors are drawn. */
+		final Point2D.Float[] text;
+		final Dimension size;
+		
+		private Block(List<Object> key, Glyph[] glyphs, Rectangle[] bounds, Point2D.Float[] text, Dimension size) {
+			this.key = key;
+			this.glyphs = glyphs;
+			this.bounds = bounds;
+			this.text = text;
+			this.size = size;
+		}
+		
+		/**
+		 * The words are put in rows, a word only shares a row when it fits in the width of the widest word.
+		 */
+		static Block rows(List<Object> key, List<CloudWordInfo> words, int inset, GlyphCache glyphCache) {
+			Glyph[] glyphs = new Glyph[words.size()];
+			Rectangle[] bounds = new Rectangle[words.size()];
+			int widest = 0;
+			for(int i = 0; i < glyphs.length; i++) {
+				CloudWordInfo word = words.get(i);
+				glyphs[i] = glyphCache.getGlyph(word.getWord(), word.getFontSize());
+				bounds[i] = new Rectangle(glyphs[i].getWidth(), glyphs[i].getHeight());
+				widest = Math.max(widest, glyphs[i].getWidth());
+			}
+			Dimension size;
+			if(glyphs.length == 1) {
+				size = new Dimension(bounds[0].width + 2 * inset, bounds[0].height + 2 * inset);
+			}
+			else {
+				Dimension content = flow(Arrays.asList(bounds), widest - 2 * WORD_HGAP, WORD_HGAP, WORD_VGAP);
+				size = new Dimension(content.width + 2 * inset, content.height + 2 * inset);
+			}
+			Point2D.Float[] text = new Point2D.Float[glyphs.length];
+			for(int i = 0; i < glyphs.length; i++) {
+				bounds[i].translate(inset, inset);
+				text[i] = new Point2D.Float(bounds[i].x, bounds[i].y + glyphs[i].getAscent());
+			}
+			return new Block(key, glyphs, bounds, text, size);
+		}
+		
+		/**
+		 * The words are packed along a spiral, largest first. The bounds of the words are the area
+		 * actually covered by the glyphs so words can fit into the gaps left by other words.
+		 */
+		static Block spiral(List<Object> key, List<CloudWordInfo> words, GlyphCache glyphCache) {
+			Glyph[] glyphs = new Glyph[words.size()];
+			Rectangle[] visualBounds = new Rectangle[words.size()];
+			for(int i = 0; i < glyphs.length; i++) {
+				CloudWordInfo word = words.get(i);
+				glyphs[i] = glyphCache.getGlyph(word.getWord(), word.getFontSize());
+				visualBounds[i] = glyphs[i].getVisualBounds();
+				if(visualBounds[i].isEmpty()) { // eg. only white space
+					visualBounds[i].setBounds(0, -(int)glyphs[i].getAscent(), Math.max(1, glyphs[i].getWidth()), Math.max(1, glyphs[i].getHeight()));
+				}
+			}
+			
+			Rectangle[] bounds = SpiralLayout.place(visualBounds, SPIRAL_SEED);
+			
+			// move the cloud so its top left corner is at 0,0
+			Rectangle area = new Rectangle();
+			for(int i = 0; i < bounds.length; i++) {
+				if(i == 0)
+					area.setBounds(bounds[i]);
+				else
+					area.add(bounds[i]);
+			}
+			Point2D.Float[] text = new Point2D.Float[glyphs.length];
+			for(int i = 0; i < bounds.length; i++) {
+				bounds[i].translate(-area.x, -area.y);
+				text[i] = new Point2D.Float(bounds[i].x - visualBounds[i].x, bounds[i].y - visualBounds[i].y);
+			}
+			return new Block(key, glyphs, bounds, text, area.getSize());
+		}
+		
+		/**
+		 * Blocks with the same words at the same font sizes have the same layout.
+		 */
+		static List<Object> createKey(List<CloudWordInfo> words) {
+			List<Object> key = new ArrayList<Object>(words.size() * 2);
+			for(CloudWordInfo word : words) {
+				key.add(word.getWord());
+				key.add(word.getFontSize());
+			}
+			return key;
+		}
+	}
+	
+	
+	private static int maxRowWidth(int width, int hgap) {
+		return width <= 0 ? Integer.MAX_VALUE : width - 2 * hgap;
+	}
+
+
+	/**
+	 * Places the boxes in rows the same way FlowLayout does. The sizes of the rectangles must
+	 * already be set, their locations are updated. Rows are centered and the rectangles in a row are
+	 * centered vertically. Returns the size of the area that contains the rows, the vertical gap
+	 * is added above and below the rows.
+	 */
+	private static Dimension flow(List<Rectangle> boxes, int maxRowWidth, int hgap, int vgap) {
+		// break into rows: start index, row width, row height
+		List<int[]> rows = new ArrayList<int[]>();
+		int rowStart = 0, x = 0, rowHeight = 0, contentWidth = 0;
+		for(int i = 0; i < boxes.size(); i++) {
+			Rectangle box = boxes.get(i);
+			if(x == 0 || x + box.width <= maxRowWidth) {
+				if(x > 0)
+					x += hgap;
+				x += box.width;
+				rowHeight = Math.max(rowHeight, box.height);
+			}
+			else {
+				rows.add(new int[] {rowStart, x, rowHeight});
+				rowStart = i;
+				x = box.width;
+				rowHeight = box.height;
+			}
+			contentWidth = Math.max(contentWidth, x);
+		}
+		if(!boxes.isEmpty()) {
+			rows.add(new int[] {rowStart, x, rowHeight});
+		}
+
+		int y = vgap;
+		for(int r = 0; r < rows.size(); r++) {
+			int[] row = rows.get(r);
+			int end = r + 1 < rows.size() ? rows.get(r + 1)[0] : boxes.size();
+			int rx = (contentWidth - row[1]) / 2;
+			for(int i = row[0]; i < end; i++) {
+				Rectangle box = boxes.get(i);
+				box.setLocation(rx, y + (row[2] - box.height) / 2);
+				rx += box.width + hgap;
+			}
+			y += row[2] + vgap;
+		}
+		return new Dimension(contentWidth, y);
+	}
+
+
+	/**
+	 * Centers the flowed content horizontally in the given width and returns the size of the whole cloud.
+	 */
+	private static Dimension center(List<Rectangle> boxes, Dimension content, int width, int hgap) {
+		int required = content.width + 2 * hgap;
+		int left = width > required ? (width - content.width) / 2 : hgap;
+		for(Rectangle box : boxes) {
+			box.translate(left, 0);
+		}
+		return new Dimension(Math.max(width, required), content.height);
+	}
+
+
+	/**
+	 * The width that was passed to {@link #create(List, CloudDisplayStyles, int, GlyphCache)}.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	public Dimension getSize() {
+		return new Dimension(size);
+	}
+
+	public List<WordBox> getWords() {
+		return words;
+	}
+
+	/**
+	 * Areas that should have a border drawn around them, empty unless the style is CLUSTERED_BOXES.
+	 */
+	public List<Rectangle> getClusterBoxes() {
+		List<Rectangle> copy = new ArrayList<Rectangle>(clusterBoxes.size());
+		for(Rectangle r : clusterBoxes)
+			copy.add(new Rectangle(r));
+		return copy;
+	}
+
+	/**
+	 * Returns the word at the given point, or null if there is no word there.
+	 */
+	public WordBox getWordAt(int x, int y) {
+		if(x < 0 || y < 0 || x >= size.width || y >= size.height)
+			return null;
+		int[] cell = grid[(y / CELL_SIZE) * gridColumns + (x / CELL_SIZE)];
+		if(cell == null)
+			return null;
+		for(int i : cell) {
+			WordBox box = words.get(i);
+			if(box.bounds.contains(x, y))
+				return box;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,207 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudLayout.WordBox;
+
+/**
+ * Draws clouds without a component, so images can be created from a computed cloud
+ * without showing it, at any resolution, and from any thread.
+ *
+ * The same code paints the {@link CloudCanvas} so exported images look the same as the display.
+ */
+public class CloudRenderer {
+
+	private static final Color BOX_COLOR = Color.GRAY;
+
+	private final GlyphCache glyphCache;
+	private Color background = Color.WHITE;
+	private Color foreground = Color.BLACK;
+
+
+	public CloudRenderer(GlyphCache glyphCache) {
+		this.glyphCache = glyphCache;
+	}
+
+	public void setBackground(Color background) {
+		this.background = background;
+	}
+
+	/**
+	 * Color of the words that don't have a color.
+	 */
+	public void setForeground(Color foreground) {
+		this.foreground = foreground;
+	}
+
+
+	/**
+	 * Lays out the words of the cloud that would be displayed, see {@link CloudLayout#getDisplayWords(CloudInfo)}.
+	 * @param width The width the words are wrapped to, 0 puts the words in as few rows as possible.
+	 */
+	public CloudLayout layout(CloudInfo cloudInfo, int width) {
+		return CloudLayout.create(CloudLayout.getDisplayWords(cloudInfo), cloudInfo.getDisplayStyle(), width, glyphCache);
+	}
+
+
+	/**
+	 * Paints the layout at its natural size, the words are drawn in their own colors except
+	 * for the highlighted word.
+	 *
+	 * @param clip only words that intersect the clip are painted, may be null
+	 * @param highlighted may be null
+	 */
+	static void paint(Graphics2D g, CloudLayout layout, Rectangle clip, Color foreground, WordBox highlighted, Color highlightColor) {
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+		g.setColor(BOX_COLOR);
+		for(Rectangle box : layout.getClusterBoxes()) {
+			if(clip == null || clip.intersects(box)) {
+				g.drawRect(box.x, box.y, box.width - 1, box.height - 1);
+			}
+		}
+
+		for(WordBox box : layout.getWords()) {
+			if(clip != null && !clip.intersects(box.getBounds()))
+				continue;
+			Color color = box == highlighted ? highlightColor : box.getWord().getTextColor();
+			g.setColor(color == null ? foreground : color);
+			g.drawGlyphVector(box.getGlyph().getVector(), box.getTextX(), box.getTextY());
+		}
+	}
+
+
+	/**
+	 * Returns an image of the whole layout.
+	 * @param scale 1.0 is the size the cloud is displayed at, 2.0 is twice the resolution, etc.
+	 */
+	public BufferedImage createImage(CloudLayout layout, double scale) {
+		if(scale <= 0)
+			throw new IllegalArgumentException("scale must be positive");
+		Dimension size = layout.getSize();
+		int width  = Math.max(1, (int) Math.ceil(size.width * scale));
+		int height = Math.max(1, (int) Math.ceil(size.height * scale));
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(background);
+			g.fillRect(0, 0, width, height);
+			g.scale(scale, scale);
+			paint(g, layout, null, foreground, null, null);
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+
+	/**
+	 * Returns an image of the given size with the layout scaled down to fit and centered in it.
+	 * The layout is never scaled up.
+	 */
+	public BufferedImage createImage(CloudLayout layout, int width, int height) {
+		Dimension size = layout.getSize();
+		double scale = Math.min(1.0, Math.min(width / (double)Math.max(1, size.width), height / (double)Math.max(1, size.height)));
+		
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(background);
+			g.fillRect(0, 0, width, height);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.translate((width - size.width * scale) / 2, (height - size.height * scale) / 2);
+			g.scale(scale, scale);
+			paint(g, layout, null, foreground, null, null);
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+	
+	
+	public void writePng(CloudLayout layout, double scale, File file) throws IOException {
+		if(!ImageIO.write(createImage(layout, scale), "png", file))
+			throw new IOException("No PNG writer available");
+	}
+
+
+	public void writeSvg(CloudLayout layout, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			writeSvg(layout, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the layout as an SVG document. The words are text elements so they can still
+	 * be edited, their length is fixed to the length of the glyphs so they fit in the layout
+	 * even if the viewer picks a different font.
+	 */
+	public void writeSvg(CloudLayout layout, OutputStream out) throws IOException {
+		Dimension size = layout.getSize();
+		Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		w.write(String.format(Locale.ROOT, "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">\n",
+				size.width, size.height, size.width, size.height));
+		w.write(String.format(Locale.ROOT, "<rect width=\"100%%\" height=\"100%%\" fill=\"%s\"/>\n", toHex(background)));
+
+		for(Rectangle box : layout.getClusterBoxes()) {
+			w.write(String.format(Locale.ROOT, "<rect x=\"%d.5\" y=\"%d.5\" width=\"%d\" height=\"%d\" fill=\"none\" stroke=\"%s\"/>\n",
+					box.x, box.y, box.width - 1, box.height - 1, toHex(BOX_COLOR)));
+		}
+
+		// the generic family that matches Java's logical sansserif font
+		w.write("<g font-family=\"sans-serif\" font-weight=\"bold\">\n");
+		for(WordBox box : layout.getWords()) {
+			Color color = box.getWord().getTextColor();
+			w.write(String.format(Locale.ROOT, "<text x=\"%.2f\" y=\"%.2f\" font-size=\"%d\" fill=\"%s\" textLength=\"%d\" lengthAdjust=\"spacingAndGlyphs\">",
+					box.getTextX(), box.getTextY(), box.getWord().getFontSize(), toHex(color == null ? foreground : color), box.getGlyph().getWidth()));
+			w.write(escape(box.getWord().getWord()));
+			w.write("</text>\n");
+		}
+		w.write("</g>\n");
+		w.write("</svg>\n");
+		w.flush();
+	}
+
+
+	private static String toHex(Color color) {
+		return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+	}
+
+	private static String escape(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch(c) {
+				case '<':  sb.append("&lt;");   break;
+				case '>':  sb.append("&gt;");   break;
+				case '&':  sb.append("&amp;");  break;
+				case '"':  sb.append("&quot;"); break;
+				default:   sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,169 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the fonts and glyph vectors used to paint clouds.
+ *
+ * Deriving a font and laying out the glyphs of a word are the expensive parts
+ * of drawing a cloud, and the same words are drawn at the same sizes over and over
+ * again (every repaint, every relayout and every cloud that shares words).
+ * Fonts are cached per size, glyphs per word and size in a bounded LRU map.
+ */
+public class GlyphCache {
+
+	public static final String FONT_NAME = "sansserif";
+	public static final int FONT_STYLE = Font.BOLD;
+
+	private static final int MAX_GLYPHS = 20000;
+
+	private static final GlyphCache sharedInstance = new GlyphCache();
+
+	private final Font baseFont = new Font(FONT_NAME, FONT_STYLE, 12);
+	private final FontRenderContext renderContext = new FontRenderContext(null, true, false);
+
+	private final Map<Integer,Font> fonts = new HashMap<Integer,Font>();
+	private final Map<GlyphKey,Glyph> glyphs;
+
+
+	public GlyphCache() {
+		this(MAX_GLYPHS);
+	}
+
+	/**
+	 * @param maxGlyphs the number of glyphs to keep, the least recently used ones are dropped first
+	 */
+	@SuppressWarnings("serial")
+	public GlyphCache(final int maxGlyphs) {
+		glyphs = new LinkedHashMap<GlyphKey,Glyph>(256, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<GlyphKey,Glyph> eldest) {
+				return size() > maxGlyphs;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the cache that is shared by all the components that draw clouds.
+	 */
+	public static GlyphCache getSharedInstance() {
+		return sharedInstance;
+	}
+
+
+	public synchronized Font getFont(int size) {
+		Font font = fonts.get(size);
+		if(font == null) {
+			font = baseFont.deriveFont((float)size);
+			fonts.put(size, font);
+		}
+		return font;
+	}
+
+	public synchronized Glyph getGlyph(String word, int size) {
+		GlyphKey key = new GlyphKey(word, size);
+		Glyph glyph = glyphs.get(key);
+		if(glyph == null) {
+			Font font = getFont(size);
+			GlyphVector vector = font.createGlyphVector(renderContext, word);
+			LineMetrics metrics = font.getLineMetrics(word, renderContext);
+			glyph = new Glyph(vector, metrics);
+			glyphs.put(key, glyph);
+		}
+		return glyph;
+	}
+
+	public synchronized void clear() {
+		glyphs.clear();
+	}
+
+	/**
+	 * The number of glyphs that are currently cached.
+	 */
+	public synchronized int size() {
+		return glyphs.size();
+	}
+
+
+	/**
+	 * A word laid out at a specific size, immutable.
+	 * The width and height are the same as the preferred size of a JLabel showing the word.
+	 */
+	public static final class Glyph {
+		private final GlyphVector vector;
+		private final int width;
+		private final int height;
+		private final float ascent;
+		private final Rectangle visualBounds;
+
+		private Glyph(GlyphVector vector, LineMetrics metrics) {
+			Rectangle2D bounds = vector.getLogicalBounds();
+			this.vector = vector;
+			this.visualBounds = vector.getVisualBounds().getBounds();
+			this.width = (int) Math.ceil(bounds.getWidth());
+			this.height = (int) Math.ceil(metrics.getAscent() + metrics.getDescent() + metrics.getLeading());
+			this.ascent = metrics.getAscent();
+		}
+
+		/**
+		 * The glyph vector must not be modified.
+		 */
+		public GlyphVector getVector() {
+			return vector;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * Distance from the top of the glyph box to the baseline.
+		 */
+		public float getAscent() {
+			return ascent;
+		}
+
+		/**
+		 * The area actually covered by ink, relative to the origin of the baseline.
+		 */
+		public Rectangle getVisualBounds() {
+			return new Rectangle(visualBounds);
+		}
+	}
+
+
+	private static final class GlyphKey {
+		private final String word;
+		private final int size;
+
+		GlyphKey(String word, int size) {
+			this.word = word;
+			this.size = size;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * word.hashCode() + size;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof GlyphKey))
+				return false;
+			GlyphKey other = (GlyphKey) obj;
+			return size == other.size && word.equals(other.word);
+		}
+	}
+}
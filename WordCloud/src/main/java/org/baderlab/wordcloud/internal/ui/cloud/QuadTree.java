@@ -0,0 +1,107 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A region quadtree of rectangles that answers "does this rectangle overlap anything
+ * already inserted". Rectangles are stored in every leaf they overlap, so a query
+ * only has to look at the leaves around it. Rectangles outside the bounds of the
+ * tree are kept in a separate list.
+ */
+class QuadTree {
+
+	private static final int MAX_ITEMS = 8;
+	private static final int MIN_SIZE = 8;
+
+	private final Node root;
+	private final List<Rectangle> outside = new ArrayList<Rectangle>();
+
+
+	QuadTree(Rectangle bounds) {
+		root = new Node(new Rectangle(bounds));
+	}
+
+	void insert(Rectangle r) {
+		Rectangle copy = new Rectangle(r);
+		if(root.bounds.contains(copy))
+			root.insert(copy);
+		else
+			outside.add(copy);
+	}
+
+	boolean intersects(Rectangle r) {
+		return findIntersecting(r) != null;
+	}
+	
+	/**
+	 * Returns one of the rectangles that overlap the given one, or null if there are none.
+	 */
+	Rectangle findIntersecting(Rectangle r) {
+		for(Rectangle item : outside) {
+			if(item.intersects(r))
+				return item;
+		}
+		return root.bounds.intersects(r) ? root.findIntersecting(r) : null;
+	}
+
+
+	private static class Node {
+		private final Rectangle bounds;
+		private List<Rectangle> items = new ArrayList<Rectangle>(MAX_ITEMS);
+		private Node[] children;
+
+		Node(Rectangle bounds) {
+			this.bounds = bounds;
+		}
+
+		void insert(Rectangle r) {
+			if(children != null) {
+				for(Node child : children) {
+					if(child.bounds.intersects(r))
+						child.insert(r);
+				}
+				return;
+			}
+			items.add(r);
+			if(items.size() > MAX_ITEMS && bounds.width > MIN_SIZE && bounds.height > MIN_SIZE) {
+				split();
+			}
+		}
+
+		private void split() {
+			int hw = bounds.width / 2;
+			int hh = bounds.height / 2;
+			children = new Node[] {
+				new Node(new Rectangle(bounds.x,      bounds.y,      hw,                hh)),
+				new Node(new Rectangle(bounds.x + hw, bounds.y,      bounds.width - hw, hh)),
+				new Node(new Rectangle(bounds.x,      bounds.y + hh, hw,                bounds.height - hh)),
+				new Node(new Rectangle(bounds.x + hw, bounds.y + hh, bounds.width - hw, bounds.height - hh))
+			};
+			List<Rectangle> old = items;
+			items = null;
+			for(Rectangle r : old) {
+				insert(r);
+			}
+		}
+
+		Rectangle findIntersecting(Rectangle r) {
+			if(children == null) {
+				for(Rectangle item : items) {
+					if(item.intersects(r))
+						return item;
+				}
+				return null;
+			}
+			for(Node child : children) {
+				if(child.bounds.intersects(r)) {
+					Rectangle item = child.findIntersecting(r);
+					if(item != null)
+						return item;
+				}
+			}
+			return null;
+		}
+	}
+}
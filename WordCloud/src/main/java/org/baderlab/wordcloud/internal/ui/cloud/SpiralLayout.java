@@ -0,0 +1,193 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Packs rectangles along an Archimedean spiral (r = a * theta) around the origin.
+ *
+ * Rectangles are placed in the order given, callers should pass the largest first.
+ * Each rectangle walks outwards along the spiral until it doesn't overlap anything placed
+ * before it, collisions are found with a {@link QuadTree}. To keep this fast:
+ * <ul>
+ * <li>The points of the spiral are computed once and shared by all the rectangles.</li>
+ * <li>When a point can't be used even by the smallest of the remaining rectangles it is
+ *     marked dead, since rectangles are never removed it can be skipped from then on.</li>
+ * <li>Rectangles of about the same height are handled as a group, points that can't be used
+ *     by the smallest rectangle of the group are skipped until the group is done.
+ *     Runs of skipped points are jumped over using skip pointers.</li>
+ * <li>After a collision the same obstacle is tested first for the next point.</li>
+ * </ul>
+ * The rotation of the spiral comes from a Random with the given seed,
+ * so the same input and seed always produce the same picture.
+ */
+class SpiralLayout {
+
+	/** Distance between two turns of the spiral. */
+	private static final double SPACING = 6.0;
+	/** Approximate distance between two points on the spiral. */
+	private static final double STEP = 3.0;
+	/** Clouds look better wider than they are tall. */
+	private static final double ASPECT = 1.6;
+	/** Empty space kept around each rectangle. */
+	private static final int PADDING = 2;
+
+	private final double phase;
+	private double theta = 0;
+	private int points = 0;
+
+	// the points of the spiral
+	private int[] xs = new int[1024];
+	private int[] ys = new int[1024];
+	// points that can't be used by any of the remaining rectangles
+	private boolean[] dead = new boolean[1024];
+	// next[k] == k if point k may be used by the current group, otherwise a point further along that may be
+	private int[] next = new int[1024];
+
+
+	private SpiralLayout(double phase) {
+		this.phase = phase;
+	}
+
+
+	/**
+	 * Returns the locations of the rectangles, the sizes of the returned rectangles are the same
+	 * as the given ones. The locations are relative to the center of the spiral.
+	 */
+	static Rectangle[] place(Rectangle[] sizes, long seed) {
+		Random random = new Random(seed);
+		int n = sizes.length;
+
+		int[] widths = new int[n];
+		int[] heights = new int[n];
+		for(int i = 0; i < n; i++) {
+			widths[i] = sizes[i].width + 2 * PADDING;
+			heights[i] = sizes[i].height + 2 * PADDING;
+		}
+
+		// the smallest width and height of the rectangles that are still to be placed
+		int[] minWidth = new int[n + 1];
+		int[] minHeight = new int[n + 1];
+		minWidth[n] = minHeight[n] = Integer.MAX_VALUE;
+		double area = 0;
+		int largest = 0;
+		for(int i = n - 1; i >= 0; i--) {
+			minWidth[i] = Math.min(minWidth[i + 1], widths[i]);
+			minHeight[i] = Math.min(minHeight[i + 1], heights[i]);
+			area += (double)widths[i] * heights[i];
+			largest = Math.max(largest, Math.max(widths[i], heights[i]));
+		}
+
+		// estimate the area needed so the tree is about the right size
+		int halfHeight = (int) Math.min(1 << 14, Math.sqrt(area / ASPECT) * 1.5 + largest);
+		int halfWidth = (int) (halfHeight * ASPECT);
+		QuadTree placed = new QuadTree(new Rectangle(-halfWidth, -halfHeight, 2 * halfWidth, 2 * halfHeight));
+
+		SpiralLayout spiral = new SpiralLayout(random.nextDouble() * 2 * Math.PI);
+
+		Rectangle[] result = new Rectangle[n];
+		Rectangle candidate = new Rectangle();
+		Rectangle smallest = new Rectangle();
+		Rectangle smallestInGroup = new Rectangle();
+
+		int groupEnd = 0;
+		int groupWidth = 0;
+		int groupHeight = 0;
+
+		for(int i = 0; i < n; i++) {
+			int w = widths[i];
+			int h = heights[i];
+
+			if(i == groupEnd) {
+				groupWidth = w;
+				groupHeight = h;
+				for(groupEnd = i + 1; groupEnd < n && heights[groupEnd] * 20 >= h * 19; groupEnd++) {
+					groupWidth = Math.min(groupWidth, widths[groupEnd]);
+					groupHeight = Math.min(groupHeight, heights[groupEnd]);
+				}
+				spiral.startGroup();
+			}
+
+			Rectangle obstacle = null;
+			for(int k = spiral.nextAlive(0); ; k = spiral.nextAlive(k + 1)) {
+				int cx = spiral.xs[k];
+				int cy = spiral.ys[k];
+				candidate.setBounds(cx - w / 2, cy - h / 2, w, h);
+
+				if(obstacle == null || !obstacle.intersects(candidate)) {
+					obstacle = placed.findIntersecting(candidate);
+					if(obstacle == null)
+						break;
+				}
+
+				// a larger rectangle centered on the same point contains a smaller one,
+				// so if the obstacle blocks the smallest rectangle it blocks all of them
+				smallestInGroup.setBounds(cx - groupWidth / 2, cy - groupHeight / 2, groupWidth, groupHeight);
+				if(obstacle.intersects(smallestInGroup)) {
+					smallest.setBounds(cx - minWidth[i] / 2, cy - minHeight[i] / 2, minWidth[i], minHeight[i]);
+					spiral.skip(k, obstacle.intersects(smallest));
+				}
+			}
+
+			placed.insert(candidate);
+			result[i] = new Rectangle(candidate.x + PADDING, candidate.y + PADDING, sizes[i].width, sizes[i].height);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Only the dead points are skipped by a new group.
+	 */
+	private void startGroup() {
+		for(int k = 0; k < points; k++) {
+			next[k] = dead[k] ? k + 1 : k;
+		}
+	}
+
+	private void skip(int k, boolean kill) {
+		next[k] = k + 1;
+		dead[k] |= kill;
+	}
+
+	/**
+	 * Returns the index of the first point at or after k that is not skipped by the current group.
+	 */
+	private int nextAlive(int k) {
+		ensurePoints(k + 1);
+		int alive = k;
+		while(next[alive] != alive) {
+			alive = next[alive];
+			ensurePoints(alive + 1);
+		}
+		// path compression
+		while(next[k] != k) {
+			int n = next[k];
+			next[k] = alive;
+			k = n;
+		}
+		return alive;
+	}
+
+	private void ensurePoints(int count) {
+		if(count <= points)
+			return;
+		if(count > xs.length) {
+			int capacity = Math.max(count, xs.length * 2);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			dead = Arrays.copyOf(dead, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		double a = SPACING / (2 * Math.PI);
+		while(points < count) {
+			double r = a * theta;
+			xs[points] = (int) Math.round(r * Math.cos(theta + phase) * ASPECT);
+			ys[points] = (int) Math.round(r * Math.sin(theta + phase));
+			next[points] = points;
+			points++;
+			theta += STEP / Math.max(r, STEP);
+		}
+	}
+}
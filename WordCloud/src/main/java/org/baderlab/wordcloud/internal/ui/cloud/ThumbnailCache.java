@@ -0,0 +1,156 @@
+package org.baderlab.wordcloud.internal.ui.cloud;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.ui.CloudTaskManager;
+
+/**
+ * Small images of clouds for components that show many clouds at once.
+ *
+ * Thumbnails are rendered on the low priority threads of the {@link CloudTaskManager},
+ * from the cloud's calculated result if there is one, and kept until they are evicted by
+ * newer thumbnails. A thumbnail is out of date when the cloud's result version changes,
+ * the old image is still returned until the new one is ready.
+ *
+ * Only accessed on the UI thread, except for {@link Client#isVisible(CloudParameters)}
+ * which is also called on the background threads.
+ */
+public class ThumbnailCache {
+
+	public interface Client {
+		/**
+		 * Called on a background thread just before a thumbnail is rendered,
+		 * return false to skip clouds that have been scrolled out of view since they were requested.
+		 * Called again on the UI thread for a skipped cloud, in case it came back into view meanwhile.
+		 */
+		boolean isVisible(CloudParameters cloud);
+
+		/**
+		 * Called on the UI thread when a thumbnail has been rendered.
+		 */
+		void thumbnailReady(CloudParameters cloud);
+	}
+
+
+	private static class Thumbnail {
+		final int version;
+		final BufferedImage image; // null if the cloud could not be drawn
+
+		Thumbnail(int version, BufferedImage image) {
+			this.version = version;
+			this.image = image;
+		}
+	}
+
+
+	private final CloudTaskManager taskManager;
+	private final CloudRenderer renderer;
+	private final int width;
+	private final int height;
+	private final int layoutWidth;
+
+	private final Map<CloudParameters,Thumbnail> thumbnails;
+	/** The result version each pending thumbnail is being rendered for. */
+	private final Map<CloudParameters,Integer> pending = new HashMap<CloudParameters,Integer>();
+
+
+	/**
+	 * @param width width of the thumbnails
+	 * @param height height of the thumbnails
+	 * @param layoutWidth clouds are laid out at this width and then scaled down to fit the thumbnail
+	 * @param maxSize the number of thumbnails that are kept, the least recently used are evicted first
+	 */
+	@SuppressWarnings("serial")
+	public ThumbnailCache(CloudTaskManager taskManager, GlyphCache glyphCache, int width, int height, int layoutWidth, final int maxSize) {
+		this.taskManager = taskManager;
+		this.renderer = new CloudRenderer(glyphCache);
+		this.width = width;
+		this.height = height;
+		this.layoutWidth = layoutWidth;
+		this.thumbnails = new LinkedHashMap<CloudParameters,Thumbnail>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<CloudParameters,Thumbnail> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the thumbnail of the cloud, or null if it hasn't been rendered yet. If the thumbnail
+	 * is missing or out of date a new one is rendered in the background and the client is notified
+	 * when it is ready.
+	 */
+	public BufferedImage get(CloudParameters cloud, Client client) {
+		int version = cloud.getResultVersion();
+		Thumbnail thumbnail = thumbnails.get(cloud);
+		if(thumbnail == null || thumbnail.version != version) {
+			request(cloud, version, client);
+		}
+		return thumbnail == null ? null : thumbnail.image;
+	}
+
+
+	private void request(final CloudParameters cloud, final int version, final Client client) {
+		Integer pendingVersion = pending.get(cloud);
+		if(pendingVersion != null && pendingVersion == version)
+			return;
+		pending.put(cloud, version);
+
+		taskManager.executeLowPriority(new Runnable() {
+			public void run() {
+				final boolean visible = client.isVisible(cloud);
+				BufferedImage image = null;
+				try {
+					if(visible) {
+						image = render(cloud);
+					}
+				} finally {
+					final BufferedImage result = image;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							Integer pendingVersion = pending.get(cloud);
+							if(pendingVersion != null && pendingVersion == version) {
+								pending.remove(cloud);
+							}
+							if(visible) {
+								thumbnails.put(cloud, new Thumbnail(version, result));
+								client.thumbnailReady(cloud);
+							}
+							else if(client.isVisible(cloud)) {
+								// the cloud came into view after the job checked, its pending entry
+								// has been cleared so it is requested again unless a newer one is on the way
+								get(cloud, client);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+
+	private BufferedImage render(CloudParameters cloud) {
+		CloudInfo cloudInfo = cloud.getCalculatedCloud();
+		if(cloudInfo == null) {
+			cloudInfo = cloud.calculateCloud();
+		}
+		CloudLayout layout = renderer.layout(cloudInfo, layoutWidth);
+		return renderer.createImage(layout, width, height);
+	}
+
+
+	public void remove(CloudParameters cloud) {
+		thumbnails.remove(cloud);
+	}
+
+	public void clear() {
+		thumbnails.clear();
+	}
+}
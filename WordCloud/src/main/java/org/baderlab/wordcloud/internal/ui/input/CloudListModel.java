@@ -0,0 +1,211 @@
+package org.baderlab.wordcloud.internal.ui.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.AbstractListModel;
+
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+
+/**
+ * The names of the clouds of one network, in cloud number or alphabetical order,
+ * optionally filtered by a piece of the name.
+ *
+ * The model is built once per network and then kept up to date one cloud at a time,
+ * adding, deleting or renaming a cloud is a binary search and a single insert or remove
+ * and only fires an event for that one row. The lower case name of each cloud is
+ * computed once when it is added, and a filter that extends the previous filter only
+ * searches the clouds that are already shown.
+ *
+ * Each change that is passed on adds one to the version of the model, like each change
+ * adds one to {@link NetworkParameters#getCloudsVersion()}. If the versions differ a change
+ * was missed, for example a cloud was restored from a session, and the model is rebuilt.
+ *
+ * Only accessed on the UI thread.
+ */
+@SuppressWarnings("serial")
+public class CloudListModel extends AbstractListModel<String> {
+
+	private static class Entry {
+		final CloudParameters cloud;
+		final String name;
+		final String key; // lower case name, matched by the filter
+
+		Entry(CloudParameters cloud) {
+			this.cloud = cloud;
+			this.name = cloud.getCloudName();
+			this.key = name.toLowerCase(Locale.ROOT);
+		}
+	}
+
+	// Both orders break ties so that each entry has exactly one position
+	private static final Comparator<Entry> BY_NUMBER = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			int c = e1.cloud.compareTo(e2.cloud);
+			return c != 0 ? c : e1.name.compareTo(e2.name);
+		}
+	};
+
+	private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			int c = e1.name.compareToIgnoreCase(e2.name);
+			return c != 0 ? c : BY_NUMBER.compare(e1, e2);
+		}
+	};
+
+
+	private NetworkParameters network;
+	private Comparator<Entry> order = BY_NUMBER;
+	private String filter = "";
+	private int version;
+
+	private final Map<CloudParameters,Entry> entries = new HashMap<CloudParameters,Entry>();
+	private final List<Entry> all = new ArrayList<Entry>(); // sorted
+	private final List<Entry> shown = new ArrayList<Entry>(); // sorted, only the entries that match the filter
+
+
+	/**
+	 * Shows the clouds of the given network, the model is only rebuilt if the network
+	 * or the order has changed, or if the model missed a change to the clouds.
+	 */
+	public void setNetwork(NetworkParameters network, boolean alphabetical) {
+		Comparator<Entry> newOrder = alphabetical ? BY_NAME : BY_NUMBER;
+		if(network == this.network && newOrder == order && network.getCloudsVersion() == version)
+			return;
+
+		// read the version first, a change made while the list is read is then caught next time
+		int newVersion = network.getCloudsVersion();
+		List<CloudParameters> clouds = network.getClouds();
+		this.network = network;
+		this.order = newOrder;
+		this.version = newVersion;
+		entries.clear();
+		all.clear();
+		for(CloudParameters cloud : clouds) {
+			Entry entry = new Entry(cloud);
+			entries.put(cloud, entry);
+			all.add(entry);
+		}
+		Collections.sort(all, order);
+		refilter(false);
+	}
+
+
+	/**
+	 * Only the clouds whose name contains the text are shown, case insensitive.
+	 */
+	public void setFilter(String text) {
+		String newFilter = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+		if(newFilter.equals(filter))
+			return;
+		boolean narrower = newFilter.contains(filter);
+		filter = newFilter;
+		refilter(narrower);
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	private boolean matches(Entry entry) {
+		return filter.isEmpty() || entry.key.contains(filter);
+	}
+
+	/**
+	 * @param narrower if true the new filter only matches a subset of the entries that are currently shown
+	 */
+	private void refilter(boolean narrower) {
+		int oldSize = shown.size();
+		List<Entry> source = narrower ? new ArrayList<Entry>(shown) : all;
+		shown.clear();
+		for(Entry entry : source) {
+			if(matches(entry)) {
+				shown.add(entry);
+			}
+		}
+		if(oldSize > 0)
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		if(!shown.isEmpty())
+			fireIntervalAdded(this, 0, shown.size() - 1);
+	}
+
+
+	// A change that has already been picked up by a rebuild is ignored and doesn't count
+
+	public void cloudAdded(CloudParameters cloud) {
+		if(cloud.getNetworkParams() != network || entries.containsKey(cloud))
+			return;
+		add(cloud);
+		version++;
+	}
+
+	public void cloudDeleted(CloudParameters cloud) {
+		if(cloud.getNetworkParams() != network || !entries.containsKey(cloud))
+			return;
+		remove(cloud);
+		version++;
+	}
+
+	/**
+	 * Only the name of a cloud is shown, so only a rename changes the model.
+	 */
+	public void cloudModified(CloudParameters cloud) {
+		Entry entry = entries.get(cloud);
+		if(entry != null && !entry.name.equals(cloud.getCloudName())) {
+			remove(cloud);
+			add(cloud);
+			version++;
+		}
+	}
+
+	private void add(CloudParameters cloud) {
+		Entry entry = new Entry(cloud);
+		entries.put(cloud, entry);
+		all.add(-Collections.binarySearch(all, entry, order) - 1, entry);
+		if(matches(entry)) {
+			int index = -Collections.binarySearch(shown, entry, order) - 1;
+			shown.add(index, entry);
+			fireIntervalAdded(this, index, index);
+		}
+	}
+
+	private void remove(CloudParameters cloud) {
+		Entry entry = entries.remove(cloud);
+		all.remove(Collections.binarySearch(all, entry, order));
+		int index = Collections.binarySearch(shown, entry, order);
+		if(index >= 0) {
+			shown.remove(index);
+			fireIntervalRemoved(this, index, index);
+		}
+	}
+
+
+	/**
+	 * Returns the row that shows the cloud with the given name, or -1 if the cloud is not shown.
+	 */
+	public int indexOf(String cloudName) {
+		if(network == null)
+			return -1;
+		Entry entry = entries.get(network.getCloud(cloudName));
+		if(entry == null)
+			return -1;
+		int index = Collections.binarySearch(shown, entry, order);
+		return index < 0 ? -1 : index;
+	}
+
+	@Override
+	public int getSize() {
+		return shown.size();
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		return shown.get(index).name;
+	}
+}
@@ -31,6 +31,7 @@ import javax.swing.JPopupMenu;
 
 import org.baderlab.wordcloud.internal.model.CloudParameters;
 import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.action.CreateColumnAction;
 import org.baderlab.wordcloud.internal.ui.action.CreateNetworkAction;
 import org.baderlab.wordcloud.internal.ui.action.DeleteCloudAction;
 import org.baderlab.wordcloud.internal.ui.action.ExportImageAction;
@@ -88,6 +89,7 @@ public class CloudListMouseListener extends MouseAdapter {
 				menu.add(new DeleteCloudAction(cloud, swingApplication));
 				menu.add(new RenameCloudAction(cloud, swingApplication, uiManager));
 				menu.add(new CreateNetworkAction(cloud, registrar));
+				menu.add(new CreateColumnAction(cloud, swingApplication));
 				menu.add(new ExportImageAction(swingApplication, fileUtil, uiManager));
 				menu.show(list, e.getX(), e.getY());
 			}
@@ -0,0 +1,147 @@
+package org.baderlab.wordcloud.internal.ui.input;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JCheckBox;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.baderlab.wordcloud.internal.SelectionUtils;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudDisplayPanel;
+import org.cytoscape.model.CyIdentifiable;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.cytoscape.model.events.RowsSetListener;
+
+/**
+ * Keeps the sync cloud in step with the node selection while the "Sync with selection"
+ * check box is checked. Only the nodes whose selected state changed are handed to
+ * the cloud, and repainting is coalesced so that a burst of selection events results
+ * in a single display update.
+ * 
+ * Changes are missed while sync is off, while the panel is hidden and while another network
+ * is current, so the whole selection is read again before a sync cloud is trusted again,
+ * see {@link #resync(CloudParameters)}.
+ */
+public class SelectionSyncListener implements RowsSetListener {
+
+	/** Delay in milliseconds used to coalesce display refreshes. */
+	private static final int REFRESH_DELAY = 200;
+	
+	private final UIManager uiManager;
+	private final JCheckBox syncCheckBox;
+	private final Timer refreshTimer;
+	
+	/** The sync cloud that has every change applied to it, null if changes may have been missed. */
+	private CloudParameters syncedCloud;
+	
+	
+	public SelectionSyncListener(UIManager uiManager, JCheckBox syncCheckBox) {
+		this.uiManager = uiManager;
+		this.syncCheckBox = syncCheckBox;
+		
+		refreshTimer = new Timer(REFRESH_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				refreshDisplay();
+			}
+		});
+		refreshTimer.setRepeats(false);
+	}
+	
+	
+	/**
+	 * Reads the whole selection into the sync cloud unless it is already up to date,
+	 * call when a sync cloud becomes current. Later changes are applied as deltas.
+	 */
+	public synchronized void resync(CloudParameters nullCloud) {
+		if(nullCloud == syncedCloud)
+			return;
+		CyNetwork network = nullCloud.getNetworkParams().getNetwork();
+		if(network == null)
+			return;
+		nullCloud.setSelectedNodes(SelectionUtils.getSelectedNodes(network));
+		syncedCloud = nullCloud;
+	}
+	
+	
+	@Override
+	public synchronized void handleEvent(RowsSetEvent e) {
+		if(!e.containsColumn(CyNetwork.SELECTED))
+			return;
+		if(!syncCheckBox.isSelected()) {
+			syncedCloud = null;
+			return;
+		}
+		
+		NetworkParameters networkParams = uiManager.getCurrentNetwork();
+		if(networkParams == null || networkParams.getNetwork() == null)
+			return;
+		
+		CyNetwork network = networkParams.getNetwork();
+		CyTable source = e.getSource();
+		if(!source.equals(network.getDefaultNodeTable()) && !source.equals(network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS)))
+			return;
+		
+		CloudParameters nullCloud = networkParams.getNullCloud();
+		if(nullCloud != syncedCloud) {
+			resync(nullCloud);
+			scheduleRefresh();
+			return;
+		}
+		
+		// The same row may be set more than once in a single event, the last value wins.
+		Map<CyNode,Boolean> changes = new LinkedHashMap<CyNode,Boolean>();
+		for(RowSetRecord record : e.getColumnRecords(CyNetwork.SELECTED)) {
+			Long suid = record.getRow().get(CyIdentifiable.SUID, Long.class);
+			CyNode node = suid == null ? null : network.getNode(suid);
+			if(node != null) {
+				changes.put(node, Boolean.TRUE.equals(record.getValue()));
+			}
+		}
+		if(changes.isEmpty())
+			return;
+		
+		List<CyNode> added = new ArrayList<CyNode>();
+		List<CyNode> removed = new ArrayList<CyNode>();
+		for(Map.Entry<CyNode,Boolean> change : changes.entrySet()) {
+			if(change.getValue())
+				added.add(change.getKey());
+			else
+				removed.add(change.getKey());
+		}
+		
+		nullCloud.updateSelection(added, removed);
+		scheduleRefresh();
+	}
+	
+	
+	private void scheduleRefresh() {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if(!refreshTimer.isRunning()) {
+					refreshTimer.start();
+				}
+			}
+		});
+	}
+	
+	
+	private void refreshDisplay() {
+		CloudParameters cloud = uiManager.getCurrentCloud();
+		CloudDisplayPanel displayPanel = uiManager.getCloudDisplayPanel();
+		if(cloud != null && cloud.isNullCloud() && displayPanel != null) {
+			displayPanel.updateCloudDisplay(cloud);
+		}
+	}
+}
@@ -22,26 +22,30 @@
 package org.baderlab.wordcloud.internal.ui.input;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.Graphics;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.AbstractButton;
@@ -51,6 +55,9 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ComboBoxModel;
 import javax.swing.DefaultComboBoxModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -65,6 +72,7 @@ import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.JToggleButton;
 import javax.swing.KeyStroke;
 import javax.swing.ListModel;
@@ -90,12 +98,12 @@ import org.baderlab.wordcloud.internal.ui.action.CreateCloudAction;
 import org.baderlab.wordcloud.internal.ui.action.DeleteCloudAction;
 import org.baderlab.wordcloud.internal.ui.action.RenameCloudAction;
 import org.baderlab.wordcloud.internal.ui.action.UpdateCloudAction;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache;
+import org.baderlab.wordcloud.internal.ui.cloud.ThumbnailCache;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
-import org.cytoscape.model.events.RowsSetEvent;
-import org.cytoscape.model.events.RowsSetListener;
 import org.cytoscape.service.util.CyServiceRegistrar;
 import org.cytoscape.util.swing.CheckBoxJList;
 
@@ -111,6 +119,11 @@ public class SemanticSummaryInputPanel extends JPanel {
 	
 	private static final int DEF_ROW_HEIGHT = 20;
 	
+	private static final int THUMBNAIL_WIDTH = 48;
+	private static final int THUMBNAIL_HEIGHT = 32;
+	private static final int THUMBNAIL_LAYOUT_WIDTH = 300;
+	private static final int MAX_THUMBNAILS = 500;
+	
 	private final UIManager uiManager;
 	private final CySwingApplication application;
 	private final CyServiceRegistrar registrar;
@@ -122,6 +135,11 @@ public class SemanticSummaryInputPanel extends JPanel {
 	private JComboBox<CloudDisplayStyles> cmbStyle;
 	private JLabel networkLabel;
 	private JList<String> cloudList;
+	private CloudListModel cloudListModel;
+	private JTextField cloudFilterField;
+	private final ThumbnailCache thumbnails;
+	/** The clouds that are visible while the cloud list is painted, read by background threads. */
+	private volatile Set<CloudParameters> visibleClouds = Collections.emptySet();
 	private JCheckBox stemmer;
 	private SliderBarPanel sliderPanel;
 	private CheckBoxJList attributeList;
@@ -130,6 +148,7 @@ public class SemanticSummaryInputPanel extends JPanel {
 	private JButton createButton;
 	private JButton updateButton;
 	private JCheckBox syncCheckBox;
+	private SelectionSyncListener nodeSelectionListener;
 	private JCheckBox filterNumsCheckBox;
 	private JToggleButton sortButton;
 	
@@ -171,19 +190,23 @@ public class SemanticSummaryInputPanel extends JPanel {
 		this.registrar = registrar;
 		
 		this.createCloudAction = new CreateCloudAction(applicationManager, application, uiManager.getCloudModelManager(), uiManager);
+		this.thumbnails = new ThumbnailCache(uiManager.getCloudTaskManager(), GlyphCache.getSharedInstance(), 
+				THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, THUMBNAIL_LAYOUT_WIDTH, MAX_THUMBNAILS);
 		
 		createPanel();
 		
 		// register for selection events
-		RowsSetListener nodeSelectionListener = new RowsSetListener() {
-			public synchronized void handleEvent(RowsSetEvent e) {
-				if(syncCheckBox.isSelected() && e.containsColumn(CyNetwork.SELECTED)) {
-					CloudParameters nullCloud = uiManager.getCurrentNetwork().getNullCloud();
-					new UpdateCloudAction(nullCloud, uiManager).actionPerformed(null);
-				}
-			}
-		};
-		registrar.registerService(nodeSelectionListener, RowsSetListener.class, new Properties());
+		nodeSelectionListener = new SelectionSyncListener(uiManager, syncCheckBox);
+		uiManager.getEventRouter().addNodeRowsListener(nodeSelectionListener);
+	}
+	
+	/**
+	 * Call when the panel is no longer being shown.
+	 */
+	public void dispose() {
+		uiManager.getEventRouter().removeNodeRowsListener(nodeSelectionListener);
+		visibleClouds = Collections.emptySet();
+		thumbnails.clear();
 	}
 
 	
@@ -246,17 +269,42 @@ public class SemanticSummaryInputPanel extends JPanel {
 		sortButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				cloudList.removeListSelectionListener(cloudListSelectionListener);
-				setCloudListModel();
+				updateCloudList();
 				cloudList.addListSelectionListener(cloudListSelectionListener);
 			}
 		});
 		
+		// filter for the list of clouds
+		cloudFilterField = new JTextField();
+		cloudFilterField.setToolTipText("Only show the clouds whose name contains this text.");
+		cloudFilterField.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e)  { filterCloudList(); }
+			public void removeUpdate(DocumentEvent e)  { filterCloudList(); }
+			public void changedUpdate(DocumentEvent e) { filterCloudList(); }
+		});
+		JPanel filterPanel = new JPanel(new BorderLayout());
+		filterPanel.add(new JLabel("Filter: "), BorderLayout.WEST);
+		filterPanel.add(cloudFilterField, BorderLayout.CENTER);
+		filterPanel.setBorder(BorderFactory.createEmptyBorder(0,2,2,2));
+		
+		JPanel topPanel = new JPanel(new BorderLayout());
+		topPanel.add(networkPanel, BorderLayout.NORTH);
+		topPanel.add(filterPanel, BorderLayout.SOUTH);
+		
 		// list of clouds
-		cloudList = new JList<String>(new DefaultListModel<String>());
+		cloudListModel = new CloudListModel();
+		cloudList = new JList<String>(cloudListModel) {
+			protected void paintComponent(Graphics g) {
+				// published before the cells are painted, they request the thumbnails
+				updateVisibleClouds();
+				super.paintComponent(g);
+			}
+		};
 		cloudList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		cloudList.setSelectedIndex(0);
 		cloudList.setVisibleRowCount(10);
-		cloudList.setFixedCellHeight(DEF_ROW_HEIGHT);
+		cloudList.setFixedCellHeight(Math.max(DEF_ROW_HEIGHT, THUMBNAIL_HEIGHT + 4));
+		cloudList.setCellRenderer(new CloudListCellRenderer());
 		
 		CloudProvider cloudListProvider = new CloudProvider() {
 			public CloudParameters getCloud() {
@@ -291,9 +339,8 @@ public class SemanticSummaryInputPanel extends JPanel {
 		syncCheckboxActionListener = new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				if(syncCheckBox.isSelected()) {
-					CloudParameters nullCloud = uiManager.getCurrentNetwork().getNullCloud();
-					new UpdateCloudAction(nullCloud, uiManager).actionPerformed(null);
-					uiManager.setCurrentCloud(nullCloud);
+					// setCurrentCloud() reads the selection into the sync cloud
+					uiManager.setCurrentCloud(uiManager.getCurrentNetwork().getNullCloud());
 				}
 				else
 					uiManager.setCurrentCloud(uiManager.getCurrentNetwork());
@@ -321,7 +368,7 @@ public class SemanticSummaryInputPanel extends JPanel {
 		syncPanel.add(syncCheckBox, BorderLayout.WEST);
 		syncPanel.add(createUpdatePanel, BorderLayout.EAST);
 		
-		panel.add(networkPanel, BorderLayout.NORTH);
+		panel.add(topPanel, BorderLayout.NORTH);
 		panel.add(listScrollPane, BorderLayout.CENTER);
 		panel.add(syncPanel, BorderLayout.SOUTH);
 		return panel;
@@ -668,6 +715,7 @@ public class SemanticSummaryInputPanel extends JPanel {
 		cmb.addElement(CloudDisplayStyles.CLUSTERED_STANDARD);
 		cmb.addElement(CloudDisplayStyles.CLUSTERED_BOXES);
 		cmb.addElement(CloudDisplayStyles.NO_CLUSTERING);
+		cmb.addElement(CloudDisplayStyles.SPIRAL);
 		cmbStyle.setSelectedItem(CloudDisplayStyles.getDefault());
 		cmbStyle.repaint();
 		
@@ -679,41 +727,104 @@ public class SemanticSummaryInputPanel extends JPanel {
 	/**
 	 * Make sure the cloudListSelectionListener is removed from cloudList before calling.
 	 */
-	private ListModel<String> setCloudListModel() {
-		
+	private void updateCloudList() {
 		// Set the network and cloud in the top panel (null cloud will result in empty list)
-		NetworkParameters networkParams = uiManager.getCurrentNetwork();
-		List<CloudParameters> networkClouds = networkParams.getClouds();
+		cloudListModel.setNetwork(uiManager.getCurrentNetwork(), sortButton.isSelected());
 		
-		DefaultListModel<String> listModel = new DefaultListModel<String>();
-		
-		if(sortButton.isSelected()) {
-			List<String> list = new ArrayList<String>(networkClouds.size());
-			for(CloudParameters cloud : networkClouds) {
-				list.add(cloud.getCloudName());
-			}
-			Collections.sort(list, new Comparator<String>() {
-				public int compare(String s1, String s2) {
-					return s1.compareToIgnoreCase(s2);
-				}
-			});
-			for(String name : list) {
-				listModel.addElement(name);
+		String cloudName = uiManager.getCurrentCloud().getCloudName();
+		int index = cloudListModel.indexOf(cloudName);
+		cloudList.setSelectedIndex(index);
+		if(index >= 0)
+			cloudList.ensureIndexIsVisible(index);
+	}
+	
+	private void updateVisibleClouds() {
+		NetworkParameters networkParams = uiManager.getCurrentNetwork();
+		int first = cloudList.getFirstVisibleIndex();
+		int last = cloudList.getLastVisibleIndex();
+		Set<CloudParameters> visible = new HashSet<CloudParameters>();
+		for(int i = Math.max(0, first); i <= last && i < cloudListModel.getSize(); i++) {
+			CloudParameters cloud = networkParams.getCloud(cloudListModel.getElementAt(i));
+			if(cloud != null) {
+				visible.add(cloud);
 			}
 		}
-		else {
-			for(CloudParameters cloud : networkClouds) {
-				listModel.addElement(cloud.getCloudName());
+		visibleClouds = visible;
+	}
+	
+	
+	/**
+	 * Shows a thumbnail of the cloud next to its name, the thumbnails are rendered 
+	 * in the background so scrolling through the list never calculates a cloud on the UI thread.
+	 */
+	private class CloudListCellRenderer extends DefaultListCellRenderer implements ThumbnailCache.Client {
+		
+		private final Icon emptyIcon = new Icon() {
+			public void paintIcon(Component c, Graphics g, int x, int y) {
+				g.setColor(Color.WHITE);
+				g.fillRect(x, y, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
 			}
-		}
+			public int getIconWidth()  { return THUMBNAIL_WIDTH; }
+			public int getIconHeight() { return THUMBNAIL_HEIGHT; }
+		};
 		
-		cloudList.setModel(listModel);
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+			super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+			CloudParameters cloud = uiManager.getCurrentNetwork().getCloud((String) value);
+			BufferedImage image = cloud == null ? null : thumbnails.get(cloud, this);
+			setIcon(image == null ? emptyIcon : new ImageIcon(image));
+			setIconTextGap(6);
+			return this;
+		}
 		
-		String cloudName = uiManager.getCurrentCloud().getCloudName();
-		int index = listModel.lastIndexOf(cloudName);
-		cloudList.setSelectedIndex(index);
+		@Override
+		public boolean isVisible(CloudParameters cloud) {
+			return visibleClouds.contains(cloud);
+		}
 		
-		return listModel;
+		@Override
+		public void thumbnailReady(CloudParameters cloud) {
+			int index = cloudListModel.indexOf(cloud.getCloudName());
+			if(index >= 0 && cloud.getNetworkParams() == uiManager.getCurrentNetwork()) {
+				Rectangle bounds = cloudList.getCellBounds(index, index);
+				if(bounds != null) {
+					cloudList.repaint(bounds);
+				}
+			}
+		}
+	}
+	
+	
+	private void filterCloudList() {
+		cloudList.removeListSelectionListener(cloudListSelectionListener);
+		cloudListModel.setFilter(cloudFilterField.getText());
+		updateCloudList();
+		cloudList.addListSelectionListener(cloudListSelectionListener);
+	}
+	
+	
+	/**
+	 * Called by the UIManager when a cloud is added, before the current cloud is set.
+	 * The list is updated in place instead of being rebuilt.
+	 */
+	public void cloudAdded(CloudParameters cloud) {
+		cloudList.removeListSelectionListener(cloudListSelectionListener);
+		cloudListModel.cloudAdded(cloud);
+		cloudList.addListSelectionListener(cloudListSelectionListener);
+	}
+	
+	public void cloudDeleted(CloudParameters cloud) {
+		thumbnails.remove(cloud);
+		cloudList.removeListSelectionListener(cloudListSelectionListener);
+		cloudListModel.cloudDeleted(cloud);
+		cloudList.addListSelectionListener(cloudListSelectionListener);
+	}
+	
+	public void cloudModified(CloudParameters cloud) {
+		cloudList.removeListSelectionListener(cloudListSelectionListener);
+		cloudListModel.cloudModified(cloud);
+		cloudList.addListSelectionListener(cloudListSelectionListener);
 	}
 	
 	
@@ -727,10 +838,12 @@ public class SemanticSummaryInputPanel extends JPanel {
 		filterNumsCheckBox.removeChangeListener(networkUpdateListener);
 		liveUpdateListener.enabled = false;
 		
-		setCloudListModel();
+		updateCloudList();
 		
 		networkLabel.setText(params.getNetworkParams().getNetworkName());
 		syncCheckBox.setSelected(params.isNullCloud());
+		if(params.isNullCloud())
+			nodeSelectionListener.resync(params);
 		updateButton.setEnabled(!params.isNullCloud());
 		
 		// Update all controls to show values from the cloud
@@ -7,6 +7,7 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 	TestCloudModel.class, 
 	TestCloudWords.class,
+	TestCloudUI.class,
 	TestCommands.class,
 	TestColumns.class
 })
@@ -3,18 +3,28 @@ package org.baderlab.wordcloud;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.baderlab.wordcloud.internal.model.CloudModelBatch;
+import org.baderlab.wordcloud.internal.model.CloudModelChanges;
 import org.baderlab.wordcloud.internal.model.CloudModelListener;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
 import org.baderlab.wordcloud.internal.model.NetworkParameters;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
 import org.cytoscape.model.NetworkTestSupport;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.junit.rules.TestRule;
 
 public class TestCloudModel {
@@ -132,6 +142,114 @@ public class TestCloudModel {
 	}
 	
 	
+	@Test
+	public void testCloudOrder() {
+		NetworkTestSupport networkTestSupport = serviceRule.getNetworkTestSupport();
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		
+		CyNetwork network = networkTestSupport.getNetwork();
+		NetworkParameters networkParams = manager.addNetwork(network);
+		
+		CloudParameters cloudParams1 = networkParams.getCloudBuilder().setName("c").setNodes(network.getNodeList()).setAllAttributes().build();
+		CloudParameters cloudParams2 = networkParams.getCloudBuilder().setName("b").setNodes(network.getNodeList()).setAllAttributes().build();
+		CloudParameters cloudParams3 = networkParams.getCloudBuilder().setName("a").setNodes(network.getNodeList()).setAllAttributes().build();
+		
+		// sorted by creation order, the list is only sorted again after a change
+		List<CloudParameters> clouds = networkParams.getClouds();
+		assertEquals(Arrays.asList(cloudParams1, cloudParams2, cloudParams3), clouds);
+		assertSame(clouds, networkParams.getClouds());
+		assertEquals(cloudParams1, networkParams.getFirstCloud());
+		
+		cloudParams1.rename("z");
+		assertEquals(Arrays.asList(cloudParams1, cloudParams2, cloudParams3), networkParams.getClouds());
+		
+		cloudParams2.delete();
+		assertEquals(Arrays.asList(cloudParams1, cloudParams3), networkParams.getClouds());
+		assertEquals(Arrays.asList(cloudParams1, cloudParams2, cloudParams3), clouds); // earlier lists don't change
+	}
+	
+	
+	@Test
+	public void testConcurrentCreate() throws Exception {
+		NetworkTestSupport networkTestSupport = serviceRule.getNetworkTestSupport();
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		
+		CyNetwork network = networkTestSupport.getNetwork();
+		network.addNode();
+		final NetworkParameters networkParams = manager.addNetwork(network);
+		
+		// several threads create clouds at the same time like the async jobs do, all of them try to take the name "same"
+		final int threads = 4, perThread = 25;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger sameCreated = new AtomicInteger();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int t = 0; t < threads; t++) {
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < perThread; i++) {
+							networkParams.getCloudBuilder().setNodes(networkParams.getNetwork().getNodeList()).setAllAttributes().build();
+						}
+						try {
+							networkParams.getCloudBuilder().setName("same").build();
+							sameCreated.incrementAndGet();
+						} catch(IllegalArgumentException e) {
+							// another thread got the name first
+						}
+					} catch(Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(1, sameCreated.get());
+		List<CloudParameters> clouds = networkParams.getClouds();
+		assertEquals(threads * perThread + 1, clouds.size());
+		Set<String> names = new HashSet<String>();
+		Set<Integer> numbers = new HashSet<Integer>();
+		for(CloudParameters cloud : clouds) {
+			names.add(cloud.getCloudName());
+			numbers.add(cloud.getCloudNum());
+			assertSame(cloud, networkParams.getCloud(cloud.getCloudName()));
+		}
+		assertEquals(clouds.size(), names.size());
+		assertEquals(clouds.size(), numbers.size());
+	}
+	
+	
+	@Test
+	public void testResultVersion() {
+		NetworkTestSupport networkTestSupport = serviceRule.getNetworkTestSupport();
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		
+		CyNetwork network = networkTestSupport.getNetwork();
+		NetworkParameters networkParams = manager.addNetwork(network);
+		CloudParameters cloudParams = networkParams.getCloudBuilder().setNodes(network.getNodeList()).setAllAttributes().build();
+		
+		int version = cloudParams.getResultVersion();
+		cloudParams.setMaxWords(cloudParams.getMaxWords());
+		assertEquals(version, cloudParams.getResultVersion());
+		
+		cloudParams.setMaxWords(cloudParams.getMaxWords() + 1);
+		assertNotEquals(version, cloudParams.getResultVersion());
+		
+		version = cloudParams.getResultVersion();
+		networkParams.updateAllClouds();
+		assertNotEquals(version, cloudParams.getResultVersion());
+		assertNull(cloudParams.getCalculatedCloud());
+	}
+	
+	
 	@Test
 	public void testNullNetworkAndNullCloud() {
 		CloudModelManager manager = serviceRule.getCloudModelManager();
@@ -183,6 +301,70 @@ public class TestCloudModel {
 	}
 	
 	
+	@Test
+	public void testBatchCoalescesEvents() {
+		NetworkTestSupport networkTestSupport = serviceRule.getNetworkTestSupport();
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		
+		CloudModelListener listener = mock(CloudModelListener.class);
+		manager.addListener(listener);
+		
+		CyNetwork network = networkTestSupport.getNetwork();
+		NetworkParameters networkParams = manager.addNetwork(network);
+		CyTable localTable = network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
+		List<CyNode> nodes = network.getNodeList();
+		
+		CloudParameters cloud1, cloud2, cloud3;
+		try(CloudModelBatch batch = manager.startBatch()) {
+			cloud1 = networkParams.getCloudBuilder().setName("cloud1").setNodes(nodes).build();
+			try(CloudModelBatch nested = manager.startBatch()) {
+				assertSame(batch, nested);
+				cloud2 = networkParams.getCloudBuilder().setName("cloud2").setNodes(nodes).build();
+			}
+			cloud3 = networkParams.getCloudBuilder().setName("cloud3").setNodes(nodes).build();
+			cloud3.delete();
+			
+			// nothing happens until the outermost batch is closed
+			verify(listener, never()).cloudAdded(any(CloudParameters.class));
+			verify(listener, never()).modelChanged(any(CloudModelChanges.class));
+			assertNull(localTable.getColumn("cloud1"));
+		}
+		
+		ArgumentCaptor<CloudModelChanges> captor = ArgumentCaptor.forClass(CloudModelChanges.class);
+		verify(listener, times(1)).modelChanged(captor.capture());
+		verify(listener, never()).cloudAdded(any(CloudParameters.class));
+		verify(listener, never()).cloudDeleted(any(CloudParameters.class));
+		
+		CloudModelChanges changes = captor.getValue();
+		assertEquals(new HashSet<CloudParameters>(Arrays.asList(cloud1, cloud2)), changes.getAddedClouds());
+		assertTrue(changes.getDeletedClouds().isEmpty());
+		assertTrue(changes.getModifiedClouds().isEmpty());
+		assertEquals(Collections.singleton(networkParams), changes.getAffectedNetworks());
+		
+		// the columns are created when the batch is closed
+		assertNotNull(localTable.getColumn("cloud1"));
+		assertNotNull(localTable.getColumn("cloud2"));
+		assertNull(localTable.getColumn("cloud3"));
+		assertEquals(nodes.size(), cloud1.getSelectedNodes().size());
+		
+		// deletions are coalesced too, and the columns are deleted when the batch is closed
+		try(CloudModelBatch batch = manager.startBatch()) {
+			cloud1.delete();
+			cloud2.delete();
+			assertNotNull(localTable.getColumn("cloud1"));
+		}
+		verify(listener, times(2)).modelChanged(captor.capture());
+		assertEquals(new HashSet<CloudParameters>(Arrays.asList(cloud1, cloud2)), captor.getValue().getDeletedClouds());
+		assertNull(localTable.getColumn("cloud1"));
+		assertNull(localTable.getColumn("cloud2"));
+		
+		// an empty batch fires nothing
+		try(CloudModelBatch batch = manager.startBatch()) {
+		}
+		verify(listener, times(2)).modelChanged(any(CloudModelChanges.class));
+	}
+	
+	
 	@Test(expected=NullPointerException.class)
 	public void testCreateNetworkParametersProperFail() {
 		CloudModelManager manager = serviceRule.getCloudModelManager();
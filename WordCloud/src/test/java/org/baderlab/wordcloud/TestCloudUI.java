@@ -0,0 +1,307 @@
+package org.baderlab.wordcloud;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.swing.JCheckBox;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.model.CloudModelManager;
+import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.ui.CloudTaskManager;
+import org.baderlab.wordcloud.internal.ui.DualPanelDocker;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudDisplayPanel;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudGridPanel;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache;
+import org.baderlab.wordcloud.internal.ui.input.CloudListModel;
+import org.baderlab.wordcloud.internal.ui.input.SelectionSyncListener;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for the parts of the UI that can be checked without showing a window.
+ */
+public class TestCloudUI {
+
+	@Rule public ServiceRule serviceRule = new ServiceRule();
+	@Rule public TestRule logSilenceRule = new LogSilenceRule();
+
+	private CloudModelManager manager;
+	private NetworkParameters networkParams;
+
+
+	@Before
+	public void before() {
+		NetworkTestSupport networkTestSupport = serviceRule.getNetworkTestSupport();
+		manager = serviceRule.getCloudModelManager();
+
+		CyNetwork network = networkTestSupport.getNetwork();
+		network.addNode();
+		network.addNode();
+		networkParams = manager.addNetwork(network);
+	}
+
+	private List<CloudParameters> createClouds(String... names) {
+		for(String name : names) {
+			networkParams.getCloudBuilder()
+			             .setName(name)
+			             .setNodes(networkParams.getNetwork().getNodeList())
+			             .setAllAttributes()
+			             .build();
+		}
+		return networkParams.getClouds();
+	}
+
+
+	// The tiles are 200 wide and 168 high with a gap of 8 around them,
+	// so the grid has 3 columns at a width of 3 * 208 + 8.
+	private static final int GRID_WIDTH = 632;
+
+	@Test
+	public void testCloudGridHitTest() {
+		List<CloudParameters> clouds = createClouds("a", "b", "c", "d", "e");
+		CloudGridPanel grid = new CloudGridPanel(networkParams, mock(UIManager.class), GlyphCache.getSharedInstance());
+		grid.setSize(GRID_WIDTH, 1000);
+
+		assertSame(clouds.get(0), grid.getCloudAt(108, 58));
+		assertSame(clouds.get(1), grid.getCloudAt(316, 58));
+		assertSame(clouds.get(2), grid.getCloudAt(524, 175));
+		assertSame(clouds.get(3), grid.getCloudAt(108, 184));
+		assertSame(clouds.get(4), grid.getCloudAt(415, 200));
+
+		// gaps around and between the tiles
+		assertNull(grid.getCloudAt(4, 58));
+		assertNull(grid.getCloudAt(108, 4));
+		assertNull(grid.getCloudAt(212, 58));
+		assertNull(grid.getCloudAt(108, 180));
+		// past the last tile and past the last column
+		assertNull(grid.getCloudAt(524, 200));
+		assertNull(grid.getCloudAt(630, 58));
+		assertNull(grid.getCloudAt(108, 400));
+
+		grid.dispose();
+	}
+
+	@Test
+	public void testCloudGridVisibleRange() {
+		List<CloudParameters> clouds = createClouds("a", "b", "c", "d", "e");
+		CloudGridPanel grid = new CloudGridPanel(networkParams, mock(UIManager.class), GlyphCache.getSharedInstance());
+		grid.setSize(GRID_WIDTH, 1000);
+
+		assertEquals(clouds, grid.getCloudsIn(new Rectangle(0, 0, GRID_WIDTH, 1000)));
+		assertEquals(clouds.subList(0, 3), grid.getCloudsIn(new Rectangle(0, 0, GRID_WIDTH, 100)));
+		assertEquals(clouds.subList(3, 5), grid.getCloudsIn(new Rectangle(0, 180, 300, 10)));
+		assertEquals(Arrays.asList(clouds.get(1), clouds.get(4)), grid.getCloudsIn(new Rectangle(300, 100, 10, 100)));
+
+		// only gaps
+		assertEquals(Collections.emptyList(), grid.getCloudsIn(new Rectangle(0, 177, GRID_WIDTH, 6)));
+		assertEquals(Collections.emptyList(), grid.getCloudsIn(new Rectangle(209, 0, 6, 1000)));
+		assertEquals(Collections.emptyList(), grid.getCloudsIn(new Rectangle(0, 400, GRID_WIDTH, 100)));
+
+		grid.dispose();
+	}
+
+
+	private static List<String> getNames(CloudListModel model) {
+		List<String> names = new ArrayList<String>();
+		for(int i = 0; i < model.getSize(); i++) {
+			names.add(model.getElementAt(i));
+		}
+		return names;
+	}
+
+	/** Counts the list events, a rebuild fires at least one event for the whole list. */
+	private static class EventCounter implements ListDataListener {
+		int count = 0;
+		public void intervalAdded(ListDataEvent e)   { count++; }
+		public void intervalRemoved(ListDataEvent e) { count++; }
+		public void contentsChanged(ListDataEvent e) { count++; }
+	}
+
+	@Test
+	public void testCloudListModel() {
+		List<CloudParameters> clouds = createClouds("b", "a", "other");
+		CloudListModel model = new CloudListModel();
+		EventCounter events = new EventCounter();
+		model.addListDataListener(events);
+
+		model.setNetwork(networkParams, false);
+		assertEquals(Arrays.asList("b", "a", "other"), getNames(model));
+		model.setNetwork(networkParams, true);
+		assertEquals(Arrays.asList("a", "b", "other"), getNames(model));
+
+		// insert, one event for the new row and no rebuild afterwards
+		CloudParameters c = createClouds("c").get(3);
+		events.count = 0;
+		model.cloudAdded(c);
+		assertEquals(Arrays.asList("a", "b", "c", "other"), getNames(model));
+		assertEquals(1, events.count);
+		model.setNetwork(networkParams, true);
+		assertEquals(1, events.count);
+
+		// remove
+		clouds.get(0).delete();
+		model.cloudDeleted(clouds.get(0));
+		assertEquals(Arrays.asList("a", "c", "other"), getNames(model));
+		assertEquals(-1, model.indexOf("b"));
+		assertEquals(2, events.count);
+
+		// rename moves the row
+		c.rename("0");
+		model.cloudModified(c);
+		assertEquals(Arrays.asList("0", "a", "other"), getNames(model));
+		assertEquals(0, model.indexOf("0"));
+		assertEquals(4, events.count);
+		model.setNetwork(networkParams, true);
+		assertEquals(4, events.count);
+
+		// filter
+		model.setFilter("O");
+		assertEquals(Arrays.asList("other"), getNames(model));
+		assertEquals(-1, model.indexOf("a"));
+		model.cloudAdded(createClouds("bot").get(3));
+		assertEquals(Arrays.asList("bot", "other"), getNames(model));
+		model.setFilter("Ot");
+		assertEquals(Arrays.asList("bot", "other"), getNames(model));
+		model.setFilter("the");
+		assertEquals(Arrays.asList("other"), getNames(model));
+		model.setFilter(null);
+		assertEquals(Arrays.asList("0", "a", "bot", "other"), getNames(model));
+	}
+
+	@Test
+	public void testCloudListModelMissedChange() {
+		List<CloudParameters> clouds = createClouds("a", "b");
+		CloudListModel model = new CloudListModel();
+		model.setNetwork(networkParams, true);
+
+		// the model is not told about the rename, the number of clouds stays the same
+		clouds.get(0).rename("z");
+		assertEquals(Arrays.asList("a", "b"), getNames(model));
+		model.setNetwork(networkParams, true);
+		assertEquals(Arrays.asList("b", "z"), getNames(model));
+		assertEquals(1, model.indexOf("z"));
+
+		// a change that was already picked up by the rebuild doesn't count twice
+		model.cloudModified(clouds.get(0));
+		CloudParameters c = createClouds("c").get(2);
+		model.cloudAdded(c);
+		EventCounter events = new EventCounter();
+		model.addListDataListener(events);
+		model.setNetwork(networkParams, true);
+		assertEquals(0, events.count);
+		assertEquals(Arrays.asList("b", "c", "z"), getNames(model));
+	}
+
+
+	private static RowsSetEvent select(CyNetwork network, CyNode node, boolean selected) {
+		CyRow row = network.getRow(node);
+		row.set(CyNetwork.SELECTED, selected);
+		RowSetRecord record = new RowSetRecord(row, CyNetwork.SELECTED, selected, selected);
+		return new RowsSetEvent(network.getDefaultNodeTable(), Collections.singletonList(record));
+	}
+
+	@Test
+	public void testSelectionSyncResyncsAfterMissedChanges() throws Exception {
+		CyNetwork network = networkParams.getNetwork();
+		List<CyNode> nodes = network.getNodeList();
+		CyNode node1 = nodes.get(0), node2 = nodes.get(1);
+		UIManager uiManager = mock(UIManager.class);
+		when(uiManager.getCurrentNetwork()).thenReturn(networkParams);
+		JCheckBox syncCheckBox = new JCheckBox();
+		syncCheckBox.setSelected(true);
+		SelectionSyncListener listener = new SelectionSyncListener(uiManager, syncCheckBox);
+
+		// the sync cloud becomes current, the whole selection is read
+		CloudParameters nullCloud = networkParams.getNullCloud();
+		network.getRow(node1).set(CyNetwork.SELECTED, true);
+		listener.resync(nullCloud);
+		assertEquals(Collections.singleton(node1), nullCloud.getSelectedNodes());
+
+		// sync is off, the change is missed
+		syncCheckBox.setSelected(false);
+		listener.handleEvent(select(network, node2, true));
+		assertEquals(Collections.singleton(node1), nullCloud.getSelectedNodes());
+
+		// the next change reads the whole selection again instead of applying only the delta
+		syncCheckBox.setSelected(true);
+		listener.handleEvent(select(network, node1, false));
+		assertEquals(Collections.singleton(node2), nullCloud.getSelectedNodes());
+		listener.handleEvent(select(network, node1, true));
+		assertEquals(new HashSet<CyNode>(nodes), nullCloud.getSelectedNodes());
+
+		// the panel is hidden and shown again, the new listener doesn't trust the sync cloud
+		network.getRow(node2).set(CyNetwork.SELECTED, false);
+		listener = new SelectionSyncListener(uiManager, syncCheckBox);
+		listener.resync(nullCloud);
+		assertEquals(Collections.singleton(node1), nullCloud.getSelectedNodes());
+		flushUIThread();
+	}
+
+
+	private static void flushUIThread() throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+
+	@Test
+	public void testCloudDisplayDiscardsStaleResults() throws Exception {
+		CloudParameters cloud = createClouds("a").get(0);
+		final CloudInfo cloudInfo = cloud.calculateCloud();
+		UIManager uiManager = mock(UIManager.class);
+		when(uiManager.getCurrentCloud()).thenReturn(cloud);
+		CloudTaskManager taskManager = mock(CloudTaskManager.class);
+		CloudDisplayPanel panel = new CloudDisplayPanel(uiManager, taskManager);
+		panel.setDocker(mock(DualPanelDocker.class));
+
+		// called off the UI thread like the commands do, the updates are passed on to the UI thread in order
+		panel.updateCloudDisplay(cloud);
+		panel.updateCloudDisplay(cloud);
+		flushUIThread();
+		ArgumentCaptor<CloudTaskManager.Callback> captor = ArgumentCaptor.forClass(CloudTaskManager.Callback.class);
+		verify(taskManager, times(2)).submit(same(cloud), captor.capture());
+		final List<CloudTaskManager.Callback> callbacks = captor.getAllValues();
+
+		// the result of the first update arrives last and is thrown away, only the second one is laid out
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				callbacks.get(1).onFinish(cloudInfo);
+				callbacks.get(0).onFinish(cloudInfo);
+			}
+		});
+		verify(taskManager, times(1)).execute(any(Runnable.class));
+
+		// a result for a cloud that is no longer current is thrown away as well
+		CloudParameters other = createClouds("b").get(1);
+		when(uiManager.getCurrentCloud()).thenReturn(other);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				callbacks.get(1).onFinish(cloudInfo);
+			}
+		});
+		verify(taskManager, times(1)).execute(any(Runnable.class));
+	}
+}
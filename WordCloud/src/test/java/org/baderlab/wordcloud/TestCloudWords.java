@@ -1,16 +1,44 @@
 package org.baderlab.wordcloud;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongUnaryOperator;
 
+import org.baderlab.wordcloud.internal.ClusterTableWriter;
+import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
 import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.CloudPreviewListener;
+import org.baderlab.wordcloud.internal.model.MembershipStorage;
 import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.model.SessionFormat;
+import org.baderlab.wordcloud.internal.model.TokenIndex;
+import org.baderlab.wordcloud.internal.model.TokenIndexStore;
 import org.baderlab.wordcloud.internal.model.WordDelimiters;
+import org.baderlab.wordcloud.internal.ui.UIManager;
+import org.baderlab.wordcloud.internal.ui.action.UpdateCloudAction;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudCanvas;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudLayout;
+import org.baderlab.wordcloud.internal.ui.cloud.CloudLayout.WordBox;
+import org.baderlab.wordcloud.internal.ui.cloud.GlyphCache;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyTable;
@@ -18,12 +46,14 @@ import org.cytoscape.model.NetworkTestSupport;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 
 public class TestCloudWords {
 
 	@Rule public ServiceRule serviceRule = new ServiceRule();
 	@Rule public TestRule logSilenceRule = new LogSilenceRule();
+	@Rule public TemporaryFolder tempFolder = new TemporaryFolder();
 	
 	private final String WORD_COL = "TestWordCol";
 	
@@ -184,4 +214,535 @@ public class TestCloudWords {
 		assertTrue(result.contains("e"));
 		assertTrue(result.contains("coli"));
 	}
+	
+	private static Map<String,Integer> getFontSizes(CloudInfo cloudInfo) {
+		Map<String,Integer> sizes = new HashMap<String,Integer>();
+		for(CloudWordInfo info : cloudInfo.getCloudWordInfoList())
+			sizes.put(info.getWord(), info.getFontSize());
+		return sizes;
+	}
+	
+	
+	@Test
+	public void testIncrementalSelectionUpdate() {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+		CloudParameters cloud = networkParameters.getNullCloud();
+		
+		List<CyNode> nodes = network.getNodeList();
+		CyNode node1 = nodes.get(0);
+		CyNode node2 = nodes.get(1);
+		CyNode node3 = nodes.get(2);
+		
+		cloud.setSelectedNodes(Arrays.asList(node1, node2));
+		List<String> words = getWords(cloud.calculateCloud().getCloudWordInfoList());
+		assertEquals(2, words.size());
+		
+		cloud.updateSelection(Collections.singletonList(node3), Collections.singletonList(node1));
+		assertFalse(cloud.isAlreadyCalculated());
+		assertTrue(cloud.getSelectedNodes().contains(node3));
+		assertFalse(cloud.getSelectedNodes().contains(node1));
+		
+		CloudInfo incremental = cloud.calculateCloud();
+		words = getWords(incremental.getCloudWordInfoList());
+		assertEquals(2, words.size());
+		assertTrue(words.contains("node2"));
+		assertTrue(words.contains("node3"));
+		
+		// must be the same as calculating from scratch
+		Map<String,Integer> expectedCounts = new HashMap<String,Integer>(incremental.getSelectedCounts());
+		Map<String,Integer> expectedSizes = getFontSizes(incremental);
+		cloud.invalidate();
+		CloudInfo full = cloud.calculateCloud();
+		assertEquals(full.getSelectedCounts(), expectedCounts);
+		assertEquals(getFontSizes(full), expectedSizes);
+	}
+
+
+	@Test
+	public void testGroupedCounts() {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+
+		List<CyNode> nodes = network.getNodeList();
+		network.getRow(nodes.get(0)).set(WORD_COL, "apple banana cherry");
+		network.getRow(nodes.get(1)).set(WORD_COL, "banana cherry");
+		network.getRow(nodes.get(2)).set(WORD_COL, "cherry date");
+
+		CyTable table = network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
+		table.createColumn("cluster", Integer.class, false);
+		network.getRow(nodes.get(0)).set("cluster", 1);
+		network.getRow(nodes.get(1)).set("cluster", 1);
+		network.getRow(nodes.get(2)).set("cluster", 2);
+
+		Map<String,Set<CyNode>> groups = networkParameters.getNodeGroups("cluster");
+		assertEquals(Arrays.asList("1", "2"), new ArrayList<String>(groups.keySet()));
+		assertEquals(new HashSet<CyNode>(nodes.subList(0, 2)), groups.get("1"));
+
+		List<CloudParameters> clouds = new ArrayList<CloudParameters>();
+		for(Set<CyNode> group : groups.values()) {
+			clouds.add(networkParameters.getCloudBuilder().setNodes(group).setAttributes(Arrays.asList(WORD_COL)).buildFakeCloud());
+		}
+		clouds.add(networkParameters.getCloudBuilder().setNodes(nodes).setAttributes(Arrays.asList(WORD_COL)).buildFakeCloud());
+
+		CloudParameters template = networkParameters.getCloudBuilder().setAttributes(Arrays.asList(WORD_COL)).buildFakeCloud();
+		List<CloudInfo> grouped = new CloudInfo(template).createForGroups(clouds);
+		assertEquals(3, grouped.size());
+
+		// must be the same as calculating each cloud on its own
+		for(int i = 0; i < clouds.size(); i++) {
+			CloudInfo info = grouped.get(i);
+			info.calculateFontSizes();
+			CloudInfo single = clouds.get(i).calculateCloud();
+			assertEquals(single.getSelectedCounts(), info.getSelectedCounts());
+			assertEquals(single.getSelectedPairCounts().keySet().size(), info.getSelectedPairCounts().keySet().size());
+			assertEquals(getFontSizes(single), getFontSizes(info));
+		}
+		assertEquals(Integer.valueOf(3), grouped.get(2).getSelectedCounts().get("cherry"));
+	}
+
+
+	@Test
+	public void testSpiralLayout() {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CloudParameters cloud = manager.getNetworkParameters(network).getNullCloud();
+		cloud.setSelectedNodes(network.getNodeList());
+		cloud.setDisplayStyle(CloudDisplayStyles.SPIRAL);
+		
+		List<CloudWordInfo> words = CloudLayout.getDisplayWords(cloud.calculateCloud());
+		assertEquals(3, words.size());
+		
+		CloudLayout layout = CloudLayout.create(words, CloudDisplayStyles.SPIRAL, 500, GlyphCache.getSharedInstance());
+		List<WordBox> boxes = layout.getWords();
+		assertEquals(3, boxes.size());
+		for(int i = 0; i < boxes.size(); i++) {
+			for(int j = i + 1; j < boxes.size(); j++) {
+				assertFalse(boxes.get(i).getBounds().intersects(boxes.get(j).getBounds()));
+			}
+		}
+		
+		// same words, same layout
+		CloudLayout again = CloudLayout.create(words, CloudDisplayStyles.SPIRAL, 500, GlyphCache.getSharedInstance());
+		for(int i = 0; i < boxes.size(); i++) {
+			assertEquals(boxes.get(i).getBounds(), again.getWords().get(i).getBounds());
+		}
+	}
+	
+	
+	/**
+	 * Words that don't belong to a cloud given as pairs of word and font size, so that the
+	 * layout doesn't depend on how the words of a network are counted.
+	 */
+	private static List<CloudWordInfo> createWords(Object... wordsAndSizes) {
+		List<CloudWordInfo> words = new ArrayList<CloudWordInfo>();
+		for(int i = 0; i < wordsAndSizes.length; i += 2) {
+			words.add(new CloudWordInfo(null, (String)wordsAndSizes[i], (Integer)wordsAndSizes[i+1], null, 0, words.size()));
+		}
+		return words;
+	}
+	
+	private static final List<CloudWordInfo> LAYOUT_WORDS = createWords("alpha", 30, "beta", 24, "gamma", 18, "delta", 12, "epsilon", 12);
+	
+	@Test
+	public void testLayoutHitTest() {
+		CloudLayout layout = CloudLayout.create(LAYOUT_WORDS, CloudDisplayStyles.NO_CLUSTERING, 200, new GlyphCache());
+		List<WordBox> boxes = layout.getWords();
+		assertEquals(5, boxes.size());
+		
+		for(WordBox box : boxes) {
+			Rectangle r = box.getBounds();
+			assertSame(box, layout.getWordAt(r.x + r.width / 2, r.y + r.height / 2));
+			assertSame(box, layout.getWordAt(r.x, r.y));
+			assertSame(box, layout.getWordAt(r.x + r.width - 1, r.y + r.height - 1));
+		}
+		
+		// the grid index must find the same word as looking at every word
+		Dimension size = layout.getSize();
+		for(int y = 0; y < size.height; y++) {
+			for(int x = 0; x < size.width; x++) {
+				WordBox expected = null;
+				for(WordBox box : boxes) {
+					if(box.getBounds().contains(x, y))
+						expected = box;
+				}
+				assertSame(expected, layout.getWordAt(x, y));
+			}
+		}
+		
+		assertNull(layout.getWordAt(-1, 10));
+		assertNull(layout.getWordAt(10, -1));
+		assertNull(layout.getWordAt(size.width, 10));
+		assertNull(layout.getWordAt(10, size.height));
+	}
+	
+	@Test
+	public void testLayoutWraps() {
+		GlyphCache glyphCache = new GlyphCache();
+		CloudLayout.Content content = CloudLayout.prepare(LAYOUT_WORDS, CloudDisplayStyles.NO_CLUSTERING, glyphCache, null);
+		
+		// no width, one row
+		CloudLayout oneRow = content.getLayout(0);
+		List<WordBox> boxes = oneRow.getWords();
+		Rectangle first = boxes.get(0).getBounds();
+		int middle = first.y + first.height / 2;
+		for(int i = 0; i < boxes.size(); i++) {
+			Rectangle r = boxes.get(i).getBounds();
+			assertTrue(r.y <= middle && middle < r.y + r.height);
+			if(i > 0)
+				assertTrue(boxes.get(i-1).getBounds().getMaxX() < r.x);
+		}
+		
+		// wider than needed, the row is centered
+		CloudLayout wide = content.getLayout(5000);
+		assertEquals(5000, wide.getSize().width);
+		assertEquals(oneRow.getSize().height, wide.getSize().height);
+		Rectangle last = wide.getWords().get(boxes.size() - 1).getBounds();
+		Rectangle start = wide.getWords().get(0).getBounds();
+		assertEquals(start.x, 5000 - (int)last.getMaxX(), 1);
+		
+		// too narrow for any two words, one word per row and as wide as the widest word
+		CloudLayout narrow = content.getLayout(1);
+		boxes = narrow.getWords();
+		for(int i = 1; i < boxes.size(); i++) {
+			assertTrue(boxes.get(i-1).getBounds().getMaxY() <= boxes.get(i).getBounds().y);
+		}
+		assertEquals(content.getMinimumWidth(), narrow.getSize().width);
+		assertTrue(narrow.getSize().height > oneRow.getSize().height);
+		
+		// in between, more than one row but fewer rows than words
+		int width = oneRow.getSize().width / 2;
+		CloudLayout half = content.getLayout(width);
+		assertEquals(width, half.getSize().width);
+		assertTrue(half.getSize().height > oneRow.getSize().height);
+		assertTrue(half.getSize().height < narrow.getSize().height);
+		
+		for(CloudLayout layout : Arrays.asList(oneRow, wide, narrow, half)) {
+			Rectangle area = new Rectangle(layout.getSize());
+			for(WordBox box : layout.getWords()) {
+				assertTrue(area.contains(box.getBounds()));
+			}
+		}
+	}
+	
+	@Test
+	public void testGlyphCacheBound() {
+		GlyphCache glyphCache = new GlyphCache(2);
+		GlyphCache.Glyph a = glyphCache.getGlyph("a", 12);
+		GlyphCache.Glyph b = glyphCache.getGlyph("b", 12);
+		assertSame(a, glyphCache.getGlyph("a", 12));
+		assertEquals(2, glyphCache.size());
+		
+		// b is the least recently used
+		glyphCache.getGlyph("c", 12);
+		assertEquals(2, glyphCache.size());
+		assertSame(a, glyphCache.getGlyph("a", 12));
+		assertNotSame(b, glyphCache.getGlyph("b", 12));
+		assertEquals(2, glyphCache.size());
+		
+		// the size is part of the key
+		assertNotSame(a, glyphCache.getGlyph("a", 14));
+		
+		glyphCache.clear();
+		assertEquals(0, glyphCache.size());
+	}
+	
+	
+	/** Counts the glyphs that are asked for, every word of a block that is laid out asks for its glyph. */
+	private static class CountingGlyphCache extends GlyphCache {
+		int count = 0;
+		@Override
+		public synchronized Glyph getGlyph(String word, int size) {
+			count++;
+			return super.getGlyph(word, size);
+		}
+	}
+	
+	private static List<CloudWordInfo> recolor(List<CloudWordInfo> words, Color color) {
+		List<CloudWordInfo> recolored = new ArrayList<CloudWordInfo>();
+		for(CloudWordInfo w : words) {
+			recolored.add(new CloudWordInfo(null, w.getWord(), w.getFontSize(), color, w.getCluster(), w.getWordNumber()));
+		}
+		return recolored;
+	}
+	
+	@Test
+	public void testCanvasColorChangeKeepsLayout() {
+		CountingGlyphCache glyphCache = new CountingGlyphCache();
+		CloudCanvas canvas = new CloudCanvas(glyphCache);
+		canvas.setSize(200, 300);
+		canvas.setWords(LAYOUT_WORDS, CloudDisplayStyles.NO_CLUSTERING);
+		CloudLayout layout = canvas.getCloudLayout();
+		assertEquals(5, glyphCache.count);
+		
+		// only the colors change, the geometry of the layout is kept and nothing is laid out again
+		List<CloudWordInfo> recolored = recolor(LAYOUT_WORDS, Color.RED);
+		canvas.setWords(recolored, CloudDisplayStyles.NO_CLUSTERING);
+		CloudLayout again = canvas.getCloudLayout();
+		assertEquals(5, glyphCache.count);
+		assertSame(again, canvas.getContent().getLayout(200));
+		assertEquals(layout.getSize(), again.getSize());
+		for(int i = 0; i < layout.getWords().size(); i++) {
+			WordBox box = layout.getWords().get(i);
+			WordBox newBox = again.getWords().get(i);
+			assertSame(box.getGlyph(), newBox.getGlyph());
+			assertEquals(box.getBounds(), newBox.getBounds());
+			// clicks go to the new words
+			assertSame(recolored.get(i), newBox.getWord());
+			Rectangle r = newBox.getBounds();
+			assertSame(newBox, again.getWordAt(r.x, r.y));
+		}
+	}
+	
+	@Test
+	public void testCanvasFontSizeChangeRelayouts() {
+		CountingGlyphCache glyphCache = new CountingGlyphCache();
+		CloudCanvas canvas = new CloudCanvas(glyphCache);
+		canvas.setSize(200, 300);
+		canvas.setWords(LAYOUT_WORDS, CloudDisplayStyles.NO_CLUSTERING);
+		CloudLayout layout = canvas.getCloudLayout();
+		CloudLayout.Content content = canvas.getContent();
+		
+		// the first word gets bigger, it is laid out again and the others move
+		List<CloudWordInfo> resized = createWords("alpha", 40, "beta", 24, "gamma", 18, "delta", 12, "epsilon", 12);
+		canvas.setWords(resized, CloudDisplayStyles.NO_CLUSTERING);
+		CloudLayout again = canvas.getCloudLayout();
+		assertNotSame(content, canvas.getContent());
+		assertEquals(6, glyphCache.count);
+		assertNotSame(layout.getWords().get(0).getGlyph(), again.getWords().get(0).getGlyph());
+		assertTrue(again.getWords().get(0).getBounds().width > layout.getWords().get(0).getBounds().width);
+		assertSame(resized.get(0), again.getWords().get(0).getWord());
+		
+		// moving a word to another cluster is not a color change either
+		List<CloudWordInfo> moved = new ArrayList<CloudWordInfo>(resized);
+		CloudWordInfo last = moved.get(4);
+		moved.set(4, new CloudWordInfo(null, last.getWord(), last.getFontSize(), null, 1, last.getWordNumber()));
+		content = canvas.getContent();
+		canvas.setWords(moved, CloudDisplayStyles.NO_CLUSTERING);
+		assertNotSame(content, canvas.getContent());
+		assertSame(moved.get(4), canvas.getCloudLayout().getWords().get(4).getWord());
+	}
+	
+	
+	private static List<CloudWordInfo> createClusteredWords(int deltaSize) {
+		return Arrays.asList(
+			new CloudWordInfo(null, "alpha",   30, null, 0, 0),
+			new CloudWordInfo(null, "beta",    24, null, 0, 1),
+			new CloudWordInfo(null, "gamma",   18, null, 1, 2),
+			new CloudWordInfo(null, "delta",   deltaSize, null, 1, 3),
+			new CloudWordInfo(null, "epsilon", 12, null, 2, 4));
+	}
+	
+	@Test
+	public void testLayoutReusesBlocks() {
+		CountingGlyphCache glyphCache = new CountingGlyphCache();
+		CloudLayout.Content content = CloudLayout.prepare(createClusteredWords(12), CloudDisplayStyles.CLUSTERED_STANDARD, glyphCache, null);
+		assertEquals(5, glyphCache.count);
+		CloudLayout layout = content.getLayout(500);
+		
+		// only the cluster that changed is laid out again
+		CloudLayout.Content changed = CloudLayout.prepare(createClusteredWords(14), CloudDisplayStyles.CLUSTERED_STANDARD, glyphCache, content);
+		assertEquals(7, glyphCache.count);
+		CloudLayout changedLayout = changed.getLayout(500);
+		
+		// the words of a reused block keep their places relative to each other
+		List<WordBox> boxes = layout.getWords(), changedBoxes = changedLayout.getWords();
+		Rectangle alpha = boxes.get(0).getBounds(), beta = boxes.get(1).getBounds();
+		Rectangle changedAlpha = changedBoxes.get(0).getBounds(), changedBeta = changedBoxes.get(1).getBounds();
+		assertEquals(beta.x - alpha.x, changedBeta.x - changedAlpha.x);
+		assertEquals(beta.y - alpha.y, changedBeta.y - changedAlpha.y);
+		assertTrue(changedBoxes.get(3).getBounds().height > boxes.get(3).getBounds().height);
+		
+		// the same words again, nothing is laid out
+		CloudLayout.prepare(createClusteredWords(14), CloudDisplayStyles.CLUSTERED_STANDARD, glyphCache, changed);
+		assertEquals(7, glyphCache.count);
+		
+		// blocks are not shared between styles
+		CloudLayout.prepare(createClusteredWords(14), CloudDisplayStyles.CLUSTERED_BOXES, glyphCache, changed);
+		assertEquals(12, glyphCache.count);
+	}
+	
+	@Test
+	public void testLayoutWidthMemo() {
+		CloudLayout.Content content = CloudLayout.prepare(LAYOUT_WORDS, CloudDisplayStyles.NO_CLUSTERING, new GlyphCache(), null);
+		CloudLayout l100 = content.getLayout(100);
+		CloudLayout l200 = content.getLayout(200);
+		CloudLayout l300 = content.getLayout(300);
+		CloudLayout l400 = content.getLayout(400);
+		assertEquals(200, l200.getWidth());
+		assertSame(l100, content.getLayout(100));
+		assertSame(l300, content.getLayout(300));
+		
+		// four widths are remembered, the least recently used one is dropped
+		CloudLayout l500 = content.getLayout(500);
+		assertNotSame(l200, content.getLayout(200));
+		assertSame(l100, content.getLayout(100));
+		assertSame(l500, content.getLayout(500));
+		assertNotSame(l400, content.getLayout(400));
+	}
+	
+	
+	@Test
+	public void testPreview() {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CloudParameters cloud = manager.getNetworkParameters(network).getNullCloud();
+		cloud.setSelectedNodes(network.getNodeList());
+		
+		CloudInfo preview = cloud.calculatePreview();
+		assertTrue(preview.isPreview());
+		assertFalse(cloud.isAlreadyCalculated());
+		List<String> previewWords = getWords(preview.getCloudWordInfoList());
+		assertEquals(3, previewWords.size());
+		
+		final List<CloudInfo> previews = new ArrayList<CloudInfo>();
+		CloudInfo full = cloud.calculateCloud(new CloudPreviewListener() {
+			public void previewCalculated(CloudInfo p) {
+				previews.add(p);
+			}
+		});
+		// the counts made by calculatePreview() are reused, the listener still gets a preview
+		assertEquals(1, previews.size());
+		assertFalse(full.isPreview());
+		assertTrue(cloud.isAlreadyCalculated());
+		assertEquals(new HashSet<String>(previewWords), new HashSet<String>(getWords(full.getCloudWordInfoList())));
+		assertEquals(getFontSizes(previews.get(0)), getFontSizes(full));
+		
+		// once calculated there is no preview
+		assertSame(full, cloud.calculatePreview());
+		cloud.calculateCloud(new CloudPreviewListener() {
+			public void previewCalculated(CloudInfo p) {
+				fail();
+			}
+		});
+	}
+	
+	
+	@Test
+	public void testSessionFormat() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+		CloudParameters cloud = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAllAttributes().build();
+		CloudInfo original = cloud.calculateCloud();
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionFormat.write(networkParameters, out);
+		byte[] bytes = out.toByteArray();
+		
+		List<CloudParameters> restored = SessionFormat.read(networkParameters, new ByteArrayInputStream(bytes), null);
+		assertEquals(1, restored.size());
+		CloudParameters restoredCloud = restored.get(0);
+		assertEquals(cloud.getCloudName(), restoredCloud.getCloudName());
+		CloudInfo result = restoredCloud.getCalculatedCloud();
+		assertNotNull(result);
+		assertTrue(result.isRestored());
+		assertEquals(getFontSizes(original), getFontSizes(result));
+		
+		// the saved result only has the displayed words, a different word limit needs a new calculation
+		restoredCloud.setMaxWords(restoredCloud.getMaxWords() + 1);
+		assertNull(restoredCloud.getCalculatedCloud());
+		
+		// a corrupt result section is skipped, the cloud is still restored
+		bytes[bytes.length - 6] ^= 0xFF;
+		restored = SessionFormat.read(networkParameters, new ByteArrayInputStream(bytes), null);
+		assertEquals(1, restored.size());
+		assertNull(restored.get(0).getCalculatedCloud());
+	}
+	
+	
+	@Test
+	public void testSessionRestoreIsLazy() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+		List<CyNode> nodes = network.getNodeList().subList(0, 2);
+		CloudParameters cloud = networkParameters.getCloudBuilder().setNodes(nodes).setAllAttributes().setStorage(MembershipStorage.BITMAP).build();
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionFormat.write(networkParameters, out);
+		
+		final List<Long> mapped = new ArrayList<Long>();
+		List<CloudParameters> restored = SessionFormat.read(networkParameters, new ByteArrayInputStream(out.toByteArray()), new LongUnaryOperator() {
+			public long applyAsLong(long suid) {
+				mapped.add(suid);
+				return suid;
+			}
+		});
+		assertEquals(1, restored.size());
+		assertEquals(cloud.getCloudName(), restored.get(0).getCloudName());
+		// the members are only mapped when they are first needed
+		assertTrue(mapped.isEmpty());
+		assertEquals(new HashSet<CyNode>(nodes), restored.get(0).getSelectedNodes());
+		assertEquals(2, mapped.size());
+	}
+	
+	
+	@Test
+	public void testUpdateRestoredCloudWritesFullResult() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+		CloudParameters cloud = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAllAttributes().build();
+		cloud.calculateCloud();
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionFormat.write(networkParameters, out);
+		CloudParameters restoredCloud = SessionFormat.read(networkParameters, new ByteArrayInputStream(out.toByteArray()), null).get(0);
+		CloudInfo restoredInfo = restoredCloud.getCalculatedCloud();
+		assertTrue(restoredInfo.isRestored());
+		
+		// a restored result has no ratios, it is not written to a cluster table
+		CyTable table = serviceRule.getTableTestSupport().getTableFactory().createTable("clusters", "Cloud", String.class, true, true);
+		try {
+			new ClusterTableWriter(null).write(table, restoredCloud.getCloudName(), restoredInfo);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		
+		// updating the cloud calculates it again before writing the table
+		restoredCloud.setClusterTable(table);
+		for(CyNode node : network.getNodeList()) {
+			network.getRow(node).set(CyNetwork.SELECTED, true);
+		}
+		new UpdateCloudAction(restoredCloud, mock(UIManager.class)).actionPerformed(null);
+		List<Double> ratios = table.getRow(restoredCloud.getCloudName()).getList(ClusterTableWriter.RATIO_COLUMN, Double.class);
+		assertEquals(3, ratios.size());
+		for(Double ratio : ratios) {
+			assertTrue(ratio > 0.0);
+		}
+	}
+	
+	
+	@Test
+	public void testTokenIndex() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		File storeDir = tempFolder.newFolder();
+		manager.setTokenIndexStore(new TokenIndexStore(storeDir, 1024 * 1024));
+		
+		NetworkParameters networkParameters = manager.getNetworkParameters(network);
+		TokenIndex index = networkParameters.getTokenIndex(WORD_COL);
+		assertEquals(3, index.getNodeCount());
+		assertEquals(3, index.getTermCount());
+		assertSame(index, networkParameters.getTokenIndex(WORD_COL));
+		assertNull(networkParameters.getTokenIndex("no such column"));
+		assertEquals(1, storeDir.listFiles().length);
+		
+		CloudParameters cloud = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAttributes(Arrays.asList(WORD_COL)).build();
+		Map<String,Integer> sizes = getFontSizes(cloud.calculateCloud());
+		
+		// a new NetworkParameters loads the index from the store
+		manager.removeNetwork(network);
+		networkParameters = manager.addNetwork(network);
+		TokenIndex loaded = networkParameters.getTokenIndex(WORD_COL);
+		assertNotSame(index, loaded);
+		assertEquals(1, storeDir.listFiles().length);
+		for(int term = 0; term < index.getTermCount(); term++) {
+			assertEquals(index.getTerm(term), loaded.getTerm(term));
+		}
+		cloud = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAttributes(Arrays.asList(WORD_COL)).build();
+		assertEquals(sizes, getFontSizes(cloud.calculateCloud()));
+		
+		// changing the column gives a different index
+		network.getRow(network.getNodeList().get(0)).set(WORD_COL, "other");
+		manager.setRowEventsTracked(false); // events are not delivered in tests
+		assertNotSame(loaded, networkParameters.getTokenIndex(WORD_COL));
+		assertEquals(2, storeDir.listFiles().length);
+	}
 }
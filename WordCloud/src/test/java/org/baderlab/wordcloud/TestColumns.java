@@ -1,23 +1,39 @@
 package org.baderlab.wordcloud;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.function.LongUnaryOperator;
 
+import org.baderlab.wordcloud.internal.SelectionWriter;
 import org.baderlab.wordcloud.internal.cluster.CloudDisplayStyles;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
+import org.baderlab.wordcloud.internal.model.MembershipStorage;
+import org.baderlab.wordcloud.internal.model.NetworkParameters;
+import org.baderlab.wordcloud.internal.model.NodeBitmap;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyEdge;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNetworkFactory;
 import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
 import org.cytoscape.model.subnetwork.CyRootNetwork;
 import org.cytoscape.model.subnetwork.CySubNetwork;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
+import org.mockito.ArgumentCaptor;
 
 
 /**
@@ -184,4 +200,222 @@ public class TestColumns {
 		assertTrue(cloud.getSelectedNodes().isEmpty());
 	}
 	
+	
+	@Test
+	public void testSelectionFollowsColumnChanges() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		
+		CloudParameters cloud = manager.addNetwork(network1).getCloudBuilder().setNodes(Collections.singletonList(node1)).build();
+		assertEquals(1, cloud.getSelectedNumNodes());
+		
+		// The user edits the cloud column directly
+		CyTable table = network1.getDefaultNodeTable();
+		CyRow row = network1.getRow(node2);
+		row.set(cloud.getCloudName(), Boolean.TRUE);
+		RowSetRecord record = new RowSetRecord(row, cloud.getCloudName(), Boolean.TRUE, Boolean.TRUE);
+		manager.rowsSet(new RowsSetEvent(table, Collections.singletonList(record)));
+		
+		Set<CyNode> cloudNodes = cloud.getSelectedNodes();
+		assertEquals(2, cloudNodes.size());
+		assertTrue(cloudNodes.contains(node1));
+		assertTrue(cloudNodes.contains(node2));
+		
+		// Removing a node from the network
+		network1.removeNodes(Collections.singletonList(node1));
+		manager.handleEvent(new RemovedNodesEvent(network1));
+		
+		cloudNodes = cloud.getSelectedNodes();
+		assertEquals(1, cloudNodes.size());
+		assertTrue(cloudNodes.contains(node2));
+	}
+	
+	
+	@Test
+	public void testRowsSetOnlyTouchesChangedClouds() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		
+		NetworkParameters networkParams = manager.addNetwork(network1);
+		CloudParameters cloudA = networkParams.getCloudBuilder().setName("a").setNodes(Collections.singletonList(node1)).build();
+		CloudParameters cloudB = networkParams.getCloudBuilder().setName("b").setNodes(Collections.singletonList(node1)).build();
+		
+		// both columns are edited but the event only has records for a and for a column that isn't a cloud
+		CyRow row = network1.getRow(node2);
+		row.set("a", Boolean.TRUE);
+		row.set("b", Boolean.TRUE);
+		List<RowSetRecord> records = Arrays.asList(
+			new RowSetRecord(row, "a", Boolean.TRUE, Boolean.TRUE),
+			new RowSetRecord(row, CyNetwork.NAME, "node2", "node2"));
+		manager.rowsSet(new RowsSetEvent(network1.getDefaultNodeTable(), records));
+		
+		assertEquals(2, cloudA.getSelectedNumNodes());
+		// b still trusts its cached selection
+		assertEquals(1, cloudB.getSelectedNumNodes());
+	}
+	
+	
+	@Test
+	public void testSelectionNotCachedWhileRowEventsUntracked() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		
+		CloudParameters cloud = manager.addNetwork(network1).getCloudBuilder().setNodes(Collections.singletonList(node1)).build();
+		assertEquals(1, cloud.getSelectedNumNodes());
+		
+		// WordCloud is hidden, the edit is never routed to the manager
+		manager.setRowEventsTracked(false);
+		network1.getRow(node2).set(cloud.getCloudName(), Boolean.TRUE);
+		assertEquals(2, cloud.getSelectedNumNodes());
+		
+		// caches filled while untracked are thrown away when tracking resumes
+		manager.setRowEventsTracked(true);
+		network1.getRow(node1).set(cloud.getCloudName(), Boolean.FALSE);
+		Set<CyNode> cloudNodes = cloud.getSelectedNodes();
+		assertEquals(1, cloudNodes.size());
+		assertTrue(cloudNodes.contains(node2));
+	}
+	
+	
+	@Test
+	public void testRoutingIndexFollowsNetworks() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CySubNetwork network2 = (CySubNetwork) networkFactory.createNetwork();
+		
+		NetworkParameters networkParams = manager.addNetwork(network1);
+		assertSame(networkParams, manager.getNetworkForNodeTable(network1.getDefaultNodeTable()));
+		assertSame(networkParams, manager.getNetworkForNodeTable(network1.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS)));
+		assertSame(networkParams, manager.getNetworkForNetworkTable(network1.getDefaultNetworkTable()));
+		assertNull(manager.getNetworkForNodeTable(network2.getDefaultNodeTable()));
+		assertNull(manager.getNetworkForNodeTable(network1.getDefaultEdgeTable()));
+		
+		manager.removeNetwork(network1);
+		assertNull(manager.getNetworkForNodeTable(network1.getDefaultNodeTable()));
+		assertNull(manager.getNetworkForNetworkTable(network1.getDefaultNetworkTable()));
+	}
+	
+	
+	@Test
+	public void testBitmapStorageDoesNotCreateColumn() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		network1.addNode();
+		
+		CloudParameters cloud = manager.addNetwork(network1).getCloudBuilder()
+				.setStorage(MembershipStorage.BITMAP)
+				.setNodes(Arrays.asList(node1, node2))
+				.build();
+		
+		assertNull(network1.getDefaultNodeTable().getColumn(cloud.getCloudName()));
+		assertEquals(2, cloud.getSelectedNumNodes());
+		assertTrue(cloud.getSelectedNodes().contains(node1));
+		assertTrue(cloud.getSelectedNodes().contains(node2));
+		
+		// renaming should work without a column
+		cloud.rename("BitmapCloud");
+		assertEquals(2, cloud.getSelectedNumNodes());
+		
+		cloud.materializeColumn();
+		assertEquals(MembershipStorage.COLUMN, cloud.getStorage());
+		assertEquals(Boolean.TRUE, network1.getRow(node1).get("BitmapCloud", Boolean.class));
+		assertEquals(Boolean.TRUE, network1.getRow(node2).get("BitmapCloud", Boolean.class));
+		assertEquals(2, cloud.getSelectedNumNodes());
+	}
+	
+	
+	@Test
+	public void testNodeBitmap() {
+		long[] suids = { 12, 5, 6, 7, 100, 6, 8, 101 };
+		NodeBitmap bitmap = NodeBitmap.fromSUIDs(suids);
+		assertEquals(7, bitmap.size());
+		assertArrayEquals(new long[] { 5, 6, 7, 8, 12, 100, 101 }, bitmap.toArray());
+		
+		NodeBitmap copy = NodeBitmap.fromBase64(bitmap.toBase64());
+		assertEquals(bitmap, copy);
+		assertArrayEquals(bitmap.toArray(), copy.toArray());
+		
+		NodeBitmap remapped = bitmap.remap(new LongUnaryOperator() {
+			public long applyAsLong(long suid) {
+				return suid == 12 ? -1 : suid + 1000;
+			}
+		});
+		assertArrayEquals(new long[] { 1005, 1006, 1007, 1008, 1100, 1101 }, remapped.toArray());
+		
+		assertEquals(0, NodeBitmap.fromBase64(NodeBitmap.EMPTY.toBase64()).size());
+	}
+	
+	
+	@Test
+	public void testSelectionWriterOnlyWritesChanges() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		CyNode node3 = network1.addNode();
+		
+		SelectionWriter writer = new SelectionWriter(null);
+		assertEquals(2, writer.setNodes(network1, CyNetwork.SELECTED, Arrays.asList(node1, node2)));
+		assertEquals(0, writer.setNodes(network1, CyNetwork.SELECTED, Arrays.asList(node2, node1)));
+		
+		// node1 is deselected, node3 is selected, node2 is untouched
+		assertEquals(2, writer.setNodes(network1, CyNetwork.SELECTED, Arrays.asList(node2, node3)));
+		assertEquals(Boolean.FALSE, network1.getRow(node1).get(CyNetwork.SELECTED, Boolean.class));
+		assertEquals(Boolean.TRUE,  network1.getRow(node2).get(CyNetwork.SELECTED, Boolean.class));
+		assertEquals(Boolean.TRUE,  network1.getRow(node3).get(CyNetwork.SELECTED, Boolean.class));
+	}
+	
+	
+	@Test
+	public void testSelectionWriterFiresOneEvent() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		network1.addNode();
+		
+		CyEventHelper eventHelper = mock(CyEventHelper.class);
+		SelectionWriter writer = new SelectionWriter(eventHelper);
+		writer.select(network1, Arrays.asList(node1, node2));
+		
+		// "selected" is a local column, the rows are written to the local table and the facade passes them on
+		CyTable localTable = network1.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
+		verify(eventHelper).silenceEventSource(localTable);
+		verify(eventHelper).unsilenceEventSource(localTable);
+		verify(eventHelper).silenceEventSource(network1.getDefaultNodeTable());
+		verify(eventHelper).unsilenceEventSource(network1.getDefaultNodeTable());
+		
+		// no edges were selected so there is nothing to write for them
+		ArgumentCaptor<RowsSetEvent> captor = ArgumentCaptor.forClass(RowsSetEvent.class);
+		verify(eventHelper, times(1)).fireEvent(captor.capture());
+		RowsSetEvent event = captor.getValue();
+		assertSame(localTable, event.getSource());
+		assertEquals(2, event.getPayloadCollection().size());
+		for(RowSetRecord record : event.getPayloadCollection()) {
+			assertEquals(CyNetwork.SELECTED, record.getColumn());
+			assertEquals(Boolean.TRUE, record.getValue());
+		}
+	}
+	
+	
+	@Test
+	public void testSelectionWriterSelectNodesKeepsEdges() {
+		CySubNetwork network1 = (CySubNetwork) networkFactory.createNetwork();
+		CyNode node1 = network1.addNode();
+		CyNode node2 = network1.addNode();
+		CyEdge edge = network1.addEdge(node1, node2, false);
+		network1.getRow(edge).set(CyNetwork.SELECTED, Boolean.TRUE);
+		
+		SelectionWriter writer = new SelectionWriter(null);
+		writer.selectNodes(network1, Arrays.asList(node1));
+		assertEquals(Boolean.TRUE, network1.getRow(node1).get(CyNetwork.SELECTED, Boolean.class));
+		assertEquals(Boolean.TRUE, network1.getRow(edge).get(CyNetwork.SELECTED, Boolean.class));
+		
+		writer.select(network1, Arrays.asList(node2));
+		assertEquals(Boolean.FALSE, network1.getRow(node1).get(CyNetwork.SELECTED, Boolean.class));
+		assertEquals(Boolean.TRUE,  network1.getRow(node2).get(CyNetwork.SELECTED, Boolean.class));
+		assertEquals(Boolean.FALSE, network1.getRow(edge).get(CyNetwork.SELECTED, Boolean.class));
+	}
+	
 }
@@ -3,10 +3,37 @@ package org.baderlab.wordcloud;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
+import javax.imageio.ImageIO;
+
+import org.baderlab.wordcloud.internal.ClusterTableWriter;
+import org.baderlab.wordcloud.internal.cluster.CloudInfo;
+import org.baderlab.wordcloud.internal.cluster.CloudWordInfo;
+import org.baderlab.wordcloud.internal.cluster.WordStatsWriter;
+import org.baderlab.wordcloud.internal.command.BatchCloudCommandTask;
+import org.baderlab.wordcloud.internal.command.CloudJobCommandTask;
+import org.baderlab.wordcloud.internal.command.CloudJobManager;
+import org.baderlab.wordcloud.internal.command.CloudJsonWriter;
 import org.baderlab.wordcloud.internal.command.CreateCloudCommandTask;
 import org.baderlab.wordcloud.internal.command.DeleteCloudCommandTask;
+import org.baderlab.wordcloud.internal.command.ExportCloudsCommandTask;
+import org.baderlab.wordcloud.internal.command.ExportWordStatsCommandTask;
+import org.baderlab.wordcloud.internal.command.SubmitJobCommandTask;
+import org.baderlab.wordcloud.internal.model.CloudBuilder;
 import org.baderlab.wordcloud.internal.model.CloudModelManager;
 import org.baderlab.wordcloud.internal.model.CloudParameters;
 import org.baderlab.wordcloud.internal.model.NetworkParameters;
@@ -14,19 +41,26 @@ import org.baderlab.wordcloud.internal.ui.UIManager;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.command.util.NodeList;
 import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
 import org.cytoscape.model.CyTableFactory;
 import org.cytoscape.model.CyTableManager;
 import org.cytoscape.model.NetworkTestSupport;
+import org.cytoscape.work.ObservableTask;
 import org.cytoscape.work.TaskMonitor;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
+import org.mockito.ArgumentCaptor;
 
 public class TestCommands {
 
 	@Rule public ServiceRule serviceRule = new ServiceRule();
 	@Rule public TestRule logSilenceRule = new LogSilenceRule();
+	@Rule public TemporaryFolder tempFolder = new TemporaryFolder();
 	
 	private CyTableFactory tableFactory;
 	
@@ -86,10 +120,89 @@ public class TestCommands {
 		assertEquals(1, attributeNames.size());
 		assertEquals("attName", attributeNames.get(0));
 		
+		// the results are written to the cluster table, the old columns are still String lists
+		ArgumentCaptor<CyTable> tableCaptor = ArgumentCaptor.forClass(CyTable.class);
+		verify(tableManager).addTable(tableCaptor.capture());
+		CyTable clusterTable = tableCaptor.getValue();
+		assertEquals(clusterTable.getSUID(), network.getRow(network).get("cloudGroupTableName", Long.class));
+		assertEquals(String.class, clusterTable.getColumn(ClusterTableWriter.FONT_SIZE_COLUMN).getListElementType());
+		assertEquals(Integer.class, clusterTable.getColumn(ClusterTableWriter.FONT_SIZES_COLUMN).getListElementType());
+		assertEquals(Double.class, clusterTable.getColumn(ClusterTableWriter.RATIO_COLUMN).getListElementType());
+		CyRow clusterRow = clusterTable.getRow("mytask_cloud");
+		Integer size = clusterRow.get(ClusterTableWriter.SIZE_COLUMN, Integer.class);
+		assertEquals(size.intValue(), clusterRow.getList(ClusterTableWriter.WORD_COLUMN, String.class).size());
+		assertEquals(size.intValue(), clusterRow.getList(ClusterTableWriter.COUNT_COLUMN, Integer.class).size());
+		assertClusterRowsMatch(clusterRow);
+		
 		cloudParameters.delete();
 	}
 	
 	
+	@Test
+	public void testCreateCommandOldClusterTable() {
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		CyTableManager tableManager = serviceRule.getTableManager();
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		for(String name : Arrays.asList("one two", "two three", "three")) {
+			network.getRow(network.addNode()).set(CyNetwork.NAME, name);
+		}
+		
+		// a cluster table created by an older version only has String list columns
+		CyTable oldTable = tableFactory.createTable("oldTable", "Cloud", String.class, true, true);
+		for(String column : Arrays.asList("WC_Word", "WC_FontSize", "WC_Cluster", "WC_Number")) {
+			oldTable.createListColumn(column, String.class, false);
+		}
+		network.getDefaultNetworkTable().createColumn("oldTable", Long.class, false);
+		network.getRow(network).set("oldTable", oldTable.getSUID());
+		when(tableManager.getTable(oldTable.getSUID())).thenReturn(oldTable);
+		
+		CreateCloudCommandTask task = new CreateCloudCommandTask(applicationManager, manager, mock(UIManager.class), tableManager, tableFactory);
+		task.cloudName = "old_cloud";
+		task.cloudGroupTableName = "oldTable";
+		NodeList nodeList = new NodeList();
+		nodeList.setNetwork(network);
+		nodeList.setValue(network.getNodeList());
+		task.nodeList = nodeList;
+		task.wordColumnName = CyNetwork.NAME;
+		task.run(mock(TaskMonitor.class));
+		
+		// the existing table is reused, the old columns keep their type and the typed columns are added
+		verify(tableManager, never()).addTable(any(CyTable.class));
+		assertEquals(String.class, oldTable.getColumn(ClusterTableWriter.CLUSTER_COLUMN).getListElementType());
+		assertEquals(String.class, oldTable.getColumn(ClusterTableWriter.NUMBER_COLUMN).getListElementType());
+		assertEquals(Integer.class, oldTable.getColumn(ClusterTableWriter.CLUSTERS_COLUMN).getListElementType());
+		assertEquals(Integer.class, oldTable.getColumn(ClusterTableWriter.NUMBERS_COLUMN).getListElementType());
+		
+		CyRow clusterRow = oldTable.getRow("old_cloud");
+		assertEquals(3, clusterRow.getList(ClusterTableWriter.WORD_COLUMN, String.class).size());
+		assertClusterRowsMatch(clusterRow);
+		
+		manager.getNetworkParameters(network).getCloud("old_cloud").delete();
+	}
+	
+	/**
+	 * The String list columns must hold the same values as the typed columns.
+	 */
+	private static void assertClusterRowsMatch(CyRow clusterRow) {
+		assertEquals(toStrings(clusterRow.getList(ClusterTableWriter.FONT_SIZES_COLUMN, Integer.class)), 
+				clusterRow.getList(ClusterTableWriter.FONT_SIZE_COLUMN, String.class));
+		assertEquals(toStrings(clusterRow.getList(ClusterTableWriter.CLUSTERS_COLUMN, Integer.class)), 
+				clusterRow.getList(ClusterTableWriter.CLUSTER_COLUMN, String.class));
+		assertEquals(toStrings(clusterRow.getList(ClusterTableWriter.NUMBERS_COLUMN, Integer.class)), 
+				clusterRow.getList(ClusterTableWriter.NUMBER_COLUMN, String.class));
+	}
+	
+	private static List<String> toStrings(List<Integer> values) {
+		List<String> strings = new ArrayList<String>();
+		for(Integer value : values) {
+			strings.add(value.toString());
+		}
+		return strings;
+	}
+	
+	
 	@Test
 	public void testBadCreateCommand() {
 		CloudModelManager manager = serviceRule.getCloudModelManager();
@@ -187,4 +300,437 @@ public class TestCommands {
 		} catch(IllegalArgumentException e) {}
 	}
 	
+	
+	@Test
+	public void testExportCommand() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getRow(network.addNode()).set("attName", "apple banana");
+		network.getRow(network.addNode()).set("attName", "banana cherry");
+		
+		NetworkParameters networkParameters = manager.addNetwork(network);
+		CloudBuilder builder = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAttributes(Arrays.asList("attName"));
+		builder.setName("cloud 1").build();
+		builder.setName("cloud/2").build();
+		
+		File dir = new File(tempFolder.getRoot(), "images");
+		ExportCloudsCommandTask task = new ExportCloudsCommandTask(applicationManager, manager);
+		task.directory = dir.getAbsolutePath();
+		task.format.setSelectedValue("both");
+		task.scale = 2.0;
+		task.run(mock(TaskMonitor.class));
+		
+		List<?> files = task.getResults(List.class);
+		assertEquals(4, files.size());
+		for(String name : Arrays.asList("cloud_1.png", "cloud_1.svg", "cloud_2.png", "cloud_2.svg")) {
+			File file = new File(dir, name);
+			assertTrue(name, file.isFile());
+			assertTrue(files.contains(file.getAbsolutePath()));
+		}
+		
+		BufferedImage image = ImageIO.read(new File(dir, "cloud_1.png"));
+		assertNotNull(image);
+		
+		task = new ExportCloudsCommandTask(applicationManager, manager);
+		task.directory = dir.getAbsolutePath();
+		task.cloudNames = "cloud 1, no such cloud";
+		try {
+			task.run(mock(TaskMonitor.class));
+			fail();
+		} catch(IllegalArgumentException e) {}
+	}
+
+	
+	@Test
+	public void testExportFileNamesAreUnique() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getRow(network.addNode()).set("attName", "apple banana");
+		
+		NetworkParameters networkParameters = manager.addNetwork(network);
+		CloudBuilder builder = networkParameters.getCloudBuilder().setNodes(network.getNodeList()).setAttributes(Arrays.asList("attName"));
+		CloudParameters cloud1 = builder.setName("a b").build();
+		CloudParameters cloud2 = builder.setName("a_b").build();
+		CloudParameters cloud3 = builder.setName("a/b").build();
+		builder.setName("c d").build();
+		
+		File dir = new File(tempFolder.getRoot(), "unique");
+		ExportCloudsCommandTask task = new ExportCloudsCommandTask(applicationManager, manager);
+		task.directory = dir.getAbsolutePath();
+		task.format.setSelectedValue("png");
+		task.run(mock(TaskMonitor.class));
+		
+		// the names that flatten to the same file name get the cloud number, the others are left alone
+		List<?> files = task.getResults(List.class);
+		assertEquals(4, files.size());
+		assertEquals(4, dir.list().length);
+		for(CloudParameters cloud : Arrays.asList(cloud1, cloud2, cloud3)) {
+			assertTrue(new File(dir, "a_b_" + cloud.getCloudNum() + ".png").isFile());
+		}
+		assertTrue(new File(dir, "c_d.png").isFile());
+	}
+	
+	
+	@Test
+	public void testCreateCommandJson() {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		CyTableManager tableManager = serviceRule.getTableManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getRow(network.addNode()).set("attName", "apple banana");
+		network.getRow(network.addNode()).set("attName", "banana \"cherry\"");
+		
+		CreateCloudCommandTask task = new CreateCloudCommandTask(applicationManager, manager, mock(UIManager.class), tableManager, tableFactory);
+		task.cloudName = "json";
+		task.wordColumnName = "attName";
+		task.create = false;
+		task.fields = "words, counts";
+		task.limit = 1;
+		NodeList nodeList = new NodeList();
+		nodeList.setNetwork(network);
+		nodeList.setValue(network.getNodeList());
+		task.nodeList = nodeList;
+		task.run(mock(TaskMonitor.class));
+		
+		String json = task.getResults(String.class);
+		assertTrue(json, json.startsWith("{\"name\":\"json\",\"size\":1,\"preview\":false,\"words\":[\""));
+		assertTrue(json, json.endsWith("],\"counts\":[2]}") || json.endsWith("],\"counts\":[1]}"));
+		assertFalse(json, json.contains("fontSizes"));
+		
+		// the Map result is not affected by the fields and the limit
+		Map<?,?> results = task.getResults(Map.class);
+		assertEquals(3, ((List<?>) results.get("words")).size());
+		
+		task.fields = "words,nope";
+		try {
+			task.run(mock(TaskMonitor.class));
+			fail();
+		} catch(IllegalArgumentException e) {}
+	}
+	
+	
+	@Test
+	public void testJsonLimitKeepsLargestWords() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyNetwork network = serviceRule.getCyApplicationManager().getCurrentNetwork();
+		CloudParameters cloud = manager.addNetwork(network).getNullCloud();
+		
+		// in layout order the small word of the first cluster comes first
+		CloudInfo cloudInfo = CloudInfo.createRestored(cloud, 1.0, 2.0);
+		cloudInfo.addRestoredWord("small", 10, null, 0, 0, 1);
+		cloudInfo.addRestoredWord("big",   30, null, 1, 1, 3);
+		cloudInfo.addRestoredWord("mid",   20, null, 1, 2, 2);
+		
+		Set<CloudJsonWriter.Field> fields = CloudJsonWriter.parseFields("words,fontSizes");
+		StringBuilder json = new StringBuilder();
+		new CloudJsonWriter(fields, 2).write(json, "c", cloudInfo);
+		assertEquals("{\"name\":\"c\",\"size\":2,\"preview\":false,\"words\":[\"big\",\"mid\"],\"fontSizes\":[30,20]}", json.toString());
+		
+		// without a limit, or with a limit that keeps every word, the words are in layout order
+		json = new StringBuilder();
+		new CloudJsonWriter(fields, 3).write(json, "c", cloudInfo);
+		assertEquals("{\"name\":\"c\",\"size\":3,\"preview\":false,\"words\":[\"small\",\"big\",\"mid\"],\"fontSizes\":[10,30,20]}", json.toString());
+		
+		// the list of the cloud is not reordered
+		assertEquals("small", cloudInfo.getCloudWordInfoList().get(0).getWord());
+	}
+	
+	
+	@Test
+	public void testExportWordStatsCommand() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		CyNode node1 = network.addNode();
+		CyNode node2 = network.addNode();
+		network.getRow(node1).set("attName", "apple banana");
+		network.getRow(node2).set("attName", "banana cherry");
+		
+		NetworkParameters networkParameters = manager.addNetwork(network);
+		CloudBuilder builder = networkParameters.getCloudBuilder().setAttributes(Arrays.asList("attName"));
+		builder.setName("cloud 1").setNodes(network.getNodeList()).build();
+		builder.setName("cloud 2").setNodes(Arrays.asList(node1)).build();
+		
+		File file = new File(tempFolder.getRoot(), "stats.wcstats");
+		ExportWordStatsCommandTask task = new ExportWordStatsCommandTask(applicationManager, manager);
+		task.file = file.getAbsolutePath();
+		task.run(mock(TaskMonitor.class));
+		
+		Map<?,?> results = task.getResults(Map.class);
+		assertEquals(2, results.get("clouds"));
+		assertEquals(3, results.get("words"));
+		
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			assertEquals(WordStatsWriter.MAGIC, in.readInt());
+			assertEquals(WordStatsWriter.VERSION, in.readInt());
+			readString(in); // network name
+			
+			// the first cloud adds all the words to the vocabulary
+			assertEquals(WordStatsWriter.CLOUD, in.readInt());
+			assertEquals("cloud 1", readString(in));
+			assertEquals(3, in.readInt());
+			List<String> vocabulary = Arrays.asList(readString(in), readString(in), readString(in));
+			assertEquals(Arrays.asList("apple", "banana", "cherry"), sorted(vocabulary));
+			
+			assertEquals(3, in.readInt());
+			int[] ids = readInts(in, 3);
+			int[] selected = readInts(in, 3);
+			int[] networkCounts = readInts(in, 3);
+			for(int i = 0; i < 3; i++) {
+				int expected = "banana".equals(vocabulary.get(ids[i])) ? 2 : 1;
+				assertEquals(expected, selected[i]);
+				assertEquals(expected, networkCounts[i]);
+			}
+			for(int i = 0; i < 3; i++)
+				assertTrue(in.readDouble() > 0);
+			in.skipBytes(3 * 4 * 2); // font sizes and clusters
+			
+			assertEquals(2, in.readInt()); // apple banana, banana cherry
+			in.skipBytes(2 * (4 * 4 + 8 * 2));
+			
+			// the second cloud doesn't have new words
+			assertEquals(WordStatsWriter.CLOUD, in.readInt());
+			assertEquals("cloud 2", readString(in));
+			assertEquals(0, in.readInt());
+			assertEquals(2, in.readInt());
+			in.skipBytes(2 * (4 * 5 + 8));
+			assertEquals(1, in.readInt());
+			in.skipBytes(4 * 4 + 8 * 2);
+			
+			assertEquals(WordStatsWriter.END, in.readInt());
+			assertEquals(-1, in.read());
+		}
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static int[] readInts(DataInputStream in, int length) throws IOException {
+		int[] values = new int[length];
+		for(int i = 0; i < length; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBatchCommand() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getDefaultNodeTable().createColumn("group", String.class, false);
+		CyNode node1 = network.addNode();
+		CyNode node2 = network.addNode();
+		CyNode node3 = network.addNode();
+		network.getRow(node1).set("attName", "apple banana");
+		network.getRow(node1).set("group", "A");
+		network.getRow(node2).set("attName", "banana cherry");
+		network.getRow(node2).set("group", "A");
+		network.getRow(node3).set("attName", "cherry date");
+		network.getRow(node3).set("group", "B");
+		
+		BatchCloudCommandTask task = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+		task.wordColumnName = "attName";
+		task.groupColumnName = "group";
+		task.nodeSets = "third=" + node3.getSUID() + ";first=" + node1.getSUID();
+		task.run(mock(TaskMonitor.class));
+		
+		Map<String, Object> results = task.getResults(Map.class);
+		assertEquals(4, results.get("size"));
+		Map<String, Object> clouds = (Map<String, Object>) results.get("clouds");
+		assertEquals(Arrays.asList("A", "B", "third", "first"), new ArrayList<>(clouds.keySet()));
+		
+		// each cloud is the same as a cloud of the same nodes calculated on its own
+		NetworkParameters networkParams = manager.getNetworkParameters(network);
+		CloudBuilder builder = networkParams.getCloudBuilder().setAttributes(Arrays.asList("attName"));
+		assertEquals(
+			sorted(builder.setNodes(Arrays.asList(node1, node2)).buildFakeCloud().calculateCloud().getCloudWordInfoList()), 
+			sorted((List<String>) ((Map<String, Object>) clouds.get("A")).get("words")));
+		assertEquals(
+			sorted(builder.setNodes(Arrays.asList(node3)).buildFakeCloud().calculateCloud().getCloudWordInfoList()), 
+			sorted((List<String>) ((Map<String, Object>) clouds.get("third")).get("words")));
+		assertEquals(Arrays.asList("apple", "banana"), sorted((List<String>) ((Map<String, Object>) clouds.get("first")).get("words")));
+		assertEquals(0, networkParams.getClouds().size());
+		
+		task = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+		task.wordColumnName = "attName";
+		task.groupColumnName = "group";
+		task.create = true;
+		task.cloudNamePrefix = "cluster ";
+		task.run(mock(TaskMonitor.class));
+		
+		assertEquals(2, networkParams.getClouds().size());
+		CloudParameters cloudA = networkParams.getCloud("cluster A");
+		assertNotNull(cloudA);
+		assertEquals("group", cloudA.getClusterColumnName());
+		assertTrue(cloudA.isAlreadyCalculated());
+		assertEquals(sorted((List<String>) ((Map<String, Object>) clouds.get("A")).get("words")),
+			sorted(cloudA.getCalculatedCloud().getCloudWordInfoList()));
+		
+		// the clouds exist now
+		try {
+			task.run(mock(TaskMonitor.class));
+			fail();
+		} catch(IllegalArgumentException e) {}
+		
+		task = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+		task.wordColumnName = "attName";
+		task.nodeSets = "x=" + node1.getSUID() + ";x=" + node2.getSUID();
+		try {
+			task.run(mock(TaskMonitor.class));
+			fail();
+		} catch(IllegalArgumentException e) {}
+		
+		task.nodeSets = "x=123456789";
+		try {
+			task.run(mock(TaskMonitor.class));
+			fail();
+		} catch(IllegalArgumentException e) {}
+	}
+	
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testAsyncJobs() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getDefaultNodeTable().createColumn("group", String.class, false);
+		CyNode node1 = network.addNode();
+		CyNode node2 = network.addNode();
+		network.getRow(node1).set("attName", "apple banana");
+		network.getRow(node1).set("group", "A");
+		network.getRow(node2).set("attName", "banana cherry");
+		network.getRow(node2).set("group", "B");
+		
+		CloudJobManager jobManager = new CloudJobManager(2, 1);
+		try {
+			BatchCloudCommandTask batch = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+			SubmitJobCommandTask submit = new SubmitJobCommandTask(applicationManager, jobManager, "batch", batch);
+			batch.wordColumnName = "attName";
+			batch.groupColumnName = "group";
+			submit.run(mock(TaskMonitor.class));
+			String jobId = (String) submit.getResults(Map.class).get("jobId");
+			assertNotNull(jobId);
+			
+			CloudJobCommandTask results = new CloudJobCommandTask(jobManager, CloudJobCommandTask.Action.RESULTS);
+			results.jobId = jobId;
+			results.wait = true;
+			results.run(mock(TaskMonitor.class));
+			Map<String, Object> clouds = (Map<String, Object>) results.getResults(Map.class).get("clouds");
+			assertEquals(Arrays.asList("A", "B"), new ArrayList<>(clouds.keySet()));
+			
+			CloudJobCommandTask status = new CloudJobCommandTask(jobManager, CloudJobCommandTask.Action.STATUS);
+			status.jobId = jobId;
+			status.run(mock(TaskMonitor.class));
+			assertEquals("DONE", status.getResults(Map.class).get("state"));
+			assertEquals(1.0, status.getResults(Map.class).get("progress"));
+			
+			// a failed job keeps its error
+			batch = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+			batch.wordColumnName = "attName";
+			submit = new SubmitJobCommandTask(applicationManager, jobManager, "batch", batch);
+			submit.run(mock(TaskMonitor.class));
+			String failedId = (String) submit.getResults(Map.class).get("jobId");
+			jobManager.getJob(failedId).await();
+			assertEquals(CloudJobManager.State.FAILED, jobManager.getJob(failedId).getState());
+			results = new CloudJobCommandTask(jobManager, CloudJobCommandTask.Action.RESULTS);
+			results.jobId = failedId;
+			try {
+				results.run(mock(TaskMonitor.class));
+				fail();
+			} catch(IllegalArgumentException e) {}
+			
+			// only one finished job is kept
+			assertNull(jobManager.getJob(jobId));
+			status = new CloudJobCommandTask(jobManager, CloudJobCommandTask.Action.STATUS);
+			status.jobId = jobId;
+			try {
+				status.run(mock(TaskMonitor.class));
+				fail();
+			} catch(IllegalArgumentException e) {}
+		} finally {
+			jobManager.dispose();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testAsyncJobUsesSubmitNetwork() throws Exception {
+		CloudModelManager manager = serviceRule.getCloudModelManager();
+		CyApplicationManager applicationManager = serviceRule.getCyApplicationManager();
+		
+		CyNetwork network = applicationManager.getCurrentNetwork();
+		network.getDefaultNodeTable().createColumn("attName", String.class, false);
+		network.getDefaultNodeTable().createColumn("group", String.class, false);
+		CyNode node = network.addNode();
+		network.getRow(node).set("attName", "apple banana");
+		network.getRow(node).set("group", "A");
+		
+		// the only thread is kept busy so the batch job can't start before the current network changes
+		final CountDownLatch latch = new CountDownLatch(1);
+		CloudJobManager jobManager = new CloudJobManager(1, 2);
+		try {
+			jobManager.submit("block", new ObservableTask() {
+				public void run(TaskMonitor monitor) throws Exception {
+					latch.await();
+				}
+				public void cancel() {
+				}
+				public <R> R getResults(Class<? extends R> type) {
+					return null;
+				}
+			});
+			
+			BatchCloudCommandTask batch = new BatchCloudCommandTask(applicationManager, manager, mock(UIManager.class));
+			batch.wordColumnName = "attName";
+			batch.groupColumnName = "group";
+			SubmitJobCommandTask submit = new SubmitJobCommandTask(applicationManager, jobManager, "batch", batch);
+			submit.run(mock(TaskMonitor.class));
+			String jobId = (String) submit.getResults(Map.class).get("jobId");
+			
+			// the new current network doesn't have the columns, the job would fail if it used it
+			CyNetwork otherNetwork = serviceRule.getNetworkTestSupport().getNetwork();
+			when(applicationManager.getCurrentNetwork()).thenReturn(otherNetwork);
+			latch.countDown();
+			
+			jobManager.getJob(jobId).await();
+			assertEquals(CloudJobManager.State.DONE, jobManager.getJob(jobId).getState());
+			Map<String, Object> clouds = (Map<String, Object>) jobManager.getJob(jobId).getResults().get("clouds");
+			assertEquals(Arrays.asList("A"), new ArrayList<>(clouds.keySet()));
+			assertNull(manager.getNetworkParameters(otherNetwork));
+		} finally {
+			latch.countDown();
+			jobManager.dispose();
+		}
+	}
+	
+	
+	private static List<String> sorted(List<?> words) {
+		List<String> result = new ArrayList<>();
+		for(Object word : words) {
+			result.add(word instanceof CloudWordInfo ? ((CloudWordInfo) word).getWord() : (String) word);
+		}
+		Collections.sort(result);
+		return result;
+	}
+	
 }